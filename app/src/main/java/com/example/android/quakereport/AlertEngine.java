@@ -0,0 +1,330 @@
+package com.example.android.quakereport;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Watches the earthquakes coming in from syncs and the live feed for {@link AlertRule}s.
+ *
+ * Every earthquake is evaluated once, when it is first ingested, instead of scanning the whole
+ * list again after every fetch. The engine remembers the ids of the earthquakes it has seen, so
+ * earthquakes fetched again are skipped, and updated ones are only checked against the plain
+ * rules again. An alert is raised at most once per rule and earthquake.
+ *
+ * Windowed rules keep the times of the last matching earthquakes of every region in a ring
+ * buffer as long as the rule's count, so a new one is checked against the window in constant
+ * time. After a window alerts it starts empty again, so the next alert needs as many new
+ * earthquakes.
+ */
+public class AlertEngine {
+
+    private static final String LOG_TAG = AlertEngine.class.getSimpleName();
+
+    /**
+     * Interface definition for a callback to be invoked when a rule alerts. Called on the thread
+     * the earthquakes were ingested on.
+     */
+    public interface OnAlertListener {
+        void onAlert(Alert alert);
+    }
+
+    /**
+     * A rule that was met, and the earthquakes that met it.
+     */
+    public static final class Alert {
+        private final String mRuleName;
+        private final String mRegion;
+        private final List<String> mEarthquakeIds;
+        private final long mTimeInMilliseconds;
+
+        Alert(String ruleName, String region, List<String> earthquakeIds, long timeInMilliseconds) {
+            mRuleName = ruleName;
+            mRegion = region;
+            mEarthquakeIds = Collections.unmodifiableList(earthquakeIds);
+            mTimeInMilliseconds = timeInMilliseconds;
+        }
+
+        public String getRuleName() {
+            return mRuleName;
+        }
+
+        /**
+         * Returns the region the earthquakes of a windowed rule were counted in, or null for a
+         * plain rule.
+         */
+        public String getRegion() {
+            return mRegion;
+        }
+
+        /**
+         * Returns the ids of the earthquakes that met the rule, oldest first.
+         */
+        public List<String> getEarthquakeIds() {
+            return mEarthquakeIds;
+        }
+
+        /**
+         * Returns the time of the earthquake that completed the rule.
+         */
+        public long getTimeInMilliseconds() {
+            return mTimeInMilliseconds;
+        }
+    }
+
+    /** Default number of earthquake ids and alerts remembered to skip ones already handled */
+    public static final int DEFAULT_MAX_REMEMBERED = 10000;
+
+    private static AlertEngine sInstance;
+
+    private final List<WatchedRule> mRules = new ArrayList<>();
+    private final List<OnAlertListener> mListeners = new CopyOnWriteArrayList<>();
+
+    /** Update time of every earthquake seen, by id, eldest first */
+    private final LinkedHashMap<String, Long> mSeen;
+
+    /** Rule and earthquake of every alert raised, eldest first */
+    private final LinkedHashMap<String, Boolean> mAlerted;
+
+    /**
+     * Returns the engine shared by the whole app.
+     */
+    public static synchronized AlertEngine getInstance() {
+        if (sInstance == null) {
+            sInstance = new AlertEngine(DEFAULT_MAX_REMEMBERED);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Constructs a new {@link AlertEngine}.
+     *
+     * @param maxRemembered is the number of earthquake ids, and of alerts, remembered to skip
+     *                      the ones already handled. It should exceed the size of a fetch.
+     */
+    public AlertEngine(final int maxRemembered) {
+        if (maxRemembered <= 0) {
+            throw new IllegalArgumentException("Must remember at least one earthquake");
+        }
+        mSeen = new LinkedHashMap<String, Long>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > maxRemembered;
+            }
+        };
+        mAlerted = new LinkedHashMap<String, Boolean>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > maxRemembered;
+            }
+        };
+    }
+
+    /**
+     * Starts watching for the rule, replacing any rule with the same name. Only earthquakes
+     * ingested from now on are checked against it.
+     */
+    public synchronized void addRule(AlertRule rule) {
+        removeRule(rule.getName());
+        mRules.add(new WatchedRule(rule));
+    }
+
+    /**
+     * Stops watching for the rule with the given name.
+     */
+    public synchronized void removeRule(String name) {
+        Iterator<WatchedRule> rules = mRules.iterator();
+        while (rules.hasNext()) {
+            if (rules.next().rule.getName().equals(name)) {
+                rules.remove();
+            }
+        }
+    }
+
+    /**
+     * Adds a listener told about every alert. Adding a listener twice has no effect.
+     */
+    public void addListener(OnAlertListener listener) {
+        if (!mListeners.contains(listener)) {
+            mListeners.add(listener);
+        }
+    }
+
+    public void removeListener(OnAlertListener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Checks the earthquakes not seen before, and the ones updated since, against the rules.
+     * Tells the listeners about every alert raised and returns them, in the order of the
+     * earthquakes' times.
+     */
+    public List<Alert> ingest(List<Earthquake> earthquakes) {
+        List<Alert> alerts = new ArrayList<>();
+        synchronized (this) {
+            if (mRules.isEmpty()) {
+                return alerts;
+            }
+            List<Earthquake> newEarthquakes = new ArrayList<>();
+            List<Earthquake> updatedEarthquakes = new ArrayList<>();
+            for (Earthquake earthquake : earthquakes) {
+                if (earthquake.isDeleted()) {
+                    continue;
+                }
+                Long seen = mSeen.get(earthquake.getId());
+                if (seen == null) {
+                    newEarthquakes.add(earthquake);
+                } else if (seen < earthquake.getUpdatedInMilliseconds()) {
+                    updatedEarthquakes.add(earthquake);
+                } else {
+                    continue;
+                }
+                mSeen.put(earthquake.getId(), earthquake.getUpdatedInMilliseconds());
+            }
+
+            // USGS sends the newest first, but windows are filled oldest first
+            Comparator<Earthquake> byTime = QueryUtils.comparatorForOrderBy("time-asc");
+            Collections.sort(newEarthquakes, byTime);
+            for (Earthquake earthquake : newEarthquakes) {
+                for (WatchedRule rule : mRules) {
+                    evaluate(rule, earthquake, true, alerts);
+                }
+            }
+            // An updated magnitude or place may meet a plain rule now, but the earthquake was
+            // counted in the windows already
+            for (Earthquake earthquake : updatedEarthquakes) {
+                for (WatchedRule rule : mRules) {
+                    evaluate(rule, earthquake, false, alerts);
+                }
+            }
+        }
+
+        for (Alert alert : alerts) {
+            if (Log.isLoggable(LOG_TAG, Log.VERBOSE)) {
+                Log.v(LOG_TAG, "*************Alert " + alert.getRuleName() + " for " + alert.getEarthquakeIds());
+            }
+            for (OnAlertListener listener : mListeners) {
+                listener.onAlert(alert);
+            }
+        }
+        return alerts;
+    }
+
+    private void evaluate(WatchedRule watched, Earthquake earthquake, boolean isNew, List<Alert> alerts) {
+        AlertRule rule = watched.rule;
+        if (!rule.isWindowed()) {
+            if (rule.getCondition().matches(earthquake)
+                    && mAlerted.put(rule.getName() + '\u0000' + earthquake.getId(), Boolean.TRUE) == null) {
+                alerts.add(new Alert(rule.getName(), null,
+                        Collections.singletonList(earthquake.getId()), earthquake.getTimeInMilliseconds()));
+            }
+            return;
+        }
+        if (!isNew || !rule.getCondition().matches(earthquake)) {
+            return;
+        }
+
+        String region = EarthquakeAggregator.getRegion(earthquake.getLocation());
+        Window window = watched.windows.get(region);
+        if (window == null) {
+            window = new Window(rule.getMinEvents());
+            watched.windows.put(region, window);
+        }
+        window.add(earthquake.getTimeInMilliseconds(), earthquake.getId());
+        if (window.isFull() && window.getSpan() <= rule.getWindowMillis()) {
+            alerts.add(new Alert(rule.getName(), region, window.getIds(),
+                    earthquake.getTimeInMilliseconds()));
+            window.clear();
+        }
+    }
+
+    /**
+     * A rule and the windows of its regions.
+     */
+    private static final class WatchedRule {
+        final AlertRule rule;
+        final Map<String, Window> windows = new HashMap<>();
+
+        WatchedRule(AlertRule rule) {
+            this.rule = rule;
+        }
+    }
+
+    /**
+     * The last matching earthquakes of a region, at most as many as the rule counts, in a ring
+     * buffer kept in time order. An earthquake arriving late is put in its place, unless the
+     * buffer is full of later ones.
+     */
+    private static final class Window {
+        private final long[] mTimes;
+        private final String[] mIds;
+        private int mStart;
+        private int mSize;
+
+        Window(int capacity) {
+            mTimes = new long[capacity];
+            mIds = new String[capacity];
+        }
+
+        void add(long time, String id) {
+            if (mSize == mTimes.length) {
+                if (time < mTimes[mStart]) {
+                    return;
+                }
+                // Drop the oldest to make room
+                mIds[mStart] = null;
+                mStart = (mStart + 1) % mTimes.length;
+                mSize--;
+            }
+            // Shift later earthquakes up by one, which is nothing when they arrive in order
+            int position = mSize;
+            while (position > 0 && mTimes[index(position - 1)] > time) {
+                mTimes[index(position)] = mTimes[index(position - 1)];
+                mIds[index(position)] = mIds[index(position - 1)];
+                position--;
+            }
+            mTimes[index(position)] = time;
+            mIds[index(position)] = id;
+            mSize++;
+        }
+
+        boolean isFull() {
+            return mSize == mTimes.length;
+        }
+
+        /**
+         * Returns the time between the first and the last earthquake.
+         */
+        long getSpan() {
+            return mSize == 0 ? 0L : mTimes[index(mSize - 1)] - mTimes[mStart];
+        }
+
+        List<String> getIds() {
+            List<String> ids = new ArrayList<>(mSize);
+            for (int i = 0; i < mSize; i++) {
+                ids.add(mIds[index(i)]);
+            }
+            return ids;
+        }
+
+        void clear() {
+            for (int i = 0; i < mIds.length; i++) {
+                mIds[i] = null;
+            }
+            mStart = 0;
+            mSize = 0;
+        }
+
+        private int index(int position) {
+            return (mStart + position) % mTimes.length;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.example.android.quakereport;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A condition the {@link AlertEngine} watches incoming earthquakes for.
+ *
+ * A plain rule alerts once for every earthquake matching its condition, such as "M6+ within
+ * 500km of a site". A windowed rule alerts when enough matching earthquakes fall in one region
+ * within a time window, such as "more than 5 M4+ in one region within an hour".
+ *
+ * Conditions are built from the factory methods below, which do what work they can up front:
+ * {@link #allOf(Condition...)} checks its cheapest parts first, and {@link #withinKm} rejects
+ * far away earthquakes on their latitude before computing a distance.
+ */
+public class AlertRule {
+
+    /**
+     * Decides whether an earthquake counts for a rule. Called once per earthquake, on the
+     * thread the earthquakes are ingested on.
+     */
+    public interface Condition {
+        boolean matches(Earthquake earthquake);
+    }
+
+    /** Relative costs of the built-in conditions, cheapest first */
+    private static final int COST_MAGNITUDE = 0;
+    private static final int COST_REGION = 1;
+    private static final int COST_DISTANCE = 2;
+    private static final int COST_UNKNOWN = 3;
+
+    private static final double KM_PER_DEGREE = Math.toRadians(1.0) * GeoIndex.EARTH_RADIUS_KM;
+
+    private final String mName;
+    private final Condition mCondition;
+    private final int mMinEvents;
+    private final long mWindowMillis;
+
+    /**
+     * Constructs a rule that alerts for every earthquake matching the condition.
+     *
+     * @param name identifies the rule, and its alerts
+     */
+    public AlertRule(String name, Condition condition) {
+        this(name, condition, 1, 0L);
+    }
+
+    /**
+     * Constructs a rule that alerts when at least minEvents earthquakes matching the condition
+     * happen in one region within the window.
+     *
+     * @param name identifies the rule, and its alerts
+     * @param minEvents is the number of earthquakes that must fall in the window
+     * @param windowMillis is the longest time between the first and the last of them
+     */
+    public AlertRule(String name, Condition condition, int minEvents, long windowMillis) {
+        if (name == null || condition == null || minEvents < 1 || windowMillis < 0) {
+            throw new IllegalArgumentException("Rule needs a name, a condition and a positive count");
+        }
+        mName = name;
+        mCondition = condition;
+        mMinEvents = minEvents;
+        mWindowMillis = windowMillis;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public Condition getCondition() {
+        return mCondition;
+    }
+
+    public int getMinEvents() {
+        return mMinEvents;
+    }
+
+    public long getWindowMillis() {
+        return mWindowMillis;
+    }
+
+    /**
+     * Returns true if the rule counts earthquakes in a time window instead of alerting for each.
+     */
+    public boolean isWindowed() {
+        return mMinEvents > 1;
+    }
+
+    /**
+     * Returns a condition matching earthquakes of at least the magnitude.
+     */
+    public static Condition minMagnitude(final double magnitude) {
+        return new BuiltInCondition(COST_MAGNITUDE) {
+            @Override
+            public boolean matches(Earthquake earthquake) {
+                // Unknown magnitudes compare false, so they never match
+                return earthquake.getMagnitude() >= magnitude;
+            }
+        };
+    }
+
+    /**
+     * Returns a condition matching earthquakes in the region, as returned by
+     * {@link EarthquakeAggregator#getRegion(String)}, ignoring case.
+     */
+    public static Condition inRegion(final String region) {
+        return new BuiltInCondition(COST_REGION) {
+            @Override
+            public boolean matches(Earthquake earthquake) {
+                return region.equalsIgnoreCase(EarthquakeAggregator.getRegion(earthquake.getLocation()));
+            }
+        };
+    }
+
+    /**
+     * Returns a condition matching earthquakes whose epicenter is at most the distance from the site.
+     */
+    public static Condition withinKm(final double latitude, final double longitude, final double radiusKm) {
+        final double maxLatitudeDelta = radiusKm / KM_PER_DEGREE;
+        return new BuiltInCondition(COST_DISTANCE) {
+            @Override
+            public boolean matches(Earthquake earthquake) {
+                if (!earthquake.hasCoordinates()
+                        || Math.abs(earthquake.getLatitude() - latitude) > maxLatitudeDelta) {
+                    return false;
+                }
+                return GeoIndex.distanceKm(latitude, longitude, earthquake.getLatitude(),
+                        earthquake.getLongitude()) <= radiusKm;
+            }
+        };
+    }
+
+    /**
+     * Returns a condition matching earthquakes that match all the conditions. The cheapest are
+     * checked first, so most earthquakes are turned down before a distance is computed.
+     */
+    public static Condition allOf(Condition... conditions) {
+        final Condition[] parts = conditions.clone();
+        // Arrays.sort on objects is stable, so conditions of the same cost keep their order
+        Arrays.sort(parts, new Comparator<Condition>() {
+            @Override
+            public int compare(Condition a, Condition b) {
+                return costOf(a) - costOf(b);
+            }
+        });
+        return new BuiltInCondition(parts.length == 0 ? COST_MAGNITUDE : costOf(parts[parts.length - 1])) {
+            @Override
+            public boolean matches(Earthquake earthquake) {
+                for (Condition part : parts) {
+                    if (!part.matches(earthquake)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        };
+    }
+
+    private static int costOf(Condition condition) {
+        return condition instanceof BuiltInCondition ? ((BuiltInCondition) condition).mCost : COST_UNKNOWN;
+    }
+
+    /**
+     * A condition made by one of the factory methods, whose cost is known.
+     */
+    private abstract static class BuiltInCondition implements Condition {
+        private final int mCost;
+
+        BuiltInCondition(int cost) {
+            mCost = cost;
+        }
+    }
+}
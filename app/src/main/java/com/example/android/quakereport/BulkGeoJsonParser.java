@@ -0,0 +1,335 @@
+package com.example.android.quakereport;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.SequenceInputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Parses large GeoJSON responses on all cores, for bulk imports of many thousands of features.
+ *
+ * The whole response is held in memory. One cheap scan over its bytes finds where every feature
+ * in the "features" array starts and ends, without decoding anything. The features are then cut
+ * into contiguous chunks, which are parsed by {@link GeoJsonParser} in parallel, and the results
+ * are handed on in their original order. The calling thread parses the first chunk itself.
+ *
+ * ForkJoinPool only arrived with API level 21, so the chunks run on a plain fixed thread pool.
+ */
+public final class BulkGeoJsonParser {
+
+    /**
+     * Number of features from which a response is parsed in parallel when there is more than
+     * one core. Confined to one thread the parallel path costs 5 to 35% more than streaming, as
+     * the whole response is read and scanned first, so spread over two cores or more it wins
+     * once chunks are big enough to outweigh handing them out. BulkGeoJsonParserBenchmark in the
+     * tests times streaming against the parallel path on 1 to N threads to recheck this.
+     */
+    public static final int MIN_FEATURES = 10000;
+
+    /** Number of bytes at the start of a response searched for the feature count */
+    public static final int HEAD_SIZE = 4096;
+
+    /** Chunks per thread, so a thread that finishes early can pick up another chunk */
+    static final int CHUNKS_PER_THREAD = 4;
+
+    /** Number of bytes the boundary scan passes between two checks for cancellation */
+    private static final int SCAN_CHECK_BYTES = 256 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final byte[] FEATURES_NAME = "features".getBytes(UTF_8);
+    private static final byte[] COUNT_NAME = "\"count\"".getBytes(UTF_8);
+    private static final byte[] ARRAY_START = {'['};
+    private static final byte[] ARRAY_END = {']'};
+
+    private static ExecutorService sExecutor;
+
+    /**
+     * Create a private constructor because no one should ever create a {@link BulkGeoJsonParser} object.
+     */
+    private BulkGeoJsonParser() {
+    }
+
+    /**
+     * Returns true if a response of the given number of features is parsed faster in parallel,
+     * which takes both enough features and more than one core.
+     */
+    public static boolean isWorthParsingInParallel(int featureCount) {
+        return featureCount >= MIN_FEATURES && Runtime.getRuntime().availableProcessors() > 1;
+    }
+
+    /**
+     * Returns the feature count USGS puts in the metadata at the start of a response, or -1 if
+     * the given head of the response does not contain one.
+     */
+    public static int peekFeatureCount(byte[] head, int length) {
+        int index = indexOf(head, length, COUNT_NAME, 0);
+        if (index < 0) {
+            return -1;
+        }
+        int i = index + COUNT_NAME.length;
+        while (i < length && (head[i] == ' ' || head[i] == ':' || head[i] == '\n' || head[i] == '\r' || head[i] == '\t')) {
+            i++;
+        }
+        long count = 0;
+        int digits = 0;
+        while (i < length && head[i] >= '0' && head[i] <= '9' && digits < 10) {
+            count = count * 10 + (head[i++] - '0');
+            digits++;
+        }
+        // A number cut off by the end of the head is not the whole count
+        return digits == 0 || i == length || count > Integer.MAX_VALUE ? -1 : (int) count;
+    }
+
+    /**
+     * Parses the response on the shared pool, which has a thread per core, handing every
+     * {@link Earthquake} to the listener in the order of the response.
+     */
+    public static void parse(byte[] json, GeoJsonParser.OnEarthquakeParsedListener listener)
+            throws IOException {
+        parse(json, json.length, listener);
+    }
+
+    /**
+     * Parses the response in the first length bytes of the array on the shared pool, so a
+     * buffer that was read into needs no copy of its own size.
+     */
+    public static void parse(byte[] json, int length, GeoJsonParser.OnEarthquakeParsedListener listener)
+            throws IOException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        parse(json, length, getExecutor(), threads * CHUNKS_PER_THREAD, listener);
+    }
+
+    /**
+     * Parses the response in the first length bytes of the array in the given number of chunks
+     * on the executor, handing every {@link Earthquake} to the listener in the order of the
+     * response. If a chunk cannot be parsed, the earthquakes of the chunks before it are handed
+     * on and an IOException thrown, like the streaming parser does.
+     */
+    public static void parse(final byte[] json, int length, ExecutorService executor, int chunkCount,
+                             GeoJsonParser.OnEarthquakeParsedListener listener) throws IOException {
+        int[] boundaries = scanFeatures(json, length);
+        if (boundaries == null) {
+            // Not laid out as expected, the streaming parser copes with anything valid
+            GeoJsonParser.parse(new InputStreamReader(new ByteArrayInputStream(json, 0, length), UTF_8),
+                    listener);
+            return;
+        }
+
+        int featureCount = boundaries.length / 2;
+        chunkCount = Math.max(1, Math.min(chunkCount, featureCount));
+        List<Future<List<Earthquake>>> chunks = new ArrayList<>(chunkCount - 1);
+        for (int chunk = 1; chunk < chunkCount; chunk++) {
+            final int start = boundaries[2 * (featureCount * chunk / chunkCount)];
+            final int end = boundaries[2 * (featureCount * (chunk + 1) / chunkCount - 1) + 1];
+            chunks.add(executor.submit(new Callable<List<Earthquake>>() {
+                @Override
+                public List<Earthquake> call() throws IOException {
+                    return parseChunk(json, start, end);
+                }
+            }));
+        }
+
+        try {
+            List<Earthquake> first = parseChunk(json, boundaries.length == 0 ? 0 : boundaries[0],
+                    boundaries.length == 0 ? 0 : boundaries[2 * (featureCount / chunkCount - 1) + 1]);
+            deliver(first, listener);
+            for (Future<List<Earthquake>> chunk : chunks) {
+                deliver(chunk.get(), listener);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Canceled");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            // Chunks still running when parsing failed or was cancelled stop at their next feature
+            for (Future<List<Earthquake>> chunk : chunks) {
+                chunk.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Finds every feature in the top-level "features" array. Returns the byte offsets of the
+     * first and last character of each feature, in pairs, or null if the response has no
+     * such array or ends before its outermost object does, so a truncated response is left to
+     * the streaming parser to reject.
+     */
+    static int[] scanFeatures(byte[] json, int length) throws InterruptedIOException {
+        int depth = 0;
+        int arrayDepth = -1;
+        int keyStart = -1;
+        int keyEnd = -1;
+        int featureStart = -1;
+        int[] boundaries = new int[64];
+        int count = 0;
+        int[] features = null;
+
+        int i = 0;
+        int nextCheck = 0;
+        while (i < length) {
+            if (i >= nextCheck) {
+                LoadExecutor.throwIfCanceled();
+                nextCheck = i + SCAN_CHECK_BYTES;
+            }
+            byte b = json[i];
+            if (b == '"') {
+                int stringStart = i + 1;
+                i = skipString(json, stringStart, length);
+                if (i < 0) {
+                    return null;
+                }
+                if (depth == 1) {
+                    // The last string before an array is the name of its member
+                    keyStart = stringStart;
+                    keyEnd = i;
+                }
+                i++;
+                continue;
+            }
+            switch (b) {
+                case '{':
+                    if (depth == arrayDepth) {
+                        featureStart = i;
+                    }
+                    depth++;
+                    break;
+                case '[':
+                    if (depth == 1 && arrayDepth < 0 && isFeaturesKey(json, keyStart, keyEnd)) {
+                        arrayDepth = depth + 1;
+                    }
+                    depth++;
+                    break;
+                case '}':
+                    depth--;
+                    if (depth == arrayDepth && featureStart >= 0) {
+                        if (count + 2 > boundaries.length) {
+                            boundaries = Arrays.copyOf(boundaries, boundaries.length * 2);
+                        }
+                        boundaries[count++] = featureStart;
+                        boundaries[count++] = i;
+                        featureStart = -1;
+                    }
+                    break;
+                case ']':
+                    depth--;
+                    if (depth + 1 == arrayDepth && features == null) {
+                        features = Arrays.copyOf(boundaries, count);
+                    }
+                    break;
+                default:
+                    break;
+            }
+            i++;
+        }
+        return depth == 0 ? features : null;
+    }
+
+    /**
+     * Returns the index of the quote closing the string starting at the given index, or -1 if
+     * the string does not end.
+     */
+    private static int skipString(byte[] json, int i, int length) {
+        while (i < length) {
+            byte b = json[i];
+            if (b == '\\') {
+                i += 2;
+            } else if (b == '"') {
+                return i;
+            } else {
+                i++;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isFeaturesKey(byte[] json, int start, int end) {
+        if (start < 0 || end - start != FEATURES_NAME.length) {
+            return false;
+        }
+        for (int i = 0; i < FEATURES_NAME.length; i++) {
+            if (json[start + i] != FEATURES_NAME[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static List<Earthquake> parseChunk(byte[] json, int start, int end) throws IOException {
+        final List<Earthquake> earthquakes = new ArrayList<>();
+        if (end <= start) {
+            return earthquakes;
+        }
+        // The features of a chunk are separated by commas already, so brackets around them
+        // make a JSON array without copying any bytes
+        InputStream chunk = new SequenceInputStream(new ByteArrayInputStream(ARRAY_START),
+                new SequenceInputStream(new ByteArrayInputStream(json, start, end - start + 1),
+                        new ByteArrayInputStream(ARRAY_END)));
+        GeoJsonParser.parseFeatures(new InputStreamReader(chunk, UTF_8),
+                new GeoJsonParser.OnEarthquakeParsedListener() {
+                    @Override
+                    public void onEarthquakeParsed(Earthquake earthquake) {
+                        earthquakes.add(earthquake);
+                    }
+                });
+        return earthquakes;
+    }
+
+    private static void deliver(List<Earthquake> earthquakes,
+                                GeoJsonParser.OnEarthquakeParsedListener listener) {
+        for (Earthquake earthquake : earthquakes) {
+            listener.onEarthquakeParsed(earthquake);
+        }
+    }
+
+    private static int indexOf(byte[] bytes, int length, byte[] pattern, int from) {
+        outer:
+        for (int i = from; i <= length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (bytes[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (sExecutor == null) {
+            final AtomicInteger threadNumber = new AtomicInteger();
+            sExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, "GeoJsonParser-" + threadNumber.incrementAndGet());
+                            // Never keeps the process alive on its own
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+        }
+        return sExecutor;
+    }
+}
@@ -0,0 +1,383 @@
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Clusters of {@link Earthquake}s for every zoom level of a map, so a dense set of events is
+ * drawn as a few circles instead of one per earthquake.
+ *
+ * Every zoom level has a grid of {@link #CELLS_PER_TILE} by {@link #CELLS_PER_TILE} cells per
+ * Web Mercator map tile, each cell twice as wide as those of the level below it. A cluster
+ * holds the earthquakes in one cell: their number, mean position, biggest magnitude and the
+ * count per magnitude band of {@link EarthquakeFormatter#getMagnitudeBand(double)}, so the
+ * circle can be colored by the band most of them fall in.
+ *
+ * An earthquake added or removed updates one cluster per level, without rebuilding anything.
+ * A viewport only visits the cells it covers, a number that depends on the size of the screen
+ * rather than on the number of earthquakes. Beyond the deepest level, where clusters are few
+ * and small, the earthquakes themselves can be drawn, i.e. from a {@link GeoIndex}.
+ *
+ * Earthquakes without coordinates and deleted ones are left out. All methods are thread-safe.
+ */
+public class ClusterPyramid {
+
+    /** Default deepest zoom level, at which a cell is about 40km wide at the equator */
+    public static final int DEFAULT_MAX_ZOOM = 8;
+
+    /** Number of cells along each side of a map tile, so a cell is 64 pixels of a 256 pixel tile */
+    public static final int CELLS_PER_TILE = 4;
+
+    private static final int CELLS_PER_TILE_SHIFT = 2;
+
+    /** Latitudes beyond this are cut off by the Web Mercator projection */
+    private static final double MAX_LATITUDE = 85.05112878;
+
+    /**
+     * A cluster as returned by a viewport query. It does not change when the pyramid does.
+     */
+    public static final class Cluster {
+        private final double mLongitude;
+        private final double mLatitude;
+        private final int mCount;
+        private final double mMaxMagnitude;
+        private final int mDominantBand;
+
+        private Cluster(double longitude, double latitude, int count, double maxMagnitude,
+                        int dominantBand) {
+            mLongitude = longitude;
+            mLatitude = latitude;
+            mCount = count;
+            mMaxMagnitude = maxMagnitude;
+            mDominantBand = dominantBand;
+        }
+
+        /** Returns the mean longitude of the earthquakes in the cluster */
+        public double getLongitude() {
+            return mLongitude;
+        }
+
+        /** Returns the mean latitude of the earthquakes in the cluster */
+        public double getLatitude() {
+            return mLatitude;
+        }
+
+        public int getCount() {
+            return mCount;
+        }
+
+        /** Returns the biggest magnitude in the cluster, or NaN if none is known */
+        public double getMaxMagnitude() {
+            return mMaxMagnitude;
+        }
+
+        /** Returns the magnitude band most earthquakes of the cluster fall in, the higher on a tie */
+        public int getDominantBand() {
+            return mDominantBand;
+        }
+    }
+
+    private final int mMaxZoom;
+
+    /** Clusters of every zoom level, keyed by cell */
+    private final List<Map<Long, Node>> mLevels;
+
+    /**
+     * Constructs a new {@link ClusterPyramid} with levels down to {@link #DEFAULT_MAX_ZOOM}.
+     */
+    public ClusterPyramid() {
+        this(DEFAULT_MAX_ZOOM);
+    }
+
+    /**
+     * Constructs a new {@link ClusterPyramid}.
+     *
+     * @param maxZoom is the deepest zoom level. Every level costs up to one cluster per earthquake.
+     */
+    public ClusterPyramid(int maxZoom) {
+        if (maxZoom < 0 || maxZoom > 28) {
+            throw new IllegalArgumentException("Max zoom must be between 0 and 28");
+        }
+        mMaxZoom = maxZoom;
+        mLevels = new ArrayList<>(maxZoom + 1);
+        for (int zoom = 0; zoom <= maxZoom; zoom++) {
+            mLevels.add(new HashMap<Long, Node>());
+        }
+    }
+
+    public int getMaxZoom() {
+        return mMaxZoom;
+    }
+
+    /**
+     * Adds the earthquake to the cluster of its cell on every level.
+     */
+    public synchronized void add(Earthquake earthquake) {
+        if (!isClustered(earthquake)) {
+            return;
+        }
+        int x = cellX(earthquake.getLongitude(), mMaxZoom);
+        int y = cellY(earthquake.getLatitude(), mMaxZoom);
+        for (int zoom = mMaxZoom; zoom >= 0; zoom--) {
+            int shift = mMaxZoom - zoom;
+            Long key = key(x >> shift, y >> shift);
+            Map<Long, Node> level = mLevels.get(zoom);
+            Node node = level.get(key);
+            if (node == null) {
+                node = new Node(zoom == mMaxZoom);
+                level.put(key, node);
+            }
+            node.add(earthquake);
+        }
+    }
+
+    /**
+     * Removes an earthquake added before from its clusters.
+     */
+    public synchronized void remove(Earthquake earthquake) {
+        if (!isClustered(earthquake)) {
+            return;
+        }
+        int x = cellX(earthquake.getLongitude(), mMaxZoom);
+        int y = cellY(earthquake.getLatitude(), mMaxZoom);
+        double magnitude = earthquake.getMagnitude();
+        // From the deepest level up, so every level can take its biggest magnitude from the one below
+        for (int zoom = mMaxZoom; zoom >= 0; zoom--) {
+            int shift = mMaxZoom - zoom;
+            int cellX = x >> shift;
+            int cellY = y >> shift;
+            Long key = key(cellX, cellY);
+            Map<Long, Node> level = mLevels.get(zoom);
+            Node node = level.get(key);
+            if (node == null) {
+                return;
+            }
+            node.remove(earthquake);
+            if (node.mCount == 0) {
+                level.remove(key);
+            } else if (magnitude == node.mMaxMagnitude) {
+                node.mMaxMagnitude = zoom == mMaxZoom ? node.maxOfMagnitudes()
+                        : maxOfChildren(zoom + 1, cellX, cellY);
+            }
+        }
+    }
+
+    /**
+     * Replaces an earlier version of an earthquake with a newer one. Either may be null, for an
+     * earthquake that is new or gone.
+     */
+    public synchronized void replace(Earthquake oldEarthquake, Earthquake newEarthquake) {
+        if (oldEarthquake != null) {
+            remove(oldEarthquake);
+        }
+        if (newEarthquake != null) {
+            add(newEarthquake);
+        }
+    }
+
+    /**
+     * Removes every earthquake from the pyramid.
+     */
+    public synchronized void clear() {
+        for (Map<Long, Node> level : mLevels) {
+            level.clear();
+        }
+    }
+
+    /**
+     * Returns the clusters at the zoom level within the viewport. A viewport with a west edge
+     * east of its east edge crosses the antimeridian, and one 360 degrees wide or more covers
+     * every longitude. Zoom levels beyond the deepest one get the clusters of the deepest.
+     */
+    public synchronized List<Cluster> getClusters(int zoom, double west, double south,
+                                                  double east, double north) {
+        zoom = Math.max(0, Math.min(zoom, mMaxZoom));
+        int minY = cellY(north, zoom);
+        int maxY = cellY(south, zoom);
+        int minX = 0;
+        int maxX = cellCount(zoom) - 1;
+        if (east - west < 360.0) {
+            minX = cellX(west, zoom);
+            maxX = eastCellX(east, zoom);
+        }
+        List<Cluster> clusters = new ArrayList<>();
+        if (minX <= maxX) {
+            collect(zoom, minX, maxX, minY, maxY, clusters);
+        } else {
+            collect(zoom, minX, cellCount(zoom) - 1, minY, maxY, clusters);
+            collect(zoom, 0, maxX, minY, maxY, clusters);
+        }
+        return clusters;
+    }
+
+    /**
+     * Returns the number of clusters at the zoom level.
+     */
+    public synchronized int getClusterCount(int zoom) {
+        return mLevels.get(Math.max(0, Math.min(zoom, mMaxZoom))).size();
+    }
+
+    private void collect(int zoom, int minX, int maxX, int minY, int maxY, List<Cluster> clusters) {
+        Map<Long, Node> level = mLevels.get(zoom);
+        long cells = (long) (maxX - minX + 1) * (maxY - minY + 1);
+        if (cells > level.size()) {
+            // A viewport bigger than the clusters there are, go over the clusters instead
+            for (Map.Entry<Long, Node> entry : level.entrySet()) {
+                long key = entry.getKey();
+                int x = (int) (key >>> 32);
+                int y = (int) key;
+                if (x >= minX && x <= maxX && y >= minY && y <= maxY) {
+                    clusters.add(entry.getValue().toCluster());
+                }
+            }
+            return;
+        }
+        for (int x = minX; x <= maxX; x++) {
+            for (int y = minY; y <= maxY; y++) {
+                Node node = level.get(key(x, y));
+                if (node != null) {
+                    clusters.add(node.toCluster());
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the biggest magnitude of the up to four cells the cell splits into on the level.
+     */
+    private double maxOfChildren(int zoom, int x, int y) {
+        Map<Long, Node> level = mLevels.get(zoom);
+        double max = Double.NaN;
+        for (int dx = 0; dx < 2; dx++) {
+            for (int dy = 0; dy < 2; dy++) {
+                Node child = level.get(key(2 * x + dx, 2 * y + dy));
+                if (child != null) {
+                    max = maxOf(max, child.mMaxMagnitude);
+                }
+            }
+        }
+        return max;
+    }
+
+    private static boolean isClustered(Earthquake earthquake) {
+        return earthquake.hasCoordinates() && !earthquake.isDeleted();
+    }
+
+    private static int cellCount(int zoom) {
+        return 1 << (zoom + CELLS_PER_TILE_SHIFT);
+    }
+
+    static int cellX(double longitude, int zoom) {
+        int cells = cellCount(zoom);
+        double normalized = (longitude + 180.0) / 360.0;
+        normalized -= Math.floor(normalized);
+        return Math.min(cells - 1, (int) (normalized * cells));
+    }
+
+    /**
+     * Returns the cell of the east edge of a viewport. An edge on the antimeridian closes the
+     * last column rather than opening the first one, as {@link #cellX(double, int)} would.
+     */
+    static int eastCellX(double east, int zoom) {
+        double normalized = (east + 180.0) / 360.0;
+        if (normalized > 0.0 && normalized == Math.floor(normalized)) {
+            return cellCount(zoom) - 1;
+        }
+        return cellX(east, zoom);
+    }
+
+    static int cellY(double latitude, int zoom) {
+        int cells = cellCount(zoom);
+        double radians = Math.toRadians(Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, latitude)));
+        double mercator = Math.log(Math.tan(radians) + 1.0 / Math.cos(radians));
+        double normalized = (1.0 - mercator / Math.PI) / 2.0;
+        return Math.max(0, Math.min(cells - 1, (int) (normalized * cells)));
+    }
+
+    private static Long key(int x, int y) {
+        return ((long) x << 32) | (y & 0xffffffffL);
+    }
+
+    /**
+     * Returns the bigger of two magnitudes, ignoring unknown ones.
+     */
+    private static double maxOf(double a, double b) {
+        if (Double.isNaN(a)) {
+            return b;
+        }
+        return Double.isNaN(b) ? a : Math.max(a, b);
+    }
+
+    /**
+     * The running totals of one cluster. Clusters of the deepest level also keep the magnitudes
+     * of their earthquakes, to find the biggest again after it is removed.
+     */
+    private static final class Node {
+        private int mCount;
+        private double mLongitudeSum;
+        private double mLatitudeSum;
+        private double mMaxMagnitude = Double.NaN;
+        private final int[] mBandCounts = new int[EarthquakeFormatter.MAGNITUDE_BAND_COUNT];
+        private double[] mMagnitudes;
+        private int mMagnitudeCount;
+
+        Node(boolean keepMagnitudes) {
+            if (keepMagnitudes) {
+                mMagnitudes = new double[2];
+            }
+        }
+
+        void add(Earthquake earthquake) {
+            double magnitude = earthquake.getMagnitude();
+            mCount++;
+            mLongitudeSum += earthquake.getLongitude();
+            mLatitudeSum += earthquake.getLatitude();
+            mBandCounts[EarthquakeFormatter.getMagnitudeBand(magnitude)]++;
+            mMaxMagnitude = maxOf(mMaxMagnitude, magnitude);
+            if (mMagnitudes != null) {
+                if (mMagnitudeCount == mMagnitudes.length) {
+                    mMagnitudes = Arrays.copyOf(mMagnitudes, mMagnitudeCount * 2);
+                }
+                mMagnitudes[mMagnitudeCount++] = magnitude;
+            }
+        }
+
+        void remove(Earthquake earthquake) {
+            double magnitude = earthquake.getMagnitude();
+            mCount--;
+            mLongitudeSum -= earthquake.getLongitude();
+            mLatitudeSum -= earthquake.getLatitude();
+            mBandCounts[EarthquakeFormatter.getMagnitudeBand(magnitude)]--;
+            if (mMagnitudes != null) {
+                for (int i = 0; i < mMagnitudeCount; i++) {
+                    if (Double.compare(mMagnitudes[i], magnitude) == 0) {
+                        mMagnitudes[i] = mMagnitudes[--mMagnitudeCount];
+                        break;
+                    }
+                }
+            }
+        }
+
+        double maxOfMagnitudes() {
+            double max = Double.NaN;
+            for (int i = 0; i < mMagnitudeCount; i++) {
+                max = maxOf(max, mMagnitudes[i]);
+            }
+            return max;
+        }
+
+        Cluster toCluster() {
+            int dominantBand = 0;
+            for (int band = 1; band < mBandCounts.length; band++) {
+                if (mBandCounts[band] >= mBandCounts[dominantBand]) {
+                    dominantBand = band;
+                }
+            }
+            return new Cluster(mLongitudeSum / mCount, mLatitudeSum / mCount, mCount,
+                    mMaxMagnitude, dominantBand);
+        }
+    }
+}
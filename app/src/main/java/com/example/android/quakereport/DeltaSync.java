@@ -0,0 +1,258 @@
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Helper methods for incrementally syncing a USGS query.
+ *
+ * Rather than downloading the whole result set again, the query is repeated with
+ * {@code updatedafter} set to the newest update time seen so far and {@code includedeleted}
+ * turned on. Only the events that changed since then come back, and they are merged into the
+ * local result by event id: new events are inserted, changed ones replaced and deleted ones
+ * removed.
+ *
+ * The delta leaves out the query's limit, which would cut it off by event time rather than by
+ * update time, and its magnitude bounds, so that an event revised out of them comes back and
+ * can be removed locally. Queries with any other filter a revision can move an event out of,
+ * like a region or a time window, cannot be synced this way, see {@link #canSync(String)}.
+ */
+public final class DeltaSync {
+
+    /**
+     * Most events asked for in a delta. A delta that comes back this full may have been cut
+     * off, so the query is fetched in full instead.
+     */
+    public static final int MAX_DELTA_EVENTS = 1000;
+
+    /** Query parameters a delta can handle, the magnitude bounds being applied locally */
+    private static final Set<String> SYNCABLE_PARAMETERS = new HashSet<>(Arrays.asList(
+            "format", "limit", "orderby", "minmag", "minmagnitude", "maxmag", "maxmagnitude"));
+
+    /** Query parameters left out of a delta */
+    private static final String[] DROPPED_PARAMETERS = {
+            "limit", "minmag", "minmagnitude", "maxmag", "maxmagnitude"};
+
+    /**
+     * The outcome of merging a delta into a cached result.
+     */
+    public static final class Result {
+
+        /** Ids of the merged result, in the order the query asks for */
+        public final String[] ids;
+
+        /** Newest update time of any event seen, in milliseconds */
+        public final long newestUpdated;
+
+        /** Number of events that were not in the result before */
+        public final int inserted;
+
+        /** Number of events that replaced an earlier version */
+        public final int updated;
+
+        /** Number of events removed because USGS deleted them or they left the magnitude bounds */
+        public final int deleted;
+
+        /**
+         * True if the merged result can no longer be trusted and the query must be fetched
+         * in full. This happens when events are removed from a result that was cut off by
+         * {@code limit}, or move past its last event, since the events that should move up
+         * to replace them are unknown. The same goes for new events past the last one once
+         * removals made room for them, and for a delta that may itself have been cut off.
+         */
+        public final boolean needsFullFetch;
+
+        Result(String[] ids, long newestUpdated, int inserted, int updated, int deleted,
+               boolean needsFullFetch) {
+            this.ids = ids;
+            this.newestUpdated = newestUpdated;
+            this.inserted = inserted;
+            this.updated = updated;
+            this.deleted = deleted;
+            this.needsFullFetch = needsFullFetch;
+        }
+    }
+
+    /**
+     * Create a private constructor because no one should ever create a {@link DeltaSync} object.
+     */
+    private DeltaSync() {
+    }
+
+    /**
+     * Returns true if the query can be brought up to date with a delta, i.e. it is an FDSN event
+     * query that filters on nothing but magnitude. Summary feeds cannot be asked for a delta.
+     */
+    public static boolean canSync(String requestUrl) {
+        int query = requestUrl.indexOf('?');
+        String path = query >= 0 ? requestUrl.substring(0, query) : requestUrl;
+        return path.endsWith("/query")
+                && SYNCABLE_PARAMETERS.containsAll(QueryUtils.getQueryParameterNames(requestUrl));
+    }
+
+    /**
+     * Returns the incremental version of a USGS query URL, asking for at most
+     * {@link #MAX_DELTA_EVENTS} events of any magnitude updated after the given time,
+     * including deleted ones.
+     */
+    public static String buildDeltaUrl(String requestUrl, long updatedAfter) {
+        String url = requestUrl;
+        for (String name : DROPPED_PARAMETERS) {
+            url = QueryUtils.removeQueryParameter(url, name);
+        }
+        url = QueryUtils.appendQueryParameter(url, "limit", String.valueOf(MAX_DELTA_EVENTS));
+        url = QueryUtils.appendQueryParameter(url, "updatedafter",
+                QueryUtils.formatQueryTime(updatedAfter));
+        return QueryUtils.appendQueryParameter(url, "includedeleted", "true");
+    }
+
+    /**
+     * Returns the newest update time of the given earthquakes, or 0 if there are none.
+     */
+    public static long newestUpdated(List<Earthquake> earthquakes) {
+        long newest = 0L;
+        for (Earthquake earthquake : earthquakes) {
+            newest = Math.max(newest, earthquake.getUpdatedInMilliseconds());
+        }
+        return newest;
+    }
+
+    /**
+     * Merges the changed events into a cached result and into the event store.
+     *
+     * @param requestUrl is the original query, whose magnitude bounds decide which events
+     *                   belong in the result, and whose orderby and limit decide the merged order
+     * @param ids are the ids of the cached result
+     * @param newestUpdated is the newest update time seen for the cached result
+     * @param changes are the events returned by the incremental query
+     * @param store is the store holding the events of the cached result
+     */
+    public static Result merge(String requestUrl, String[] ids, long newestUpdated,
+                               List<Earthquake> changes, EarthquakeStore store) {
+        Set<String> merged = new LinkedHashSet<>(ids.length + changes.size());
+        Collections.addAll(merged, ids);
+
+        double minMagnitude = parseMagnitude(requestUrl, "minmag", "minmagnitude", Double.NEGATIVE_INFINITY);
+        double maxMagnitude = parseMagnitude(requestUrl, "maxmag", "maxmagnitude", Double.POSITIVE_INFINITY);
+        Comparator<Earthquake> order = QueryUtils.comparatorForOrderBy(
+                QueryUtils.getQueryParameter(requestUrl, "orderby"));
+        int limit = parseLimit(QueryUtils.getQueryParameter(requestUrl, "limit"));
+        boolean isCutOff = limit > 0 && ids.length >= limit;
+
+        // Events past the last one of a result that was cut off are unknown, so an event
+        // moving past it may have to make way for one of them
+        Earthquake last = isCutOff && order != null ? store.get(ids[ids.length - 1]) : null;
+
+        int inserted = 0;
+        int updated = 0;
+        int deleted = 0;
+        boolean insertedPastLast = false;
+        boolean needsFullFetch = changes.size() >= MAX_DELTA_EVENTS;
+        for (Earthquake change : changes) {
+            newestUpdated = Math.max(newestUpdated, change.getUpdatedInMilliseconds());
+            if (change.isDeleted()) {
+                store.remove(change.getId());
+                if (merged.remove(change.getId())) {
+                    deleted++;
+                }
+                continue;
+            }
+            // Other cached results may still want the new version
+            store.put(change);
+            if (!isWithin(change.getMagnitude(), minMagnitude, maxMagnitude)) {
+                if (merged.remove(change.getId())) {
+                    deleted++;
+                }
+            } else if (merged.add(change.getId())) {
+                inserted++;
+                if (last != null && order.compare(change, last) > 0) {
+                    insertedPastLast = true;
+                }
+            } else {
+                updated++;
+                if (last != null && order.compare(change, last) > 0) {
+                    needsFullFetch = true;
+                }
+            }
+        }
+
+        List<Earthquake> earthquakes = new ArrayList<>(merged.size());
+        for (String id : merged) {
+            Earthquake earthquake = store.get(id);
+            if (earthquake != null) {
+                earthquakes.add(earthquake);
+            }
+        }
+
+        if (order != null && (inserted > 0 || updated > 0)) {
+            // Collections.sort is stable, so events that compare equal keep the server's order
+            Collections.sort(earthquakes, order);
+        }
+
+        if (limit > 0) {
+            if (deleted > 0 && earthquakes.size() < limit && isCutOff) {
+                needsFullFetch = true;
+            }
+            // A deletion leaves room for a new event past the last one, but events between the
+            // two that were never fetched would come first
+            if (deleted > 0 && insertedPastLast) {
+                needsFullFetch = true;
+            }
+            if (earthquakes.size() > limit) {
+                earthquakes = earthquakes.subList(0, limit);
+            }
+        }
+
+        String[] mergedIds = new String[earthquakes.size()];
+        for (int i = 0; i < mergedIds.length; i++) {
+            mergedIds[i] = earthquakes.get(i).getId();
+        }
+        return new Result(mergedIds, newestUpdated, inserted, updated, deleted, needsFullFetch);
+    }
+
+    /**
+     * Returns true if the magnitude is within the bounds. An unknown magnitude is only within
+     * infinite ones.
+     */
+    private static boolean isWithin(double magnitude, double minMagnitude, double maxMagnitude) {
+        return (minMagnitude == Double.NEGATIVE_INFINITY || magnitude >= minMagnitude)
+                && (maxMagnitude == Double.POSITIVE_INFINITY || magnitude <= maxMagnitude);
+    }
+
+    /**
+     * Returns the magnitude bound given by either name of the parameter, or the default if
+     * there is none.
+     */
+    private static double parseMagnitude(String requestUrl, String name, String longName,
+                                         double defaultValue) {
+        String value = QueryUtils.getQueryParameter(requestUrl, name);
+        if (value == null) {
+            value = QueryUtils.getQueryParameter(requestUrl, longName);
+        }
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static int parseLimit(String limit) {
+        if (limit == null) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(limit);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
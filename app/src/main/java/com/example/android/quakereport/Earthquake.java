@@ -5,6 +5,9 @@ package com.example.android.quakereport;
  */
 public class Earthquake {
 
+    /** USGS event id of the earthquake */
+    private String mId;
+
     /** Magnitude of the earthquake */
     private double mMagnitude;
 
@@ -14,21 +17,86 @@ public class Earthquake {
     /** Date of the earthquake */
     private long mTimeInMilliseconds;
 
+    /** Time in milliseconds (from the Epoch) when USGS last updated the earthquake */
+    private long mUpdatedInMilliseconds;
+
     /** Date of the earthquake */
     private String mWebsite;
 
+    /** True if USGS has deleted the earthquake */
+    private boolean mDeleted;
+
+    /** Longitude and latitude of the epicenter in degrees, NaN if unknown */
+    private double mLongitude;
+    private double mLatitude;
+
+    /** Depth of the earthquake in kilometers, NaN if unknown */
+    private double mDepth;
+
+    /**
+     * Constructs a new {@link Earthquake} object.
+     *
+     * @param id is the USGS event id of the earthquake
+     * @param magnitude is the magnitude (size) of the earthquake
+     * @param location is the city location of the earthquake
+     * @param timeInMilliseconds is the time in milliseconds (from the Epoch) when the earthquake happened
+     * @param website is the details web page of the earthquake
+     */
+    public Earthquake(String id, double magnitude, String location, long timeInMilliseconds, String website) {
+        this(id, magnitude, location, timeInMilliseconds, timeInMilliseconds, website, false);
+    }
+
     /**
      * Constructs a new {@link Earthquake} object.
      *
+     * @param id is the USGS event id of the earthquake
      * @param magnitude is the magnitude (size) of the earthquake
      * @param location is the city location of the earthquake
      * @param timeInMilliseconds is the time in milliseconds (from the Epoch) when the earthquake happened
+     * @param updatedInMilliseconds is the time in milliseconds (from the Epoch) when USGS last updated the earthquake
+     * @param website is the details web page of the earthquake
+     * @param deleted is true if USGS has deleted the earthquake
      */
-    public Earthquake(double magnitude, String location, long timeInMilliseconds, String website) {
+    public Earthquake(String id, double magnitude, String location, long timeInMilliseconds,
+                      long updatedInMilliseconds, String website, boolean deleted) {
+        this(id, magnitude, location, timeInMilliseconds, updatedInMilliseconds, website, deleted,
+                Double.NaN, Double.NaN, Double.NaN);
+    }
+
+    /**
+     * Constructs a new {@link Earthquake} object.
+     *
+     * @param id is the USGS event id of the earthquake
+     * @param magnitude is the magnitude (size) of the earthquake
+     * @param location is the city location of the earthquake
+     * @param timeInMilliseconds is the time in milliseconds (from the Epoch) when the earthquake happened
+     * @param updatedInMilliseconds is the time in milliseconds (from the Epoch) when USGS last updated the earthquake
+     * @param website is the details web page of the earthquake
+     * @param deleted is true if USGS has deleted the earthquake
+     * @param longitude is the longitude of the epicenter in degrees, or NaN
+     * @param latitude is the latitude of the epicenter in degrees, or NaN
+     * @param depth is the depth in kilometers, or NaN
+     */
+    public Earthquake(String id, double magnitude, String location, long timeInMilliseconds,
+                      long updatedInMilliseconds, String website, boolean deleted,
+                      double longitude, double latitude, double depth) {
+        mId = id;
         mMagnitude = magnitude;
         mLocation = location;
         mTimeInMilliseconds = timeInMilliseconds;
+        mUpdatedInMilliseconds = updatedInMilliseconds;
         mWebsite = website;
+        mDeleted = deleted;
+        mLongitude = longitude;
+        mLatitude = latitude;
+        mDepth = depth;
+    }
+
+    /**
+     * Returns the USGS event id of the earthquake.
+     */
+    public String getId() {
+        return mId;
     }
 
     /**
@@ -52,10 +120,53 @@ public class Earthquake {
         return mTimeInMilliseconds;
     }
 
+    /**
+     * Returns the time USGS last updated the earthquake
+     */
+    public long getUpdatedInMilliseconds() {
+        return mUpdatedInMilliseconds;
+    }
+
     /**
      * Returns the details web page of the earthquake
      */
     public String getWebsite() {
         return mWebsite;
     }
+
+    /**
+     * Returns true if USGS has deleted the earthquake. Deleted earthquakes are only reported
+     * by incremental queries, so they can be removed from the local copy.
+     */
+    public boolean isDeleted() {
+        return mDeleted;
+    }
+
+    /**
+     * Returns the longitude of the epicenter in degrees, or NaN if unknown
+     */
+    public double getLongitude() {
+        return mLongitude;
+    }
+
+    /**
+     * Returns the latitude of the epicenter in degrees, or NaN if unknown
+     */
+    public double getLatitude() {
+        return mLatitude;
+    }
+
+    /**
+     * Returns the depth of the earthquake in kilometers, or NaN if unknown
+     */
+    public double getDepth() {
+        return mDepth;
+    }
+
+    /**
+     * Returns true if the epicenter of the earthquake is known.
+     */
+    public boolean hasCoordinates() {
+        return !Double.isNaN(mLongitude) && !Double.isNaN(mLatitude);
+    }
 }
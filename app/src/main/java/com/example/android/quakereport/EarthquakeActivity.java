@@ -22,22 +22,26 @@ import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.preference.PreferenceManager;
 import android.support.v4.app.LoaderManager;
 import android.support.v4.content.Loader;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
 import android.widget.TextView;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
 
-public class EarthquakeActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<List<Earthquake>> {
+public class EarthquakeActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<EarthquakeDisplayModel> {
 
     private static final String LOG_TAG = EarthquakeActivity.class.getName();
 
@@ -47,42 +51,63 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderManag
      */
     private static final int EARTHQUAKE_LOADER_ID = 1;
 
-    /** URL for earthquake data from the USGS dataset */
-    private static final String USGS_URL = "https://earthquake.usgs.gov/fdsnws/event/1/query";
+    /** Number of earthquakes on the first page, which the loader loads, and on every page after it */
+    private static final int PAGE_SIZE = 20;
+
+    /** Loads the pages after the first one, which the user is scrolling towards, ahead of syncs */
+    private static final Executor PAGE_EXECUTOR =
+            LoadExecutor.getInstance().asExecutor(LoadExecutor.PRIORITY_FOREGROUND);
 
     /** Adapter for the list of earthquakes */
     private EarthquakeAdapter mAdapter;
 
     private TextView mEmptyStateTextView;
 
+    /** The earthquakes last handed to the adapter, which live feed changes are applied to */
+    private EarthquakeTable mEarthquakes;
+
+    /** Source of the pages after the first one, null while there are none */
+    private EarthquakePageSource mPageSource;
+
+    /** Reads the snapshot of the last launch, null once the list shows something else */
+    private Future<?> mSnapshotLoad;
+
+    /** Delivery of the live feed while it is turned on and the list is visible */
+    private LiveFeed.Subscription mLiveFeedSubscription;
+
+    private final LiveFeed.Observer mLiveFeedObserver = new LiveFeed.Observer() {
+        @Override
+        public void onEarthquakesChanged(List<Earthquake> changed) {
+            Log.v(LOG_TAG, "*******************Live feed changed");
+            applyLiveFeed(changed);
+        }
+    };
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        // Record load and bind timings in debug builds only, release builds skip them at no cost
+        Metrics.setEnabled(BuildConfig.DEBUG);
         setContentView(R.layout.earthquake_activity);
 
         Log.v(LOG_TAG, "*******************onCreate() after setContentView()");
 
-        // Find a reference to the {@link ListView} in the layout
-        ListView earthquakeListView = (ListView) findViewById(R.id.list);
+        // Find a reference to the {@link RecyclerView} in the layout
+        RecyclerView earthquakeListView = (RecyclerView) findViewById(R.id.list);
+        earthquakeListView.setLayoutManager(new LinearLayoutManager(this));
 
+        // RecyclerView has no empty view of its own, so its visibility is set in onLoadFinished()
         mEmptyStateTextView = (TextView) findViewById(R.id.empty_view);
-        earthquakeListView.setEmptyView(mEmptyStateTextView);
-
-        // Create a new adapter that takes the list of earthquakes as input
-        mAdapter = new EarthquakeAdapter(EarthquakeActivity.this, new ArrayList<Earthquake>());
-
-        // Set the adapter on the {@link ListView}
-        // so the list can be populated in the user interface
-        earthquakeListView.setAdapter(mAdapter);
 
-        earthquakeListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        // Create a new adapter that starts out with no earthquakes
+        mAdapter = new EarthquakeAdapter(EarthquakeActivity.this, new EarthquakeAdapter.OnEarthquakeClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int i, long l) {
-                // Find the current earthquake that was clicked on
-                Earthquake currentEarthquake = mAdapter.getItem(i);
+            public void onEarthquakeClick(EarthquakeTable earthquakes, int position) {
+                // Find the web page of the current earthquake that was clicked on
+                String website = earthquakes.getWebsite(position);
 
                 // Convert the String URL into a URI object (to pass into the Intent constructor)
-                Uri webpage = Uri.parse(currentEarthquake.getWebsite());
+                Uri webpage = Uri.parse(website);
 
                 // Create a new intent to view the earthquake URI
                 Intent intent = new Intent(Intent.ACTION_VIEW, webpage);
@@ -94,7 +119,13 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderManag
             }
         });
 
+        // Set the adapter on the {@link RecyclerView}
+        // so the list can be populated in the user interface
+        earthquakeListView.setAdapter(mAdapter);
 
+        if (getSupportLoaderManager().getLoader(EARTHQUAKE_LOADER_ID) == null) {
+            loadSnapshot();
+        }
 
         Log.v(LOG_TAG, "*******************Check internet connectivity");
         // Determine if You Have an Internet Connection. You'll need android.permission.ACCESS_NETWORK_STATE permission
@@ -125,8 +156,48 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderManag
     }
 
     @Override
-    public Loader<List<Earthquake>> onCreateLoader(int id, Bundle args) {
+    protected void onStart() {
+        super.onStart();
+        // The loader keeps its result while the settings are open, so a query changed there
+        // needs a new loader. The query engine usually answers it without the network.
+        Loader<EarthquakeDisplayModel> loader = getSupportLoaderManager().getLoader(EARTHQUAKE_LOADER_ID);
+        if (loader instanceof EarthquakeLoader
+                && !createQuery().equals(((EarthquakeLoader) loader).getQuery())) {
+            getSupportLoaderManager().restartLoader(EARTHQUAKE_LOADER_ID, null, this);
+        }
+
+        // Keep the list up to date while it is visible, and retry with backoff when a refresh fails
+        EarthquakeSync.getInstance(this).start();
+
+        SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(this);
+        if (sharedPrefs.getBoolean(getString(R.string.settings_live_feed_key),
+                getResources().getBoolean(R.bool.settings_live_feed_default))) {
+            mLiveFeedSubscription = LiveFeed.getInstance(this).subscribe(mLiveFeedObserver);
+        }
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        EarthquakeSync.getInstance(this).stop();
+        if (mLiveFeedSubscription != null) {
+            mLiveFeedSubscription.unsubscribe();
+            mLiveFeedSubscription = null;
+        }
+    }
+
+    @Override
+    public Loader<EarthquakeDisplayModel> onCreateLoader(int id, Bundle args) {
         Log.v(LOG_TAG, "*******************Called onCreateLoader()");
+        // Changing these settings usually does not need a new download, the loader answers
+        // the query from the earthquakes it fetched before when it can
+        return new EarthquakeLoader(this, createQuery());
+    }
+
+    /**
+     * Returns the query the settings ask for.
+     */
+    private EarthquakeQuery createQuery() {
         SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(this);
         String minMagnitude = sharedPrefs.getString(
                 getString(R.string.settings_min_magnitude_key),
@@ -136,20 +207,16 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderManag
                 getString(R.string.settings_order_by_key),
                 getString(R.string.settings_order_by_default));
 
-        Uri baseUri = Uri.parse(USGS_URL);
-        Uri.Builder uriBuilder = baseUri.buildUpon();
-
-        uriBuilder.appendQueryParameter("format", "geojson");
-        uriBuilder.appendQueryParameter("limit", "10");
-        uriBuilder.appendQueryParameter("minmag", minMagnitude);
-        uriBuilder.appendQueryParameter("orderby", orderBy);
-
-        return new EarthquakeLoader(this, uriBuilder.toString());
+        return new EarthquakeQuery(minMagnitude, orderBy, PAGE_SIZE);
     }
 
     @Override
-    public void onLoadFinished(Loader<List<Earthquake>> loader, List<Earthquake> data) {
+    public void onLoadFinished(Loader<EarthquakeDisplayModel> loader, EarthquakeDisplayModel data) {
         Log.v(LOG_TAG, "*******************Called onLoadFinished()");
+        cancelSnapshotLoad();
+        if (Metrics.isEnabled()) {
+            Log.v(LOG_TAG, "*******************Metrics:\n" + Metrics.snapshot());
+        }
 
         // Hide loading indicator because the data has been loaded
         View loadingIndicator = findViewById(R.id.loading_indicator);
@@ -163,17 +230,13 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderManag
         // Set empty state text to display "No earthquakes found."
         mEmptyStateTextView.setText(R.string.no_earthquakes);
 
-        // Clear the adapter of previous earthquake data
-        mAdapter.clear();
-        // If there is a valid list of {@link Earthquake}s, then add them to the adapter's
-        // data set. This will trigger the ListView to update.
-        if (data != null && !data.isEmpty()) {
-            // To test the empty state, you can temporarily comment out the line of code that
-            // adds earthquake data to the adapter, which is the mAdapter.addAll(earthquakes) method call.
-            // This will pretend like 0 results came back from the web server, and you should see
-            // the empty state in the app.
-            mAdapter.addAll(data);
-        }
+        // Replace the adapter's data set with the new earthquakes, or clear it if
+        // there is none. This will trigger the RecyclerView to update.
+        // To test the empty state, you can temporarily pass null to mAdapter.setEarthquakes().
+        // This will pretend like 0 results came back from the web server, and you should see
+        // the empty state in the app.
+        showEarthquakes(data);
+        showMorePages(((EarthquakeLoader) loader).getQuery(), data);
     }
 
     // We need onLoaderReset(), we're we're being informed that the data from our loader is no longer
@@ -183,9 +246,167 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderManag
     // gets triggered because if the user leaves the app and comes back we want to referesh the data so they've
     // the latest earthquake information.
     @Override
-    public void onLoaderReset(Loader<List<Earthquake>> loader) {
+    public void onLoaderReset(Loader<EarthquakeDisplayModel> loader) {
         Log.v(LOG_TAG, "*******************Called onLoaderReset()");
-        mAdapter.clear();
+        showEarthquakes(null);
+        showMorePages(null, null);
+    }
+
+    /**
+     * Shows the earthquakes of the last launch on a cold start, usually before the loader
+     * delivers. The snapshot is read and formatted on the {@link LoadExecutor}, ahead of syncs,
+     * and shown only if the loader has not delivered by then.
+     */
+    private void loadSnapshot() {
+        final Context context = getApplicationContext();
+        final EarthquakeQuery query = createQuery();
+        final Handler mainHandler = new Handler(Looper.getMainLooper());
+        mSnapshotLoad = LoadExecutor.getInstance().submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                final EarthquakeDisplayModel snapshot = readSnapshot(context, query);
+                if (snapshot != null) {
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            showSnapshot(snapshot);
+                        }
+                    });
+                }
+                return null;
+            }
+        }, LoadExecutor.PRIORITY_FOREGROUND);
+    }
+
+    /**
+     * Reads the snapshot of the last launch into the query engine, so the loader only has to
+     * revalidate it, and returns the rows of the query it contains, or null if there are none.
+     * Runs on a background thread.
+     */
+    private static EarthquakeDisplayModel readSnapshot(Context context, EarthquakeQuery query) {
+        EarthquakeQueryEngine engine = EarthquakeQueryEngine.getInstance();
+        if (engine.getFetchedQuery() == null) {
+            EarthquakeSnapshot snapshot = EarthquakeSnapshot.read(EarthquakeSnapshot.getFile(context));
+            if (snapshot == null) {
+                return null;
+            }
+            Log.v(LOG_TAG, "*******************Restored the earthquakes of the snapshot");
+            synchronized (engine) {
+                // A load or a sync may have fetched newer data meanwhile
+                if (engine.getFetchedQuery() == null) {
+                    engine.setFetched(snapshot.getQuery(), snapshot.getEarthquakes(),
+                            snapshot.getFetchedAt());
+                }
+            }
+        }
+
+        EarthquakeTable earthquakes = engine.query(query);
+        if (earthquakes == null || earthquakes.size() == 0 || Thread.currentThread().isInterrupted()) {
+            return null;
+        }
+        return EarthquakeDisplayModel.build(context, earthquakes);
+    }
+
+    private void showSnapshot(EarthquakeDisplayModel snapshot) {
+        // The loader delivered first, or the activity is gone
+        if (mSnapshotLoad == null) {
+            return;
+        }
+        mSnapshotLoad = null;
+        findViewById(R.id.loading_indicator).setVisibility(View.GONE);
+        showEarthquakes(snapshot);
+    }
+
+    private void cancelSnapshotLoad() {
+        if (mSnapshotLoad != null) {
+            mSnapshotLoad.cancel(true);
+            mSnapshotLoad = null;
+        }
+    }
+
+    /**
+     * Applies live feed changes to the earthquakes shown. They are merged and formatted on the
+     * {@link LoadExecutor}, then only the rows that changed are rebound. The loader is not
+     * restarted, but keeps the merged result to hand out again after a rotation.
+     */
+    private void applyLiveFeed(final List<Earthquake> changed) {
+        final EarthquakeTable shown = mEarthquakes;
+        final EarthquakeQuery query = createQuery();
+        // Earthquakes that sort past the first page belong to the pages after it
+        final Earthquake pagesStart = mPageSource != null ? mPageSource.getStart() : null;
+        final Context context = getApplicationContext();
+        final Handler mainHandler = new Handler(Looper.getMainLooper());
+        LoadExecutor.getInstance().submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                final EarthquakeDisplayModel merged = EarthquakeDisplayModel.build(context,
+                        LiveFeed.apply(shown, changed, query, pagesStart));
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        showLiveFeed(shown, changed, merged);
+                    }
+                });
+                return null;
+            }
+        }, LoadExecutor.PRIORITY_FOREGROUND);
+    }
+
+    private void showLiveFeed(EarthquakeTable shown, List<Earthquake> changed,
+                              EarthquakeDisplayModel merged) {
+        // The live feed was turned off, or the activity stopped
+        if (mLiveFeedSubscription == null) {
+            return;
+        }
+        if (mEarthquakes != shown) {
+            // A load or other changes were shown meanwhile, so merge into those instead
+            applyLiveFeed(changed);
+            return;
+        }
+        showEarthquakes(merged);
+        Loader<EarthquakeDisplayModel> loader = getSupportLoaderManager().getLoader(EARTHQUAKE_LOADER_ID);
+        if (loader != null) {
+            ((EarthquakeLoader) loader).updateResult(merged);
+        }
+    }
+
+    /**
+     * Lets the list go on after the first page when there may be more earthquakes. The pages
+     * loaded so far are kept as long as they continue the first page of the same query.
+     */
+    private void showMorePages(EarthquakeQuery query, EarthquakeDisplayModel firstPage) {
+        if (query == null || firstPage == null || firstPage.size() < query.getLimit()) {
+            mPageSource = null;
+            mAdapter.setPager(null);
+            return;
+        }
+        if (mPageSource != null && mPageSource.continues(query, firstPage.getEarthquakes())) {
+            return;
+        }
+        mPageSource = new EarthquakePageSource(this, query, firstPage.getEarthquakes());
+        final Handler mainHandler = new Handler(Looper.getMainLooper());
+        mAdapter.setPager(new EarthquakePager(mPageSource, PAGE_EXECUTOR,
+                new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        mainHandler.post(command);
+                    }
+                }, mPageSource.getFirstOffset(), PAGE_SIZE, EarthquakePager.DEFAULT_PREFETCH_PAGES,
+                EarthquakePager.DEFAULT_WINDOW_PAGES));
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // Pages still loading are dropped instead of delivered to a destroyed activity
+        mAdapter.setPager(null);
+        cancelSnapshotLoad();
+    }
+
+    private void showEarthquakes(EarthquakeDisplayModel data) {
+        mEarthquakes = data == null ? null : data.getEarthquakes();
+        mAdapter.setEarthquakes(data);
+        mEmptyStateTextView.setVisibility(data == null || data.size() == 0 ? View.VISIBLE : View.GONE);
     }
 
     @Override
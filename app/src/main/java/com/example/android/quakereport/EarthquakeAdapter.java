@@ -1,184 +1,317 @@
 package com.example.android.quakereport;
 
 import android.content.Context;
+import android.graphics.Color;
 import android.graphics.drawable.GradientDrawable;
-import android.support.annotation.NonNull;
-import android.support.annotation.Nullable;
-import android.support.v4.content.ContextCompat;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
 import android.widget.TextView;
 
-import java.text.DecimalFormat;
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Date;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 /**
  * An {@link EarthquakeAdapter} knows how to create a list item layout for each earthquake
- * in the data source (a list of {@link Earthquake} objects).
+ * in the data source (an {@link EarthquakeDisplayModel}).
  *
- * These list item layouts will be provided to an adapter view like ListView
- * to be displayed to the user.
+ * These list item layouts will be provided to a RecyclerView to be displayed to the user.
+ * Every value a row shows has been formatted ahead of time on the loader's background thread,
+ * so binding a row allocates nothing. Items have stable ids derived from their USGS event id,
+ * and when new earthquakes arrive the difference to the old ones is worked out on a background
+ * thread, so only rows that were inserted, changed or removed are rebound.
+ *
+ * The earthquakes set on the adapter are the first page. With an {@link EarthquakePager} the
+ * list goes on after them, and the pager is asked for the next pages as the user scrolls
+ * towards the end.
  */
-public class EarthquakeAdapter extends ArrayAdapter<Earthquake> {
+public class EarthquakeAdapter extends RecyclerView.Adapter<EarthquakeAdapter.ViewHolder> {
+
+    /**
+     * Interface definition for a callback to be invoked when an earthquake in the list is clicked.
+     */
+    public interface OnEarthquakeClickListener {
+        /**
+         * Called with the earthquakes shown by the adapter and the row that was clicked.
+         */
+        void onEarthquakeClick(EarthquakeTable earthquakes, int position);
+    }
+
+    private static final Metrics.Timer BIND_TIMER = Metrics.timer(Metrics.BIND_TIME);
+
+    /** Runs the diffs, one at a time, off the main thread */
+    private static final Executor DIFF_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    private final Context mContext;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final OnEarthquakeClickListener mClickListener;
+
+    /** The earthquakes to display, never null */
+    private EarthquakeDisplayModel mEarthquakes = EarthquakeDisplayModel.empty();
+
+    /** Incremented on every update, so a diff that finishes after a newer update is dropped */
+    private int mGeneration;
+
+    /** Loads the rows after the first page, or null if the list ends after it */
+    private EarthquakePager mPager;
 
-    private static final String LOCATION_SEPARATOR = " of ";
     /**
-     * Constructs a new {@link EarthquakeAdapter}
+     * Constructs a new {@link EarthquakeAdapter} with no earthquakes
      *
      * @param context of the app
-     * @param earthquakes is the list of earthquakes, which is the data source of the adapter
+     * @param clickListener is told when an earthquake is clicked
      */
-    public EarthquakeAdapter(Context context, ArrayList<Earthquake> earthquakes) {
-        super(context, 0, earthquakes);
+    public EarthquakeAdapter(Context context, OnEarthquakeClickListener clickListener) {
+        mContext = context;
+        mClickListener = clickListener;
+        setHasStableIds(true);
     }
 
     /**
-     * Returns a list item view that displays earthquake information about the earthquake at the given position
-     * in the list of earthquakes.
+     * Replaces the earthquakes shown by the adapter. Passing null clears the list. Must be
+     * called on the main thread.
+     *
+     * Going from or to an empty list is applied at once. Otherwise the old and new earthquakes
+     * are compared on a background thread and only the differences are dispatched.
      */
-    @NonNull
-    @Override
-    public View getView(int position, @Nullable View convertView, @NonNull ViewGroup parent) {
-        // Check if there is an existing list item view (called convertView) that we can reuse,
-        // otherwise, if convertView is null, inflate a new list item layout.
-        if(convertView == null) {
-            convertView = LayoutInflater.from(getContext()).inflate(R.layout.earthquake_list_item, parent, false);
-        }
+    public void setEarthquakes(EarthquakeDisplayModel earthquakes) {
+        final EarthquakeDisplayModel newEarthquakes =
+                earthquakes != null ? earthquakes : EarthquakeDisplayModel.empty();
+        final EarthquakeDisplayModel oldEarthquakes = mEarthquakes;
+        final int generation = ++mGeneration;
 
-        // Find the earthquake object at the given position in the list of earthquakes
-        Earthquake currentEarthquake = getItem(position);
-
-        // Find the TextView with view ID earthquake_list_item_magnitude
-        TextView magnitudeTextView = (TextView) convertView.findViewById(R.id.earthquake_list_item_magnitude);
-        // Format magnitude decimal value of the current earthquake
-        String magnitude = formatMagnitude(currentEarthquake.getMagnitude());
-        // Display the formatted magnitude of the current earthquake in that TextView
-        magnitudeTextView.setText(magnitude);
-
-        // Get drawable background of the magnitude text view
-        GradientDrawable magnitudeCircle = (GradientDrawable) magnitudeTextView.getBackground();
-
-        // Choose a color for the magnitude text view
-        int magnitudeColor = getMagnitudeColor(currentEarthquake.getMagnitude());
-
-        // Assign a color to the the drawable background of magnitude text view
-        magnitudeCircle.setColor(magnitudeColor);
-
-        // Split original location string into two strings: primary location and location offset.
-        // Since this logic is related to how the information is displayed in the UI, make the code changes
-        // in the EarthquakeAdapter class. You could technically make the code change in the Earthquake class,
-        // and ultimately it can come down to personal preference of the developer on where to put the code.
-        // In this case, we prefer to store the original location String in the Earthquake class, and keep all
-        // UI-related modifications to the earthquake data in the EarthquakeAdapter class. In the future, if our
-        // designer wants to display the whole location string together in the UI, we can leave our Earthquake class
-        // code as-is, and just modify the logic in the EarthquakeAdapter on how the location is displayed.
-        String originalLocation = currentEarthquake.getLocation();
-        String primaryLocation;
-        String offsetLocation;
-        if (originalLocation.contains(LOCATION_SEPARATOR)) {
-            String[] parts = originalLocation.split(LOCATION_SEPARATOR);
-            offsetLocation = parts[0] + LOCATION_SEPARATOR;
-            primaryLocation = parts[1];
-        } else {
-            offsetLocation = getContext().getString(R.string.near_the);
-            primaryLocation = originalLocation;
+        if (oldEarthquakes.size() == 0 || newEarthquakes.size() == 0) {
+            mEarthquakes = newEarthquakes;
+            notifyDataSetChanged();
+            return;
         }
 
+        DIFF_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                // Moves are not detected: that costs far more on long lists, and a moved
+                // row is still shown correctly as a removal plus an insertion.
+                final DiffUtil.DiffResult diff = DiffUtil.calculateDiff(
+                        new EarthquakeDiffCallback(oldEarthquakes, newEarthquakes), false);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != mGeneration) {
+                            return;
+                        }
+                        mEarthquakes = newEarthquakes;
+                        diff.dispatchUpdatesTo(EarthquakeAdapter.this);
+                    }
+                });
+            }
+        });
+    }
 
-        // Find the TextView with the view ID earthquake_list_item_location
-        TextView offsetLocationTextView = (TextView) convertView.findViewById(R.id.earthquake_list_item_offset_location);
-        // Display the offset location of the current earthquake in that TextView
-        offsetLocationTextView.setText(offsetLocation);
-
-        // Find the TextView with the view ID earthquake_list_item_location
-        TextView primaryLocationTextView = (TextView) convertView.findViewById(R.id.earthquake_list_item_primary_location);
-        // Display the primary location of the current earthquake in that TextView
-        primaryLocationTextView.setText(primaryLocation);
+    /**
+     * Continues the list after the first page with the pager's rows, or ends it after the first
+     * page if the pager is null. The old pager is closed. Must be called on the main thread.
+     */
+    public void setPager(EarthquakePager pager) {
+        if (mPager != null) {
+            mPager.close();
+            mPager.setOnPageLoadedListener(null);
+        }
+        mPager = pager;
+        if (pager != null) {
+            pager.setOnPageLoadedListener(new EarthquakePager.OnPageLoadedListener() {
+                @Override
+                public void onPageLoaded(int firstRow, int rowCount, int insertedRows) {
+                    int firstPosition = mEarthquakes.size() + firstRow;
+                    int changedRows = rowCount - insertedRows;
+                    if (changedRows > 0) {
+                        notifyItemRangeChanged(firstPosition, changedRows);
+                    }
+                    if (insertedRows > 0) {
+                        notifyItemRangeInserted(firstPosition + changedRows, insertedRows);
+                    }
+                }
+            });
+        }
+        notifyDataSetChanged();
+    }
 
-        // Create a new Date object from the time in milliseconds of the earthquake
-        Date dateObject = new Date(currentEarthquake.getTimeInMilliseconds());
+    /**
+     * Returns the earthquakes of the first page.
+     */
+    public EarthquakeTable getEarthquakes() {
+        return mEarthquakes.getEarthquakes();
+    }
 
-        // Find the TextView with the view ID earthquake_list_item_date
-        TextView dateTextView = (TextView) convertView.findViewById(R.id.earthquake_list_item_date);
-        String date = formatDate(dateObject);
-        dateTextView.setText(date);
+    public Context getContext() {
+        return mContext;
+    }
 
-        // Find the TextView with the view ID earthquake_list_item_time
-        TextView timeTextView = (TextView) convertView.findViewById(R.id.earthquake_list_item_time);
-        String time = formatTime(dateObject);
-        timeTextView.setText(time);
+    @Override
+    public int getItemCount() {
+        return mEarthquakes.size() + (mPager != null ? mPager.getRowCount() : 0);
+    }
 
-        // Return list item view that is now showing the appropriate data
-        return convertView;
+    @Override
+    public long getItemId(int position) {
+        int headSize = mEarthquakes.size();
+        if (position < headSize) {
+            return mEarthquakes.getStableId(position);
+        }
+        int row = position - headSize;
+        EarthquakeDisplayModel page = mPager.getPage(row);
+        int rowInPage = mPager.getRowInPage(row);
+        // A row whose page is not in memory gets an id of its own until the page is back
+        return page != null && rowInPage < page.size() ? page.getStableId(rowInPage) : ~(long) position;
     }
 
     /**
-     * Returns the formatted date string (i.e. "Jan 05, 2016") from a Date object
+     * Inflates a new list item layout and looks up its views once, keeping them in a
+     * {@link ViewHolder}.
      */
-    private String formatDate(Date dateObject) {
-        SimpleDateFormat dateFormatter = new SimpleDateFormat("MMM dd, yyyy");
-        return dateFormatter.format(dateObject);
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View itemView = LayoutInflater.from(getContext()).inflate(R.layout.earthquake_list_item, parent, false);
+        final ViewHolder holder = new ViewHolder(itemView);
+        itemView.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                int position = holder.getAdapterPosition();
+                if (position == RecyclerView.NO_POSITION || mClickListener == null) {
+                    return;
+                }
+                int headSize = mEarthquakes.size();
+                if (position < headSize) {
+                    mClickListener.onEarthquakeClick(getEarthquakes(), position);
+                    return;
+                }
+                int row = position - headSize;
+                EarthquakeDisplayModel page = mPager.getPage(row);
+                int rowInPage = mPager.getRowInPage(row);
+                if (page != null && rowInPage < page.size()) {
+                    mClickListener.onEarthquakeClick(page.getEarthquakes(), rowInPage);
+                }
+            }
+        });
+        return holder;
     }
 
     /**
-     * Returns the formatted time string (i.e. "4:30 PM") from a Date object
+     * Displays earthquake information about the earthquake at the given position in the list
+     * of earthquakes.
      */
-    private String formatTime(Date dateObject) {
-        SimpleDateFormat timeFormatter = new SimpleDateFormat("HH:mm a");
-        return timeFormatter.format(dateObject);
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        long startTime = Metrics.startTime();
+        int headSize = mEarthquakes.size();
+        if (position < headSize) {
+            holder.bind(mEarthquakes, position);
+        } else {
+            int row = position - headSize;
+            EarthquakeDisplayModel page = mPager.getPage(row);
+            int rowInPage = mPager.getRowInPage(row);
+            if (page != null && rowInPage < page.size()) {
+                holder.bind(page, rowInPage);
+            } else {
+                holder.clear();
+            }
+        }
+        if (mPager != null) {
+            // Rows of the first page count as negative rows of the pager, which starts
+            // loading once the end of the first page is near
+            mPager.onRowShown(position - headSize);
+        }
+        BIND_TIMER.stop(startTime);
     }
 
     /**
-     * Return the formatted magnitude string showing 1 decimal place (i.e. "3.4")
-     * from a decimal magnitude value.
+     * The views of a single list item, found once when the item is inflated.
      */
-    private String formatMagnitude(double magnitude) {
-        DecimalFormat magnitudeFormatter = new DecimalFormat("0.0");
-        return magnitudeFormatter.format(magnitude);
+    static final class ViewHolder extends RecyclerView.ViewHolder {
+        final TextView magnitudeTextView;
+        final GradientDrawable magnitudeCircle;
+        final TextView offsetLocationTextView;
+        final TextView primaryLocationTextView;
+        final TextView dateTextView;
+        final TextView timeTextView;
+
+        ViewHolder(View itemView) {
+            super(itemView);
+            magnitudeTextView = (TextView) itemView.findViewById(R.id.earthquake_list_item_magnitude);
+            // Get drawable background of the magnitude text view
+            magnitudeCircle = (GradientDrawable) magnitudeTextView.getBackground();
+            offsetLocationTextView = (TextView) itemView.findViewById(R.id.earthquake_list_item_offset_location);
+            primaryLocationTextView = (TextView) itemView.findViewById(R.id.earthquake_list_item_primary_location);
+            dateTextView = (TextView) itemView.findViewById(R.id.earthquake_list_item_date);
+            timeTextView = (TextView) itemView.findViewById(R.id.earthquake_list_item_time);
+        }
+
+        /**
+         * Shows the precomputed values of the row in the views.
+         */
+        void bind(EarthquakeDisplayModel earthquakes, int position) {
+            // Display the formatted magnitude of the current earthquake
+            magnitudeTextView.setText(earthquakes.getMagnitude(position));
+            // Assign a color to the the drawable background of magnitude text view
+            magnitudeCircle.setColor(earthquakes.getMagnitudeColor(position));
+
+            // The location has already been split into primary location and location offset.
+            // In the future, if our designer wants to display the whole location string together
+            // in the UI, only EarthquakeDisplayModel has to change.
+            offsetLocationTextView.setText(earthquakes.getOffsetLocation(position));
+            primaryLocationTextView.setText(earthquakes.getPrimaryLocation(position));
+
+            dateTextView.setText(earthquakes.getDate(position));
+            timeTextView.setText(earthquakes.getTime(position));
+        }
+
+        /**
+         * Shows an empty row while its page is being loaded.
+         */
+        void clear() {
+            magnitudeTextView.setText(null);
+            magnitudeCircle.setColor(Color.TRANSPARENT);
+            offsetLocationTextView.setText(null);
+            primaryLocationTextView.setText(null);
+            dateTextView.setText(null);
+            timeTextView.setText(null);
+        }
     }
 
-    private int getMagnitudeColor(double magnitude) {
-        int magnitudeFloor = (int) Math.floor(magnitude);
-        int magnitudeColorResourceId;
-
-        switch (magnitudeFloor) {
-            case 0:
-            case 1:
-                magnitudeColorResourceId = R.color.magnitude1;
-                break;
-            case 2:
-                magnitudeColorResourceId = R.color.magnitude2;
-                break;
-            case 3:
-                magnitudeColorResourceId = R.color.magnitude3;
-                break;
-            case 4:
-                magnitudeColorResourceId = R.color.magnitude4;
-                break;
-            case 5:
-                magnitudeColorResourceId = R.color.magnitude5;
-                break;
-            case 6:
-                magnitudeColorResourceId = R.color.magnitude6;
-                break;
-            case 7:
-                magnitudeColorResourceId = R.color.magnitude7;
-                break;
-            case 8:
-                magnitudeColorResourceId = R.color.magnitude8;
-                break;
-            case 9:
-                magnitudeColorResourceId = R.color.magnitude9;
-                break;
-            default:
-                magnitudeColorResourceId = R.color.magnitude10plus;
-                break;
+    /**
+     * Compares two sets of earthquakes for {@link DiffUtil}: rows are the same item when they
+     * have the same stable id, and need rebinding only when a displayed value changed.
+     */
+    static final class EarthquakeDiffCallback extends DiffUtil.Callback {
+        private final EarthquakeDisplayModel mOld;
+        private final EarthquakeDisplayModel mNew;
+
+        EarthquakeDiffCallback(EarthquakeDisplayModel oldEarthquakes, EarthquakeDisplayModel newEarthquakes) {
+            mOld = oldEarthquakes;
+            mNew = newEarthquakes;
         }
 
-        return ContextCompat.getColor(getContext(), magnitudeColorResourceId);
+        @Override
+        public int getOldListSize() {
+            return mOld.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNew.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldPosition, int newPosition) {
+            return mOld.getStableId(oldPosition) == mNew.getStableId(newPosition);
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldPosition, int newPosition) {
+            return mOld.hasSameContents(oldPosition, mNew, newPosition);
+        }
     }
 }
@@ -0,0 +1,214 @@
+package com.example.android.quakereport;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Keeps summaries of a set of {@link Earthquake}s up to date as earthquakes are added, updated
+ * and removed, so they can be read without going over the earthquakes again.
+ *
+ * Three summaries are kept:
+ * <ul>
+ * <li>the number of earthquakes per magnitude band, the bands of
+ * {@link EarthquakeFormatter#getMagnitudeBand(double)},</li>
+ * <li>the number of earthquakes per UTC hour and per UTC day, and</li>
+ * <li>the biggest magnitude per region, the last part of the primary location
+ * (i.e. "Alaska" for "10km SW of Anchorage, Alaska").</li>
+ * </ul>
+ * A change costs one counter per summary, plus a logarithmic step for the region, whose
+ * magnitudes are kept counted by value so the biggest is still known after it is removed.
+ * Reading a summary costs one step per bucket it returns.
+ *
+ * Deleted earthquakes are not counted. All methods are thread-safe.
+ */
+public class EarthquakeAggregator {
+
+    /** Length of an hour bucket in milliseconds */
+    public static final long HOUR_MILLIS = 60L * 60L * 1000L;
+
+    /** Length of a day bucket in milliseconds */
+    public static final long DAY_MILLIS = 24L * HOUR_MILLIS;
+
+    /** Separator between the state or country and the rest of a primary location */
+    private static final String REGION_SEPARATOR = ", ";
+
+    /** Number of earthquakes counted */
+    private int mCount;
+
+    /** Number of earthquakes per magnitude band */
+    private final int[] mBandCounts = new int[EarthquakeFormatter.MAGNITUDE_BAND_COUNT];
+
+    /** Number of earthquakes per bucket, keyed by the bucket's start time */
+    private final TreeMap<Long, Integer> mHourCounts = new TreeMap<>();
+    private final TreeMap<Long, Integer> mDayCounts = new TreeMap<>();
+
+    /** Number of earthquakes per magnitude per region; the last key is the region's biggest */
+    private final Map<String, TreeMap<Double, Integer>> mRegionMagnitudes = new HashMap<>();
+
+    /**
+     * Adds the earthquake to the summaries.
+     */
+    public synchronized void add(Earthquake earthquake) {
+        update(earthquake, 1);
+    }
+
+    /**
+     * Removes an earthquake added before from the summaries.
+     */
+    public synchronized void remove(Earthquake earthquake) {
+        update(earthquake, -1);
+    }
+
+    /**
+     * Replaces an earlier version of an earthquake with a newer one. Either may be null, for an
+     * earthquake that is new or gone.
+     */
+    public synchronized void replace(Earthquake oldEarthquake, Earthquake newEarthquake) {
+        if (oldEarthquake != null) {
+            update(oldEarthquake, -1);
+        }
+        if (newEarthquake != null) {
+            update(newEarthquake, 1);
+        }
+    }
+
+    /**
+     * Removes every earthquake from the summaries.
+     */
+    public synchronized void clear() {
+        mCount = 0;
+        for (int band = 0; band < mBandCounts.length; band++) {
+            mBandCounts[band] = 0;
+        }
+        mHourCounts.clear();
+        mDayCounts.clear();
+        mRegionMagnitudes.clear();
+    }
+
+    /**
+     * Returns the number of earthquakes counted.
+     */
+    public synchronized int getCount() {
+        return mCount;
+    }
+
+    /**
+     * Returns the number of earthquakes per magnitude band, indexed by band.
+     */
+    public synchronized int[] getMagnitudeHistogram() {
+        return mBandCounts.clone();
+    }
+
+    /**
+     * Returns the number of earthquakes per UTC hour, from the hour holding the start time up
+     * to the end time, keyed by the start of the hour in milliseconds, oldest first. Empty
+     * hours are left out.
+     */
+    public synchronized Map<Long, Integer> getCountsPerHour(long startMillis, long endMillis) {
+        return range(mHourCounts, startMillis, endMillis, HOUR_MILLIS);
+    }
+
+    /**
+     * Returns the number of earthquakes per UTC day, from the day holding the start time up
+     * to the end time, keyed by the start of the day in milliseconds, oldest first. Empty
+     * days are left out.
+     */
+    public synchronized Map<Long, Integer> getCountsPerDay(long startMillis, long endMillis) {
+        return range(mDayCounts, startMillis, endMillis, DAY_MILLIS);
+    }
+
+    /**
+     * Returns the biggest magnitude of every region, keyed by region.
+     */
+    public synchronized Map<String, Double> getMaxMagnitudePerRegion() {
+        Map<String, Double> maxMagnitudes = new HashMap<>(mRegionMagnitudes.size() * 2);
+        for (Map.Entry<String, TreeMap<Double, Integer>> region : mRegionMagnitudes.entrySet()) {
+            maxMagnitudes.put(region.getKey(), region.getValue().lastKey());
+        }
+        return maxMagnitudes;
+    }
+
+    /**
+     * Returns the biggest magnitude of the region, or NaN if it has no earthquakes.
+     */
+    public synchronized double getMaxMagnitude(String region) {
+        TreeMap<Double, Integer> magnitudes = mRegionMagnitudes.get(region);
+        return magnitudes == null ? Double.NaN : magnitudes.lastKey();
+    }
+
+    /**
+     * Returns the region of a location: the part of the primary location after its last comma,
+     * or the whole primary location if it has none.
+     */
+    public static String getRegion(String location) {
+        int separator = location.indexOf(EarthquakeTable.LOCATION_SEPARATOR);
+        int start = separator < 0 ? 0 : separator + EarthquakeTable.LOCATION_SEPARATOR.length();
+        int comma = location.lastIndexOf(REGION_SEPARATOR);
+        if (comma >= start) {
+            start = comma + REGION_SEPARATOR.length();
+        }
+        return location.substring(start).trim();
+    }
+
+    /**
+     * Returns the start of the bucket of the given length holding the time.
+     */
+    static long bucketStart(long timeInMilliseconds, long bucketMillis) {
+        long remainder = timeInMilliseconds % bucketMillis;
+        // Times before the Epoch belong to the bucket below them
+        return timeInMilliseconds - (remainder < 0 ? remainder + bucketMillis : remainder);
+    }
+
+    private void update(Earthquake earthquake, int delta) {
+        if (earthquake.isDeleted()) {
+            return;
+        }
+        mCount += delta;
+        mBandCounts[EarthquakeFormatter.getMagnitudeBand(earthquake.getMagnitude())] += delta;
+
+        long time = earthquake.getTimeInMilliseconds();
+        addCount(mHourCounts, bucketStart(time, HOUR_MILLIS), delta);
+        addCount(mDayCounts, bucketStart(time, DAY_MILLIS), delta);
+
+        double magnitude = earthquake.getMagnitude();
+        if (Double.isNaN(magnitude)) {
+            return;
+        }
+        String region = getRegion(earthquake.getLocation());
+        TreeMap<Double, Integer> magnitudes = mRegionMagnitudes.get(region);
+        if (magnitudes == null) {
+            if (delta < 0) {
+                return;
+            }
+            magnitudes = new TreeMap<>();
+            mRegionMagnitudes.put(region, magnitudes);
+        }
+        addCount(magnitudes, magnitude, delta);
+        if (magnitudes.isEmpty()) {
+            mRegionMagnitudes.remove(region);
+        }
+    }
+
+    /**
+     * Adds the delta to the count of the key, dropping counts that reach zero.
+     */
+    private static <K> void addCount(TreeMap<K, Integer> counts, K key, int delta) {
+        Integer count = counts.get(key);
+        int newCount = (count == null ? 0 : count) + delta;
+        if (newCount > 0) {
+            counts.put(key, newCount);
+        } else {
+            counts.remove(key);
+        }
+    }
+
+    private static Map<Long, Integer> range(TreeMap<Long, Integer> counts, long startMillis,
+                                            long endMillis, long bucketMillis) {
+        SortedMap<Long, Integer> buckets = counts.subMap(bucketStart(startMillis, bucketMillis),
+                Math.max(bucketStart(startMillis, bucketMillis), endMillis));
+        return new LinkedHashMap<>(buckets);
+    }
+}
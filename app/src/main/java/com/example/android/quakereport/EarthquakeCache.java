@@ -0,0 +1,480 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An on-disk cache in front of {@link QueryUtils#fetchEarthQuakeData(String, String, long)}.
+ *
+ * Every request URL maps to the ids of the earthquakes it returned, together with the ETag and
+ * Last-Modified validators of the response. The earthquakes themselves live in an
+ * {@link EarthquakeStore}, which only keeps the ones some entry still refers to: events of
+ * evicted or replaced results are swept out of it when the store is saved. While an entry is
+ * younger than the TTL it is served straight from disk; after that the request is revalidated
+ * with If-None-Match / If-Modified-Since, so an unchanged result costs a 304 instead of a full
+ * download.
+ *
+ * Neither requests nor disk writes hold the cache's lock, so cached reads never wait for them.
+ *
+ * With delta sync enabled, a stale entry of a query {@link DeltaSync} can handle is instead
+ * brought up to date through it: only the events updated since the newest one already seen
+ * are downloaded and merged in by event id.
+ */
+public class EarthquakeCache {
+
+    private static final String LOG_TAG = EarthquakeCache.class.getSimpleName();
+
+    private static final Metrics.Counter CACHE_HIT_COUNTER = Metrics.counter(Metrics.CACHE_HITS);
+    private static final Metrics.Counter DELTA_INSERTED_COUNTER = Metrics.counter(Metrics.DELTA_INSERTED);
+    private static final Metrics.Counter DELTA_UPDATED_COUNTER = Metrics.counter(Metrics.DELTA_UPDATED);
+    private static final Metrics.Counter DELTA_DELETED_COUNTER = Metrics.counter(Metrics.DELTA_DELETED);
+
+    /** How long a cached result is used without asking the server, in milliseconds */
+    public static final long DEFAULT_TTL_MILLIS = 5 * 60 * 1000L;
+
+    /** Maximum number of request URLs remembered, least recently used ones are dropped first */
+    private static final int MAX_ENTRIES = 32;
+
+    /**
+     * Version of the entries file format. Bumped together with the store's, because entries
+     * only hold ids and are useless once the events they point at have been dropped.
+     */
+    private static final int FILE_VERSION = 3;
+
+    private static final String STORE_FILE_NAME = "earthquakes.dat";
+    private static final String ENTRIES_FILE_NAME = "queries.dat";
+    private static final String HISTORY_DIRECTORY_NAME = "history";
+
+    private static EarthquakeCache sInstance;
+
+    /** The earthquakes referenced by the cached requests */
+    private final EarthquakeStore mStore;
+
+    /** Every earthquake fetched, kept for the retention of the history */
+    private final EarthquakeHistory mHistory;
+
+    /** File the cache entries are persisted to */
+    private final File mEntriesFile;
+
+    /** How long an entry is fresh, in milliseconds */
+    private final long mTtlMillis;
+
+    /** Cache entries keyed by request URL, in access order */
+    private final Map<String, CacheEntry> mEntries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+            if (size() <= MAX_ENTRIES) {
+                return false;
+            }
+            mSweepNeeded = true;
+            return true;
+        }
+    };
+
+    /** True if stale entries are refreshed with an incremental query */
+    private boolean mDeltaSyncEnabled = true;
+
+    /** Bumped every time a response changes the cached earthquakes */
+    private long mGeneration;
+
+    /** True if entries were dropped or replaced, so the store may hold events nobody refers to */
+    private boolean mSweepNeeded;
+
+    private boolean mLoaded;
+
+    /** Held while the store and the entries are written, which happens outside the monitor */
+    private final Object mSaveLock = new Object();
+
+    /** Number of entry snapshots taken for saving */
+    private long mSaveSequence;
+
+    /** Sequence of the entry snapshot last written, guarded by {@link #mSaveLock} */
+    private long mSavedSequence;
+
+    /**
+     * Returns the app-wide cache, stored in the app's private files directory.
+     */
+    public static synchronized EarthquakeCache getInstance(Context context) {
+        if (sInstance == null) {
+            File directory = new File(context.getApplicationContext().getFilesDir(), "earthquakes");
+            sInstance = new EarthquakeCache(directory, DEFAULT_TTL_MILLIS);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Constructs a new {@link EarthquakeCache}.
+     *
+     * @param directory is the directory the cache files are kept in
+     * @param ttlMillis is how long a cached result is served without revalidating it
+     */
+    public EarthquakeCache(File directory, long ttlMillis) {
+        mStore = new EarthquakeStore(new File(directory, STORE_FILE_NAME));
+        mHistory = new EarthquakeHistory(new File(directory, HISTORY_DIRECTORY_NAME));
+        mEntriesFile = new File(directory, ENTRIES_FILE_NAME);
+        mTtlMillis = ttlMillis;
+    }
+
+    /**
+     * Turns incremental sync of stale entries on or off. When off, stale entries are
+     * revalidated with a conditional request for the whole result.
+     */
+    public synchronized void setDeltaSyncEnabled(boolean enabled) {
+        mDeltaSyncEnabled = enabled;
+    }
+
+    /**
+     * Returns the event store backing this cache.
+     */
+    public EarthquakeStore getStore() {
+        ensureLoaded();
+        return mStore;
+    }
+
+    /**
+     * Returns a number that changes whenever a response changes the cached earthquakes, so
+     * callers can tell whether a refresh brought anything new. A 304 or an empty delta leaves
+     * it as it was.
+     */
+    public synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Returns the history every fetched earthquake is appended to.
+     */
+    public EarthquakeHistory getHistory() {
+        return mHistory;
+    }
+
+    /**
+     * Returns the earthquakes cached for the URL without touching the network, or null if
+     * nothing is cached for it.
+     */
+    public synchronized List<Earthquake> getCached(String requestUrl) {
+        ensureLoaded();
+        CacheEntry entry = mEntries.get(requestUrl);
+        return entry == null ? null : resolve(entry);
+    }
+
+    /**
+     * Returns the earthquakes for the URL. A fresh cached result is returned without touching
+     * the network, a stale one is revalidated, and if the request fails the stale result is
+     * returned rather than nothing.
+     */
+    public List<Earthquake> fetch(String requestUrl) {
+        return fetch(requestUrl, false);
+    }
+
+    /**
+     * Revalidates the earthquakes for the URL with the server even if the cached result is
+     * still fresh. Returns null if the request fails, so background syncs can retry.
+     */
+    public List<Earthquake> refresh(String requestUrl) {
+        return fetch(requestUrl, true);
+    }
+
+    private List<Earthquake> fetch(String requestUrl, boolean refresh) {
+        CacheEntry entry;
+        synchronized (this) {
+            ensureLoaded();
+            entry = mEntries.get(requestUrl);
+            if (!refresh && entry != null && System.currentTimeMillis() - entry.fetchedAt < mTtlMillis) {
+                Log.v(LOG_TAG, "*************Serving fresh cached result");
+                CACHE_HIT_COUNTER.increment();
+                return resolve(entry);
+            }
+        }
+
+        // Talk to the server without holding the lock, so cached reads are never blocked
+        // behind a slow request.
+        if (entry != null && entry.newestUpdated > 0 && isDeltaSyncEnabled()
+                && DeltaSync.canSync(requestUrl)) {
+            String deltaUrl = DeltaSync.buildDeltaUrl(requestUrl, entry.newestUpdated);
+            QueryUtils.Response delta = request(deltaUrl, null, 0L, refresh);
+            List<Earthquake> synced = null;
+            boolean changed;
+            PendingSave pendingSave = null;
+            synchronized (this) {
+                if (delta == null) {
+                    return refresh ? null : resolve(entry);
+                }
+                DeltaSync.Result result = DeltaSync.merge(requestUrl, entry.ids, entry.newestUpdated,
+                        delta.earthquakes, mStore);
+                DELTA_INSERTED_COUNTER.add(result.inserted);
+                DELTA_UPDATED_COUNTER.add(result.updated);
+                DELTA_DELETED_COUNTER.add(result.deleted);
+                changed = result.inserted > 0 || result.updated > 0 || result.deleted > 0;
+                if (changed) {
+                    mGeneration++;
+                    // Events may have dropped out of a result cut off by limit
+                    mSweepNeeded = true;
+                }
+                if (!result.needsFullFetch) {
+                    CacheEntry syncedEntry = new CacheEntry(entry.eTag, entry.lastModified,
+                            System.currentTimeMillis(), result.ids, result.newestUpdated);
+                    mEntries.put(requestUrl, syncedEntry);
+                    synced = resolve(syncedEntry);
+                }
+                if (synced != null || changed) {
+                    pendingSave = prepareSave();
+                }
+            }
+            if (changed) {
+                mHistory.append(delta.earthquakes);
+            }
+            if (pendingSave != null) {
+                save(pendingSave);
+            }
+            if (synced != null) {
+                return synced;
+            }
+            // The merged result is incomplete, so fetch it in full. Drop the validators so the
+            // server cannot answer with a 304 for the old result.
+            entry = new CacheEntry(null, 0L, entry.fetchedAt, entry.ids, entry.newestUpdated);
+        }
+
+        QueryUtils.Response response = entry == null
+                ? request(requestUrl, null, 0L, refresh)
+                : request(requestUrl, entry.eTag, entry.lastModified, refresh);
+
+        List<Earthquake> earthquakes;
+        PendingSave pendingSave;
+        synchronized (this) {
+            if (response == null || (response.notModified && entry == null)) {
+                return entry == null || refresh ? null : resolve(entry);
+            }
+
+            long now = System.currentTimeMillis();
+            if (response.notModified) {
+                Log.v(LOG_TAG, "*************Cached result not modified");
+                CacheEntry revalidated = new CacheEntry(response.eTag, response.lastModified, now,
+                        entry.ids, entry.newestUpdated);
+                mEntries.put(requestUrl, revalidated);
+                earthquakes = resolve(revalidated);
+            } else {
+                earthquakes = response.earthquakes;
+                String[] ids = new String[earthquakes.size()];
+                for (int i = 0; i < ids.length; i++) {
+                    ids[i] = earthquakes.get(i).getId();
+                }
+                mGeneration++;
+                mStore.putAll(earthquakes);
+                mEntries.put(requestUrl, new CacheEntry(response.eTag, response.lastModified, now, ids,
+                        DeltaSync.newestUpdated(earthquakes)));
+                // The events of the result this one replaces may be gone from it
+                mSweepNeeded = true;
+            }
+            pendingSave = prepareSave();
+        }
+        if (!response.notModified) {
+            mHistory.append(earthquakes);
+        }
+        save(pendingSave);
+        return earthquakes;
+    }
+
+    /**
+     * Sends the request, or joins an identical one. A refresh wants what the server has now, so
+     * it is never answered from the responses of the last few seconds.
+     */
+    private static QueryUtils.Response request(String requestUrl, String eTag, long lastModified,
+                                               boolean refresh) {
+        return refresh
+                ? QueryUtils.fetchLatestEarthQuakeData(requestUrl, eTag, lastModified)
+                : QueryUtils.fetchEarthQuakeData(requestUrl, eTag, lastModified);
+    }
+
+    private synchronized boolean isDeltaSyncEnabled() {
+        return mDeltaSyncEnabled;
+    }
+
+    /**
+     * Looks up the earthquakes of an entry in the store, in the order the server returned them.
+     */
+    private List<Earthquake> resolve(CacheEntry entry) {
+        List<Earthquake> earthquakes = new ArrayList<>(entry.ids.length);
+        for (String id : entry.ids) {
+            Earthquake earthquake = mStore.get(id);
+            if (earthquake != null) {
+                earthquakes.add(earthquake);
+            }
+        }
+        return earthquakes;
+    }
+
+    /**
+     * Drops the events no entry refers to if entries were evicted or replaced since the last
+     * sweep, and takes a snapshot of the entries to save. Called while holding the monitor.
+     */
+    private PendingSave prepareSave() {
+        if (mSweepNeeded) {
+            mSweepNeeded = false;
+            Set<String> referenced = new HashSet<>();
+            for (CacheEntry entry : mEntries.values()) {
+                Collections.addAll(referenced, entry.ids);
+            }
+            int removed = mStore.retainAll(referenced);
+            if (removed > 0) {
+                if (Log.isLoggable(LOG_TAG, Log.VERBOSE)) {
+                    Log.v(LOG_TAG, "*************Swept " + removed + " earthquakes no result refers to");
+                }
+            }
+        }
+        return new PendingSave(++mSaveSequence, new LinkedHashMap<>(mEntries));
+    }
+
+    /**
+     * Saves the store and then the entries, unless entries newer than the snapshot were saved
+     * already. Called without holding the monitor.
+     */
+    private void save(PendingSave pendingSave) {
+        synchronized (mSaveLock) {
+            // Written first, so saved entries never refer to events that are not on disk
+            mStore.save();
+            if (pendingSave.sequence > mSavedSequence) {
+                mSavedSequence = pendingSave.sequence;
+                saveEntries(pendingSave.entries);
+            }
+        }
+    }
+
+    private synchronized void ensureLoaded() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        mStore.load();
+        loadEntries();
+        // Stores written before events were swept may hold ones nobody refers to
+        mSweepNeeded = true;
+    }
+
+    private void loadEntries() {
+        if (!mEntriesFile.exists()) {
+            return;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mEntriesFile)));
+            if (in.readInt() != FILE_VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String url = in.readUTF();
+                String eTag = in.readBoolean() ? in.readUTF() : null;
+                long lastModified = in.readLong();
+                long fetchedAt = in.readLong();
+                long newestUpdated = in.readLong();
+                String[] ids = new String[in.readInt()];
+                for (int j = 0; j < ids.length; j++) {
+                    ids[j] = in.readUTF();
+                }
+                mEntries.put(url, new CacheEntry(eTag, lastModified, fetchedAt, ids, newestUpdated));
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem reading the cache entries", e);
+            mEntries.clear();
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private void saveEntries(Map<String, CacheEntry> entries) {
+        File tempFile = new File(mEntriesFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            out.writeInt(FILE_VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, CacheEntry> mapEntry : entries.entrySet()) {
+                CacheEntry entry = mapEntry.getValue();
+                out.writeUTF(mapEntry.getKey());
+                out.writeBoolean(entry.eTag != null);
+                if (entry.eTag != null) {
+                    out.writeUTF(entry.eTag);
+                }
+                out.writeLong(entry.lastModified);
+                out.writeLong(entry.fetchedAt);
+                out.writeLong(entry.newestUpdated);
+                out.writeInt(entry.ids.length);
+                for (String id : entry.ids) {
+                    out.writeUTF(id);
+                }
+            }
+            out.close();
+            out = null;
+            if (!tempFile.renameTo(mEntriesFile)) {
+                Log.e(LOG_TAG, "Could not replace the cache entries " + mEntriesFile);
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem writing the cache entries", e);
+        } finally {
+            closeQuietly(out);
+            if (tempFile.exists()) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Problem closing the cache entries", e);
+            }
+        }
+    }
+
+    /**
+     * The entries to write in one save, in access order.
+     */
+    private static final class PendingSave {
+        final long sequence;
+        final Map<String, CacheEntry> entries;
+
+        PendingSave(long sequence, Map<String, CacheEntry> entries) {
+            this.sequence = sequence;
+            this.entries = entries;
+        }
+    }
+
+    /**
+     * What is remembered about a single request URL.
+     */
+    private static final class CacheEntry {
+        final String eTag;
+        final long lastModified;
+        final long fetchedAt;
+        final String[] ids;
+        final long newestUpdated;
+
+        CacheEntry(String eTag, long lastModified, long fetchedAt, String[] ids, long newestUpdated) {
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.fetchedAt = fetchedAt;
+            this.ids = ids;
+            this.newestUpdated = newestUpdated;
+        }
+    }
+}
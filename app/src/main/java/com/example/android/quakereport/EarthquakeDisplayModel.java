@@ -0,0 +1,159 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+
+/**
+ * The earthquakes of the list together with everything a row displays, worked out ahead of time.
+ *
+ * Formatting dates and magnitudes, splitting locations and resolving colors all happen once per
+ * earthquake in {@link #build(Context, EarthquakeTable)}, which is meant to run on the loader's
+ * background thread. Binding a row then only hands ready-made strings and a color to its views.
+ */
+public class EarthquakeDisplayModel {
+
+    /** The earthquakes being displayed */
+    private final EarthquakeTable mEarthquakes;
+
+    private final long[] mStableIds;
+    private final String[] mMagnitudes;
+    private final int[] mMagnitudeColors;
+    private final String[] mOffsetLocations;
+    private final String[] mPrimaryLocations;
+    private final String[] mDates;
+    private final String[] mTimes;
+
+    private EarthquakeDisplayModel(EarthquakeTable earthquakes) {
+        int size = earthquakes.size();
+        mEarthquakes = earthquakes;
+        mStableIds = new long[size];
+        mMagnitudes = new String[size];
+        mMagnitudeColors = new int[size];
+        mOffsetLocations = new String[size];
+        mPrimaryLocations = new String[size];
+        mDates = new String[size];
+        mTimes = new String[size];
+    }
+
+    /**
+     * Returns an empty {@link EarthquakeDisplayModel}.
+     */
+    public static EarthquakeDisplayModel empty() {
+        return new EarthquakeDisplayModel(new EarthquakeTable());
+    }
+
+    /**
+     * Works out the display values of every earthquake in the table. Safe to call off the
+     * main thread.
+     */
+    public static EarthquakeDisplayModel build(Context context, EarthquakeTable earthquakes) {
+        return build(new EarthquakeFormatter(context), earthquakes);
+    }
+
+    /**
+     * Works out the display values of every earthquake in the table with the formatter.
+     */
+    static EarthquakeDisplayModel build(EarthquakeFormatter formatter, EarthquakeTable earthquakes) {
+        EarthquakeDisplayModel model = new EarthquakeDisplayModel(earthquakes);
+        for (int row = 0; row < earthquakes.size(); row++) {
+            double magnitude = earthquakes.getMagnitude(row);
+            long time = earthquakes.getTimeInMilliseconds(row);
+            model.mStableIds[row] = stableIdOf(earthquakes.getId(row));
+            model.mMagnitudes[row] = formatter.formatMagnitude(magnitude);
+            model.mMagnitudeColors[row] = formatter.getMagnitudeColor(magnitude);
+            model.mOffsetLocations[row] = formatter.formatOffsetLocation(earthquakes.getOffsetLocation(row));
+            model.mPrimaryLocations[row] = earthquakes.getPrimaryLocation(row);
+            model.mDates[row] = formatter.formatDate(time);
+            model.mTimes[row] = formatter.formatTime(time);
+        }
+        return model;
+    }
+
+    /**
+     * Returns the earthquakes being displayed.
+     */
+    public EarthquakeTable getEarthquakes() {
+        return mEarthquakes;
+    }
+
+    /**
+     * Returns the number of rows.
+     */
+    public int size() {
+        return mMagnitudes.length;
+    }
+
+    /**
+     * Returns a stable id for the row, derived from its USGS event id, so the same earthquake
+     * keeps the same id across loads.
+     */
+    public long getStableId(int row) {
+        return mStableIds[row];
+    }
+
+    /**
+     * Returns true if the row shows exactly the same values as a row of another model.
+     */
+    public boolean hasSameContents(int row, EarthquakeDisplayModel other, int otherRow) {
+        return mMagnitudeColors[row] == other.mMagnitudeColors[otherRow]
+                && mMagnitudes[row].equals(other.mMagnitudes[otherRow])
+                && mOffsetLocations[row].equals(other.mOffsetLocations[otherRow])
+                && mPrimaryLocations[row].equals(other.mPrimaryLocations[otherRow])
+                && mDates[row].equals(other.mDates[otherRow])
+                && mTimes[row].equals(other.mTimes[otherRow]);
+    }
+
+    /**
+     * Returns the formatted magnitude of the row (i.e. "3.4").
+     */
+    public String getMagnitude(int row) {
+        return mMagnitudes[row];
+    }
+
+    /**
+     * Returns the magnitude circle color of the row.
+     */
+    public int getMagnitudeColor(int row) {
+        return mMagnitudeColors[row];
+    }
+
+    /**
+     * Returns the location offset of the row (i.e. "88km N of" or "Near the").
+     */
+    public String getOffsetLocation(int row) {
+        return mOffsetLocations[row];
+    }
+
+    /**
+     * Returns the primary location of the row (i.e. "Yelizovo, Russia").
+     */
+    public String getPrimaryLocation(int row) {
+        return mPrimaryLocations[row];
+    }
+
+    /**
+     * Returns the formatted date of the row (i.e. "Jan 05, 2016").
+     */
+    public String getDate(int row) {
+        return mDates[row];
+    }
+
+    /**
+     * Returns the formatted time of the row (i.e. "4:30 PM").
+     */
+    public String getTime(int row) {
+        return mTimes[row];
+    }
+
+    /**
+     * Returns a 64-bit FNV-1a hash of the event id. Collisions are vanishingly unlikely for the
+     * number of earthquakes a list holds.
+     */
+    static long stableIdOf(String id) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < id.length(); i++) {
+            hash ^= id.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
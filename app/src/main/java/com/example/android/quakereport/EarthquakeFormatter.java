@@ -0,0 +1,128 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.support.v4.content.ContextCompat;
+
+import java.text.DecimalFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Turns earthquake values into the strings and colors shown in the list.
+ *
+ * The formatters and the magnitude colors are created once per {@link EarthquakeFormatter}
+ * instead of once per call. Like the {@link SimpleDateFormat}s it holds, an instance is not
+ * thread-safe, so each thread should use its own.
+ */
+public class EarthquakeFormatter {
+
+    /** Magnitude circle color resources, indexed by {@link #getMagnitudeBand(double)} */
+    private static final int[] MAGNITUDE_COLOR_RESOURCE_IDS = {
+            R.color.magnitude1,
+            R.color.magnitude2,
+            R.color.magnitude3,
+            R.color.magnitude4,
+            R.color.magnitude5,
+            R.color.magnitude6,
+            R.color.magnitude7,
+            R.color.magnitude8,
+            R.color.magnitude9,
+            R.color.magnitude10plus
+    };
+
+    /** Number of magnitude color bands */
+    public static final int MAGNITUDE_BAND_COUNT = MAGNITUDE_COLOR_RESOURCE_IDS.length;
+
+    private final SimpleDateFormat mDateFormatter = new SimpleDateFormat("MMM dd, yyyy");
+    private final SimpleDateFormat mTimeFormatter = new SimpleDateFormat("HH:mm a");
+    private final DecimalFormat mMagnitudeFormatter = new DecimalFormat("0.0");
+
+    /** Reused for every call so formatting a time does not allocate a Date */
+    private final Date mDate = new Date();
+
+    /** Magnitude circle colors, resolved once and indexed by band */
+    private final int[] mMagnitudeColors;
+
+    /** Offset text for locations that have no offset */
+    private final String mNearThe;
+
+    /**
+     * Constructs a new {@link EarthquakeFormatter}, resolving colors and strings from the context.
+     */
+    public EarthquakeFormatter(Context context) {
+        this(getMagnitudeColors(context), context.getString(R.string.near_the));
+    }
+
+    /**
+     * Constructs a new {@link EarthquakeFormatter} from colors and strings resolved already.
+     *
+     * @param magnitudeColors are the magnitude circle colors, indexed by band
+     * @param nearThe is the offset text for locations that have no offset
+     */
+    EarthquakeFormatter(int[] magnitudeColors, String nearThe) {
+        if (magnitudeColors.length != MAGNITUDE_BAND_COUNT) {
+            throw new IllegalArgumentException("Need one color per magnitude band");
+        }
+        mMagnitudeColors = magnitudeColors;
+        mNearThe = nearThe;
+    }
+
+    private static int[] getMagnitudeColors(Context context) {
+        int[] colors = new int[MAGNITUDE_BAND_COUNT];
+        for (int band = 0; band < MAGNITUDE_BAND_COUNT; band++) {
+            colors[band] = ContextCompat.getColor(context, MAGNITUDE_COLOR_RESOURCE_IDS[band]);
+        }
+        return colors;
+    }
+
+    /**
+     * Returns the formatted date string (i.e. "Jan 05, 2016") from a time in milliseconds
+     */
+    public String formatDate(long timeInMilliseconds) {
+        mDate.setTime(timeInMilliseconds);
+        return mDateFormatter.format(mDate);
+    }
+
+    /**
+     * Returns the formatted time string (i.e. "4:30 PM") from a time in milliseconds
+     */
+    public String formatTime(long timeInMilliseconds) {
+        mDate.setTime(timeInMilliseconds);
+        return mTimeFormatter.format(mDate);
+    }
+
+    /**
+     * Return the formatted magnitude string showing 1 decimal place (i.e. "3.4")
+     * from a decimal magnitude value.
+     */
+    public String formatMagnitude(double magnitude) {
+        return mMagnitudeFormatter.format(magnitude);
+    }
+
+    /**
+     * Returns the magnitude circle color for the magnitude.
+     */
+    public int getMagnitudeColor(double magnitude) {
+        return mMagnitudeColors[getMagnitudeBand(magnitude)];
+    }
+
+    /**
+     * Returns the text shown above the primary location, substituting "Near the" when the
+     * location has no offset.
+     */
+    public String formatOffsetLocation(String offsetLocation) {
+        return offsetLocation.isEmpty() ? mNearThe : offsetLocation;
+    }
+
+    /**
+     * Returns the color band of a magnitude: 0 for magnitudes from 0 up to 2, then one band per
+     * whole magnitude. Magnitudes of 10 and above, and negative ones, fall in the last band.
+     */
+    public static int getMagnitudeBand(double magnitude) {
+        int magnitudeFloor = (int) Math.floor(magnitude);
+        if (magnitudeFloor < 0 || magnitudeFloor >= MAGNITUDE_BAND_COUNT) {
+            return MAGNITUDE_BAND_COUNT - 1;
+        }
+        return magnitudeFloor < 2 ? 0 : magnitudeFloor - 1;
+    }
+}
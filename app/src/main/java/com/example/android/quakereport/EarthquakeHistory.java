@@ -0,0 +1,781 @@
+package com.example.android.quakereport;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * A local history of every {@link Earthquake} fetched, kept for a limited time.
+ *
+ * Earthquakes are appended to one segment file per UTC day of their time, and a new version of
+ * an earthquake is appended after the old one rather than rewriting anything. Every segment
+ * carries a summary of the earliest and latest time in it, kept in a small manifest, so a query
+ * for a time range only opens the segments overlapping it.
+ *
+ * {@link #compact(long)} keeps the history bounded. Segments whose day is older than the
+ * retention are deleted outright. Segments older than the compaction age, which USGS no
+ * longer updates much, are rewritten once with only the latest version of every earthquake,
+ * without deleted ones and without those below the minimum kept magnitude. How many small
+ * ones were dropped stays in the summary.
+ *
+ * An earthquake whose time is corrected to another day is appended to the segment of the new
+ * day, and a deleted copy at the old time to the segment of the old day, so the old version
+ * is neither found by queries of that day alone nor kept by its compaction. The version each
+ * earthquake was last appended at is remembered for the most recent updates only, and after a
+ * restart only for the segments not compacted yet: a correction of an earthquake older than
+ * that leaves its old version where it was. Queries covering both days still return the
+ * corrected one.
+ *
+ * All methods are thread-safe, and all of them do file I/O, so none should be called on the
+ * main thread.
+ */
+public class EarthquakeHistory {
+
+    private static final String LOG_TAG = EarthquakeHistory.class.getSimpleName();
+
+    /** How long earthquakes are kept, in milliseconds */
+    public static final long DEFAULT_RETENTION_MILLIS = 90L * EarthquakeAggregator.DAY_MILLIS;
+
+    /** Age of the segments compacted, in milliseconds */
+    public static final long DEFAULT_COMPACT_AFTER_MILLIS = 7L * EarthquakeAggregator.DAY_MILLIS;
+
+    /** How far back USGS answers a query that gives no start time, in milliseconds */
+    public static final long USGS_DEFAULT_WINDOW_MILLIS = 30L * EarthquakeAggregator.DAY_MILLIS;
+
+    /** Earthquakes below this magnitude are dropped when their segment is compacted */
+    public static final double DEFAULT_MIN_KEPT_MAGNITUDE = 2.5;
+
+    /** Version of the file formats, bumped whenever the layout of a record changes */
+    private static final int FILE_VERSION = 1;
+
+    /** Size of the version at the start of a segment file */
+    private static final int SEGMENT_HEADER_SIZE = 4;
+
+    /** Number of appended ids remembered, so unchanged earthquakes are not appended again */
+    private static final int MAX_REMEMBERED_UPDATES = 20000;
+
+    private static final String MANIFEST_FILE_NAME = "manifest.dat";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private final File mDirectory;
+    private final File mManifestFile;
+    private final long mRetentionMillis;
+    private final long mCompactAfterMillis;
+    private final double mMinKeptMagnitude;
+
+    /** Summaries of the segments, by UTC day */
+    private final TreeMap<Long, Segment> mSegments = new TreeMap<>();
+
+    /** The version of the earthquakes appended last, by id, eldest first */
+    private final Map<String, Version> mAppended = new LinkedHashMap<String, Version>(16, 0.75f, false) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Version> eldest) {
+            return size() > MAX_REMEMBERED_UPDATES;
+        }
+    };
+
+    private boolean mLoaded;
+
+    /**
+     * Constructs a new {@link EarthquakeHistory} with the default retention and compaction.
+     *
+     * @param directory is the directory the segments are kept in, used for nothing else
+     */
+    public EarthquakeHistory(File directory) {
+        this(directory, DEFAULT_RETENTION_MILLIS, DEFAULT_COMPACT_AFTER_MILLIS, DEFAULT_MIN_KEPT_MAGNITUDE);
+    }
+
+    /**
+     * Constructs a new {@link EarthquakeHistory}.
+     *
+     * @param directory is the directory the segments are kept in, used for nothing else
+     * @param retentionMillis is how long earthquakes are kept
+     * @param compactAfterMillis is the age from which segments are compacted
+     * @param minKeptMagnitude is the magnitude below which compaction drops earthquakes
+     */
+    public EarthquakeHistory(File directory, long retentionMillis, long compactAfterMillis,
+                             double minKeptMagnitude) {
+        if (retentionMillis <= 0 || compactAfterMillis < 0) {
+            throw new IllegalArgumentException("Retention must be positive");
+        }
+        mDirectory = directory;
+        mManifestFile = new File(directory, MANIFEST_FILE_NAME);
+        mRetentionMillis = retentionMillis;
+        mCompactAfterMillis = compactAfterMillis;
+        mMinKeptMagnitude = minKeptMagnitude;
+    }
+
+    /**
+     * Appends the earthquakes not appended before, and the ones updated since, to the segments
+     * of their days. Deleted earthquakes are appended too, so they hide their earlier versions.
+     */
+    public synchronized void append(Collection<Earthquake> earthquakes) {
+        ensureLoaded();
+        Map<Long, List<Earthquake>> byDay = new HashMap<>();
+        Map<Long, List<Earthquake>> tombstonesByDay = new HashMap<>();
+        for (Earthquake earthquake : earthquakes) {
+            Version appended = mAppended.get(earthquake.getId());
+            if (appended != null && appended.updated >= earthquake.getUpdatedInMilliseconds()) {
+                continue;
+            }
+            long day = getDay(earthquake.getTimeInMilliseconds());
+            add(byDay, day, earthquake);
+            if (appended != null && !appended.deleted && getDay(appended.time) != day) {
+                if (Log.isLoggable(LOG_TAG, Log.VERBOSE)) {
+                    Log.v(LOG_TAG, "*************Moving " + earthquake.getId() + " to another day");
+                }
+                add(tombstonesByDay, getDay(appended.time), tombstone(earthquake, appended.time));
+            }
+        }
+        if (byDay.isEmpty()) {
+            return;
+        }
+        if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+            Log.e(LOG_TAG, "Could not create directory " + mDirectory);
+            return;
+        }
+
+        Set<Long> days = new HashSet<>(byDay.keySet());
+        days.addAll(tombstonesByDay.keySet());
+        for (Long day : days) {
+            List<Earthquake> dayEarthquakes = byDay.get(day);
+            List<Earthquake> records = new ArrayList<>();
+            if (tombstonesByDay.containsKey(day)) {
+                records.addAll(tombstonesByDay.get(day));
+            }
+            if (dayEarthquakes != null) {
+                records.addAll(dayEarthquakes);
+            }
+            Segment segment = mSegments.get(day);
+            if (segment == null) {
+                segment = new Segment(day);
+            }
+            if (appendToSegment(segment, records)) {
+                mSegments.put(segment.day, segment);
+                if (dayEarthquakes != null) {
+                    for (Earthquake earthquake : dayEarthquakes) {
+                        mAppended.put(earthquake.getId(), new Version(earthquake));
+                    }
+                }
+            } else if (getFile(segment.day).exists()) {
+                // Cut off whatever part of the batch made it, so the next append starts clean
+                mSegments.put(segment.day, scanSegment(segment.day, getFile(segment.day)));
+            }
+        }
+        saveManifest();
+        if (Log.isLoggable(LOG_TAG, Log.VERBOSE)) {
+            Log.v(LOG_TAG, "*************Appended to " + days.size() + " history segments");
+        }
+    }
+
+    /**
+     * Returns the latest version of every earthquake that happened from startMillis up to, but
+     * not including, endMillis, newest first. Deleted earthquakes are left out. Only the
+     * segments whose time summary overlaps the range are read.
+     */
+    public synchronized List<Earthquake> query(long startMillis, long endMillis) {
+        ensureLoaded();
+        Map<String, Earthquake> latest = new HashMap<>();
+        for (Segment segment : mSegments.values()) {
+            if (segment.records == 0 || segment.maxTime < startMillis || segment.minTime >= endMillis) {
+                continue;
+            }
+            for (Earthquake earthquake : readSegment(segment)) {
+                long time = earthquake.getTimeInMilliseconds();
+                if (time < startMillis || time >= endMillis) {
+                    continue;
+                }
+                // An earthquake whose time was corrected can be in two segments, the later
+                // update wins wherever it is
+                if (isLater(earthquake, latest.get(earthquake.getId()))) {
+                    latest.put(earthquake.getId(), earthquake);
+                }
+            }
+        }
+        List<Earthquake> earthquakes = new ArrayList<>(latest.size());
+        for (Earthquake earthquake : latest.values()) {
+            if (!earthquake.isDeleted()) {
+                earthquakes.add(earthquake);
+            }
+        }
+        Collections.sort(earthquakes, QueryUtils.comparatorForOrderBy("time"));
+        return earthquakes;
+    }
+
+    /**
+     * Answers the query from the history the way USGS would, from the earthquakes of the last
+     * 30 days, i.e. when it cannot be reached. Returns null if the query's minimum magnitude or
+     * order is not understood locally. Earthquakes below the minimum kept magnitude are missing
+     * from the days already compacted.
+     *
+     * @param nowMillis is the current time
+     */
+    public List<Earthquake> query(EarthquakeQuery query, long nowMillis) {
+        double minMagnitude = query.getMinMagnitudeValue();
+        Comparator<Earthquake> comparator = QueryUtils.comparatorForOrderBy(query.getOrderBy());
+        if (Double.isNaN(minMagnitude) || comparator == null) {
+            return null;
+        }
+        List<Earthquake> earthquakes = new ArrayList<>();
+        for (Earthquake earthquake : query(nowMillis - USGS_DEFAULT_WINDOW_MILLIS, Long.MAX_VALUE)) {
+            if (earthquake.getMagnitude() >= minMagnitude) {
+                earthquakes.add(earthquake);
+            }
+        }
+        Collections.sort(earthquakes, comparator);
+        int limit = Math.max(0, query.getLimit());
+        return earthquakes.size() > limit ? new ArrayList<>(earthquakes.subList(0, limit)) : earthquakes;
+    }
+
+    /**
+     * Returns the time of the earliest earthquake in the history, or Long.MAX_VALUE if it is empty.
+     */
+    public synchronized long getMinTime() {
+        ensureLoaded();
+        for (Segment segment : mSegments.values()) {
+            if (segment.records > 0) {
+                return segment.minTime;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Returns the time of the latest earthquake in the history, or Long.MIN_VALUE if it is empty.
+     */
+    public synchronized long getMaxTime() {
+        ensureLoaded();
+        for (Segment segment : mSegments.descendingMap().values()) {
+            if (segment.records > 0) {
+                return segment.maxTime;
+            }
+        }
+        return Long.MIN_VALUE;
+    }
+
+    /**
+     * Returns the number of segments, one per day with earthquakes.
+     */
+    public synchronized int getSegmentCount() {
+        ensureLoaded();
+        return mSegments.size();
+    }
+
+    /**
+     * Returns the number of bytes the segments take on disk.
+     */
+    public synchronized long getSizeInBytes() {
+        ensureLoaded();
+        long size = 0;
+        for (Segment segment : mSegments.values()) {
+            size += segment.length;
+        }
+        return size;
+    }
+
+    /**
+     * Returns the number of earthquakes compaction dropped for being below the minimum kept
+     * magnitude, in the segments still kept.
+     */
+    public synchronized int getDroppedCount() {
+        ensureLoaded();
+        int dropped = 0;
+        for (Segment segment : mSegments.values()) {
+            dropped += segment.dropped;
+        }
+        return dropped;
+    }
+
+    /**
+     * Deletes the segments older than the retention and compacts the ones older than the
+     * compaction age that have not been yet. Meant to run after a background sync.
+     *
+     * @param nowMillis is the current time
+     */
+    public synchronized void compact(long nowMillis) {
+        ensureLoaded();
+        long oldestKeptDay = getDay(nowMillis - mRetentionMillis);
+        long newestCompactedDay = getDay(nowMillis - mCompactAfterMillis) - 1;
+        int deleted = 0;
+        int compacted = 0;
+
+        Iterator<Segment> segments = mSegments.values().iterator();
+        while (segments.hasNext()) {
+            Segment segment = segments.next();
+            if (segment.day < oldestKeptDay) {
+                if (getFile(segment.day).delete() || !getFile(segment.day).exists()) {
+                    segments.remove();
+                    deleted++;
+                }
+            } else if (segment.day > newestCompactedDay) {
+                // Segments are in day order, so the rest are newer still
+                break;
+            } else if (!segment.compacted) {
+                compactSegment(segment);
+                if (segment.records == 0) {
+                    getFile(segment.day).delete();
+                    segments.remove();
+                }
+                compacted++;
+            }
+        }
+        if (deleted > 0 || compacted > 0) {
+            saveManifest();
+            if (Log.isLoggable(LOG_TAG, Log.VERBOSE)) {
+                Log.v(LOG_TAG, "*************Deleted " + deleted + " and compacted " + compacted
+                        + " history segments");
+            }
+        }
+    }
+
+    /**
+     * Returns the UTC day the time falls on, as days since the epoch.
+     */
+    static long getDay(long timeInMilliseconds) {
+        return EarthquakeAggregator.bucketStart(timeInMilliseconds, EarthquakeAggregator.DAY_MILLIS)
+                / EarthquakeAggregator.DAY_MILLIS;
+    }
+
+    /**
+     * Returns true if the record is a later version than the one seen, or nothing was seen.
+     * Records appended with the same update time are ordered as appended, except that the
+     * copy left behind on the old day of a corrected time never hides the earthquake itself.
+     */
+    private static boolean isLater(Earthquake record, Earthquake seen) {
+        if (seen == null || record.getUpdatedInMilliseconds() > seen.getUpdatedInMilliseconds()) {
+            return true;
+        }
+        return record.getUpdatedInMilliseconds() == seen.getUpdatedInMilliseconds()
+                && (!record.isDeleted() || seen.isDeleted());
+    }
+
+    /**
+     * Returns a deleted copy of the earthquake at its old time, hiding it on the old day.
+     */
+    private static Earthquake tombstone(Earthquake earthquake, long oldTime) {
+        return new Earthquake(earthquake.getId(), earthquake.getMagnitude(), earthquake.getLocation(),
+                oldTime, earthquake.getUpdatedInMilliseconds(), earthquake.getWebsite(), true,
+                earthquake.getLongitude(), earthquake.getLatitude(), earthquake.getDepth());
+    }
+
+    private static void add(Map<Long, List<Earthquake>> byDay, long day, Earthquake earthquake) {
+        List<Earthquake> dayEarthquakes = byDay.get(day);
+        if (dayEarthquakes == null) {
+            dayEarthquakes = new ArrayList<>();
+            byDay.put(day, dayEarthquakes);
+        }
+        dayEarthquakes.add(earthquake);
+    }
+
+    private File getFile(long day) {
+        return new File(mDirectory, day + SEGMENT_SUFFIX);
+    }
+
+    /**
+     * Appends the records to the segment's file and updates its summary. Returns false, leaving
+     * the summary alone, if the file could not be written.
+     */
+    private boolean appendToSegment(Segment segment, List<Earthquake> earthquakes) {
+        File file = getFile(segment.day);
+        DataOutputStream out = null;
+        try {
+            boolean isNew = segment.length == 0;
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, !isNew)));
+            if (isNew) {
+                out.writeInt(FILE_VERSION);
+            }
+            for (Earthquake earthquake : earthquakes) {
+                writeRecord(out, earthquake);
+            }
+            out.close();
+            out = null;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem appending to the history segment " + file, e);
+            return false;
+        } finally {
+            closeQuietly(out);
+        }
+        for (Earthquake earthquake : earthquakes) {
+            segment.include(earthquake);
+        }
+        segment.length = file.length();
+        // New versions of old earthquakes are compacted again
+        segment.compacted = false;
+        return true;
+    }
+
+    /**
+     * Rewrites the segment with the latest version of every earthquake, without deleted ones
+     * and without those below the minimum kept magnitude.
+     */
+    private void compactSegment(Segment segment) {
+        Map<String, Earthquake> latest = new LinkedHashMap<>();
+        for (Earthquake earthquake : readSegment(segment)) {
+            if (isLater(earthquake, latest.get(earthquake.getId()))) {
+                latest.put(earthquake.getId(), earthquake);
+            }
+        }
+
+        Segment compacted = new Segment(segment.day);
+        compacted.dropped = segment.dropped;
+        List<Earthquake> kept = new ArrayList<>(latest.size());
+        for (Earthquake earthquake : latest.values()) {
+            if (earthquake.isDeleted()) {
+                continue;
+            }
+            // Unknown magnitudes compare false, so they are dropped too
+            if (!(earthquake.getMagnitude() >= mMinKeptMagnitude)) {
+                compacted.dropped++;
+                continue;
+            }
+            kept.add(earthquake);
+            compacted.include(earthquake);
+        }
+
+        File file = getFile(segment.day);
+        File tempFile = new File(file.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            out.writeInt(FILE_VERSION);
+            for (Earthquake earthquake : kept) {
+                writeRecord(out, earthquake);
+            }
+            out.close();
+            out = null;
+            if (!tempFile.renameTo(file)) {
+                Log.e(LOG_TAG, "Could not replace the history segment " + file);
+                return;
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem compacting the history segment " + file, e);
+            return;
+        } finally {
+            closeQuietly(out);
+            if (tempFile.exists()) {
+                tempFile.delete();
+            }
+        }
+        segment.minTime = compacted.minTime;
+        segment.maxTime = compacted.maxTime;
+        segment.records = compacted.records;
+        segment.dropped = compacted.dropped;
+        segment.length = file.length();
+        segment.compacted = true;
+    }
+
+    /**
+     * Reads every record of the segment, in the order they were appended. A record cut off by
+     * a crash ends the segment.
+     */
+    private List<Earthquake> readSegment(Segment segment) {
+        List<Earthquake> earthquakes = new ArrayList<>(segment.records);
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(getFile(segment.day))));
+            if (in.readInt() != FILE_VERSION) {
+                return earthquakes;
+            }
+            for (int i = 0; i < segment.records; i++) {
+                earthquakes.add(readRecord(in));
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem reading the history segment " + segment.day, e);
+        } finally {
+            closeQuietly(in);
+        }
+        return earthquakes;
+    }
+
+    private synchronized void ensureLoaded() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        loadManifest();
+
+        // Segments the manifest does not know as they are were written when the app died
+        // between appending and saving the manifest, so their summaries are scanned again
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        boolean changed = false;
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.endsWith(SEGMENT_SUFFIX)) {
+                continue;
+            }
+            long day;
+            try {
+                day = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            Segment segment = mSegments.get(day);
+            if (segment == null || segment.length != file.length()) {
+                mSegments.put(day, scanSegment(day, file));
+                changed = true;
+            }
+        }
+        Iterator<Segment> segments = mSegments.values().iterator();
+        while (segments.hasNext()) {
+            if (!getFile(segments.next().day).exists()) {
+                segments.remove();
+                changed = true;
+            }
+        }
+        if (changed) {
+            saveManifest();
+        }
+        rememberRecentVersions();
+    }
+
+    /**
+     * Remembers the version of the earthquakes in the segments not compacted yet, the ones
+     * USGS still updates, so they are neither appended again unchanged nor moved to another
+     * day without a copy hiding them on the old one.
+     */
+    private void rememberRecentVersions() {
+        for (Segment segment : mSegments.values()) {
+            if (segment.compacted || segment.records == 0) {
+                continue;
+            }
+            for (Earthquake earthquake : readSegment(segment)) {
+                Version seen = mAppended.get(earthquake.getId());
+                if (seen == null || earthquake.getUpdatedInMilliseconds() > seen.updated
+                        || (earthquake.getUpdatedInMilliseconds() == seen.updated && !earthquake.isDeleted())) {
+                    mAppended.put(earthquake.getId(), new Version(earthquake));
+                }
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the summary of a segment from its records. A record cut off at the end is
+     * truncated away, so later appends start on a record boundary.
+     */
+    private Segment scanSegment(long day, File file) {
+        Log.w(LOG_TAG, "Scanning history segment " + day);
+        Segment segment = new Segment(day);
+        long validLength = 0;
+        CountingStream counter = null;
+        DataInputStream in = null;
+        try {
+            counter = new CountingStream(new BufferedInputStream(new FileInputStream(file)));
+            in = new DataInputStream(counter);
+            if (in.readInt() == FILE_VERSION) {
+                validLength = SEGMENT_HEADER_SIZE;
+                while (true) {
+                    segment.include(readRecord(in));
+                    validLength = counter.count;
+                }
+            }
+        } catch (EOFException e) {
+            // Ends at a record boundary, or part way through the last record
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem scanning the history segment " + day, e);
+        } finally {
+            closeQuietly(in);
+        }
+
+        if (validLength < file.length()) {
+            RandomAccessFile truncate = null;
+            try {
+                truncate = new RandomAccessFile(file, "rw");
+                truncate.setLength(validLength);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Problem truncating the history segment " + day, e);
+            } finally {
+                closeQuietly(truncate);
+            }
+        }
+        segment.length = file.length();
+        return segment;
+    }
+
+    private void loadManifest() {
+        if (!mManifestFile.exists()) {
+            return;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mManifestFile)));
+            if (in.readInt() != FILE_VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Segment segment = new Segment(in.readLong());
+                segment.minTime = in.readLong();
+                segment.maxTime = in.readLong();
+                segment.records = in.readInt();
+                segment.dropped = in.readInt();
+                segment.length = in.readLong();
+                segment.compacted = in.readBoolean();
+                mSegments.put(segment.day, segment);
+            }
+        } catch (IOException e) {
+            // Every segment is scanned again instead
+            Log.e(LOG_TAG, "Problem reading the history manifest", e);
+            mSegments.clear();
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Writes the segment summaries next to the old manifest and renames them over it.
+     */
+    private void saveManifest() {
+        File tempFile = new File(mManifestFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            out.writeInt(FILE_VERSION);
+            out.writeInt(mSegments.size());
+            for (Segment segment : mSegments.values()) {
+                out.writeLong(segment.day);
+                out.writeLong(segment.minTime);
+                out.writeLong(segment.maxTime);
+                out.writeInt(segment.records);
+                out.writeInt(segment.dropped);
+                out.writeLong(segment.length);
+                out.writeBoolean(segment.compacted);
+            }
+            out.close();
+            out = null;
+            if (!tempFile.renameTo(mManifestFile)) {
+                Log.e(LOG_TAG, "Could not replace the history manifest " + mManifestFile);
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem writing the history manifest", e);
+        } finally {
+            closeQuietly(out);
+            if (tempFile.exists()) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Writes an earthquake record, which unlike the store's keeps whether it was deleted.
+     */
+    private static void writeRecord(DataOutputStream out, Earthquake earthquake) throws IOException {
+        out.writeBoolean(earthquake.isDeleted());
+        EarthquakeStore.writeEarthquake(out, earthquake);
+    }
+
+    private static Earthquake readRecord(DataInputStream in) throws IOException {
+        boolean deleted = in.readBoolean();
+        Earthquake earthquake = EarthquakeStore.readEarthquake(in);
+        if (!deleted) {
+            return earthquake;
+        }
+        return new Earthquake(earthquake.getId(), earthquake.getMagnitude(), earthquake.getLocation(),
+                earthquake.getTimeInMilliseconds(), earthquake.getUpdatedInMilliseconds(),
+                earthquake.getWebsite(), true, earthquake.getLongitude(), earthquake.getLatitude(),
+                earthquake.getDepth());
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Problem closing a history file", e);
+            }
+        }
+    }
+
+    /**
+     * The summary of the segment of one day.
+     */
+    private static final class Segment {
+        final long day;
+        long minTime = Long.MAX_VALUE;
+        long maxTime = Long.MIN_VALUE;
+        int records;
+        int dropped;
+        long length;
+        boolean compacted;
+
+        Segment(long day) {
+            this.day = day;
+        }
+
+        void include(Earthquake earthquake) {
+            minTime = Math.min(minTime, earthquake.getTimeInMilliseconds());
+            maxTime = Math.max(maxTime, earthquake.getTimeInMilliseconds());
+            records++;
+        }
+    }
+
+    /**
+     * The time and update time an earthquake was last appended with.
+     */
+    private static final class Version {
+        final long time;
+        final long updated;
+        final boolean deleted;
+
+        Version(Earthquake earthquake) {
+            time = earthquake.getTimeInMilliseconds();
+            updated = earthquake.getUpdatedInMilliseconds();
+            deleted = earthquake.isDeleted();
+        }
+    }
+
+    /**
+     * Counts the bytes read through it, to find where the last whole record ends.
+     */
+    private static final class CountingStream extends FilterInputStream {
+        long count;
+
+        CountingStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+    }
+}
@@ -6,32 +6,237 @@ import android.text.TextUtils;
 import android.util.Log;
 
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
-public class EarthquakeLoader extends AsyncTaskLoader<List<Earthquake>> {
+/**
+ * Loads earthquakes in the background and delivers them as an {@link EarthquakeDisplayModel},
+ * with every row already formatted for display.
+ *
+ * The work runs at foreground priority on the {@link LoadExecutor}, ahead of background syncs.
+ * A load that is superseded or reset is cancelled there, which stops its download and parsing.
+ */
+public class EarthquakeLoader extends AsyncTaskLoader<EarthquakeDisplayModel> {
     private static final String LOG_TAG = EarthquakeLoader.class.getName();
+
+    private static final Metrics.Timer LOAD_TIMER = Metrics.timer(Metrics.LOAD_TIME);
+    private static final Metrics.Timer DISPLAY_MODEL_TIMER = Metrics.timer(Metrics.DISPLAY_MODEL_TIME);
+    private static final Metrics.Counter LOCAL_QUERY_COUNTER = Metrics.counter(Metrics.LOCAL_QUERIES);
+
+    /**
+     * Number of earthquakes fetched when a query has to go to the network, even if it asks for
+     * fewer. The extra rows let later settings changes be answered locally.
+     */
+    private static final int FETCH_LIMIT = 100;
+
     private String mRequestUrl;
 
+    /** The query to answer, null when loading a plain request URL */
+    private EarthquakeQuery mQuery;
+
+    /** Reloads when a background sync brought new earthquakes */
+    private final EarthquakeSync.OnSyncListener mSyncListener = new EarthquakeSync.OnSyncListener() {
+        @Override
+        public void onSyncFinished() {
+            onContentChanged();
+        }
+    };
+
+    /** The last result delivered, handed out again when the loader is started after a rotation */
+    private EarthquakeDisplayModel mEarthquakes;
+
+    /** The load running on the {@link LoadExecutor}, so it can be cancelled */
+    private volatile Future<EarthquakeDisplayModel> mLoad;
+
     public EarthquakeLoader(Context context, String url) {
         super(context);
         mRequestUrl = url;
     }
 
+    /**
+     * Creates a loader for the query. It is answered from the earthquakes fetched before
+     * whenever they contain the result, see {@link EarthquakeQueryEngine}.
+     */
+    public EarthquakeLoader(Context context, EarthquakeQuery query) {
+        this(context, query.toUrl());
+        mQuery = query;
+    }
+
+    /**
+     * Returns the query the loader answers, or null if it loads a plain request URL.
+     */
+    public EarthquakeQuery getQuery() {
+        return mQuery;
+    }
+
     @Override
-    public List<Earthquake> loadInBackground() {
+    public EarthquakeDisplayModel loadInBackground() {
         Log.v(LOG_TAG, "******************Called loadInBackground()");
         if(TextUtils.isEmpty(mRequestUrl) || mRequestUrl == null) {
             return null;
         }
 
-        List<Earthquake> earthquakes = QueryUtils.fetchEarthQuakeData(mRequestUrl);
+        Future<EarthquakeDisplayModel> load = LoadExecutor.getInstance().submit(
+                new Callable<EarthquakeDisplayModel>() {
+                    @Override
+                    public EarthquakeDisplayModel call() {
+                        return load();
+                    }
+                }, LoadExecutor.PRIORITY_FOREGROUND);
+        mLoad = load;
+        if (isLoadInBackgroundCanceled()) {
+            // Cancelled before the load was published, so cancelFetch() missed it
+            load.cancel(true);
+        }
+        try {
+            return load.get();
+        } catch (InterruptedException e) {
+            load.cancel(true);
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (CancellationException e) {
+            Log.v(LOG_TAG, "******************Load canceled");
+            return null;
+        } catch (ExecutionException e) {
+            Log.e(LOG_TAG, "Problem loading the earthquakes", e.getCause());
+            return null;
+        } finally {
+            mLoad = null;
+        }
+    }
+
+    /**
+     * Loads the earthquakes. Runs on the {@link LoadExecutor}, and returns null once cancelled.
+     */
+    private EarthquakeDisplayModel load() {
+        long loadStartTime = Metrics.startTime();
+        EarthquakeTable earthquakes;
+        if (mQuery != null) {
+            earthquakes = queryEarthquakes();
+        } else {
+            List<Earthquake> fetched = fetchEarthquakes();
+            earthquakes = fetched == null ? null : EarthquakeTable.fromList(fetched);
+        }
+        if (earthquakes == null || Thread.currentThread().isInterrupted()) {
+            return null;
+        }
+
+        // Format every row here on the background thread, so binding rows on the main thread is cheap
+        long buildStartTime = Metrics.startTime();
+        EarthquakeDisplayModel model = EarthquakeDisplayModel.build(getContext(), earthquakes);
+        DISPLAY_MODEL_TIMER.stop(buildStartTime);
+        LOAD_TIMER.stop(loadStartTime);
+        return model;
+    }
+
+    /**
+     * Answers the query locally if the earthquakes fetched before contain the result and are
+     * fresh. Otherwise fetches through the cache and answers from what was fetched, or from
+     * the history when USGS cannot be reached and nothing was cached for the query.
+     */
+    private EarthquakeTable queryEarthquakes() {
+        EarthquakeQueryEngine engine = EarthquakeQueryEngine.getInstance();
+        EarthquakeQuery fetchQuery;
+        if (engine.canAnswer(mQuery)) {
+            if (engine.isFresh(EarthquakeCache.DEFAULT_TTL_MILLIS)) {
+                Log.v(LOG_TAG, "******************Answering query locally");
+                LOCAL_QUERY_COUNTER.increment();
+                return engine.query(mQuery);
+            }
+            // The result is contained in what was fetched, so only that needs to be revalidated
+            fetchQuery = engine.getFetchedQuery();
+        } else {
+            fetchQuery = mQuery.withLimit(Math.max(mQuery.getLimit(), FETCH_LIMIT));
+        }
+
+        EarthquakeCache cache = EarthquakeCache.getInstance(getContext());
+        List<Earthquake> fetched = cache.fetch(fetchQuery.toUrl());
+        if (fetched == null) {
+            // Not handed to the engine or the snapshot, as USGS may know more
+            List<Earthquake> history = cache.getHistory().query(mQuery, System.currentTimeMillis());
+            if (history == null || history.isEmpty()) {
+                return null;
+            }
+            Log.v(LOG_TAG, "******************Answering query from the history");
+            return EarthquakeTable.fromList(history);
+        }
+        EarthquakeTable table = EarthquakeTable.fromList(fetched);
+        long fetchedAt = System.currentTimeMillis();
+        engine.setFetched(fetchQuery, table, fetchedAt);
+        // Saved for the next launch, which shows it before this loader even starts
+        new EarthquakeSnapshot(fetchQuery, table, fetchedAt).write(EarthquakeSnapshot.getFile(getContext()));
+        return engine.query(mQuery);
+    }
+
+    private List<Earthquake> fetchEarthquakes() {
+        EarthquakeCache cache = EarthquakeCache.getInstance(getContext());
+
+        // Serve from the on-disk cache when it is fresh, otherwise revalidate it with USGS
+        List<Earthquake> earthquakes = cache.fetch(mRequestUrl);
 
         return earthquakes;
     }
 
+    @Override
+    public void cancelLoadInBackground() {
+        super.cancelLoadInBackground();
+        cancelFetch();
+    }
+
+    @Override
+    public void deliverResult(EarthquakeDisplayModel data) {
+        if (isReset()) {
+            return;
+        }
+        mEarthquakes = data;
+        if (isStarted()) {
+            super.deliverResult(data);
+        }
+    }
+
+    /**
+     * Replaces the last result with one that changes were merged into after it was delivered,
+     * like those of the {@link LiveFeed}, so a rotation hands out the merged result rather than
+     * the one loaded. Call on the main thread.
+     */
+    public void updateResult(EarthquakeDisplayModel data) {
+        if (!isReset()) {
+            mEarthquakes = data;
+        }
+    }
+
    // Override the onStartLoading() method to call forceLoad() which is a required step to actually trigger the loadInBackground() method to execute.
+   // The loader outlives rotations, so a result it already has is delivered again instead of
+   // fetched again, and only a load that never finished or a background sync forces a new one.
     @Override
     protected void onStartLoading() {
         Log.v(LOG_TAG, "******************Called onStartLoading()");
-        forceLoad();
+        if (mQuery != null) {
+            EarthquakeSync.getInstance(getContext()).addListener(mSyncListener);
+        }
+        if (mEarthquakes != null) {
+            deliverResult(mEarthquakes);
+        }
+        if (takeContentChanged() || mEarthquakes == null) {
+            forceLoad();
+        }
+    }
+
+    // When the loader is reset nobody wants the result any more, so stop the load.
+    @Override
+    protected void onReset() {
+        super.onReset();
+        EarthquakeSync.getInstance(getContext()).removeListener(mSyncListener);
+        cancelFetch();
+        mEarthquakes = null;
+    }
+
+    private void cancelFetch() {
+        Future<EarthquakeDisplayModel> load = mLoad;
+        if (load != null) {
+            load.cancel(true);
+        }
     }
 }
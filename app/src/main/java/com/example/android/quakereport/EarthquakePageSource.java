@@ -0,0 +1,272 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Loads pages of an {@link EarthquakeQuery} for an {@link EarthquakePager}.
+ *
+ * Pages are not cut by offset, as new earthquakes arriving at the top of the list would shift
+ * the offsets between two pages and show rows twice or not at all. Every page instead starts
+ * after the last row of the page before it, in the order of the query: a page of the newest
+ * earthquakes is requested with an endtime of the oldest one shown so far, a page of the
+ * biggest with a maxmagnitude of the smallest, and so on. Rows sharing that time or magnitude
+ * are all requested again and the ones already shown skipped. The first page starts after the
+ * earthquakes the list shows above the pager.
+ *
+ * Pages within the earthquakes fetched last are cut out of the {@link EarthquakeQueryEngine}'s
+ * answer without the network. Pages past them are requested from USGS through
+ * {@link QueryUtils}, so a page asked for twice in a row is only downloaded once. A query with
+ * an order USGS does not document falls back to offsets.
+ */
+public class EarthquakePageSource implements EarthquakePager.PageSource {
+
+    private static final String LOG_TAG = EarthquakePageSource.class.getSimpleName();
+
+    private final Context mContext;
+    private final EarthquakeQuery mQuery;
+    private final Comparator<Earthquake> mComparator;
+    private final int mFirstOffset;
+
+    /** Where the page at each offset starts, guarded by itself */
+    private final Map<Integer, Cursor> mCursors = new HashMap<>();
+
+    /**
+     * Constructs a new {@link EarthquakePageSource}.
+     *
+     * @param firstPage is what the list shows above the pager, whose first page starts after it
+     */
+    public EarthquakePageSource(Context context, EarthquakeQuery query, EarthquakeTable firstPage) {
+        mContext = context.getApplicationContext();
+        mQuery = query;
+        mComparator = QueryUtils.comparatorForOrderBy(query.getOrderBy());
+        mFirstOffset = firstPage.size();
+        if (mComparator != null && firstPage.size() > 0) {
+            mCursors.put(mFirstOffset, Cursor.after(firstPage.toList(), null, mComparator));
+        }
+    }
+
+    public EarthquakeQuery getQuery() {
+        return mQuery;
+    }
+
+    /**
+     * Returns the offset of the first page, the number of rows the pages start after.
+     */
+    public int getFirstOffset() {
+        return mFirstOffset;
+    }
+
+    /**
+     * Returns the earthquake the first page starts after in the order of the query, or null
+     * if the pages are cut by offset.
+     */
+    public Earthquake getStart() {
+        synchronized (mCursors) {
+            Cursor cursor = mCursors.get(mFirstOffset);
+            return cursor == null ? null : cursor.last;
+        }
+    }
+
+    /**
+     * Returns true if the pages continue the given first page of the query, so a pager over
+     * them can be kept when the first page is loaded again.
+     */
+    public boolean continues(EarthquakeQuery query, EarthquakeTable firstPage) {
+        if (!mQuery.equals(query) || firstPage.size() != mFirstOffset) {
+            return false;
+        }
+        Earthquake start = getStart();
+        if (start == null) {
+            // Paged by offset
+            return true;
+        }
+        Earthquake last = firstPage.get(firstPage.size() - 1);
+        return start.getId().equals(last.getId()) && mComparator.compare(start, last) == 0;
+    }
+
+    @Override
+    public EarthquakeDisplayModel loadPage(int offset, int limit) {
+        EarthquakeTable page = loadRows(offset, limit);
+        return page == null ? null : EarthquakeDisplayModel.build(mContext, page);
+    }
+
+    /**
+     * Returns the rows of the page at the offset, or null if they could not be loaded.
+     */
+    EarthquakeTable loadRows(int offset, int limit) {
+        if (mComparator == null) {
+            EarthquakeTable page = queryPageAt(offset, limit);
+            return page != null ? page : fetchPageAt(offset, limit);
+        }
+
+        Cursor cursor;
+        synchronized (mCursors) {
+            cursor = mCursors.get(offset);
+        }
+        if (cursor == null) {
+            // The pager only loads a page for the first time after the one before it
+            Log.e(LOG_TAG, "No page ends at offset " + offset);
+            return null;
+        }
+        List<Earthquake> page = queryPageAfter(cursor, limit);
+        if (page == null) {
+            page = fetchPageAfter(cursor, offset, limit);
+        }
+        if (page == null) {
+            return null;
+        }
+        if (page.size() == limit) {
+            synchronized (mCursors) {
+                mCursors.put(offset + limit, Cursor.after(page, cursor, mComparator));
+            }
+        }
+        return EarthquakeTable.fromList(page);
+    }
+
+    /**
+     * Returns the page after the cursor from the earthquakes fetched last, or null if they do
+     * not contain it.
+     */
+    private List<Earthquake> queryPageAfter(Cursor cursor, int limit) {
+        // Enough rows to reach past the cursor unless rows before it were added since
+        int wanted = mFirstOffset + cursor.rowsBefore + cursor.shown.size() + limit;
+        EarthquakeTable rows = EarthquakeQueryEngine.getInstance().query(mQuery.withLimit(wanted));
+        if (rows == null) {
+            return null;
+        }
+        List<Earthquake> page = cursor.select(rows.toList(), limit, mComparator);
+        // Fewer rows than asked for are all the query has, otherwise the page must be full
+        return page.size() == limit || rows.size() < wanted ? page : null;
+    }
+
+    private List<Earthquake> fetchPageAfter(Cursor cursor, int offset, int limit) {
+        if (Log.isLoggable(LOG_TAG, Log.VERBOSE)) {
+            Log.v(LOG_TAG, "*************Fetching page after " + cursor.last.getId());
+        }
+        // The rows sharing the cursor's time or magnitude come back too and are skipped
+        EarthquakeQuery query = mQuery.withLimit(limit + cursor.shown.size());
+        String url = cursor.bound(query.toUrl(), mQuery.getOrderBy());
+        if (url == null) {
+            // Rows from the offset on, less those shown already if new ones pushed them down
+            url = QueryUtils.appendQueryParameter(query.toUrl(), "offset",
+                    String.valueOf(Math.max(1, offset + 1 - cursor.shown.size())));
+        }
+        List<Earthquake> earthquakes = QueryUtils.fetchEarthQuakeData(url);
+        return earthquakes == null ? null : cursor.select(earthquakes, limit, mComparator);
+    }
+
+    /**
+     * Returns the page at the offset from the earthquakes fetched last, or null if they do not
+     * contain it.
+     */
+    private EarthquakeTable queryPageAt(int offset, int limit) {
+        EarthquakeTable rows = EarthquakeQueryEngine.getInstance().query(mQuery.withLimit(offset + limit));
+        if (rows == null) {
+            return null;
+        }
+        int size = Math.max(0, Math.min(limit, rows.size() - offset));
+        int[] pageRows = new int[size];
+        for (int i = 0; i < size; i++) {
+            pageRows[i] = offset + i;
+        }
+        return rows.select(pageRows);
+    }
+
+    private EarthquakeTable fetchPageAt(int offset, int limit) {
+        if (Log.isLoggable(LOG_TAG, Log.VERBOSE)) {
+            Log.v(LOG_TAG, "*************Fetching page at offset " + offset);
+        }
+        // USGS counts offsets from 1
+        String url = QueryUtils.appendQueryParameter(mQuery.withLimit(limit).toUrl(), "offset",
+                String.valueOf(offset + 1));
+        List<Earthquake> earthquakes = QueryUtils.fetchEarthQuakeData(url);
+        return earthquakes == null ? null : EarthquakeTable.fromList(earthquakes);
+    }
+
+    /**
+     * Where a page starts: after the last row shown before it, skipping the rows shown already
+     * that sort the same as that row.
+     */
+    private static final class Cursor {
+        final Earthquake last;
+        final Set<String> shown;
+
+        /** Number of rows shown before the cursor in the pages, not counting the first page */
+        final int rowsBefore;
+
+        private Cursor(Earthquake last, Set<String> shown, int rowsBefore) {
+            this.last = last;
+            this.shown = shown;
+            this.rowsBefore = rowsBefore;
+        }
+
+        /**
+         * Returns the cursor after the rows, which follow the previous cursor, or start the
+         * list if it is null.
+         */
+        static Cursor after(List<Earthquake> rows, Cursor previous, Comparator<Earthquake> comparator) {
+            Earthquake last = rows.get(rows.size() - 1);
+            Set<String> shown = new HashSet<>();
+            for (int i = rows.size() - 1; i >= 0 && comparator.compare(rows.get(i), last) == 0; i--) {
+                shown.add(rows.get(i).getId());
+            }
+            if (previous != null && comparator.compare(previous.last, last) == 0) {
+                // A run of equal rows longer than the page goes on from the page before
+                shown.addAll(previous.shown);
+            }
+            int rowsBefore = previous == null ? 0 : previous.rowsBefore + rows.size();
+            return new Cursor(last, Collections.unmodifiableSet(shown), rowsBefore);
+        }
+
+        /**
+         * Returns the first rows after the cursor, at most limit of them. The rows are in the
+         * order of the comparator.
+         */
+        List<Earthquake> select(List<Earthquake> rows, int limit, Comparator<Earthquake> comparator) {
+            List<Earthquake> page = new ArrayList<>(Math.min(limit, rows.size()));
+            for (int i = 0; i < rows.size() && page.size() < limit; i++) {
+                Earthquake earthquake = rows.get(i);
+                int order = comparator.compare(earthquake, last);
+                if (order > 0 || (order == 0 && !shown.contains(earthquake.getId()))) {
+                    page.add(earthquake);
+                }
+            }
+            return page;
+        }
+
+        /**
+         * Returns the request URL limited to the rows from the cursor on, or null if the
+         * cursor cannot be expressed as a USGS parameter, i.e. an earthquake without a magnitude.
+         */
+        String bound(String url, String orderBy) {
+            if (orderBy == null || "time".equals(orderBy)) {
+                // endtime and starttime include the rows at the time itself
+                return QueryUtils.appendQueryParameter(url, "endtime",
+                        QueryUtils.formatQueryTime(last.getTimeInMilliseconds()));
+            } else if ("time-asc".equals(orderBy)) {
+                return QueryUtils.appendQueryParameter(url, "starttime",
+                        QueryUtils.formatQueryTime(last.getTimeInMilliseconds()));
+            }
+            double magnitude = last.getMagnitude();
+            if (Double.isNaN(magnitude) || Double.isInfinite(magnitude)) {
+                return null;
+            }
+            if ("magnitude".equals(orderBy)) {
+                return QueryUtils.appendQueryParameter(url, "maxmagnitude", String.valueOf(magnitude));
+            }
+            // The cursor is never below the query's own minimum, so it replaces it
+            return QueryUtils.appendQueryParameter(QueryUtils.removeQueryParameter(url, "minmag"),
+                    "minmagnitude", String.valueOf(magnitude));
+        }
+    }
+}
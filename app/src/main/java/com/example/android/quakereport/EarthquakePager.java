@@ -0,0 +1,224 @@
+package com.example.android.quakereport;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Loads the rows after the first page of a query page by page as the user scrolls towards them.
+ *
+ * Pages are loaded on a background executor a few pages ahead of the row being shown, so they are
+ * usually there before they scroll into view. Only a window of pages around that row is kept in
+ * memory: pages further away are dropped and loaded again if the user scrolls back. Rows of a
+ * page that is not in memory are still counted, so the list does not jump; they read as null
+ * until their page is back.
+ *
+ * All methods must be called on the main thread, pages are delivered on the main executor.
+ */
+public class EarthquakePager {
+
+    /**
+     * Loads a page of rows. Runs on the background executor.
+     */
+    public interface PageSource {
+        /**
+         * Returns the rows from the given offset of the query on, at most limit of them, or
+         * null if they could not be loaded. Fewer rows than the limit mean the query has no more.
+         */
+        EarthquakeDisplayModel loadPage(int offset, int limit);
+    }
+
+    /**
+     * Interface definition for a callback to be invoked when a page was loaded.
+     */
+    public interface OnPageLoadedListener {
+        /**
+         * Called when the rows from firstRow on are loaded. The last insertedRows of them were
+         * not counted before, the others were counted but not in memory.
+         */
+        void onPageLoaded(int firstRow, int rowCount, int insertedRows);
+    }
+
+    /** Default number of pages loaded ahead of the row being shown */
+    public static final int DEFAULT_PREFETCH_PAGES = 1;
+
+    /** Default number of pages kept on either side of the row being shown */
+    public static final int DEFAULT_WINDOW_PAGES = 3;
+
+    private final PageSource mSource;
+    private final Executor mExecutor;
+    private final Executor mMainExecutor;
+    private final int mFirstOffset;
+    private final int mPageSize;
+    private final int mPrefetchPages;
+    private final int mWindowPages;
+
+    private final Map<Integer, EarthquakeDisplayModel> mPages = new HashMap<>();
+    private final Set<Integer> mLoading = new HashSet<>();
+    private OnPageLoadedListener mListener;
+
+    /** Number of pages ever loaded, all but the last of them full */
+    private int mPageCount;
+
+    /** Number of rows counted, which only grows */
+    private int mRowCount;
+
+    /** True once a page came back with fewer rows than the page size */
+    private boolean mEndReached;
+
+    /** True once closed, after which results still arriving are dropped */
+    private boolean mClosed;
+
+    /**
+     * Constructs a new {@link EarthquakePager}.
+     *
+     * @param executor loads the pages, usually a background thread
+     * @param mainExecutor delivers the pages, usually the main thread
+     * @param firstOffset is the offset in the query of the first row of the pager
+     * @param pageSize is the number of rows per page
+     * @param prefetchPages is the number of pages loaded ahead of the row being shown
+     * @param windowPages is the number of pages kept on either side of the row being shown
+     */
+    public EarthquakePager(PageSource source, Executor executor, Executor mainExecutor,
+                           int firstOffset, int pageSize, int prefetchPages, int windowPages) {
+        if (pageSize <= 0 || prefetchPages < 0 || windowPages < prefetchPages) {
+            throw new IllegalArgumentException(
+                    "Page size must be positive and the window not smaller than the prefetch");
+        }
+        mSource = source;
+        mExecutor = executor;
+        mMainExecutor = mainExecutor;
+        mFirstOffset = firstOffset;
+        mPageSize = pageSize;
+        mPrefetchPages = prefetchPages;
+        mWindowPages = windowPages;
+    }
+
+    public void setOnPageLoadedListener(OnPageLoadedListener listener) {
+        mListener = listener;
+    }
+
+    public int getPageSize() {
+        return mPageSize;
+    }
+
+    /**
+     * Returns the number of rows counted so far, including those of pages not in memory.
+     */
+    public int getRowCount() {
+        return mRowCount;
+    }
+
+    /**
+     * Returns true once the last row of the query has been counted.
+     */
+    public boolean isEndReached() {
+        return mEndReached;
+    }
+
+    /**
+     * Returns the number of pages in memory.
+     */
+    public int getPagesInMemory() {
+        return mPages.size();
+    }
+
+    /**
+     * Returns the page holding the row, or null if that page is not in memory.
+     */
+    public EarthquakeDisplayModel getPage(int row) {
+        return mPages.get(row / mPageSize);
+    }
+
+    /**
+     * Returns the row's index in the page returned by {@link #getPage(int)}.
+     */
+    public int getRowInPage(int row) {
+        return row % mPageSize;
+    }
+
+    /**
+     * Tells the pager which row is being shown, so it loads the pages around and ahead of it
+     * and drops those far away. A negative row is one that many rows before the pager's first,
+     * in which case the first page is only loaded once that is less than half a page away.
+     */
+    public void onRowShown(int row) {
+        if (mClosed) {
+            return;
+        }
+        int page;
+        if (row < 0) {
+            if (row < -mPageSize / 2) {
+                return;
+            }
+            page = -1;
+        } else {
+            page = row / mPageSize;
+        }
+
+        Iterator<Integer> pages = mPages.keySet().iterator();
+        while (pages.hasNext()) {
+            if (Math.abs(pages.next() - page) > mWindowPages) {
+                pages.remove();
+            }
+        }
+
+        for (int p = Math.max(0, page); p <= page + mPrefetchPages; p++) {
+            if (p > mPageCount || (p == mPageCount && mEndReached)) {
+                break;
+            }
+            if (!mPages.containsKey(p) && !mLoading.contains(p)) {
+                load(p);
+            }
+        }
+    }
+
+    /**
+     * Stops loading. Pages still loading are dropped when they arrive.
+     */
+    public void close() {
+        mClosed = true;
+        mPages.clear();
+    }
+
+    private void load(final int page) {
+        mLoading.add(page);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final EarthquakeDisplayModel rows =
+                        mSource.loadPage(mFirstOffset + page * mPageSize, mPageSize);
+                mMainExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        onPageLoaded(page, rows);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onPageLoaded(int page, EarthquakeDisplayModel rows) {
+        mLoading.remove(page);
+        if (mClosed || rows == null) {
+            // A failed page is loaded again the next time one of its rows is shown
+            return;
+        }
+        mPages.put(page, rows);
+        int firstRow = page * mPageSize;
+        int rowCount = Math.min(rows.size(), mPageSize);
+        int inserted = 0;
+        if (page >= mPageCount) {
+            mPageCount = page + 1;
+            mEndReached = rowCount < mPageSize;
+            inserted = Math.max(0, firstRow + rowCount - mRowCount);
+            mRowCount += inserted;
+        }
+        if (mListener != null) {
+            mListener.onPageLoaded(firstRow, rowCount, inserted);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.android.quakereport;
+
+import android.net.Uri;
+
+/**
+ * The earthquakes the user asked to see: a minimum magnitude, an order and a maximum count.
+ * Turns into a USGS request URL, and is what {@link EarthquakeQueryEngine} answers locally.
+ */
+public class EarthquakeQuery {
+
+    /** URL for earthquake data from the USGS dataset */
+    public static final String USGS_URL = "https://earthquake.usgs.gov/fdsnws/event/1/query";
+
+    /** Minimum magnitude as the user entered it, sent to USGS unchanged */
+    private final String mMinMagnitude;
+
+    /** USGS orderby value, i.e. "time" or "magnitude" */
+    private final String mOrderBy;
+
+    /** Maximum number of earthquakes */
+    private final int mLimit;
+
+    /**
+     * Constructs a new {@link EarthquakeQuery}.
+     *
+     * @param minMagnitude is the minimum magnitude as entered, i.e. "6" or "4.5"
+     * @param orderBy is a USGS orderby value
+     * @param limit is the maximum number of earthquakes
+     */
+    public EarthquakeQuery(String minMagnitude, String orderBy, int limit) {
+        mMinMagnitude = minMagnitude;
+        mOrderBy = orderBy;
+        mLimit = limit;
+    }
+
+    public String getMinMagnitude() {
+        return mMinMagnitude;
+    }
+
+    /**
+     * Returns the minimum magnitude as a number, or NaN if it is not a valid number, in which
+     * case only the server can interpret it.
+     */
+    public double getMinMagnitudeValue() {
+        try {
+            return Double.parseDouble(mMinMagnitude);
+        } catch (NumberFormatException | NullPointerException e) {
+            return Double.NaN;
+        }
+    }
+
+    public String getOrderBy() {
+        return mOrderBy;
+    }
+
+    public int getLimit() {
+        return mLimit;
+    }
+
+    /**
+     * Returns the same query with another limit.
+     */
+    public EarthquakeQuery withLimit(int limit) {
+        return new EarthquakeQuery(mMinMagnitude, mOrderBy, limit);
+    }
+
+    /**
+     * Returns the USGS request URL of the query.
+     */
+    public String toUrl() {
+        Uri baseUri = Uri.parse(USGS_URL);
+        Uri.Builder uriBuilder = baseUri.buildUpon();
+
+        uriBuilder.appendQueryParameter("format", "geojson");
+        uriBuilder.appendQueryParameter("limit", String.valueOf(mLimit));
+        uriBuilder.appendQueryParameter("minmag", mMinMagnitude);
+        uriBuilder.appendQueryParameter("orderby", mOrderBy);
+
+        return uriBuilder.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof EarthquakeQuery)) {
+            return false;
+        }
+        EarthquakeQuery other = (EarthquakeQuery) o;
+        return mLimit == other.mLimit
+                && (mMinMagnitude == null ? other.mMinMagnitude == null : mMinMagnitude.equals(other.mMinMagnitude))
+                && (mOrderBy == null ? other.mOrderBy == null : mOrderBy.equals(other.mOrderBy));
+    }
+
+    @Override
+    public int hashCode() {
+        int result = mMinMagnitude == null ? 0 : mMinMagnitude.hashCode();
+        result = 31 * result + (mOrderBy == null ? 0 : mOrderBy.hashCode());
+        return 31 * result + mLimit;
+    }
+
+    @Override
+    public String toString() {
+        return "minmag=" + mMinMagnitude + " orderby=" + mOrderBy + " limit=" + mLimit;
+    }
+}
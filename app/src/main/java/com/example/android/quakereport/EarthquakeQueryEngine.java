@@ -0,0 +1,225 @@
+package com.example.android.quakereport;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Answers {@link EarthquakeQuery}s from the earthquakes fetched last, so changing the minimum
+ * magnitude or the order in the settings does not cost a round trip to USGS.
+ *
+ * The fetched earthquakes are kept with two index arrays sorted once, by time and by magnitude,
+ * newest and biggest first. A query walks the index of its order, skipping earthquakes below its
+ * minimum magnitude, until it has enough rows.
+ *
+ * A query can only be answered if its result is certainly contained in the fetched data:
+ * <ul>
+ * <li>its minimum magnitude is not below the one fetched with, and</li>
+ * <li>the fetched result was complete (USGS returned fewer rows than the limit), or it was
+ * ordered by magnitude and the query's minimum is above the smallest magnitude fetched, so
+ * every matching earthquake was fetched, or</li>
+ * <li>it has the same order as the fetched result and at least as many fetched rows match as
+ * the query's limit, so they are the first rows of the server's answer.</li>
+ * </ul>
+ * Anything else has to go to the network.
+ */
+public class EarthquakeQueryEngine {
+
+    private static EarthquakeQueryEngine sInstance;
+
+    /** The fetched earthquakes and the query they were fetched with */
+    private EarthquakeTable mEarthquakes;
+    private EarthquakeQuery mFetchedQuery;
+    private double mFetchedMinMagnitude;
+    private long mFetchedAt;
+
+    /** Rows of the fetched earthquakes, newest first */
+    private int[] mByTime;
+
+    /** Rows of the fetched earthquakes, biggest magnitude first */
+    private int[] mByMagnitude;
+
+    /**
+     * Returns the engine shared by the whole app.
+     */
+    public static synchronized EarthquakeQueryEngine getInstance() {
+        if (sInstance == null) {
+            sInstance = new EarthquakeQueryEngine();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Replaces the data queries are answered from with freshly fetched earthquakes.
+     *
+     * @param fetchedQuery is the query the earthquakes were fetched with, in the order USGS sent them
+     */
+    public void setFetched(EarthquakeQuery fetchedQuery, EarthquakeTable earthquakes) {
+        setFetched(fetchedQuery, earthquakes, System.currentTimeMillis());
+    }
+
+    /**
+     * Replaces the data queries are answered from with earthquakes fetched at the given time,
+     * i.e. ones restored from an {@link EarthquakeSnapshot}.
+     */
+    public synchronized void setFetched(EarthquakeQuery fetchedQuery, final EarthquakeTable earthquakes,
+                                        long fetchedAt) {
+        mEarthquakes = earthquakes;
+        mFetchedQuery = fetchedQuery;
+        mFetchedMinMagnitude = fetchedQuery.getMinMagnitudeValue();
+        mFetchedAt = fetchedAt;
+
+        mByTime = sortedRows(earthquakes.size(), new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                long timeA = earthquakes.getTimeInMilliseconds(a);
+                long timeB = earthquakes.getTimeInMilliseconds(b);
+                return timeA > timeB ? -1 : (timeA == timeB ? 0 : 1);
+            }
+        });
+        mByMagnitude = sortedRows(earthquakes.size(), new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Double.compare(magnitudeOf(earthquakes, b), magnitudeOf(earthquakes, a));
+            }
+        });
+    }
+
+    /**
+     * Returns the query the current data was fetched with, or null if nothing was fetched yet.
+     */
+    public synchronized EarthquakeQuery getFetchedQuery() {
+        return mFetchedQuery;
+    }
+
+    /**
+     * Returns the time the current data was fetched at, in milliseconds.
+     */
+    public synchronized long getFetchedAt() {
+        return mFetchedAt;
+    }
+
+    /**
+     * Returns true if the current data was fetched less than the given time ago.
+     */
+    public synchronized boolean isFresh(long maxAgeMillis) {
+        return mEarthquakes != null && System.currentTimeMillis() - mFetchedAt < maxAgeMillis;
+    }
+
+    /**
+     * Returns true if the query can be answered from the current data.
+     */
+    public synchronized boolean canAnswer(EarthquakeQuery query) {
+        if (mEarthquakes == null || !isSupportedOrder(query.getOrderBy())) {
+            return false;
+        }
+        double minMagnitude = query.getMinMagnitudeValue();
+        if (Double.isNaN(minMagnitude) || Double.isNaN(mFetchedMinMagnitude)
+                || minMagnitude < mFetchedMinMagnitude) {
+            return false;
+        }
+        if (hasEveryEarthquakeAbove(minMagnitude)) {
+            return true;
+        }
+        return normalizeOrder(query.getOrderBy()).equals(normalizeOrder(mFetchedQuery.getOrderBy()))
+                && countAtLeast(minMagnitude) >= query.getLimit();
+    }
+
+    /**
+     * Returns the answer to the query from the current data, or null if it cannot be answered
+     * locally.
+     */
+    public synchronized EarthquakeTable query(EarthquakeQuery query) {
+        if (!canAnswer(query)) {
+            return null;
+        }
+        double minMagnitude = query.getMinMagnitudeValue();
+        int matching = countAtLeast(minMagnitude);
+        int[] rows = new int[Math.min(matching, Math.max(0, query.getLimit()))];
+        String orderBy = normalizeOrder(query.getOrderBy());
+
+        if ("magnitude".equals(orderBy)) {
+            // The matching rows are exactly the first ones of the magnitude index
+            System.arraycopy(mByMagnitude, 0, rows, 0, rows.length);
+        } else if ("magnitude-asc".equals(orderBy)) {
+            for (int i = 0; i < rows.length; i++) {
+                rows[i] = mByMagnitude[matching - 1 - i];
+            }
+        } else {
+            boolean ascending = "time-asc".equals(orderBy);
+            int found = 0;
+            for (int i = 0; i < mByTime.length && found < rows.length; i++) {
+                int row = mByTime[ascending ? mByTime.length - 1 - i : i];
+                if (mEarthquakes.getMagnitude(row) >= minMagnitude) {
+                    rows[found++] = row;
+                }
+            }
+        }
+        return mEarthquakes.select(rows);
+    }
+
+    /**
+     * Returns true if every earthquake with at least the given magnitude was fetched.
+     */
+    private boolean hasEveryEarthquakeAbove(double minMagnitude) {
+        int size = mEarthquakes.size();
+        if (size < mFetchedQuery.getLimit()) {
+            // USGS returned fewer than it was allowed to, so nothing was left out
+            return true;
+        }
+        // The biggest ones were fetched, so everything above the smallest of them is here
+        return "magnitude".equals(normalizeOrder(mFetchedQuery.getOrderBy()))
+                && size > 0 && minMagnitude > magnitudeOf(mEarthquakes, mByMagnitude[size - 1]);
+    }
+
+    /**
+     * Returns the number of fetched earthquakes with at least the given magnitude.
+     */
+    private int countAtLeast(double minMagnitude) {
+        // Binary search for the first row of the magnitude index below the minimum
+        int low = 0;
+        int high = mByMagnitude.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (magnitudeOf(mEarthquakes, mByMagnitude[middle]) >= minMagnitude) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the magnitude of the row, with unknown magnitudes below every other.
+     */
+    private static double magnitudeOf(EarthquakeTable earthquakes, int row) {
+        double magnitude = earthquakes.getMagnitude(row);
+        return Double.isNaN(magnitude) ? Double.NEGATIVE_INFINITY : magnitude;
+    }
+
+    private static boolean isSupportedOrder(String orderBy) {
+        return QueryUtils.comparatorForOrderBy(orderBy) != null;
+    }
+
+    private static String normalizeOrder(String orderBy) {
+        // USGS orders by time when orderby is not given
+        return orderBy == null ? "time" : orderBy;
+    }
+
+    /**
+     * Returns the rows 0 to size - 1 sorted by the comparator. Ties keep the order USGS sent.
+     */
+    private static int[] sortedRows(int size, Comparator<Integer> comparator) {
+        Integer[] boxed = new Integer[size];
+        for (int row = 0; row < size; row++) {
+            boxed[row] = row;
+        }
+        // Arrays.sort on objects is a stable merge sort
+        Arrays.sort(boxed, comparator);
+        int[] rows = new int[size];
+        for (int i = 0; i < size; i++) {
+            rows[i] = boxed[i];
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,376 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * The earthquakes fetched last and the query they were fetched with, saved in a compact binary
+ * file so the next launch can show them before any JSON is parsed or any request is sent.
+ *
+ * The file is laid out in fixed-width columns, so it is read by mapping it into memory and
+ * copying each column out in one go:
+ * <pre>
+ * header      magic, version, rows, locations, websites, strings bytes, limit, fetched at
+ * double[]    magnitudes, longitudes, latitudes, depths    8-byte columns first, so they
+ * long[]      times                                         stay aligned
+ * int[]       offset location, primary location and website codes
+ * int[]       end offset of every string in the string table
+ * byte[]      string table: ids, locations, websites, minimum magnitude and order, in UTF-8
+ * </pre>
+ * Locations and websites are stored as the dictionaries of the {@link EarthquakeTable}, so
+ * every place name is decoded once however many rows share it.
+ */
+public class EarthquakeSnapshot {
+
+    private static final String LOG_TAG = EarthquakeSnapshot.class.getSimpleName();
+
+    /** "EQSN", marks the file as a snapshot */
+    private static final int MAGIC = 0x4551534e;
+
+    /** Version of the file format, bumped whenever the layout changes */
+    private static final int FILE_VERSION = 1;
+
+    /** Size of the header in bytes, a multiple of 8 so the columns after it are aligned */
+    private static final int HEADER_SIZE = 40;
+
+    /** Name of the snapshot file in the cache directory of {@link EarthquakeCache} */
+    private static final String FILE_NAME = "snapshot.bin";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Serializes writes, as loads and background syncs both save snapshots */
+    private static final Object WRITE_LOCK = new Object();
+
+    private final EarthquakeQuery mQuery;
+    private final EarthquakeTable mEarthquakes;
+    private final long mFetchedAt;
+
+    /**
+     * Constructs a new {@link EarthquakeSnapshot}.
+     *
+     * @param query is the query the earthquakes were fetched with
+     * @param fetchedAt is the time the earthquakes were fetched at, in milliseconds
+     */
+    public EarthquakeSnapshot(EarthquakeQuery query, EarthquakeTable earthquakes, long fetchedAt) {
+        if (query.getMinMagnitude() == null || query.getOrderBy() == null) {
+            throw new IllegalArgumentException("Query must have a minimum magnitude and an order");
+        }
+        mQuery = query;
+        mEarthquakes = earthquakes;
+        mFetchedAt = fetchedAt;
+    }
+
+    /**
+     * Returns the file the app keeps its snapshot in.
+     */
+    public static File getFile(Context context) {
+        return new File(new File(context.getApplicationContext().getFilesDir(), "earthquakes"), FILE_NAME);
+    }
+
+    public EarthquakeQuery getQuery() {
+        return mQuery;
+    }
+
+    public EarthquakeTable getEarthquakes() {
+        return mEarthquakes;
+    }
+
+    public long getFetchedAt() {
+        return mFetchedAt;
+    }
+
+    /**
+     * Reads the snapshot in the file. Returns null if the file is missing, unreadable,
+     * truncated or of another version.
+     */
+    public static EarthquakeSnapshot read(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        RandomAccessFile in = null;
+        try {
+            in = new RandomAccessFile(file, "r");
+            FileChannel channel = in.getChannel();
+            long length = channel.size();
+            if (length < HEADER_SIZE) {
+                return null;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            return read(buffer);
+        } catch (IOException | RuntimeException e) {
+            // A corrupt file can make the counts point anywhere, which ends up here too
+            Log.e(LOG_TAG, "Problem reading the earthquake snapshot", e);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Problem closing the earthquake snapshot", e);
+                }
+            }
+        }
+    }
+
+    private static EarthquakeSnapshot read(ByteBuffer buffer) {
+        if (buffer.getInt() != MAGIC || buffer.getInt() != FILE_VERSION) {
+            Log.w(LOG_TAG, "Ignoring earthquake snapshot with an old file version");
+            return null;
+        }
+        int rows = buffer.getInt();
+        int locationCount = buffer.getInt();
+        int websiteCount = buffer.getInt();
+        int stringBytes = buffer.getInt();
+        int limit = buffer.getInt();
+        buffer.getInt();
+        long fetchedAt = buffer.getLong();
+
+        int stringCount = rows + locationCount + websiteCount + 2;
+        long expectedLength = HEADER_SIZE + 40L * rows + 12L * rows + 4L * stringCount + stringBytes;
+        if (rows < 0 || locationCount < 0 || websiteCount < 0 || stringBytes < 0
+                || expectedLength != buffer.capacity()) {
+            Log.w(LOG_TAG, "Ignoring truncated earthquake snapshot");
+            return null;
+        }
+
+        // Every column is copied out of the mapped file in one bulk transfer
+        double[] magnitudes = new double[rows];
+        double[] longitudes = new double[rows];
+        double[] latitudes = new double[rows];
+        double[] depths = new double[rows];
+        long[] times = new long[rows];
+        int[] offsetLocationCodes = new int[rows];
+        int[] primaryLocationCodes = new int[rows];
+        int[] websiteCodes = new int[rows];
+        int[] stringEnds = new int[stringCount];
+
+        int position = HEADER_SIZE;
+        position = readDoubles(buffer, position, magnitudes);
+        position = readDoubles(buffer, position, longitudes);
+        position = readDoubles(buffer, position, latitudes);
+        position = readDoubles(buffer, position, depths);
+        buffer.position(position);
+        buffer.asLongBuffer().get(times);
+        position += 8 * rows;
+        position = readInts(buffer, position, offsetLocationCodes);
+        position = readInts(buffer, position, primaryLocationCodes);
+        position = readInts(buffer, position, websiteCodes);
+        position = readInts(buffer, position, stringEnds);
+
+        byte[] strings = new byte[stringBytes];
+        buffer.position(position);
+        buffer.get(strings);
+
+        String[] ids = new String[rows];
+        String[] locations = new String[locationCount];
+        String[] websites = new String[websiteCount];
+        int index = 0;
+        int start = 0;
+        for (int i = 0; i < rows; i++, index++) {
+            ids[i] = new String(strings, start, stringEnds[index] - start, UTF_8);
+            start = stringEnds[index];
+        }
+        for (int i = 0; i < locationCount; i++, index++) {
+            locations[i] = new String(strings, start, stringEnds[index] - start, UTF_8);
+            start = stringEnds[index];
+        }
+        for (int i = 0; i < websiteCount; i++, index++) {
+            websites[i] = new String(strings, start, stringEnds[index] - start, UTF_8);
+            start = stringEnds[index];
+        }
+        String minMagnitude = new String(strings, start, stringEnds[index] - start, UTF_8);
+        start = stringEnds[index++];
+        String orderBy = new String(strings, start, stringEnds[index] - start, UTF_8);
+
+        for (int i = 0; i < rows; i++) {
+            checkCode(offsetLocationCodes[i], locationCount);
+            checkCode(primaryLocationCodes[i], locationCount);
+            checkCode(websiteCodes[i] >= 0 ? websiteCodes[i] : ~websiteCodes[i], websiteCount);
+        }
+
+        EarthquakeTable earthquakes = EarthquakeTable.fromColumns(rows, ids, magnitudes, times,
+                longitudes, latitudes, depths, offsetLocationCodes, primaryLocationCodes,
+                websiteCodes, locations, websites);
+        return new EarthquakeSnapshot(new EarthquakeQuery(minMagnitude, orderBy, limit), earthquakes,
+                fetchedAt);
+    }
+
+    /**
+     * Writes the snapshot to the file, unless the file holds one fetched later. The file is
+     * written next to the old one under a name of its own and then renamed over it, so a crash
+     * part way through never leaves a truncated snapshot behind. Writers on other threads wait
+     * for each other. Returns false if it was not written.
+     */
+    public boolean write(File file) {
+        synchronized (WRITE_LOCK) {
+            if (readFetchedAt(file) > mFetchedAt) {
+                Log.v(LOG_TAG, "*************Keeping the newer snapshot");
+                return false;
+            }
+            return writeLocked(file);
+        }
+    }
+
+    /**
+     * Returns the fetch time in the header of the snapshot in the file, or
+     * {@link Long#MIN_VALUE} if there is no readable snapshot.
+     */
+    private static long readFetchedAt(File file) {
+        if (!file.exists()) {
+            return Long.MIN_VALUE;
+        }
+        RandomAccessFile in = null;
+        try {
+            in = new RandomAccessFile(file, "r");
+            if (in.length() < HEADER_SIZE || in.readInt() != MAGIC || in.readInt() != FILE_VERSION) {
+                return Long.MIN_VALUE;
+            }
+            in.seek(HEADER_SIZE - 8);
+            return in.readLong();
+        } catch (IOException e) {
+            return Long.MIN_VALUE;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Problem closing the earthquake snapshot", e);
+                }
+            }
+        }
+    }
+
+    private boolean writeLocked(File file) {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            Log.e(LOG_TAG, "Could not create directory " + parent);
+            return false;
+        }
+        File tempFile;
+        try {
+            tempFile = File.createTempFile(FILE_NAME, ".tmp", parent != null ? parent : new File("."));
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Could not create a file next to " + file, e);
+            return false;
+        }
+
+        EarthquakeTable table = mEarthquakes;
+        int rows = table.size();
+        String[] locations = table.getLocationDictionary();
+        String[] websites = table.getWebsiteDictionary();
+        byte[][] strings = new byte[rows + locations.length + websites.length + 2][];
+        int index = 0;
+        for (int row = 0; row < rows; row++) {
+            strings[index++] = table.getId(row).getBytes(UTF_8);
+        }
+        for (String location : locations) {
+            strings[index++] = location.getBytes(UTF_8);
+        }
+        for (String website : websites) {
+            strings[index++] = website.getBytes(UTF_8);
+        }
+        strings[index++] = mQuery.getMinMagnitude().getBytes(UTF_8);
+        strings[index] = mQuery.getOrderBy().getBytes(UTF_8);
+        int stringBytes = 0;
+        for (byte[] string : strings) {
+            stringBytes += string.length;
+        }
+
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            out.writeInt(MAGIC);
+            out.writeInt(FILE_VERSION);
+            out.writeInt(rows);
+            out.writeInt(locations.length);
+            out.writeInt(websites.length);
+            out.writeInt(stringBytes);
+            out.writeInt(mQuery.getLimit());
+            out.writeInt(0);
+            out.writeLong(mFetchedAt);
+
+            for (int row = 0; row < rows; row++) {
+                out.writeDouble(table.getMagnitude(row));
+            }
+            for (int row = 0; row < rows; row++) {
+                out.writeDouble(table.getLongitude(row));
+            }
+            for (int row = 0; row < rows; row++) {
+                out.writeDouble(table.getLatitude(row));
+            }
+            for (int row = 0; row < rows; row++) {
+                out.writeDouble(table.getDepth(row));
+            }
+            for (int row = 0; row < rows; row++) {
+                out.writeLong(table.getTimeInMilliseconds(row));
+            }
+            for (int row = 0; row < rows; row++) {
+                out.writeInt(table.getOffsetLocationCode(row));
+            }
+            for (int row = 0; row < rows; row++) {
+                out.writeInt(table.getPrimaryLocationCode(row));
+            }
+            for (int row = 0; row < rows; row++) {
+                out.writeInt(table.getWebsiteCode(row));
+            }
+            int end = 0;
+            for (byte[] string : strings) {
+                end += string.length;
+                out.writeInt(end);
+            }
+            for (byte[] string : strings) {
+                out.write(string);
+            }
+            out.close();
+            out = null;
+            if (!tempFile.renameTo(file)) {
+                Log.e(LOG_TAG, "Could not replace the earthquake snapshot " + file);
+                return false;
+            }
+            return true;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem writing the earthquake snapshot", e);
+            return false;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Problem closing the earthquake snapshot", e);
+                }
+            }
+            if (tempFile.exists()) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    private static int readDoubles(ByteBuffer buffer, int position, double[] column) {
+        buffer.position(position);
+        buffer.asDoubleBuffer().get(column);
+        return position + 8 * column.length;
+    }
+
+    private static int readInts(ByteBuffer buffer, int position, int[] column) {
+        buffer.position(position);
+        buffer.asIntBuffer().get(column);
+        return position + 4 * column.length;
+    }
+
+    private static void checkCode(int code, int count) {
+        if (code < 0 || code >= count) {
+            throw new IllegalStateException("Dictionary code " + code + " of " + count);
+        }
+    }
+}
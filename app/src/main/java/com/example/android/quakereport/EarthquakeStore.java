@@ -0,0 +1,535 @@
+package com.example.android.quakereport;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A persistent store of {@link Earthquake}s keyed by their USGS event id.
+ *
+ * Events are held in memory and persisted to a binary file, so they survive across app
+ * launches. Call {@link #load()} once before use and {@link #save()} after a batch of changes.
+ * Saving only appends the events changed since the last save to a journal next to the file;
+ * once the journal holds more records than the store has events, the file is rewritten and
+ * the journal dropped, so the cost of a save follows the size of the change.
+ *
+ * Summaries, place searches and map clusters of the stored events are kept in an
+ * {@link EarthquakeAggregator}, a {@link PlaceIndex} and a {@link ClusterPyramid}. Each is only
+ * built the first time it is asked for, and from then on every change is applied to it, so a
+ * fetch pays nothing for the ones no screen uses. Radius, bounding box and nearest queries go
+ * to a {@link GeoIndex}, which cannot change once built, so it is built at the first query after
+ * a change.
+ */
+public class EarthquakeStore {
+
+    private static final String LOG_TAG = EarthquakeStore.class.getSimpleName();
+
+    /** Version of the file format, bumped whenever the layout of a record changes */
+    private static final int FILE_VERSION = 3;
+
+    /** Journal record of an added or replaced event */
+    private static final int RECORD_PUT = 1;
+
+    /** Journal record of a removed event, holding only its id */
+    private static final int RECORD_REMOVE = 2;
+
+    /** Smallest number of journal records that makes a rewrite of the file worth it */
+    private static final int MIN_JOURNAL_RECORDS = 256;
+
+    /** File the events are persisted to */
+    private final File mFile;
+
+    /** Changes saved since the file was last written */
+    private final File mJournalFile;
+
+    /** Events keyed by USGS event id */
+    private final Map<String, Earthquake> mEarthquakes = new HashMap<>();
+
+    /** Events changed since the last save by id, mapped to null if they were removed */
+    private final Map<String, Earthquake> mChanged = new LinkedHashMap<>();
+
+    /** Number of records in the journal */
+    private int mJournalRecords;
+
+    /** True if the journal cannot be appended to, so the next save must rewrite the file */
+    private boolean mRewriteNeeded;
+
+    /** Summaries of the events, null until asked for and then updated with every change */
+    private EarthquakeAggregator mAggregator;
+
+    /** Search index over the places of the events, null until asked for */
+    private PlaceIndex mPlaceIndex;
+
+    /** Map clusters of the events, null until asked for */
+    private ClusterPyramid mClusters;
+
+    /** Epicenter index over the events in a fixed order, null until queried after a change */
+    private List<Earthquake> mGeoEarthquakes;
+    private GeoIndex mGeoIndex;
+
+    /**
+     * Constructs a new {@link EarthquakeStore}.
+     *
+     * @param file is the file the events are persisted to
+     */
+    public EarthquakeStore(File file) {
+        mFile = file;
+        mJournalFile = new File(file.getPath() + ".journal");
+    }
+
+    /**
+     * Returns the earthquake with the given id, or null if it is not in the store.
+     */
+    public synchronized Earthquake get(String id) {
+        return mEarthquakes.get(id);
+    }
+
+    /**
+     * Adds the earthquake to the store, replacing any earlier version with the same id.
+     */
+    public synchronized void put(Earthquake earthquake) {
+        index(mEarthquakes.put(earthquake.getId(), earthquake), earthquake);
+        mChanged.put(earthquake.getId(), earthquake);
+    }
+
+    /**
+     * Adds all the earthquakes to the store, replacing any earlier versions with the same ids.
+     */
+    public synchronized void putAll(Collection<Earthquake> earthquakes) {
+        for (Earthquake earthquake : earthquakes) {
+            index(mEarthquakes.put(earthquake.getId(), earthquake), earthquake);
+            mChanged.put(earthquake.getId(), earthquake);
+        }
+    }
+
+    /**
+     * Removes the earthquake with the given id and returns it, or null if it was not in the store.
+     */
+    public synchronized Earthquake remove(String id) {
+        Earthquake earthquake = mEarthquakes.remove(id);
+        if (earthquake != null) {
+            unindex(earthquake);
+            mChanged.put(id, null);
+        }
+        return earthquake;
+    }
+
+    /**
+     * Removes every earthquake whose id is not in the given set, i.e. the ones no cached
+     * result refers to any more. Returns the number of earthquakes removed.
+     */
+    public synchronized int retainAll(Set<String> ids) {
+        int removed = 0;
+        Iterator<Earthquake> iterator = mEarthquakes.values().iterator();
+        while (iterator.hasNext()) {
+            Earthquake earthquake = iterator.next();
+            if (!ids.contains(earthquake.getId())) {
+                iterator.remove();
+                unindex(earthquake);
+                mChanged.put(earthquake.getId(), null);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Returns the number of earthquakes in the store.
+     */
+    public synchronized int size() {
+        return mEarthquakes.size();
+    }
+
+    /**
+     * Returns a copy of all earthquakes in the store, in no particular order.
+     */
+    public synchronized List<Earthquake> getAll() {
+        return new ArrayList<>(mEarthquakes.values());
+    }
+
+    /**
+     * Returns the summaries of the events in the store, which follow every later change.
+     * The first call builds them from all events.
+     */
+    public synchronized EarthquakeAggregator getAggregator() {
+        if (mAggregator == null) {
+            mAggregator = new EarthquakeAggregator();
+            for (Earthquake earthquake : mEarthquakes.values()) {
+                mAggregator.add(earthquake);
+            }
+        }
+        return mAggregator;
+    }
+
+    /**
+     * Returns the search index over the places of the events in the store, which follows every
+     * later change. The first call builds it from all events.
+     */
+    public synchronized PlaceIndex getPlaceIndex() {
+        if (mPlaceIndex == null) {
+            mPlaceIndex = new PlaceIndex();
+            for (Earthquake earthquake : mEarthquakes.values()) {
+                mPlaceIndex.add(earthquake);
+            }
+        }
+        return mPlaceIndex;
+    }
+
+    /**
+     * Returns the map clusters of the events in the store, which follow every later change.
+     * The first call builds them from all events.
+     */
+    public synchronized ClusterPyramid getClusters() {
+        if (mClusters == null) {
+            mClusters = new ClusterPyramid();
+            for (Earthquake earthquake : mEarthquakes.values()) {
+                mClusters.add(earthquake);
+            }
+        }
+        return mClusters;
+    }
+
+    /**
+     * Returns the earthquakes at most the given distance from a point, in no particular order.
+     */
+    public synchronized List<Earthquake> getWithinRadius(double latitude, double longitude, double radiusKm) {
+        return getGeoRows(getGeoIndex().withinRadius(latitude, longitude, radiusKm));
+    }
+
+    /**
+     * Returns the earthquakes inside the bounding box, in no particular order. If west is
+     * greater than east the box crosses the antimeridian.
+     */
+    public synchronized List<Earthquake> getWithinBoundingBox(double south, double west, double north,
+                                                           double east) {
+        return getGeoRows(getGeoIndex().withinBoundingBox(south, west, north, east));
+    }
+
+    /**
+     * Returns the k earthquakes nearest to a point, nearest first.
+     */
+    public synchronized List<Earthquake> getNearest(double latitude, double longitude, int k) {
+        return getGeoRows(getGeoIndex().nearest(latitude, longitude, k));
+    }
+
+    /**
+     * Replaces the in-memory events with the ones persisted on disk, replaying the journal over
+     * the file. A missing, unreadable or outdated file leaves the store empty.
+     */
+    public synchronized void load() {
+        clearEvents();
+        mChanged.clear();
+        mJournalRecords = 0;
+        mRewriteNeeded = false;
+        if (!loadFile() || !loadJournal()) {
+            // Start over with a clean file, so the journal is never replayed over the wrong
+            // events and new records never follow a torn one
+            mRewriteNeeded = true;
+            writeFile();
+        }
+    }
+
+    /**
+     * Reads the events in the file. Returns false, leaving the store empty, if the file is
+     * unreadable or outdated.
+     */
+    private boolean loadFile() {
+        if (!mFile.exists()) {
+            return true;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            if (in.readInt() != FILE_VERSION) {
+                Log.w(LOG_TAG, "Ignoring earthquake store with an old file version");
+                return false;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Earthquake earthquake = readEarthquake(in);
+                index(mEarthquakes.put(earthquake.getId(), earthquake), earthquake);
+            }
+            return true;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem reading the earthquake store", e);
+            clearEvents();
+            return false;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Replays the journal over the events read from the file. Returns false if the journal
+     * ends part way through a record, as it does when the app died while appending to it.
+     */
+    private boolean loadJournal() {
+        if (!mJournalFile.exists()) {
+            return true;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mJournalFile)));
+            if (in.readInt() != FILE_VERSION) {
+                Log.w(LOG_TAG, "Ignoring earthquake journal with an old file version");
+                return false;
+            }
+            int type;
+            while ((type = in.read()) != -1) {
+                if (type == RECORD_PUT) {
+                    Earthquake earthquake = readEarthquake(in);
+                    index(mEarthquakes.put(earthquake.getId(), earthquake), earthquake);
+                } else if (type == RECORD_REMOVE) {
+                    Earthquake earthquake = mEarthquakes.remove(in.readUTF());
+                    if (earthquake != null) {
+                        unindex(earthquake);
+                    }
+                } else {
+                    throw new IOException("Unknown journal record " + type);
+                }
+                mJournalRecords++;
+            }
+            return true;
+        } catch (EOFException e) {
+            Log.w(LOG_TAG, "Earthquake journal ends in a torn record");
+            return false;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem reading the earthquake journal", e);
+            return false;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Persists the changes made since the last save. They are appended to the journal, unless
+     * it has grown larger than the store, in which case the whole file is rewritten instead.
+     */
+    public synchronized void save() {
+        if (mChanged.isEmpty()) {
+            return;
+        }
+        if (mRewriteNeeded
+                || mJournalRecords + mChanged.size() > Math.max(MIN_JOURNAL_RECORDS, mEarthquakes.size())
+                || !appendJournal()) {
+            writeFile();
+        }
+    }
+
+    /**
+     * Appends the changes to the journal. Returns false if they could not all be written.
+     */
+    private boolean appendJournal() {
+        File parent = mFile.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            Log.e(LOG_TAG, "Could not create directory " + parent);
+            return false;
+        }
+
+        boolean isNew = !mJournalFile.exists() || mJournalFile.length() == 0;
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mJournalFile, true)));
+            if (isNew) {
+                out.writeInt(FILE_VERSION);
+            }
+            for (Map.Entry<String, Earthquake> change : mChanged.entrySet()) {
+                if (change.getValue() == null) {
+                    out.writeByte(RECORD_REMOVE);
+                    out.writeUTF(change.getKey());
+                } else {
+                    out.writeByte(RECORD_PUT);
+                    writeEarthquake(out, change.getValue());
+                }
+            }
+            out.close();
+            out = null;
+            mJournalRecords += mChanged.size();
+            mChanged.clear();
+            return true;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem appending to the earthquake journal", e);
+            mRewriteNeeded = true;
+            return false;
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    /**
+     * Writes all the in-memory events to disk and drops the journal. The file is written next
+     * to the old one and then renamed over it, so a crash part way through never leaves a
+     * truncated store behind. A crash before the journal is dropped only replays changes the
+     * new file already holds.
+     */
+    private void writeFile() {
+        File tempFile = new File(mFile.getPath() + ".tmp");
+        File parent = mFile.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            Log.e(LOG_TAG, "Could not create directory " + parent);
+            return;
+        }
+
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            out.writeInt(FILE_VERSION);
+            out.writeInt(mEarthquakes.size());
+            for (Earthquake earthquake : mEarthquakes.values()) {
+                writeEarthquake(out, earthquake);
+            }
+            out.close();
+            out = null;
+            if (!tempFile.renameTo(mFile)) {
+                Log.e(LOG_TAG, "Could not replace the earthquake store " + mFile);
+                return;
+            }
+            if (mJournalFile.exists() && !mJournalFile.delete()) {
+                Log.e(LOG_TAG, "Could not delete the earthquake journal " + mJournalFile);
+                return;
+            }
+            mJournalRecords = 0;
+            mRewriteNeeded = false;
+            mChanged.clear();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem writing the earthquake store", e);
+        } finally {
+            closeQuietly(out);
+            if (tempFile.exists()) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    private GeoIndex getGeoIndex() {
+        if (mGeoIndex == null) {
+            mGeoEarthquakes = new ArrayList<>(mEarthquakes.values());
+            mGeoIndex = new GeoIndex(EarthquakeTable.fromList(mGeoEarthquakes));
+        }
+        return mGeoIndex;
+    }
+
+    private List<Earthquake> getGeoRows(int[] rows) {
+        List<Earthquake> earthquakes = new ArrayList<>(rows.length);
+        for (int row : rows) {
+            earthquakes.add(mGeoEarthquakes.get(row));
+        }
+        return earthquakes;
+    }
+
+    /**
+     * Applies a replaced or added event to the summaries, the place index and the clusters
+     * that were built, and drops the epicenter index.
+     */
+    private void index(Earthquake oldEarthquake, Earthquake earthquake) {
+        mGeoEarthquakes = null;
+        mGeoIndex = null;
+        if (mAggregator != null) {
+            mAggregator.replace(oldEarthquake, earthquake);
+        }
+        if (mPlaceIndex != null) {
+            mPlaceIndex.add(earthquake);
+        }
+        if (mClusters != null) {
+            mClusters.replace(oldEarthquake, earthquake);
+        }
+    }
+
+    /**
+     * Removes an event from the summaries, the place index and the clusters that were built,
+     * and drops the epicenter index.
+     */
+    private void unindex(Earthquake earthquake) {
+        mGeoEarthquakes = null;
+        mGeoIndex = null;
+        if (mAggregator != null) {
+            mAggregator.replace(earthquake, null);
+        }
+        if (mPlaceIndex != null) {
+            mPlaceIndex.remove(earthquake.getId());
+        }
+        if (mClusters != null) {
+            mClusters.replace(earthquake, null);
+        }
+    }
+
+    /**
+     * Empties the store and everything kept up to date with it. Indexes handed out keep
+     * following the store, so they are emptied rather than dropped.
+     */
+    private void clearEvents() {
+        mEarthquakes.clear();
+        mGeoEarthquakes = null;
+        mGeoIndex = null;
+        if (mAggregator != null) {
+            mAggregator.clear();
+        }
+        if (mPlaceIndex != null) {
+            mPlaceIndex.clear();
+        }
+        if (mClusters != null) {
+            mClusters.clear();
+        }
+    }
+
+    /**
+     * Writes a single earthquake record.
+     */
+    static void writeEarthquake(DataOutputStream out, Earthquake earthquake) throws IOException {
+        out.writeUTF(earthquake.getId());
+        out.writeDouble(earthquake.getMagnitude());
+        out.writeUTF(earthquake.getLocation());
+        out.writeLong(earthquake.getTimeInMilliseconds());
+        out.writeLong(earthquake.getUpdatedInMilliseconds());
+        out.writeUTF(earthquake.getWebsite());
+        out.writeDouble(earthquake.getLongitude());
+        out.writeDouble(earthquake.getLatitude());
+        out.writeDouble(earthquake.getDepth());
+    }
+
+    /**
+     * Reads a single earthquake record written by {@link #writeEarthquake}.
+     */
+    static Earthquake readEarthquake(DataInputStream in) throws IOException {
+        String id = in.readUTF();
+        double magnitude = in.readDouble();
+        String location = in.readUTF();
+        long timeInMilliseconds = in.readLong();
+        long updatedInMilliseconds = in.readLong();
+        String website = in.readUTF();
+        double longitude = in.readDouble();
+        double latitude = in.readDouble();
+        double depth = in.readDouble();
+        return new Earthquake(id, magnitude, location, timeInMilliseconds, updatedInMilliseconds,
+                website, false, longitude, latitude, depth);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Problem closing the earthquake store", e);
+            }
+        }
+    }
+}
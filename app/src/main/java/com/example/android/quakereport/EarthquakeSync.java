@@ -0,0 +1,236 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * Keeps the earthquakes on screen up to date by revalidating them with USGS in the background.
+ *
+ * The schedule itself is decided by a {@link SyncScheduler}; this class connects it to Android:
+ * time and delays come from a {@link Handler} on the main thread, syncs run on a background
+ * thread, and connectivity broadcasts wake up a sync held back while offline. Listeners are told
+ * on the main thread when a sync brought new data, so loaders can reload.
+ *
+ * The first syncs also backfill the {@link EarthquakeHistory} with its whole retention, a
+ * window longer than USGS answers by default, which a {@link ShardedFetcher} fetches a month
+ * per request in parallel. The history is what loads fall back on offline.
+ *
+ * Alerts watch more than the query on screen: every sync also ingests the USGS summary feeds
+ * through a {@link MultiSourceIngestor}, so a significant earthquake the query leaves out, i.e.
+ * below its minimum magnitude or past its limit, still raises them.
+ */
+public class EarthquakeSync {
+
+    private static final String LOG_TAG = EarthquakeSync.class.getSimpleName();
+
+    /**
+     * Interface definition for a callback to be invoked when a background sync finished.
+     */
+    public interface OnSyncListener {
+        void onSyncFinished();
+    }
+
+    /** Feeds ingested for alerts besides the query on screen, which is preferred over them */
+    private static final List<String> ALERT_FEED_URLS = Arrays.asList(
+            "https://earthquake.usgs.gov/earthquakes/feed/v1.0/summary/significant_week.geojson",
+            "https://earthquake.usgs.gov/earthquakes/feed/v1.0/summary/4.5_day.geojson");
+
+    /**
+     * Request for every earthquake the history keeps, without a time window, which the backfill
+     * adds to each shard. The limit is the most USGS allows, far above a month of earthquakes.
+     */
+    private static final String BACKFILL_URL = EarthquakeQuery.USGS_URL
+            + "?format=geojson&orderby=time&minmag=" + EarthquakeHistory.DEFAULT_MIN_KEPT_MAGNITUDE
+            + "&limit=20000";
+
+    private static EarthquakeSync sInstance;
+
+    private final Context mContext;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final SyncScheduler mScheduler;
+    private final NetworkConnectivity mConnectivity;
+    private final CopyOnWriteArrayList<OnSyncListener> mListeners = new CopyOnWriteArrayList<>();
+
+    private boolean mStarted;
+
+    /**
+     * Returns the sync shared by the whole app.
+     */
+    public static synchronized EarthquakeSync getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new EarthquakeSync(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private EarthquakeSync(Context context) {
+        mContext = context;
+        mConnectivity = new NetworkConnectivity(context);
+        // Syncs never hold up a load the user is waiting for
+        Executor executor = LoadExecutor.getInstance().asExecutor(LoadExecutor.PRIORITY_BACKGROUND);
+        mScheduler = new SyncScheduler(new SyncScheduler.SyncTask() {
+            @Override
+            public boolean sync() {
+                return syncEarthquakes();
+            }
+        }, new HandlerClock(mMainHandler), executor, mConnectivity, new Random());
+    }
+
+    /**
+     * Sets the time between two background syncs.
+     */
+    public void setIntervalMillis(long intervalMillis) {
+        mScheduler.setIntervalMillis(intervalMillis);
+    }
+
+    /**
+     * Starts syncing in the background. Must be called on the main thread.
+     */
+    public void start() {
+        if (mStarted) {
+            return;
+        }
+        mStarted = true;
+        mConnectivity.register(new Runnable() {
+            @Override
+            public void run() {
+                mScheduler.onConnectivityChanged();
+            }
+        });
+        mScheduler.start();
+    }
+
+    /**
+     * Stops syncing in the background. Must be called on the main thread.
+     */
+    public void stop() {
+        if (!mStarted) {
+            return;
+        }
+        mStarted = false;
+        mConnectivity.unregister();
+        mScheduler.stop();
+    }
+
+    /**
+     * Asks for a sync as soon as possible, i.e. when the user pulls to refresh.
+     */
+    public void requestSync() {
+        mScheduler.requestSync();
+    }
+
+    /**
+     * Adds a listener told on the main thread after a sync that brought new data. Adding
+     * a listener twice has no effect.
+     */
+    public void addListener(OnSyncListener listener) {
+        mListeners.addIfAbsent(listener);
+    }
+
+    public void removeListener(OnSyncListener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Revalidates the earthquakes the current query was answered from. Runs on the sync thread.
+     */
+    private boolean syncEarthquakes() {
+        EarthquakeQueryEngine engine = EarthquakeQueryEngine.getInstance();
+        EarthquakeQuery query = engine.getFetchedQuery();
+        if (query == null) {
+            // Nothing was loaded yet, the first load fetches it
+            return true;
+        }
+
+        Log.v(LOG_TAG, "*************Syncing in the background");
+        EarthquakeCache cache = EarthquakeCache.getInstance(mContext);
+        long generation = cache.getGeneration();
+        List<Earthquake> earthquakes = cache.refresh(query.toUrl());
+        if (earthquakes == null) {
+            return false;
+        }
+        boolean changed = cache.getGeneration() != generation;
+        // Runs on the sync thread anyway, and at most as often as syncs do
+        cache.getHistory().compact(System.currentTimeMillis());
+        backfillHistory(cache.getHistory(), System.currentTimeMillis());
+        ingestAlerts(cache, query);
+        if (!changed) {
+            // A 304 or an empty delta, so nothing on screen is out of date
+            Log.v(LOG_TAG, "*************Nothing new");
+            return true;
+        }
+        EarthquakeTable table = EarthquakeTable.fromList(earthquakes);
+        long fetchedAt = System.currentTimeMillis();
+        synchronized (engine) {
+            // A load may have fetched another query meanwhile, which is newer than this
+            if (engine.getFetchedQuery() != query) {
+                return true;
+            }
+            engine.setFetched(query, table, fetchedAt);
+        }
+        new EarthquakeSnapshot(query, table, fetchedAt).write(EarthquakeSnapshot.getFile(mContext));
+
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (OnSyncListener listener : mListeners) {
+                    listener.onSyncFinished();
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Fetches the part of the history's retention it does not reach back to yet, unless it
+     * already reaches back further than USGS answers by default. A backfill that fails is
+     * tried again by the next sync.
+     */
+    private static void backfillHistory(EarthquakeHistory history, long nowMillis) {
+        long start = nowMillis - EarthquakeHistory.DEFAULT_RETENTION_MILLIS;
+        long end = Math.min(nowMillis, history.getMinTime());
+        if (end <= nowMillis - EarthquakeHistory.USGS_DEFAULT_WINDOW_MILLIS) {
+            return;
+        }
+        Log.v(LOG_TAG, "*************Backfilling the history");
+        // Straight from the network: the shards are too big and too rarely asked for to cache
+        List<Earthquake> earthquakes = new ShardedFetcher(new ShardedFetcher.Source() {
+            @Override
+            public List<Earthquake> fetch(String requestUrl) {
+                return QueryUtils.fetchEarthQuakeData(requestUrl);
+            }
+        }).fetch(BACKFILL_URL, start, end, ShardedFetcher.shardCountFor(start, end));
+        if (earthquakes != null) {
+            history.append(earthquakes);
+        }
+    }
+
+    /**
+     * Hands the earthquakes of the query and of the alert feeds to the {@link AlertEngine}, one
+     * canonical event per earthquake. The feeds go through the cache, so an unchanged feed costs
+     * a 304, and the query was just refreshed, so it is answered from disk.
+     */
+    private static void ingestAlerts(final EarthquakeCache cache, EarthquakeQuery query) {
+        List<String> sourceUrls = new ArrayList<>(ALERT_FEED_URLS.size() + 1);
+        sourceUrls.add(query.toUrl());
+        sourceUrls.addAll(ALERT_FEED_URLS);
+        List<Earthquake> events = new MultiSourceIngestor(sourceUrls, new ShardedFetcher.Source() {
+            @Override
+            public List<Earthquake> fetch(String requestUrl) {
+                return cache.fetch(requestUrl);
+            }
+        }, ShardedFetcher.getDefaultExecutor()).ingest(null);
+        if (events != null) {
+            AlertEngine.getInstance().ingest(events);
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact, column-oriented list of earthquakes.
+ *
+ * Instead of one {@link Earthquake} object per event, every field is kept in its own primitive
+ * array. Location strings are split into their offset ("88km N of") and primary location
+ * ("Yelizovo, Russia") and both halves are dictionary-encoded, since the same places come up
+ * again and again. Web page URLs are stored as a shared prefix plus the event id they end with.
+ * Rows are read by index, so the list can be displayed without creating an object per row.
+ */
+public class EarthquakeTable {
+
+    /** Separator between the offset and the primary location in USGS place strings */
+    public static final String LOCATION_SEPARATOR = " of ";
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int mSize;
+    private String[] mIds;
+    private double[] mMagnitudes;
+    private long[] mTimes;
+    private double[] mLongitudes;
+    private double[] mLatitudes;
+    private double[] mDepths;
+    private int[] mOffsetLocationCodes;
+    private int[] mPrimaryLocationCodes;
+
+    /**
+     * Code of the web page in {@link #mWebsites}. A code of zero or more is a prefix the event
+     * id is appended to, a negative code {@code ~i} is a whole URL that does not end with the id.
+     */
+    private int[] mWebsiteCodes;
+
+    private final StringDictionary mLocations = new StringDictionary();
+    private final StringDictionary mWebsites = new StringDictionary();
+
+    /**
+     * Constructs an empty {@link EarthquakeTable}.
+     */
+    public EarthquakeTable() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Constructs an empty {@link EarthquakeTable} with room for the given number of rows.
+     */
+    public EarthquakeTable(int capacity) {
+        capacity = Math.max(1, capacity);
+        mIds = new String[capacity];
+        mMagnitudes = new double[capacity];
+        mTimes = new long[capacity];
+        mLongitudes = new double[capacity];
+        mLatitudes = new double[capacity];
+        mDepths = new double[capacity];
+        mOffsetLocationCodes = new int[capacity];
+        mPrimaryLocationCodes = new int[capacity];
+        mWebsiteCodes = new int[capacity];
+    }
+
+    /**
+     * Returns a table adopting the given columns and dictionaries without copying them, as
+     * written by {@link #getOffsetLocationCode(int)} and its siblings. Only meant for
+     * {@link EarthquakeSnapshot}, which reads whole columns at once.
+     */
+    static EarthquakeTable fromColumns(int size, String[] ids, double[] magnitudes, long[] times,
+                                       double[] longitudes, double[] latitudes, double[] depths,
+                                       int[] offsetLocationCodes, int[] primaryLocationCodes,
+                                       int[] websiteCodes, String[] locations, String[] websites) {
+        EarthquakeTable table = new EarthquakeTable(0);
+        table.mSize = size;
+        table.mIds = ids;
+        table.mMagnitudes = magnitudes;
+        table.mTimes = times;
+        table.mLongitudes = longitudes;
+        table.mLatitudes = latitudes;
+        table.mDepths = depths;
+        table.mOffsetLocationCodes = offsetLocationCodes;
+        table.mPrimaryLocationCodes = primaryLocationCodes;
+        table.mWebsiteCodes = websiteCodes;
+        table.mLocations.addAll(locations);
+        table.mWebsites.addAll(websites);
+        return table;
+    }
+
+    /**
+     * Returns a table holding the given earthquakes, in the same order.
+     */
+    public static EarthquakeTable fromList(List<Earthquake> earthquakes) {
+        EarthquakeTable table = new EarthquakeTable(earthquakes.size());
+        for (Earthquake earthquake : earthquakes) {
+            table.add(earthquake);
+        }
+        return table;
+    }
+
+    /**
+     * Appends an earthquake as a new row.
+     */
+    public void add(Earthquake earthquake) {
+        ensureCapacity(mSize + 1);
+        int row = mSize++;
+        mIds[row] = earthquake.getId();
+        mMagnitudes[row] = earthquake.getMagnitude();
+        mTimes[row] = earthquake.getTimeInMilliseconds();
+        mLongitudes[row] = earthquake.getLongitude();
+        mLatitudes[row] = earthquake.getLatitude();
+        mDepths[row] = earthquake.getDepth();
+
+        String location = earthquake.getLocation();
+        int separator = location.indexOf(LOCATION_SEPARATOR);
+        if (separator >= 0) {
+            int primaryStart = separator + LOCATION_SEPARATOR.length();
+            mOffsetLocationCodes[row] = mLocations.encode(location.substring(0, primaryStart));
+            mPrimaryLocationCodes[row] = mLocations.encode(location.substring(primaryStart));
+        } else {
+            mOffsetLocationCodes[row] = mLocations.encode("");
+            mPrimaryLocationCodes[row] = mLocations.encode(location);
+        }
+
+        String website = earthquake.getWebsite();
+        String id = earthquake.getId();
+        if (id != null && !id.isEmpty() && website.endsWith(id)) {
+            mWebsiteCodes[row] = mWebsites.encode(website.substring(0, website.length() - id.length()));
+        } else {
+            mWebsiteCodes[row] = ~mWebsites.encode(website);
+        }
+    }
+
+    /**
+     * Returns a new table holding the given rows of this one, in the given order. The rows
+     * are copied column by column, without creating {@link Earthquake} objects.
+     */
+    public EarthquakeTable select(int[] rows) {
+        EarthquakeTable selection = new EarthquakeTable(rows.length);
+        for (int row : rows) {
+            selection.addRow(this, row);
+        }
+        return selection;
+    }
+
+    private void addRow(EarthquakeTable source, int sourceRow) {
+        source.checkRow(sourceRow);
+        ensureCapacity(mSize + 1);
+        int row = mSize++;
+        mIds[row] = source.mIds[sourceRow];
+        mMagnitudes[row] = source.mMagnitudes[sourceRow];
+        mTimes[row] = source.mTimes[sourceRow];
+        mLongitudes[row] = source.mLongitudes[sourceRow];
+        mLatitudes[row] = source.mLatitudes[sourceRow];
+        mDepths[row] = source.mDepths[sourceRow];
+        mOffsetLocationCodes[row] = mLocations.encode(
+                source.mLocations.decode(source.mOffsetLocationCodes[sourceRow]));
+        mPrimaryLocationCodes[row] = mLocations.encode(
+                source.mLocations.decode(source.mPrimaryLocationCodes[sourceRow]));
+        int websiteCode = source.mWebsiteCodes[sourceRow];
+        mWebsiteCodes[row] = websiteCode >= 0
+                ? mWebsites.encode(source.mWebsites.decode(websiteCode))
+                : ~mWebsites.encode(source.mWebsites.decode(~websiteCode));
+    }
+
+    /**
+     * Returns the number of rows.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Returns the USGS event id of the row.
+     */
+    public String getId(int row) {
+        checkRow(row);
+        return mIds[row];
+    }
+
+    /**
+     * Returns the magnitude of the row.
+     */
+    public double getMagnitude(int row) {
+        checkRow(row);
+        return mMagnitudes[row];
+    }
+
+    /**
+     * Returns the time in milliseconds (from the Epoch) of the row.
+     */
+    public long getTimeInMilliseconds(int row) {
+        checkRow(row);
+        return mTimes[row];
+    }
+
+    /**
+     * Returns the longitude of the row's epicenter in degrees, or NaN if unknown.
+     */
+    public double getLongitude(int row) {
+        checkRow(row);
+        return mLongitudes[row];
+    }
+
+    /**
+     * Returns the latitude of the row's epicenter in degrees, or NaN if unknown.
+     */
+    public double getLatitude(int row) {
+        checkRow(row);
+        return mLatitudes[row];
+    }
+
+    /**
+     * Returns the depth of the row in kilometers, or NaN if unknown.
+     */
+    public double getDepth(int row) {
+        checkRow(row);
+        return mDepths[row];
+    }
+
+    /**
+     * Returns the offset part of the row's location including the separator (i.e. "88km N of "),
+     * or an empty string if the location has no offset. Never allocates.
+     */
+    public String getOffsetLocation(int row) {
+        checkRow(row);
+        return mLocations.decode(mOffsetLocationCodes[row]);
+    }
+
+    /**
+     * Returns the primary part of the row's location (i.e. "Yelizovo, Russia"). Never allocates.
+     */
+    public String getPrimaryLocation(int row) {
+        checkRow(row);
+        return mLocations.decode(mPrimaryLocationCodes[row]);
+    }
+
+    /**
+     * Returns the whole location of the row as USGS sent it.
+     */
+    public String getLocation(int row) {
+        return getOffsetLocation(row) + getPrimaryLocation(row);
+    }
+
+    /**
+     * Returns the details web page of the row.
+     */
+    public String getWebsite(int row) {
+        checkRow(row);
+        int code = mWebsiteCodes[row];
+        return code >= 0 ? mWebsites.decode(code) + mIds[row] : mWebsites.decode(~code);
+    }
+
+    /**
+     * Creates an {@link Earthquake} object for the row. Only meant for callers that really
+     * need one, such as code that has not been moved to the table yet.
+     */
+    public Earthquake get(int row) {
+        long timeInMilliseconds = getTimeInMilliseconds(row);
+        return new Earthquake(getId(row), getMagnitude(row), getLocation(row), timeInMilliseconds,
+                timeInMilliseconds, getWebsite(row), false, getLongitude(row), getLatitude(row),
+                getDepth(row));
+    }
+
+    /**
+     * Creates a list of {@link Earthquake} objects for all rows.
+     */
+    public List<Earthquake> toList() {
+        List<Earthquake> earthquakes = new ArrayList<>(mSize);
+        for (int row = 0; row < mSize; row++) {
+            earthquakes.add(get(row));
+        }
+        return earthquakes;
+    }
+
+    /** Returns the dictionary code of the offset location of the row. */
+    int getOffsetLocationCode(int row) {
+        checkRow(row);
+        return mOffsetLocationCodes[row];
+    }
+
+    /** Returns the dictionary code of the primary location of the row. */
+    int getPrimaryLocationCode(int row) {
+        checkRow(row);
+        return mPrimaryLocationCodes[row];
+    }
+
+    /** Returns the website code of the row, see {@link #mWebsiteCodes}. */
+    int getWebsiteCode(int row) {
+        checkRow(row);
+        return mWebsiteCodes[row];
+    }
+
+    /** Returns the location dictionary, indexed by code. */
+    String[] getLocationDictionary() {
+        return mLocations.toArray();
+    }
+
+    /** Returns the website dictionary, indexed by code. */
+    String[] getWebsiteDictionary() {
+        return mWebsites.toArray();
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= mSize) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + mSize);
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= mIds.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, mIds.length * 2);
+        mIds = Arrays.copyOf(mIds, newCapacity);
+        mMagnitudes = Arrays.copyOf(mMagnitudes, newCapacity);
+        mTimes = Arrays.copyOf(mTimes, newCapacity);
+        mLongitudes = Arrays.copyOf(mLongitudes, newCapacity);
+        mLatitudes = Arrays.copyOf(mLatitudes, newCapacity);
+        mDepths = Arrays.copyOf(mDepths, newCapacity);
+        mOffsetLocationCodes = Arrays.copyOf(mOffsetLocationCodes, newCapacity);
+        mPrimaryLocationCodes = Arrays.copyOf(mPrimaryLocationCodes, newCapacity);
+        mWebsiteCodes = Arrays.copyOf(mWebsiteCodes, newCapacity);
+    }
+
+    /**
+     * Maps each distinct string to a small integer code and back.
+     */
+    private static final class StringDictionary {
+        private final Map<String, Integer> mCodes = new HashMap<>();
+        private final List<String> mValues = new ArrayList<>();
+
+        int encode(String value) {
+            Integer code = mCodes.get(value);
+            if (code == null) {
+                code = mValues.size();
+                mValues.add(value);
+                mCodes.put(value, code);
+            }
+            return code;
+        }
+
+        String decode(int code) {
+            return mValues.get(code);
+        }
+
+        void addAll(String[] values) {
+            for (String value : values) {
+                encode(value);
+            }
+        }
+
+        String[] toArray() {
+            return mValues.toArray(new String[mValues.size()]);
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Merges the earthquakes of several sources into one canonical event per physical earthquake.
+ *
+ * Catalogs give the same earthquake different ids and slightly different times, epicenters and
+ * magnitudes. Two earthquakes from different sources are taken for the same one when they are
+ * close enough in all three; earthquakes from the same source are only the same one if their
+ * ids are. Of the versions of an earthquake, the one from the source ranked first is canonical,
+ * and of versions from the same source the one updated last.
+ *
+ * Canonical events are kept in a hash of buckets as wide as the time and distance tolerances,
+ * so the candidates for a new earthquake are found by looking in the buckets around it, 27 of
+ * them away from the poles, rather than comparing it with every event.
+ */
+public class EventDeduplicator {
+
+    /**
+     * Interface definition for a callback to be invoked when the canonical version of an
+     * earthquake changes. Called on the thread that added the earthquake, while the
+     * deduplicator is locked.
+     */
+    public interface OnCanonicalEventListener {
+        /**
+         * @param earthquake is the new canonical version
+         * @param replaced is the canonical version it replaces, which may have another id,
+         *                 or null if the earthquake was not seen before
+         */
+        void onCanonicalEvent(Earthquake earthquake, Earthquake replaced);
+    }
+
+    /** Largest difference in time of two versions of an earthquake, in milliseconds */
+    public static final long DEFAULT_TIME_TOLERANCE_MILLIS = 16 * 1000L;
+
+    /** Largest distance between the epicenters of two versions of an earthquake, in kilometers */
+    public static final double DEFAULT_DISTANCE_TOLERANCE_KM = 100.0;
+
+    /** Largest difference in magnitude of two versions of an earthquake */
+    public static final double DEFAULT_MAGNITUDE_TOLERANCE = 0.5;
+
+    private static final double KM_PER_DEGREE = Math.toRadians(1.0) * GeoIndex.EARTH_RADIUS_KM;
+
+    private final long mTimeTolerance;
+    private final double mDistanceTolerance;
+    private final double mMagnitudeTolerance;
+    private final OnCanonicalEventListener mListener;
+
+    /** Size of a bucket in degrees of latitude, and longitude at the equator */
+    private final double mCellDegrees;
+    private final int mLatitudeCells;
+    private final int mLongitudeCells;
+
+    /** Every event, by the id of every version merged into it */
+    private final Map<String, Event> mById = new HashMap<>();
+
+    /** Events with coordinates, by bucket */
+    private final Map<Long, List<Event>> mBuckets = new HashMap<>();
+
+    /** Every event, in the order they were first seen */
+    private final List<Event> mEvents = new ArrayList<>();
+
+    /**
+     * Constructs a new {@link EventDeduplicator} with the default tolerances.
+     *
+     * @param listener is told about every change of a canonical event, or null
+     */
+    public EventDeduplicator(OnCanonicalEventListener listener) {
+        this(DEFAULT_TIME_TOLERANCE_MILLIS, DEFAULT_DISTANCE_TOLERANCE_KM, DEFAULT_MAGNITUDE_TOLERANCE,
+                listener);
+    }
+
+    /**
+     * Constructs a new {@link EventDeduplicator}.
+     *
+     * @param timeToleranceMillis is the largest difference in time of two versions
+     * @param distanceToleranceKm is the largest distance between their epicenters
+     * @param magnitudeTolerance is the largest difference in their magnitudes
+     * @param listener is told about every change of a canonical event, or null
+     */
+    public EventDeduplicator(long timeToleranceMillis, double distanceToleranceKm,
+                             double magnitudeTolerance, OnCanonicalEventListener listener) {
+        if (timeToleranceMillis <= 0 || distanceToleranceKm <= 0 || magnitudeTolerance < 0) {
+            throw new IllegalArgumentException("Tolerances must be positive");
+        }
+        mTimeTolerance = timeToleranceMillis;
+        mDistanceTolerance = distanceToleranceKm;
+        mMagnitudeTolerance = magnitudeTolerance;
+        mListener = listener;
+        // Buckets at least as wide as the tolerance, so a match is at most one bucket away
+        mLatitudeCells = Math.max(1, (int) Math.floor(180.0 / (distanceToleranceKm / KM_PER_DEGREE)));
+        mCellDegrees = 180.0 / mLatitudeCells;
+        mLongitudeCells = 2 * mLatitudeCells;
+    }
+
+    /**
+     * Adds a version of an earthquake from the source of the given rank, where rank 0 is the
+     * preferred source. Returns the canonical version of the earthquake after adding it.
+     */
+    public synchronized Earthquake add(Earthquake earthquake, int rank) {
+        if (rank < 0 || rank >= Integer.SIZE) {
+            throw new IllegalArgumentException("Rank must be from 0 to 31");
+        }
+        Event event = mById.get(earthquake.getId());
+        if (event == null) {
+            event = findMatch(earthquake, rank);
+        }
+        if (event == null) {
+            event = new Event(earthquake, rank);
+            mEvents.add(event);
+            mById.put(earthquake.getId(), event);
+            addToBucket(event);
+            if (mListener != null) {
+                mListener.onCanonicalEvent(earthquake, null);
+            }
+            return earthquake;
+        }
+
+        event.sources |= 1 << rank;
+        mById.put(earthquake.getId(), event);
+        Earthquake canonical = event.canonical;
+        boolean isPreferred = rank < event.rank || (rank == event.rank
+                && earthquake.getUpdatedInMilliseconds() > canonical.getUpdatedInMilliseconds());
+        if (!isPreferred) {
+            return canonical;
+        }
+        removeFromBucket(event);
+        event.canonical = earthquake;
+        event.rank = rank;
+        addToBucket(event);
+        if (mListener != null) {
+            mListener.onCanonicalEvent(earthquake, canonical);
+        }
+        return earthquake;
+    }
+
+    /**
+     * Returns the canonical version of every earthquake, in the order they were first seen.
+     * Deleted ones are included, so callers can drop them.
+     */
+    public synchronized List<Earthquake> getCanonical() {
+        List<Earthquake> earthquakes = new ArrayList<>(mEvents.size());
+        for (Event event : mEvents) {
+            earthquakes.add(event.canonical);
+        }
+        return earthquakes;
+    }
+
+    /**
+     * Returns the number of canonical events.
+     */
+    public synchronized int size() {
+        return mEvents.size();
+    }
+
+    /**
+     * Returns the closest event from another source that the earthquake is within every
+     * tolerance of, or null if there is none.
+     */
+    private Event findMatch(Earthquake earthquake, int rank) {
+        if (!earthquake.hasCoordinates()) {
+            return null;
+        }
+        long timeBucket = timeBucket(earthquake.getTimeInMilliseconds());
+        int latitudeCell = latitudeCell(earthquake.getLatitude());
+        int longitudeCell = longitudeCell(earthquake.getLongitude());
+        int longitudeSpan = longitudeSpan(earthquake.getLatitude());
+
+        Event best = null;
+        double bestScore = Double.MAX_VALUE;
+        for (long t = timeBucket - 1; t <= timeBucket + 1; t++) {
+            for (int y = Math.max(0, latitudeCell - 1); y <= Math.min(mLatitudeCells - 1, latitudeCell + 1); y++) {
+                for (int dx = -longitudeSpan; dx <= longitudeSpan; dx++) {
+                    // Wraps around the antimeridian
+                    int x = ((longitudeCell + dx) % mLongitudeCells + mLongitudeCells) % mLongitudeCells;
+                    List<Event> bucket = mBuckets.get(bucketKey(t, y, x));
+                    if (bucket == null) {
+                        continue;
+                    }
+                    for (Event candidate : bucket) {
+                        double score = score(candidate, earthquake, rank);
+                        if (score < bestScore) {
+                            best = candidate;
+                            bestScore = score;
+                        }
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns how far apart the event and the earthquake are, as the sum of their distances in
+     * time and space relative to the tolerances, or Double.MAX_VALUE if they cannot be the same
+     * earthquake.
+     */
+    private double score(Event event, Earthquake earthquake, int rank) {
+        if ((event.sources & (1 << rank)) != 0) {
+            // A source never lists one earthquake under two ids
+            return Double.MAX_VALUE;
+        }
+        Earthquake canonical = event.canonical;
+        long timeDifference = Math.abs(canonical.getTimeInMilliseconds() - earthquake.getTimeInMilliseconds());
+        if (timeDifference > mTimeTolerance) {
+            return Double.MAX_VALUE;
+        }
+        // An unknown magnitude compares false, so it matches any other
+        if (Math.abs(canonical.getMagnitude() - earthquake.getMagnitude()) > mMagnitudeTolerance) {
+            return Double.MAX_VALUE;
+        }
+        double distance = GeoIndex.distanceKm(canonical.getLatitude(), canonical.getLongitude(),
+                earthquake.getLatitude(), earthquake.getLongitude());
+        if (distance > mDistanceTolerance) {
+            return Double.MAX_VALUE;
+        }
+        return (double) timeDifference / mTimeTolerance + distance / mDistanceTolerance;
+    }
+
+    /**
+     * Returns how many buckets either side of a latitude's bucket a longitude within the
+     * distance tolerance can fall in. Degrees of longitude shrink towards the poles, so more.
+     */
+    private int longitudeSpan(double latitude) {
+        double farthestLatitude = Math.min(90.0, Math.abs(latitude) + mCellDegrees);
+        double kmPerLongitudeDegree = KM_PER_DEGREE * Math.cos(Math.toRadians(farthestLatitude));
+        double span = Math.ceil(mDistanceTolerance / kmPerLongitudeDegree / mCellDegrees);
+        // Near the poles every longitude is close, and NaN or infinity end up here too
+        return !(span < mLongitudeCells / 2) ? mLongitudeCells / 2 : (int) span;
+    }
+
+    private void addToBucket(Event event) {
+        if (!event.canonical.hasCoordinates()) {
+            return;
+        }
+        Long key = bucketKey(event.canonical);
+        List<Event> bucket = mBuckets.get(key);
+        if (bucket == null) {
+            bucket = new ArrayList<>(2);
+            mBuckets.put(key, bucket);
+        }
+        bucket.add(event);
+    }
+
+    private void removeFromBucket(Event event) {
+        if (!event.canonical.hasCoordinates()) {
+            return;
+        }
+        Long key = bucketKey(event.canonical);
+        List<Event> bucket = mBuckets.get(key);
+        if (bucket != null && bucket.remove(event) && bucket.isEmpty()) {
+            mBuckets.remove(key);
+        }
+    }
+
+    private long bucketKey(Earthquake earthquake) {
+        return bucketKey(timeBucket(earthquake.getTimeInMilliseconds()),
+                latitudeCell(earthquake.getLatitude()), longitudeCell(earthquake.getLongitude()));
+    }
+
+    /**
+     * Packs a bucket into a key. Very small tolerances can make keys of far apart buckets
+     * collide, which only adds candidates that are then turned down.
+     */
+    private long bucketKey(long timeBucket, int latitudeCell, int longitudeCell) {
+        return (timeBucket * mLatitudeCells + latitudeCell) * mLongitudeCells + longitudeCell;
+    }
+
+    private long timeBucket(long timeInMilliseconds) {
+        return EarthquakeAggregator.bucketStart(timeInMilliseconds, mTimeTolerance) / mTimeTolerance;
+    }
+
+    private int latitudeCell(double latitude) {
+        return Math.max(0, Math.min(mLatitudeCells - 1, (int) Math.floor((latitude + 90.0) / mCellDegrees)));
+    }
+
+    private int longitudeCell(double longitude) {
+        int cell = (int) Math.floor((longitude + 180.0) / mCellDegrees);
+        return (cell % mLongitudeCells + mLongitudeCells) % mLongitudeCells;
+    }
+
+    /**
+     * A physical earthquake, its canonical version and the sources that listed it.
+     */
+    private static final class Event {
+        Earthquake canonical;
+        int rank;
+        int sources;
+
+        Event(Earthquake canonical, int rank) {
+            this.canonical = canonical;
+            this.rank = rank;
+            this.sources = 1 << rank;
+        }
+    }
+}
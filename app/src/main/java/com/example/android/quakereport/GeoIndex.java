@@ -0,0 +1,423 @@
+package com.example.android.quakereport;
+
+import java.util.Arrays;
+
+/**
+ * An in-memory spatial index over the epicenters of an {@link EarthquakeTable}, answering
+ * bounding box, radius and nearest-neighbour queries without going back to the network.
+ *
+ * The globe is divided into a grid of cells a fixed number of degrees wide. Points are sorted by
+ * cell into flat arrays, with an offset table telling where each cell starts, so the index
+ * holds no object per earthquake. A query only visits the cells that overlap its area and then
+ * checks the points in them exactly. Rows without coordinates are left out.
+ *
+ * The index does not change after it is built, so it may be queried from any thread.
+ */
+public class GeoIndex {
+
+    /** Mean radius of the Earth in kilometers */
+    public static final double EARTH_RADIUS_KM = 6371.0088;
+
+    /** Default width and height of a grid cell in degrees */
+    public static final double DEFAULT_CELL_SIZE_DEGREES = 1.0;
+
+    /** Largest possible distance between two points, half the circumference */
+    private static final double MAX_DISTANCE_KM = Math.PI * EARTH_RADIUS_KM;
+
+    private static final double KM_PER_DEGREE = Math.toRadians(1.0) * EARTH_RADIUS_KM;
+
+    private final double mCellSize;
+    private final int mCellRows;
+    private final int mCellColumns;
+
+    /** Index of the first point of every cell in the point arrays, plus the total at the end */
+    private final int[] mCellStarts;
+
+    /** Table row, latitude, longitude and cosine of the latitude of every point, by cell */
+    private final int[] mRows;
+    private final double[] mLatitudes;
+    private final double[] mLongitudes;
+    private final double[] mCosLatitudes;
+
+    /**
+     * Builds an index over the table with cells of {@link #DEFAULT_CELL_SIZE_DEGREES}.
+     */
+    public GeoIndex(EarthquakeTable earthquakes) {
+        this(earthquakes, DEFAULT_CELL_SIZE_DEGREES);
+    }
+
+    /**
+     * Builds an index over the table.
+     *
+     * @param cellSizeDegrees width and height of a grid cell. Smaller cells suit dense data
+     *                        and small queries, at the cost of a bigger offset table.
+     */
+    public GeoIndex(EarthquakeTable earthquakes, double cellSizeDegrees) {
+        if (!(cellSizeDegrees > 0 && cellSizeDegrees <= 180)) {
+            throw new IllegalArgumentException("Cell size must be in (0, 180] degrees");
+        }
+        mCellSize = cellSizeDegrees;
+        mCellRows = (int) Math.ceil(180.0 / cellSizeDegrees);
+        mCellColumns = (int) Math.ceil(360.0 / cellSizeDegrees);
+
+        // Counting sort of the rows by cell: count, turn the counts into offsets, then place
+        int size = earthquakes.size();
+        int[] cells = new int[size];
+        int[] cellStarts = new int[mCellRows * mCellColumns + 1];
+        int points = 0;
+        for (int row = 0; row < size; row++) {
+            double latitude = earthquakes.getLatitude(row);
+            double longitude = earthquakes.getLongitude(row);
+            if (Double.isNaN(latitude) || Double.isNaN(longitude)) {
+                cells[row] = -1;
+                continue;
+            }
+            int cell = cellOf(clampLatitude(latitude), normalizeLongitude(longitude));
+            cells[row] = cell;
+            cellStarts[cell + 1]++;
+            points++;
+        }
+        for (int cell = 0; cell < cellStarts.length - 1; cell++) {
+            cellStarts[cell + 1] += cellStarts[cell];
+        }
+
+        mCellStarts = cellStarts;
+        mRows = new int[points];
+        mLatitudes = new double[points];
+        mLongitudes = new double[points];
+        mCosLatitudes = new double[points];
+        int[] next = Arrays.copyOf(cellStarts, cellStarts.length - 1);
+        for (int row = 0; row < size; row++) {
+            if (cells[row] < 0) {
+                continue;
+            }
+            int point = next[cells[row]]++;
+            double latitude = clampLatitude(earthquakes.getLatitude(row));
+            mRows[point] = row;
+            mLatitudes[point] = latitude;
+            mLongitudes[point] = normalizeLongitude(earthquakes.getLongitude(row));
+            mCosLatitudes[point] = Math.cos(Math.toRadians(latitude));
+        }
+    }
+
+    /**
+     * Returns the number of indexed earthquakes, the ones with coordinates.
+     */
+    public int size() {
+        return mRows.length;
+    }
+
+    /**
+     * Returns the table rows of the earthquakes inside the bounding box, in no particular order.
+     * If west is greater than east the box crosses the antimeridian.
+     */
+    public int[] withinBoundingBox(double south, double west, double north, double east) {
+        south = clampLatitude(south);
+        north = clampLatitude(north);
+        west = normalizeLongitude(west);
+        east = normalizeLongitude(east);
+        IntList result = new IntList();
+        if (south > north) {
+            return result.toArray();
+        }
+        if (west <= east) {
+            collectInBox(south, west, north, east, result);
+        } else {
+            collectInBox(south, west, north, 180.0, result);
+            collectInBox(south, -180.0, north, east, result);
+        }
+        return result.toArray();
+    }
+
+    /**
+     * Returns the table rows of the earthquakes at most the given distance from a point,
+     * in no particular order.
+     */
+    public int[] withinRadius(double latitude, double longitude, double radiusKm) {
+        IntList result = new IntList();
+        if (radiusKm >= 0) {
+            collectInRadius(clampLatitude(latitude), normalizeLongitude(longitude), radiusKm,
+                    result, null);
+        }
+        return result.toArray();
+    }
+
+    /**
+     * Returns the table rows of the k earthquakes nearest to a point, nearest first. Returns
+     * fewer rows if fewer earthquakes are indexed.
+     */
+    public int[] nearest(double latitude, double longitude, int k) {
+        k = Math.min(k, size());
+        if (k <= 0) {
+            return new int[0];
+        }
+        latitude = clampLatitude(latitude);
+        longitude = normalizeLongitude(longitude);
+
+        // Search a growing circle until it holds k points. Everything inside the circle is
+        // nearer than everything outside it, so the k nearest found so far are the answer.
+        double radiusKm = mCellSize * KM_PER_DEGREE;
+        IntList rows = new IntList();
+        DoubleList distances = new DoubleList();
+        while (true) {
+            rows.clear();
+            distances.clear();
+            collectInRadius(latitude, longitude, radiusKm, rows, distances);
+            if (rows.size() >= k || radiusKm >= MAX_DISTANCE_KM) {
+                break;
+            }
+            radiusKm = Math.min(MAX_DISTANCE_KM, radiusKm * 2);
+        }
+        return nearestOf(rows, distances, k);
+    }
+
+    /**
+     * Returns the great-circle distance between two points in kilometers.
+     */
+    public static double distanceKm(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double haversine = haversine(latitude1, longitude1,
+                Math.cos(Math.toRadians(latitude1)), latitude2, longitude2,
+                Math.cos(Math.toRadians(latitude2)));
+        return haversineToKm(haversine);
+    }
+
+    private void collectInBox(double south, double west, double north, double east, IntList result) {
+        int firstRow = cellRowOf(south);
+        int lastRow = cellRowOf(north);
+        int firstColumn = cellColumnOf(west);
+        int lastColumn = cellColumnOf(east);
+        for (int cellRow = firstRow; cellRow <= lastRow; cellRow++) {
+            for (int cellColumn = firstColumn; cellColumn <= lastColumn; cellColumn++) {
+                int cell = cellRow * mCellColumns + cellColumn;
+                for (int point = mCellStarts[cell]; point < mCellStarts[cell + 1]; point++) {
+                    double latitude = mLatitudes[point];
+                    double longitude = mLongitudes[point];
+                    if (latitude >= south && latitude <= north
+                            && longitude >= west && longitude <= east) {
+                        result.add(mRows[point]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the rows within the radius to the result, and their distances if asked for.
+     */
+    private void collectInRadius(double latitude, double longitude, double radiusKm,
+                                 IntList result, DoubleList distances) {
+        double cosLatitude = Math.cos(Math.toRadians(latitude));
+        double radiusDegrees = radiusKm / KM_PER_DEGREE;
+        double south = latitude - radiusDegrees;
+        double north = latitude + radiusDegrees;
+
+        // Compare haversines instead of distances, so most points cost no asin or sqrt
+        double maxHaversine = radiusKm >= MAX_DISTANCE_KM
+                ? 1.0 : square(Math.sin(radiusKm / EARTH_RADIUS_KM / 2));
+
+        // Longitudes a circle can reach, unless it covers a pole
+        double halfWidth = 180.0;
+        if (south > -90.0 && north < 90.0) {
+            double ratio = Math.sin(Math.toRadians(radiusDegrees)) / cosLatitude;
+            if (ratio < 1.0) {
+                halfWidth = Math.toDegrees(Math.asin(ratio));
+            }
+        }
+
+        // The longitudes to search as up to two segments, split at the antimeridian
+        double[] segments;
+        if (halfWidth >= 180.0) {
+            segments = new double[] {-180.0, 180.0};
+        } else if (longitude - halfWidth < -180.0) {
+            segments = new double[] {longitude - halfWidth + 360.0, 180.0, -180.0, longitude + halfWidth};
+        } else if (longitude + halfWidth > 180.0) {
+            segments = new double[] {longitude - halfWidth, 180.0, -180.0, longitude + halfWidth - 360.0};
+        } else {
+            segments = new double[] {longitude - halfWidth, longitude + halfWidth};
+        }
+
+        int firstRow = cellRowOf(clampLatitude(south));
+        int lastRow = cellRowOf(clampLatitude(north));
+        for (int segment = 0; segment < segments.length; segment += 2) {
+            int firstColumn = cellColumnOf(segments[segment]);
+            int lastColumn = cellColumnOf(segments[segment + 1]);
+            for (int cellRow = firstRow; cellRow <= lastRow; cellRow++) {
+                for (int cellColumn = firstColumn; cellColumn <= lastColumn; cellColumn++) {
+                    int cell = cellRow * mCellColumns + cellColumn;
+                    for (int point = mCellStarts[cell]; point < mCellStarts[cell + 1]; point++) {
+                        double haversine = haversine(latitude, longitude, cosLatitude,
+                                mLatitudes[point], mLongitudes[point], mCosLatitudes[point]);
+                        if (haversine <= maxHaversine) {
+                            result.add(mRows[point]);
+                            if (distances != null) {
+                                distances.add(haversineToKm(haversine));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the k rows with the smallest distances, nearest first, using a max-heap of size k.
+     */
+    private static int[] nearestOf(IntList rows, DoubleList distances, int k) {
+        k = Math.min(k, rows.size());
+        int[] heapRows = new int[k];
+        double[] heapDistances = new double[k];
+        int heapSize = 0;
+        for (int i = 0; i < rows.size(); i++) {
+            double distance = distances.get(i);
+            if (heapSize < k) {
+                // Sift up
+                int child = heapSize++;
+                while (child > 0) {
+                    int parent = (child - 1) / 2;
+                    if (heapDistances[parent] >= distance) {
+                        break;
+                    }
+                    heapRows[child] = heapRows[parent];
+                    heapDistances[child] = heapDistances[parent];
+                    child = parent;
+                }
+                heapRows[child] = rows.get(i);
+                heapDistances[child] = distance;
+            } else if (distance < heapDistances[0]) {
+                siftDown(heapRows, heapDistances, heapSize, rows.get(i), distance);
+            }
+        }
+
+        // Take the farthest off the heap until it is empty, filling the result from the back
+        int[] result = new int[heapSize];
+        while (heapSize > 0) {
+            result[heapSize - 1] = heapRows[0];
+            heapSize--;
+            if (heapSize > 0) {
+                siftDown(heapRows, heapDistances, heapSize, heapRows[heapSize], heapDistances[heapSize]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Puts the row at the root of the max-heap and moves it down to its place.
+     */
+    private static void siftDown(int[] heapRows, double[] heapDistances, int heapSize,
+                                 int row, double distance) {
+        int parent = 0;
+        while (true) {
+            int child = 2 * parent + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize && heapDistances[child + 1] > heapDistances[child]) {
+                child++;
+            }
+            if (heapDistances[child] <= distance) {
+                break;
+            }
+            heapRows[parent] = heapRows[child];
+            heapDistances[parent] = heapDistances[child];
+            parent = child;
+        }
+        heapRows[parent] = row;
+        heapDistances[parent] = distance;
+    }
+
+    private static double haversine(double latitude1, double longitude1, double cosLatitude1,
+                                    double latitude2, double longitude2, double cosLatitude2) {
+        double sinHalfLatitude = Math.sin(Math.toRadians(latitude2 - latitude1) / 2);
+        double sinHalfLongitude = Math.sin(Math.toRadians(longitude2 - longitude1) / 2);
+        return sinHalfLatitude * sinHalfLatitude
+                + cosLatitude1 * cosLatitude2 * sinHalfLongitude * sinHalfLongitude;
+    }
+
+    private static double haversineToKm(double haversine) {
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1.0, Math.sqrt(haversine)));
+    }
+
+    private static double square(double value) {
+        return value * value;
+    }
+
+    private int cellOf(double latitude, double longitude) {
+        return cellRowOf(latitude) * mCellColumns + cellColumnOf(longitude);
+    }
+
+    private int cellRowOf(double latitude) {
+        return Math.min(mCellRows - 1, (int) ((latitude + 90.0) / mCellSize));
+    }
+
+    private int cellColumnOf(double longitude) {
+        return Math.min(mCellColumns - 1, (int) ((longitude + 180.0) / mCellSize));
+    }
+
+    private static double clampLatitude(double latitude) {
+        return Math.max(-90.0, Math.min(90.0, latitude));
+    }
+
+    /**
+     * Returns the longitude in [-180, 180].
+     */
+    private static double normalizeLongitude(double longitude) {
+        if (longitude >= -180.0 && longitude <= 180.0) {
+            return longitude;
+        }
+        return ((longitude + 180.0) % 360.0 + 360.0) % 360.0 - 180.0;
+    }
+
+    /**
+     * A growable list of ints, so results are not boxed.
+     */
+    private static final class IntList {
+        private int[] mValues = new int[16];
+        private int mSize;
+
+        void add(int value) {
+            if (mSize == mValues.length) {
+                mValues = Arrays.copyOf(mValues, mSize * 2);
+            }
+            mValues[mSize++] = value;
+        }
+
+        int get(int index) {
+            return mValues[index];
+        }
+
+        int size() {
+            return mSize;
+        }
+
+        void clear() {
+            mSize = 0;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(mValues, mSize);
+        }
+    }
+
+    /**
+     * A growable list of doubles, so distances are not boxed.
+     */
+    private static final class DoubleList {
+        private double[] mValues = new double[16];
+        private int mSize;
+
+        void add(double value) {
+            if (mSize == mValues.length) {
+                mValues = Arrays.copyOf(mValues, mSize * 2);
+            }
+            mValues[mSize++] = value;
+        }
+
+        double get(int index) {
+            return mValues[index];
+        }
+
+        void clear() {
+            mSize = 0;
+        }
+    }
+}
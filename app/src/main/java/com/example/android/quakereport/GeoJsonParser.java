@@ -0,0 +1,235 @@
+package com.example.android.quakereport;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pull-based parser for USGS GeoJSON responses.
+ *
+ * Instead of building the whole response into a String and then into a JSONObject tree,
+ * this reads tokens straight off the stream and only keeps the fields an {@link Earthquake}
+ * needs. Everything else in a feature is skipped without being materialized.
+ */
+public final class GeoJsonParser {
+
+    /**
+     * Receives each {@link Earthquake} as soon as its feature has been read from the stream.
+     */
+    public interface OnEarthquakeParsedListener {
+        void onEarthquakeParsed(Earthquake earthquake);
+    }
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Create a private constructor because no one should ever create a {@link GeoJsonParser} object.
+     */
+    private GeoJsonParser() {
+    }
+
+    /**
+     * Parse a GeoJSON response from the given stream and return the list of {@link Earthquake}s.
+     * The stream is closed when parsing finishes.
+     */
+    public static List<Earthquake> parse(InputStream inputStream) throws IOException {
+        return parse(new InputStreamReader(inputStream, UTF_8));
+    }
+
+    /**
+     * Parse a GeoJSON response from the given reader and return the list of {@link Earthquake}s.
+     * The reader is closed when parsing finishes.
+     */
+    public static List<Earthquake> parse(Reader in) throws IOException {
+        final List<Earthquake> earthquakes = new ArrayList<>();
+        parse(in, new OnEarthquakeParsedListener() {
+            @Override
+            public void onEarthquakeParsed(Earthquake earthquake) {
+                earthquakes.add(earthquake);
+            }
+        });
+        return earthquakes;
+    }
+
+    /**
+     * Parse a GeoJSON response from the given reader, handing every {@link Earthquake} to the
+     * listener as it is read. The reader is closed when parsing finishes. Throws an
+     * {@link java.io.InterruptedIOException} if the thread is interrupted part way through.
+     */
+    public static void parse(Reader in, OnEarthquakeParsedListener listener) throws IOException {
+        JsonReader reader = new JsonReader(in);
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if ("features".equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        // A cancelled load stops here rather than parsing the rest of the response
+                        LoadExecutor.throwIfCanceled();
+                        Earthquake earthquake = readFeature(reader);
+                        if (earthquake != null) {
+                            listener.onEarthquakeParsed(earthquake);
+                        }
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Parse a bare JSON array of features, i.e. a chunk of the "features" array cut out by
+     * {@link BulkGeoJsonParser}, handing every {@link Earthquake} to the listener in order.
+     * The reader is closed when parsing finishes.
+     */
+    static void parseFeatures(Reader in, OnEarthquakeParsedListener listener) throws IOException {
+        JsonReader reader = new JsonReader(in);
+        try {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                LoadExecutor.throwIfCanceled();
+                Earthquake earthquake = readFeature(reader);
+                if (earthquake != null) {
+                    listener.onEarthquakeParsed(earthquake);
+                }
+            }
+            reader.endArray();
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Read a single feature object. Returns null if the feature has no "properties" object.
+     */
+    private static Earthquake readFeature(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            reader.skipValue();
+            return null;
+        }
+
+        // The "id" member may come before or after "properties", so collect the fields
+        // and only build the {@link Earthquake} once the whole feature has been read.
+        Feature feature = new Feature();
+        boolean hasProperties = false;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("id".equals(name) && reader.peek() == JsonToken.STRING) {
+                feature.id = reader.nextString();
+            } else if ("properties".equals(name) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                readProperties(reader, feature);
+                hasProperties = true;
+            } else if ("geometry".equals(name) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                readGeometry(reader, feature);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (!hasProperties) {
+            return null;
+        }
+        return new Earthquake(feature.id, feature.magnitude, feature.location,
+                feature.timeInMilliseconds, feature.updatedInMilliseconds, feature.website,
+                "deleted".equals(feature.status), feature.longitude, feature.latitude, feature.depth);
+    }
+
+    /**
+     * Read the "geometry" object of a feature. USGS sends a Point whose coordinates are
+     * longitude, latitude and depth in kilometers.
+     */
+    private static void readGeometry(JsonReader reader, Feature feature) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if ("coordinates".equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                for (int i = 0; reader.hasNext(); i++) {
+                    if (i > 2 || reader.peek() != JsonToken.NUMBER) {
+                        reader.skipValue();
+                    } else if (i == 0) {
+                        feature.longitude = reader.nextDouble();
+                    } else if (i == 1) {
+                        feature.latitude = reader.nextDouble();
+                    } else {
+                        feature.depth = reader.nextDouble();
+                    }
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Read the "properties" object of a feature, keeping only mag, place, time, updated,
+     * url and status.
+     * Missing or null values keep the defaults from {@link Feature}.
+     */
+    private static void readProperties(JsonReader reader, Feature feature) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                continue;
+            }
+            switch (name) {
+                case "mag":
+                    feature.magnitude = reader.nextDouble();
+                    break;
+                case "place":
+                    feature.location = reader.nextString();
+                    break;
+                case "time":
+                    feature.timeInMilliseconds = reader.nextLong();
+                    break;
+                case "updated":
+                    feature.updatedInMilliseconds = reader.nextLong();
+                    break;
+                case "url":
+                    feature.website = reader.nextString();
+                    break;
+                case "status":
+                    feature.status = reader.nextString();
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Fields collected while a single feature is being read. The defaults match what
+     * JSONObject's opt* methods return for missing values.
+     */
+    private static final class Feature {
+        String id = "";
+        double magnitude = Double.NaN;
+        String location = "";
+        long timeInMilliseconds = 0L;
+        long updatedInMilliseconds = 0L;
+        String website = "";
+        String status = "";
+        double longitude = Double.NaN;
+        double latitude = Double.NaN;
+        double depth = Double.NaN;
+    }
+}
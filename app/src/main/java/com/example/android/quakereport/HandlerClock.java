@@ -0,0 +1,32 @@
+package com.example.android.quakereport;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+/**
+ * A {@link SyncScheduler.Clock} running callbacks on a {@link Handler}, timed by the elapsed
+ * realtime so changes to the wall clock do not disturb a schedule.
+ */
+public class HandlerClock implements SyncScheduler.Clock {
+
+    private final Handler mHandler;
+
+    public HandlerClock(Handler handler) {
+        mHandler = handler;
+    }
+
+    @Override
+    public long now() {
+        return SystemClock.elapsedRealtime();
+    }
+
+    @Override
+    public void postDelayed(Runnable callback, long delayMillis) {
+        mHandler.postDelayed(callback, delayMillis);
+    }
+
+    @Override
+    public void removeCallbacks(Runnable callback) {
+        mHandler.removeCallbacks(callback);
+    }
+}
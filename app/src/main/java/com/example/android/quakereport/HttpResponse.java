@@ -0,0 +1,145 @@
+package com.example.android.quakereport;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The response to a request sent by an {@link HttpTransport}.
+ *
+ * A gzip-encoded body is decompressed as it is read. The number of bytes that actually came over
+ * the wire is counted, so the saving of compression can be measured.
+ */
+public class HttpResponse implements Closeable {
+
+    /**
+     * Bytes left unread that are still drained on {@link #close()}, so the connection can be
+     * reused. A bigger remainder is cheaper to drop together with its connection.
+     */
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+    private final int mCode;
+    private final Map<String, String> mHeaders;
+    private final CountingInputStream mWireBody;
+    private InputStream mBody;
+
+    /**
+     * Constructs a new {@link HttpResponse}.
+     *
+     * @param code the HTTP status code
+     * @param headers response headers, looked up ignoring case
+     * @param wireBody the body as it was received, still encoded, or null if there is none
+     */
+    public HttpResponse(int code, Map<String, String> headers, InputStream wireBody) {
+        mCode = code;
+        Map<String, String> caseInsensitiveHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        caseInsensitiveHeaders.putAll(headers);
+        mHeaders = Collections.unmodifiableMap(caseInsensitiveHeaders);
+        mWireBody = wireBody == null ? null : new CountingInputStream(wireBody);
+    }
+
+    public int getCode() {
+        return mCode;
+    }
+
+    /**
+     * Returns the value of a response header, or null if it was not sent.
+     */
+    public String getHeader(String name) {
+        return mHeaders.get(name);
+    }
+
+    /**
+     * Returns the decoded body, or null if the response has none.
+     */
+    public InputStream getBody() throws IOException {
+        if (mBody == null && mWireBody != null) {
+            mBody = "gzip".equalsIgnoreCase(getHeader("Content-Encoding"))
+                    ? new GZIPInputStream(mWireBody)
+                    : mWireBody;
+        }
+        return mBody;
+    }
+
+    /**
+     * Returns the number of body bytes read from the wire so far, before decompression.
+     */
+    public long getBytesReceived() {
+        return mWireBody == null ? 0 : mWireBody.mCount;
+    }
+
+    /**
+     * Reads what is left of a short body and closes it, which lets a pooling transport
+     * reuse the connection. A gzip body is closed through its decoder, which frees the
+     * decoder's native memory right away rather than on finalization.
+     */
+    @Override
+    public void close() throws IOException {
+        if (mWireBody == null) {
+            return;
+        }
+        try {
+            byte[] buffer = new byte[4096];
+            long drained = 0;
+            int read;
+            while (drained < MAX_DRAIN_BYTES && (read = mWireBody.read(buffer)) != -1) {
+                drained += read;
+            }
+        } catch (IOException e) {
+            // Some streams close themselves once the body is used up. Either way the body
+            // was handled, only the connection may not be reused.
+        } finally {
+            try {
+                if (mBody != null && mBody != mWireBody) {
+                    mBody.close();
+                }
+            } finally {
+                mWireBody.close();
+            }
+        }
+    }
+
+    /**
+     * Counts the bytes read through it, and stops reading once the thread is interrupted.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        private volatile long mCount;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            LoadExecutor.throwIfCanceled();
+            int b = super.read();
+            if (b != -1) {
+                mCount++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            // Checked before every read, so a cancelled download ends at the next buffer
+            LoadExecutor.throwIfCanceled();
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                mCount += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            mCount += skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.example.android.quakereport;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * Sends HTTP GET requests on behalf of {@link QueryUtils}.
+ *
+ * {@link UrlConnectionTransport} talks to the network; tests install one that answers from
+ * memory, so fetching can be exercised offline, with {@link QueryUtils#setTransport(HttpTransport)}.
+ */
+public interface HttpTransport {
+
+    /**
+     * Sends a GET request and returns the response once its status line and headers have
+     * arrived. The caller must close the response.
+     *
+     * @param headers request headers to send, i.e. "Accept-Encoding" or "If-None-Match"
+     * @throws IOException if no response could be obtained
+     */
+    HttpResponse get(URL url, Map<String, String> headers) throws IOException;
+}
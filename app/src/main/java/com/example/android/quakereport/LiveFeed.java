@@ -0,0 +1,307 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * Follows one of the USGS summary feeds in near real time and publishes the earthquakes that
+ * are new or were updated since the last poll.
+ *
+ * The feed is polled by a {@link SyncScheduler} while anyone is subscribed. Polls are
+ * conditional, so a feed that did not change costs a 304 and nothing else, and of a feed that
+ * did change only the events whose update time moved are published. Observers are called on the
+ * delivery executor, which is the main thread in the app. Everything Android specific is
+ * supplied from outside, so the feed can be followed on the JVM against a local stub server.
+ */
+public class LiveFeed {
+
+    private static final String LOG_TAG = LiveFeed.class.getSimpleName();
+
+    /** Summary feed of all earthquakes in the past hour, regenerated by USGS every minute */
+    public static final String ALL_HOUR_URL =
+            "https://earthquake.usgs.gov/earthquakes/feed/v1.0/summary/all_hour.geojson";
+
+    /** Default time between two polls, matching how often USGS regenerates the feed */
+    public static final long DEFAULT_POLL_INTERVAL_MILLIS = 60 * 1000L;
+
+    /** Backoff after the first failed poll */
+    private static final long INITIAL_BACKOFF_MILLIS = 15 * 1000L;
+
+    /** Longest backoff, short enough for the feed to still feel live once the network is back */
+    private static final long MAX_BACKOFF_MILLIS = 5 * 60 * 1000L;
+
+    /**
+     * Interface definition for a callback to be invoked when the feed changed.
+     */
+    public interface Observer {
+        /**
+         * Called with the earthquakes that are new or were updated since the last poll,
+         * including ones USGS marked as deleted.
+         */
+        void onEarthquakesChanged(List<Earthquake> changed);
+    }
+
+    /**
+     * Ends the delivery to one observer.
+     */
+    public interface Subscription {
+        void unsubscribe();
+    }
+
+    private static LiveFeed sInstance;
+
+    private final String mFeedUrl;
+    private final Executor mDeliveryExecutor;
+    private final SyncScheduler mScheduler;
+    private final CopyOnWriteArrayList<Observer> mObservers = new CopyOnWriteArrayList<>();
+
+    // Only touched by polls, which the scheduler never runs two of at once
+    private String mETag;
+    private long mLastModified;
+    private Map<String, Long> mSeenUpdates = new HashMap<>();
+
+    /**
+     * Returns the feed of all earthquakes in the past hour shared by the whole app.
+     */
+    public static synchronized LiveFeed getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = create(context.getApplicationContext(), ALL_HOUR_URL);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Creates a feed polled on a background thread and delivering to the main thread, which
+     * listens for connectivity broadcasts while polling.
+     */
+    private static LiveFeed create(Context context, String feedUrl) {
+        final Handler mainHandler = new Handler(Looper.getMainLooper());
+        final NetworkConnectivity connectivity = new NetworkConnectivity(context);
+        return new LiveFeed(feedUrl, new HandlerClock(mainHandler),
+                LoadExecutor.getInstance().asExecutor(LoadExecutor.PRIORITY_BACKGROUND),
+                connectivity, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                mainHandler.post(command);
+            }
+        }, new Random()) {
+            @Override
+            protected void onPollingStarted() {
+                connectivity.register(new Runnable() {
+                    @Override
+                    public void run() {
+                        onConnectivityChanged();
+                    }
+                });
+            }
+
+            @Override
+            protected void onPollingStopped() {
+                connectivity.unregister();
+            }
+        };
+    }
+
+    /**
+     * Constructs a new {@link LiveFeed}.
+     *
+     * @param feedUrl the GeoJSON feed to follow
+     * @param pollExecutor runs the polls, usually a background thread
+     * @param deliveryExecutor calls the observers, usually the main thread
+     * @param random picks the jitter added to backoffs
+     */
+    public LiveFeed(String feedUrl, SyncScheduler.Clock clock, Executor pollExecutor,
+                    SyncScheduler.Connectivity connectivity, Executor deliveryExecutor, Random random) {
+        mFeedUrl = feedUrl;
+        mDeliveryExecutor = deliveryExecutor;
+        mScheduler = new SyncScheduler(new SyncScheduler.SyncTask() {
+            @Override
+            public boolean sync() {
+                return poll();
+            }
+        }, clock, pollExecutor, connectivity, random);
+        mScheduler.setIntervalMillis(DEFAULT_POLL_INTERVAL_MILLIS);
+        mScheduler.setBackoffMillis(INITIAL_BACKOFF_MILLIS, MAX_BACKOFF_MILLIS);
+    }
+
+    /**
+     * Sets the time between two polls.
+     */
+    public void setPollIntervalMillis(long intervalMillis) {
+        mScheduler.setIntervalMillis(intervalMillis);
+    }
+
+    /**
+     * Starts delivering changes to the observer. The feed is polled while it has at least one
+     * observer, and at once when it gets its first one.
+     */
+    public Subscription subscribe(final Observer observer) {
+        boolean first;
+        synchronized (this) {
+            first = mObservers.isEmpty();
+            mObservers.addIfAbsent(observer);
+        }
+        if (first) {
+            onPollingStarted();
+            mScheduler.start();
+        }
+        return new Subscription() {
+            @Override
+            public void unsubscribe() {
+                LiveFeed.this.unsubscribe(observer);
+            }
+        };
+    }
+
+    /**
+     * Asks for a poll as soon as possible.
+     */
+    public void pollNow() {
+        mScheduler.requestSync();
+    }
+
+    /**
+     * Tells the feed that connectivity may have changed, so a poll held back while offline can run.
+     */
+    public void onConnectivityChanged() {
+        mScheduler.onConnectivityChanged();
+    }
+
+    /**
+     * Called before polling starts. Does nothing by default.
+     */
+    protected void onPollingStarted() {
+    }
+
+    /**
+     * Called after polling stopped. Does nothing by default.
+     */
+    protected void onPollingStopped() {
+    }
+
+    private void unsubscribe(Observer observer) {
+        boolean last;
+        synchronized (this) {
+            last = mObservers.remove(observer) && mObservers.isEmpty();
+        }
+        if (last) {
+            mScheduler.stop();
+            onPollingStopped();
+        }
+    }
+
+    /**
+     * Fetches the feed if it changed and publishes the events that did. Runs on the poll executor.
+     */
+    private boolean poll() {
+        QueryUtils.Response response = QueryUtils.fetchLatestEarthQuakeData(mFeedUrl, mETag, mLastModified);
+        if (response == null) {
+            return false;
+        }
+        mETag = response.eTag;
+        mLastModified = response.lastModified;
+        if (response.notModified) {
+            return true;
+        }
+
+        // Remember only the events still in the feed, the older ones fell out of its window
+        Map<String, Long> updates = new HashMap<>(response.earthquakes.size() * 2);
+        final List<Earthquake> changed = new ArrayList<>();
+        for (Earthquake earthquake : response.earthquakes) {
+            long updated = earthquake.getUpdatedInMilliseconds();
+            updates.put(earthquake.getId(), updated);
+            Long seen = mSeenUpdates.get(earthquake.getId());
+            if (seen == null || seen < updated) {
+                changed.add(earthquake);
+            }
+        }
+        mSeenUpdates = updates;
+
+        if (Log.isLoggable(LOG_TAG, Log.VERBOSE)) {
+            Log.v(LOG_TAG, "*************Live feed has " + changed.size() + " changed of "
+                    + response.earthquakes.size() + " earthquakes");
+        }
+        if (!changed.isEmpty()) {
+            AlertEngine.getInstance().ingest(changed);
+            final List<Earthquake> published = Collections.unmodifiableList(changed);
+            mDeliveryExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (Observer observer : mObservers) {
+                        observer.onEarthquakesChanged(published);
+                    }
+                }
+            });
+        }
+        return true;
+    }
+
+    /**
+     * Returns the earthquakes the query shows after applying the changes to the ones shown now:
+     * updated earthquakes replace their old rows, new ones are added and deleted ones removed,
+     * and the result is filtered, ordered and limited like the query.
+     *
+     * @param pagesStart is the earthquake the pages shown after these start after, or null if
+     *                   there are none. Earthquakes that sort after it are left to the pages,
+     *                   and the result is not limited, so no row falls between the two.
+     */
+    public static EarthquakeTable apply(EarthquakeTable current, List<Earthquake> changed,
+                                        EarthquakeQuery query, Earthquake pagesStart) {
+        Comparator<Earthquake> comparator = QueryUtils.comparatorForOrderBy(query.getOrderBy());
+        Map<String, Earthquake> byId = new LinkedHashMap<>();
+        if (current != null) {
+            for (int row = 0; row < current.size(); row++) {
+                byId.put(current.getId(row), current.get(row));
+            }
+        }
+        for (Earthquake earthquake : changed) {
+            if (earthquake.isDeleted()) {
+                byId.remove(earthquake.getId());
+            } else if (pagesStart != null && comparator != null && !isBefore(earthquake, pagesStart,
+                    byId.containsKey(earthquake.getId()), comparator)) {
+                byId.remove(earthquake.getId());
+            } else {
+                byId.put(earthquake.getId(), earthquake);
+            }
+        }
+
+        double minMagnitude = query.getMinMagnitudeValue();
+        List<Earthquake> earthquakes = new ArrayList<>(byId.size());
+        for (Earthquake earthquake : byId.values()) {
+            if (Double.isNaN(minMagnitude) || earthquake.getMagnitude() >= minMagnitude) {
+                earthquakes.add(earthquake);
+            }
+        }
+        if (comparator != null) {
+            Collections.sort(earthquakes, comparator);
+        }
+        if (pagesStart == null && earthquakes.size() > query.getLimit()) {
+            earthquakes = earthquakes.subList(0, query.getLimit());
+        }
+        return EarthquakeTable.fromList(earthquakes);
+    }
+
+    /**
+     * Returns true if the earthquake belongs above the pages starting after the given one.
+     * Earthquakes that sort the same as it only do if they were shown above the pages already,
+     * as the pages skip those and show all others.
+     */
+    private static boolean isBefore(Earthquake earthquake, Earthquake pagesStart, boolean shown,
+                                    Comparator<Earthquake> comparator) {
+        int order = comparator.compare(earthquake, pagesStart);
+        return order < 0 || (order == 0 && shown);
+    }
+}
@@ -0,0 +1,194 @@
+package com.example.android.quakereport;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the app's network and parsing work on a fixed number of threads, putting loads the user
+ * is waiting for ahead of background syncs.
+ *
+ * Foreground tasks are queued before every background task, and in the order they were
+ * submitted among themselves. Background tasks may only take all threads but one, so a
+ * foreground task never waits for a sync that is already running to finish.
+ *
+ * Work is cancelled by interrupting its thread, i.e. with {@link Future#cancel(boolean)}.
+ * The download read loop and the parsers check for it through {@link #throwIfCanceled()}, so
+ * abandoned work stops at the next buffer or feature instead of running to completion.
+ */
+public class LoadExecutor {
+
+    /** Priority of work the user is waiting for, such as a loader or the next page */
+    public static final int PRIORITY_FOREGROUND = 0;
+
+    /** Priority of work nobody is waiting for, such as a background sync */
+    public static final int PRIORITY_BACKGROUND = 1;
+
+    /** Number of threads of the shared executor */
+    public static final int DEFAULT_THREAD_COUNT = 3;
+
+    private static LoadExecutor sInstance;
+
+    private final ThreadPoolExecutor mPool;
+
+    /** Number of background tasks that may be in the pool, running or queued, at once */
+    private final int mMaxBackground;
+
+    /** Background tasks waiting for room in the pool, oldest first */
+    private final Queue<Task<?>> mWaitingBackground = new ArrayDeque<>();
+    private int mBackgroundInPool;
+
+    /** Breaks ties between tasks of the same priority, so they run in the order submitted */
+    private final AtomicLong mSequence = new AtomicLong();
+
+    /**
+     * Returns the executor shared by the whole app. Its threads are daemon threads,
+     * so an idle pool never keeps the process alive.
+     */
+    public static synchronized LoadExecutor getInstance() {
+        if (sInstance == null) {
+            sInstance = new LoadExecutor(DEFAULT_THREAD_COUNT);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Constructs a new {@link LoadExecutor}.
+     *
+     * @param threadCount is the number of threads, at least 2 so one is kept for the foreground
+     */
+    public LoadExecutor(int threadCount) {
+        if (threadCount < 2) {
+            throw new IllegalArgumentException("Need a thread for background and one for foreground work");
+        }
+        mMaxBackground = threadCount - 1;
+        final AtomicInteger threadNumber = new AtomicInteger();
+        mPool = new ThreadPoolExecutor(threadCount, threadCount, 30, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "LoadExecutor #" + threadNumber.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        mPool.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queues the work at the given priority. Cancelling the returned future with
+     * mayInterruptIfRunning stops it at its next cancellation check.
+     */
+    public <V> Future<V> submit(Callable<V> callable, int priority) {
+        Task<V> task = new Task<>(callable, priority, mSequence.getAndIncrement());
+        if (priority == PRIORITY_FOREGROUND) {
+            mPool.execute(task);
+            return task;
+        }
+        synchronized (mWaitingBackground) {
+            if (mBackgroundInPool >= mMaxBackground) {
+                mWaitingBackground.add(task);
+                return task;
+            }
+            mBackgroundInPool++;
+            task.mInPool = true;
+        }
+        mPool.execute(task);
+        return task;
+    }
+
+    /**
+     * Returns an {@link Executor} that queues everything at the given priority, for code that
+     * takes a plain executor such as the {@link SyncScheduler}.
+     */
+    public Executor asExecutor(final int priority) {
+        return new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        command.run();
+                        return null;
+                    }
+                }, priority);
+            }
+        };
+    }
+
+    /**
+     * Throws if the current thread was asked to stop, i.e. because the load it runs was
+     * cancelled. Leaves the interrupt set, so callers further up see it too.
+     */
+    public static void throwIfCanceled() throws InterruptedIOException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("Canceled");
+        }
+    }
+
+    /**
+     * Called when a background task finished or was cancelled, moving the next waiting one
+     * into the pool.
+     */
+    private void onBackgroundDone(Task<?> task) {
+        Task<?> next;
+        synchronized (mWaitingBackground) {
+            if (!task.mInPool) {
+                // Cancelled while waiting, it is skipped when its turn comes
+                return;
+            }
+            mBackgroundInPool--;
+            do {
+                next = mWaitingBackground.poll();
+            } while (next != null && next.isCancelled());
+            if (next == null) {
+                return;
+            }
+            mBackgroundInPool++;
+            next.mInPool = true;
+        }
+        mPool.execute(next);
+    }
+
+    /**
+     * A queued piece of work, ordered by priority and then by the order it was submitted in.
+     */
+    private final class Task<V> extends FutureTask<V> implements Comparable<Task<?>> {
+        private final int mPriority;
+        private final long mSequence;
+
+        /** True once a background task was handed to the pool, guarded by mWaitingBackground */
+        private boolean mInPool;
+
+        Task(Callable<V> callable, int priority, long sequence) {
+            super(callable);
+            mPriority = priority;
+            mSequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Task<?> other) {
+            if (mPriority != other.mPriority) {
+                return mPriority < other.mPriority ? -1 : 1;
+            }
+            return mSequence < other.mSequence ? -1 : (mSequence == other.mSequence ? 0 : 1);
+        }
+
+        @Override
+        protected void done() {
+            if (mPriority != PRIORITY_FOREGROUND) {
+                onBackgroundDone(this);
+            }
+        }
+    }
+}
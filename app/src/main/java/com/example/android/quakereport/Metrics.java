@@ -0,0 +1,281 @@
+package com.example.android.quakereport;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters, histograms and timers for the load pipeline, from the HTTP request down to binding
+ * list rows.
+ *
+ * Code that records a metric looks it up once and keeps it in a static field. While metrics are
+ * disabled, which is the default, recording is a single volatile read: nothing is allocated,
+ * no clock is read and no string is built. {@link #snapshot()} returns the current values, for
+ * tests and for debug output.
+ */
+public final class Metrics {
+
+    /** Time to open a connection to the server, in nanoseconds. Near zero for a pooled connection */
+    public static final String CONNECT_TIME = "http.connect_time";
+
+    /** Time from sending a request to receiving the response headers, in nanoseconds */
+    public static final String TIME_TO_FIRST_BYTE = "http.time_to_first_byte";
+
+    /** Number of requests sent */
+    public static final String REQUESTS = "http.requests";
+
+    /** Number of requests answered with 304 Not Modified */
+    public static final String NOT_MODIFIED = "http.not_modified";
+
+    /** Number of response body bytes read from the wire, before decompression */
+    public static final String BYTES_READ = "http.bytes_read";
+
+    /** Time to parse a response, in nanoseconds */
+    public static final String PARSE_TIME = "parse.time";
+
+    /** Number of features parsed */
+    public static final String FEATURES_PARSED = "parse.features";
+
+    /** Features parsed per second, one value per response */
+    public static final String FEATURES_PER_SECOND = "parse.features_per_second";
+
+    /** Number of requests served from a fresh cache entry without touching the network */
+    public static final String CACHE_HITS = "cache.hits";
+
+    /** Number of requests that joined an identical request in flight instead of being sent */
+    public static final String REQUESTS_COALESCED = "request.coalesced";
+
+    /** Number of requests answered from the responses of the last few seconds kept in memory */
+    public static final String MEMORY_CACHE_HITS = "request.memory_hits";
+
+    /** Number of events inserted, updated and deleted by delta syncs */
+    public static final String DELTA_INSERTED = "delta.inserted";
+    public static final String DELTA_UPDATED = "delta.updated";
+    public static final String DELTA_DELETED = "delta.deleted";
+
+    /** Number of queries answered from earthquakes fetched before, without the network */
+    public static final String LOCAL_QUERIES = "query.local";
+
+    /** Time of a whole background load, in nanoseconds */
+    public static final String LOAD_TIME = "loader.load_time";
+
+    /** Time to format the rows of a load for display, in nanoseconds */
+    public static final String DISPLAY_MODEL_TIME = "loader.display_model_time";
+
+    /** Time to bind one list row, in nanoseconds */
+    public static final String BIND_TIME = "list.bind_time";
+
+    private static volatile boolean sEnabled;
+
+    private static final Map<String, Counter> sCounters = new ConcurrentHashMap<>();
+    private static final Map<String, Histogram> sHistograms = new ConcurrentHashMap<>();
+
+    /**
+     * Create a private constructor because no one should ever create a {@link Metrics} object.
+     */
+    private Metrics() {
+    }
+
+    /**
+     * Turns recording on or off. Values recorded so far are kept.
+     */
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * Returns the counter with the given name, creating it if needed.
+     */
+    public static Counter counter(String name) {
+        Counter counter = sCounters.get(name);
+        if (counter == null) {
+            synchronized (sCounters) {
+                counter = sCounters.get(name);
+                if (counter == null) {
+                    counter = new Counter();
+                    sCounters.put(name, counter);
+                }
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * Returns the histogram with the given name, creating it if needed.
+     */
+    public static Histogram histogram(String name) {
+        Histogram histogram = sHistograms.get(name);
+        if (histogram == null) {
+            synchronized (sHistograms) {
+                histogram = sHistograms.get(name);
+                if (histogram == null) {
+                    histogram = new Histogram();
+                    sHistograms.put(name, histogram);
+                }
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Returns a timer recording into the histogram with the given name, creating it if needed.
+     */
+    public static Timer timer(String name) {
+        return new Timer(histogram(name));
+    }
+
+    /**
+     * Returns the start time to pass to {@link Timer#stop(long)}, or 0 while metrics are
+     * disabled, in which case the clock is not read.
+     */
+    public static long startTime() {
+        return sEnabled ? System.nanoTime() : 0L;
+    }
+
+    /**
+     * Returns the current value of every metric.
+     */
+    public static MetricsSnapshot snapshot() {
+        Map<String, Long> counters = new HashMap<>();
+        for (Map.Entry<String, Counter> counter : sCounters.entrySet()) {
+            counters.put(counter.getKey(), counter.getValue().get());
+        }
+        Map<String, MetricsSnapshot.HistogramSnapshot> histograms = new HashMap<>();
+        for (Map.Entry<String, Histogram> histogram : sHistograms.entrySet()) {
+            histograms.put(histogram.getKey(), histogram.getValue().snapshot());
+        }
+        return new MetricsSnapshot(counters, histograms);
+    }
+
+    /**
+     * Sets every metric back to zero.
+     */
+    public static void reset() {
+        for (Counter counter : sCounters.values()) {
+            counter.mValue.set(0);
+        }
+        for (Histogram histogram : sHistograms.values()) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * A value that only goes up, i.e. the number of requests sent.
+     */
+    public static final class Counter {
+        private final AtomicLong mValue = new AtomicLong();
+
+        private Counter() {
+        }
+
+        public void increment() {
+            add(1);
+        }
+
+        public void add(long delta) {
+            if (sEnabled) {
+                mValue.addAndGet(delta);
+            }
+        }
+
+        public long get() {
+            return mValue.get();
+        }
+    }
+
+    /**
+     * The distribution of recorded values, i.e. response times.
+     *
+     * Values are counted in buckets by powers of two, so recording never allocates and
+     * percentiles are accurate to within a factor of two. Negative values count as 0.
+     */
+    public static final class Histogram {
+
+        /** Bucket 0 holds 0, bucket i holds the values from 2^(i-1) up to 2^i - 1 */
+        static final int BUCKET_COUNT = 64;
+
+        private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mSum = new AtomicLong();
+        private final AtomicLong mMin = new AtomicLong(Long.MAX_VALUE);
+        private final AtomicLong mMax = new AtomicLong(Long.MIN_VALUE);
+
+        private Histogram() {
+        }
+
+        public void record(long value) {
+            if (!sEnabled) {
+                return;
+            }
+            value = Math.max(0L, value);
+            mBuckets.incrementAndGet(bucketOf(value));
+            mCount.incrementAndGet();
+            mSum.addAndGet(value);
+            long min;
+            while (value < (min = mMin.get()) && !mMin.compareAndSet(min, value)) {
+                // Another thread changed the minimum, try again
+            }
+            long max;
+            while (value > (max = mMax.get()) && !mMax.compareAndSet(max, value)) {
+                // Another thread changed the maximum, try again
+            }
+        }
+
+        MetricsSnapshot.HistogramSnapshot snapshot() {
+            long[] buckets = new long[BUCKET_COUNT];
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                buckets[i] = mBuckets.get(i);
+            }
+            long count = mCount.get();
+            return new MetricsSnapshot.HistogramSnapshot(count, mSum.get(),
+                    count == 0 ? 0 : mMin.get(), count == 0 ? 0 : mMax.get(), buckets);
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                mBuckets.set(i, 0);
+            }
+            mCount.set(0);
+            mSum.set(0);
+            mMin.set(Long.MAX_VALUE);
+            mMax.set(Long.MIN_VALUE);
+        }
+
+        static int bucketOf(long value) {
+            return Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(value));
+        }
+    }
+
+    /**
+     * Records durations in nanoseconds into a {@link Histogram}.
+     *
+     * <pre>
+     * long start = Metrics.startTime();
+     * ...
+     * TIMER.stop(start);
+     * </pre>
+     */
+    public static final class Timer {
+        private final Histogram mHistogram;
+
+        private Timer(Histogram histogram) {
+            mHistogram = histogram;
+        }
+
+        /**
+         * Records the time since a value returned by {@link Metrics#startTime()}. Does nothing
+         * if metrics were disabled when the timer was started.
+         */
+        public void stop(long startTime) {
+            if (startTime != 0L) {
+                mHistogram.record(System.nanoTime() - startTime);
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.android.quakereport;
+
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The values of all {@link Metrics} at one point in time. Metrics that were never recorded
+ * read as zero.
+ */
+public class MetricsSnapshot {
+
+    private final Map<String, Long> mCounters;
+    private final Map<String, HistogramSnapshot> mHistograms;
+
+    MetricsSnapshot(Map<String, Long> counters, Map<String, HistogramSnapshot> histograms) {
+        mCounters = Collections.unmodifiableMap(new TreeMap<>(counters));
+        mHistograms = Collections.unmodifiableMap(new TreeMap<>(histograms));
+    }
+
+    /**
+     * Returns the value of a counter.
+     */
+    public long getCount(String name) {
+        Long count = mCounters.get(name);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * Returns the values of a histogram or timer.
+     */
+    public HistogramSnapshot getHistogram(String name) {
+        HistogramSnapshot histogram = mHistograms.get(name);
+        return histogram == null ? HistogramSnapshot.EMPTY : histogram;
+    }
+
+    /**
+     * Returns all counters by name.
+     */
+    public Map<String, Long> getCounters() {
+        return mCounters;
+    }
+
+    /**
+     * Returns all histograms and timers by name.
+     */
+    public Map<String, HistogramSnapshot> getHistograms() {
+        return mHistograms;
+    }
+
+    /**
+     * Returns one line per metric, for logs and debug screens.
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, Long> counter : mCounters.entrySet()) {
+            builder.append(counter.getKey()).append(": ").append(counter.getValue()).append('\n');
+        }
+        for (Map.Entry<String, HistogramSnapshot> histogram : mHistograms.entrySet()) {
+            builder.append(histogram.getKey()).append(": ").append(histogram.getValue()).append('\n');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * The distribution of the values recorded by a histogram.
+     */
+    public static final class HistogramSnapshot {
+
+        static final HistogramSnapshot EMPTY = new HistogramSnapshot(0, 0, 0, 0,
+                new long[Metrics.Histogram.BUCKET_COUNT]);
+
+        private final long mCount;
+        private final long mSum;
+        private final long mMin;
+        private final long mMax;
+        private final long[] mBuckets;
+
+        HistogramSnapshot(long count, long sum, long min, long max, long[] buckets) {
+            mCount = count;
+            mSum = sum;
+            mMin = min;
+            mMax = max;
+            mBuckets = buckets;
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+
+        public long getSum() {
+            return mSum;
+        }
+
+        public long getMin() {
+            return mMin;
+        }
+
+        public long getMax() {
+            return mMax;
+        }
+
+        public double getMean() {
+            return mCount == 0 ? 0 : (double) mSum / mCount;
+        }
+
+        /**
+         * Returns an upper bound of the given percentile (i.e. 50 or 99) of the recorded
+         * values, at most twice the real value.
+         */
+        public long getPercentile(double percentile) {
+            if (mCount == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(mCount * Math.min(100.0, Math.max(0.0, percentile)) / 100.0);
+            long seen = 0;
+            for (int i = 0; i < mBuckets.length; i++) {
+                seen += mBuckets[i];
+                if (seen >= rank && seen > 0) {
+                    long upperBound = i == 0 ? 0 : (i >= 63 ? Long.MAX_VALUE : (1L << i) - 1);
+                    return Math.max(mMin, Math.min(mMax, upperBound));
+                }
+            }
+            return mMax;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "count=%d mean=%.1f min=%d p50=%d p99=%d max=%d",
+                    mCount, getMean(), mMin, getPercentile(50), getPercentile(99), mMax);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.example.android.quakereport;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Fetches earthquakes from several GeoJSON sources at once, such as USGS summary feeds and FDSN
+ * event services queried with format=geojson, and merges them into one list of canonical events.
+ *
+ * Every source is fetched and parsed on its own thread of the executor. Their earthquakes then
+ * go through an {@link EventDeduplicator}, which matches the versions of one earthquake from
+ * different catalogs. Sources are ranked in the order given, the first one's version of an
+ * earthquake being preferred, and are deduplicated in that order as soon as they and the ones
+ * before them have answered. Matching a version against the preferred one first keeps the
+ * result from depending on which source happened to answer first, while the listener still
+ * sees the canonical events of the first sources before the slowest one is done.
+ *
+ * A source that fails is left out rather than failing the whole ingest. Sources are fetched
+ * through a {@link ShardedFetcher.Source}, so the cache, or a transport installed in
+ * {@link QueryUtils} that answers from memory, can stand in for the network.
+ */
+public class MultiSourceIngestor {
+
+    private static final String LOG_TAG = MultiSourceIngestor.class.getSimpleName();
+
+    private final List<String> mSourceUrls;
+    private final ShardedFetcher.Source mSource;
+    private final ExecutorService mExecutor;
+
+    /** Sources of the ingest in progress, so they can be cancelled */
+    private final List<Future<List<Earthquake>>> mFetches = new ArrayList<>();
+
+    private volatile boolean mCanceled;
+
+    /**
+     * Constructs a new {@link MultiSourceIngestor} fetching the sources straight from the
+     * network on the shared fetch executor.
+     *
+     * @param sourceUrls are the URLs of the sources, preferred ones first
+     */
+    public MultiSourceIngestor(List<String> sourceUrls) {
+        this(sourceUrls, new ShardedFetcher.Source() {
+            @Override
+            public List<Earthquake> fetch(String requestUrl) {
+                return QueryUtils.fetchEarthQuakeData(requestUrl);
+            }
+        }, ShardedFetcher.getDefaultExecutor());
+    }
+
+    /**
+     * Constructs a new {@link MultiSourceIngestor}.
+     *
+     * @param sourceUrls are the URLs of the sources, preferred ones first, at most 32
+     * @param source fetches a single source URL
+     * @param executor fetches the sources, its pool size bounds how many are fetched at once
+     */
+    public MultiSourceIngestor(List<String> sourceUrls, ShardedFetcher.Source source,
+                               ExecutorService executor) {
+        if (sourceUrls.isEmpty() || sourceUrls.size() > Integer.SIZE) {
+            throw new IllegalArgumentException("Needs from 1 to 32 sources");
+        }
+        mSourceUrls = new ArrayList<>(sourceUrls);
+        mSource = source;
+        mExecutor = executor;
+    }
+
+    /**
+     * Fetches every source and returns the canonical events, newest first, without deleted
+     * ones. Returns null if the ingest was cancelled or every source failed.
+     *
+     * @param listener is told about every canonical event as its sources answer, on the
+     *                 calling thread, or null
+     */
+    public List<Earthquake> ingest(EventDeduplicator.OnCanonicalEventListener listener) {
+        EventDeduplicator deduplicator = new EventDeduplicator(listener);
+        List<Future<List<Earthquake>>> fetches = new ArrayList<>(mSourceUrls.size());
+        synchronized (mFetches) {
+            if (mCanceled) {
+                return null;
+            }
+            for (int i = 0; i < mSourceUrls.size(); i++) {
+                final String url = mSourceUrls.get(i);
+                fetches.add(mExecutor.submit(new Callable<List<Earthquake>>() {
+                    @Override
+                    public List<Earthquake> call() {
+                        return mSource.fetch(url);
+                    }
+                }));
+            }
+            mFetches.addAll(fetches);
+        }
+
+        int answered = 0;
+        int fetched = 0;
+        try {
+            for (int rank = 0; rank < fetches.size(); rank++) {
+                List<Earthquake> earthquakes;
+                try {
+                    earthquakes = fetches.get(rank).get();
+                } catch (ExecutionException e) {
+                    Log.e(LOG_TAG, "Problem ingesting " + mSourceUrls.get(rank), e.getCause());
+                    continue;
+                }
+                if (earthquakes == null) {
+                    Log.w(LOG_TAG, "Source failed: " + mSourceUrls.get(rank));
+                    continue;
+                }
+                for (Earthquake earthquake : earthquakes) {
+                    deduplicator.add(earthquake, rank);
+                }
+                answered++;
+                fetched += earthquakes.size();
+            }
+        } catch (InterruptedException e) {
+            cancelAll(fetches);
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (CancellationException e) {
+            return null;
+        } finally {
+            synchronized (mFetches) {
+                mFetches.removeAll(fetches);
+            }
+        }
+        if (answered == 0 || mCanceled) {
+            return null;
+        }
+
+        List<Earthquake> earthquakes = new ArrayList<>(deduplicator.size());
+        for (Earthquake earthquake : deduplicator.getCanonical()) {
+            if (!earthquake.isDeleted()) {
+                earthquakes.add(earthquake);
+            }
+        }
+        Collections.sort(earthquakes, QueryUtils.comparatorForOrderBy("time"));
+        if (Log.isLoggable(LOG_TAG, Log.VERBOSE)) {
+            Log.v(LOG_TAG, "*************Ingested " + fetched + " earthquakes from " + answered
+                    + " sources as " + earthquakes.size() + " events");
+        }
+        return earthquakes;
+    }
+
+    /**
+     * Cancels the ingest in progress, and any later one, interrupting sources being fetched.
+     */
+    public void cancel() {
+        synchronized (mFetches) {
+            mCanceled = true;
+            cancelAll(mFetches);
+        }
+    }
+
+    private static void cancelAll(List<Future<List<Earthquake>>> fetches) {
+        for (Future<List<Earthquake>> fetch : fetches) {
+            fetch.cancel(true);
+        }
+    }
+}
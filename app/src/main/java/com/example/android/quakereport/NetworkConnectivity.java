@@ -0,0 +1,53 @@
+package com.example.android.quakereport;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+
+/**
+ * Tells a {@link SyncScheduler} whether the device is online, and whom to wake up when that
+ * changes.
+ */
+public class NetworkConnectivity implements SyncScheduler.Connectivity {
+
+    private final Context mContext;
+    private BroadcastReceiver mReceiver;
+
+    public NetworkConnectivity(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    @Override
+    public boolean isConnected() {
+        // Determine if You Have an Internet Connection. You'll need android.permission.ACCESS_NETWORK_STATE permission
+        ConnectivityManager cm =
+                (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo activeNetwork = cm.getActiveNetworkInfo();
+        return activeNetwork != null && activeNetwork.isConnectedOrConnecting();
+    }
+
+    /**
+     * Runs the callback on the main thread whenever connectivity changes, until
+     * {@link #unregister()} is called. Replaces any callback registered before.
+     */
+    public void register(final Runnable onChanged) {
+        unregister();
+        mReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                onChanged.run();
+            }
+        };
+        mContext.registerReceiver(mReceiver, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+    }
+
+    public void unregister() {
+        if (mReceiver != null) {
+            mContext.unregisterReceiver(mReceiver);
+            mReceiver = null;
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package com.example.android.quakereport;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A search index over the place names of {@link Earthquake}s, for search as you type.
+ *
+ * The primary location of every earthquake (i.e. "Yelizovo, Russia" of "88km N of Yelizovo,
+ * Russia") is split into words, which are lower cased and stripped of accents. Every word has
+ * a posting list of the earthquakes it occurs in, and all words are kept in a prefix trie. A
+ * query is split the same way; each of its words matches every indexed word it is a prefix of,
+ * and an earthquake matches if it matches every query word. So "yel rus" finds the example.
+ *
+ * Earthquakes are numbered in the order they are added, so posting lists only ever grow at the
+ * end. Removed earthquakes leave a hole in the numbering that is skipped while searching, and
+ * the index is rebuilt without the holes once they outnumber the earthquakes left.
+ *
+ * All methods are thread-safe.
+ */
+public class PlaceIndex {
+
+    /** Number of removed earthquakes below which the index is never rebuilt */
+    private static final int MIN_COMPACTION_HOLES = 1024;
+
+    /** Event ids by number, null where an earthquake was removed */
+    private final List<String> mIds = new ArrayList<>();
+
+    /** Primary locations by number, to rebuild the index from */
+    private final List<String> mLocations = new ArrayList<>();
+
+    /** Number of every earthquake in the index, by event id */
+    private final Map<String, Integer> mNumbers = new HashMap<>();
+
+    /** Numbers of the earthquakes every word occurs in, ascending */
+    private final Map<String, Postings> mPostings = new HashMap<>();
+
+    /** Every word ever indexed, by its letters */
+    private TrieNode mRoot = new TrieNode();
+
+    /** Numbers of removed earthquakes, and how many there are */
+    private final BitSet mRemoved = new BitSet();
+    private int mHoles;
+
+    /**
+     * Adds the earthquake to the index, replacing any earlier version with the same id.
+     * Deleted earthquakes are removed instead.
+     */
+    public synchronized void add(Earthquake earthquake) {
+        removeNumber(earthquake.getId());
+        if (earthquake.isDeleted()) {
+            compactIfSparse();
+            return;
+        }
+        String location = getPrimaryLocation(earthquake.getLocation());
+        int number = mIds.size();
+        mIds.add(earthquake.getId());
+        mLocations.add(location);
+        mNumbers.put(earthquake.getId(), number);
+        index(number, location);
+        compactIfSparse();
+    }
+
+    /**
+     * Removes the earthquake with the given id from the index.
+     */
+    public synchronized void remove(String id) {
+        removeNumber(id);
+        compactIfSparse();
+    }
+
+    /**
+     * Removes every earthquake from the index.
+     */
+    public synchronized void clear() {
+        mIds.clear();
+        mLocations.clear();
+        mNumbers.clear();
+        mPostings.clear();
+        mRoot = new TrieNode();
+        mRemoved.clear();
+        mHoles = 0;
+    }
+
+    /**
+     * Returns the number of earthquakes in the index.
+     */
+    public synchronized int size() {
+        return mNumbers.size();
+    }
+
+    /**
+     * Returns the ids of the earthquakes whose place matches every word of the query as a
+     * prefix, most recently added first, at most limit of them. A query without words
+     * matches nothing.
+     *
+     * @throws IllegalArgumentException if the limit is negative
+     */
+    public synchronized List<String> search(String query, int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Limit must not be negative");
+        }
+        BitSet matches = match(query);
+
+        // The matches go by oldest first, and only the newest limit of them are kept, in a ring.
+        // BitSet.previousSetBit would walk them newest first, but needs API 19.
+        int[] newest = new int[Math.min(limit, mIds.size())];
+        int count = 0;
+        if (newest.length > 0) {
+            for (int number = matches.nextSetBit(0); number >= 0; number = matches.nextSetBit(number + 1)) {
+                newest[count++ % newest.length] = number;
+            }
+        }
+        int size = Math.min(count, newest.length);
+        List<String> ids = new ArrayList<>(size);
+        for (int i = 1; i <= size; i++) {
+            ids.add(mIds.get(newest[(count - i) % newest.length]));
+        }
+        return ids;
+    }
+
+    /**
+     * Returns the number of earthquakes whose place matches every word of the query as a prefix.
+     */
+    public synchronized int count(String query) {
+        return match(query).cardinality();
+    }
+
+    /**
+     * Returns the primary location of a location, the part after
+     * {@link EarthquakeTable#LOCATION_SEPARATOR} if it has one.
+     */
+    static String getPrimaryLocation(String location) {
+        int separator = location.indexOf(EarthquakeTable.LOCATION_SEPARATOR);
+        if (separator < 0) {
+            return location;
+        }
+        return location.substring(separator + EarthquakeTable.LOCATION_SEPARATOR.length());
+    }
+
+    /**
+     * Splits the text into words of letters and digits, lower cased and without accents, so
+     * "Côte d'Ivoire" becomes "cote", "d" and "ivoire".
+     */
+    static List<String> tokenize(String text) {
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFD).toLowerCase(Locale.US);
+        List<String> words = new ArrayList<>(4);
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < normalized.length(); i++) {
+            char c = normalized.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                word.append(c);
+            } else if (Character.getType(c) != Character.NON_SPACING_MARK && word.length() > 0) {
+                // Accents were split off their letters above and are dropped without ending the word
+                words.add(word.toString());
+                word.setLength(0);
+            }
+        }
+        if (word.length() > 0) {
+            words.add(word.toString());
+        }
+        return words;
+    }
+
+    private void index(int number, String location) {
+        for (String word : tokenize(location)) {
+            Postings postings = mPostings.get(word);
+            if (postings == null) {
+                postings = new Postings();
+                mPostings.put(word, postings);
+                mRoot.insert(word, postings);
+            }
+            // A word occurring twice in one place is only listed once
+            postings.addIfLast(number);
+        }
+    }
+
+    private void removeNumber(String id) {
+        Integer number = mNumbers.remove(id);
+        if (number != null) {
+            mIds.set(number, null);
+            mLocations.set(number, null);
+            mRemoved.set(number);
+            mHoles++;
+        }
+    }
+
+    private void compactIfSparse() {
+        if (mHoles >= MIN_COMPACTION_HOLES && mHoles > mNumbers.size()) {
+            compact();
+        }
+    }
+
+    /**
+     * Renumbers the earthquakes left without holes and indexes them again.
+     */
+    private void compact() {
+        List<String> ids = new ArrayList<>(mIds);
+        List<String> locations = new ArrayList<>(mLocations);
+        clear();
+        for (int i = 0; i < ids.size(); i++) {
+            String id = ids.get(i);
+            if (id != null) {
+                int number = mIds.size();
+                mIds.add(id);
+                mLocations.add(locations.get(i));
+                mNumbers.put(id, number);
+                index(number, locations.get(i));
+            }
+        }
+    }
+
+    private BitSet match(String query) {
+        BitSet matches = null;
+        for (String word : tokenize(query)) {
+            BitSet wordMatches = new BitSet(mIds.size());
+            TrieNode node = mRoot.find(word);
+            if (node != null) {
+                node.collect(wordMatches);
+            }
+            if (matches == null) {
+                matches = wordMatches;
+            } else {
+                matches.and(wordMatches);
+            }
+            if (matches.isEmpty()) {
+                break;
+            }
+        }
+        if (matches == null) {
+            return new BitSet();
+        }
+        matches.andNot(mRemoved);
+        return matches;
+    }
+
+    /**
+     * The ascending numbers of the earthquakes a word occurs in.
+     */
+    private static final class Postings {
+        private int[] mNumbers = new int[4];
+        private int mSize;
+
+        void addIfLast(int number) {
+            if (mSize > 0 && mNumbers[mSize - 1] == number) {
+                return;
+            }
+            if (mSize == mNumbers.length) {
+                mNumbers = Arrays.copyOf(mNumbers, mSize * 2);
+            }
+            mNumbers[mSize++] = number;
+        }
+
+        void addTo(BitSet numbers) {
+            for (int i = 0; i < mSize; i++) {
+                numbers.set(mNumbers[i]);
+            }
+        }
+    }
+
+    /**
+     * A node of the prefix trie, holding the postings of the word ending at it, if any.
+     * Children are kept sorted by letter in parallel arrays.
+     */
+    private static final class TrieNode {
+        private char[] mLetters = new char[0];
+        private TrieNode[] mChildren = new TrieNode[0];
+        private Postings mPostings;
+
+        void insert(String word, Postings postings) {
+            TrieNode node = this;
+            for (int i = 0; i < word.length(); i++) {
+                node = node.child(word.charAt(i));
+            }
+            node.mPostings = postings;
+        }
+
+        TrieNode find(String prefix) {
+            TrieNode node = this;
+            for (int i = 0; i < prefix.length() && node != null; i++) {
+                int index = Arrays.binarySearch(node.mLetters, prefix.charAt(i));
+                node = index >= 0 ? node.mChildren[index] : null;
+            }
+            return node;
+        }
+
+        /**
+         * Sets the numbers of the earthquakes of every word starting at this node.
+         */
+        void collect(BitSet numbers) {
+            if (mPostings != null) {
+                mPostings.addTo(numbers);
+            }
+            for (TrieNode child : mChildren) {
+                child.collect(numbers);
+            }
+        }
+
+        private TrieNode child(char letter) {
+            int index = Arrays.binarySearch(mLetters, letter);
+            if (index >= 0) {
+                return mChildren[index];
+            }
+            int insertAt = -index - 1;
+            char[] letters = new char[mLetters.length + 1];
+            TrieNode[] children = new TrieNode[mChildren.length + 1];
+            System.arraycopy(mLetters, 0, letters, 0, insertAt);
+            System.arraycopy(mChildren, 0, children, 0, insertAt);
+            letters[insertAt] = letter;
+            children[insertAt] = new TrieNode();
+            System.arraycopy(mLetters, insertAt, letters, insertAt + 1, mLetters.length - insertAt);
+            System.arraycopy(mChildren, insertAt, children, insertAt + 1, mChildren.length - insertAt);
+            mLetters = letters;
+            mChildren = children;
+            return children[insertAt];
+        }
+    }
+}
@@ -1,23 +1,28 @@
 package com.example.android.quakereport;
 
-import android.text.TextUtils;
 import android.util.Log;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
-
-import javax.net.ssl.HttpsURLConnection;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
 
 /**
  * Helper methods related to requesting and receiving earthquake data from USGS.
@@ -25,6 +30,77 @@ import javax.net.ssl.HttpsURLConnection;
 public final class QueryUtils {
 
     private static final String LOG_TAG = QueryUtils.class.getSimpleName();
+
+    /** Format USGS accepts for time parameters such as starttime and updatedafter */
+    private static final String QUERY_TIME_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSS";
+
+    /** Format of HTTP date headers such as Last-Modified and If-Modified-Since */
+    private static final String HTTP_DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss 'GMT'";
+
+    /** Typical size of a USGS feature in bytes, to size the buffer of a response read whole */
+    private static final int ESTIMATED_FEATURE_BYTES = 1024;
+
+    /** Largest buffer allocated up front for a response read whole, however large it claims to be */
+    private static final long MAX_PREALLOCATED_BYTES = 64L * 1024 * 1024;
+
+    private static final Metrics.Timer TIME_TO_FIRST_BYTE_TIMER = Metrics.timer(Metrics.TIME_TO_FIRST_BYTE);
+    private static final Metrics.Timer PARSE_TIMER = Metrics.timer(Metrics.PARSE_TIME);
+    private static final Metrics.Counter REQUEST_COUNTER = Metrics.counter(Metrics.REQUESTS);
+    private static final Metrics.Counter NOT_MODIFIED_COUNTER = Metrics.counter(Metrics.NOT_MODIFIED);
+    private static final Metrics.Counter BYTES_READ_COUNTER = Metrics.counter(Metrics.BYTES_READ);
+    private static final Metrics.Counter FEATURES_PARSED_COUNTER = Metrics.counter(Metrics.FEATURES_PARSED);
+    private static final Metrics.Histogram FEATURES_PER_SECOND_HISTOGRAM =
+            Metrics.histogram(Metrics.FEATURES_PER_SECOND);
+
+    /** Transport every request goes through */
+    private static volatile HttpTransport sTransport = new UrlConnectionTransport();
+
+    /** Joins identical requests in flight and answers repeats of the last few seconds from memory */
+    private static final RequestManager sRequests = new RequestManager(new RequestManager.Fetcher() {
+        @Override
+        public Response fetch(String requestUrl, String eTag, long lastModified) {
+            return sendRequest(requestUrl, eTag, lastModified);
+        }
+    }, RequestManager.DEFAULT_CAPACITY, RequestManager.DEFAULT_TTL_MILLIS);
+
+    /**
+     * The outcome of a conditional request to the USGS dataset.
+     */
+    public static final class Response {
+
+        /** True if the server answered 304 Not Modified, in which case there are no earthquakes */
+        public final boolean notModified;
+
+        /** ETag validator of the response, or null if the server did not send one */
+        public final String eTag;
+
+        /** Last-Modified validator of the response in milliseconds, or 0 if the server did not send one */
+        public final long lastModified;
+
+        /** The parsed earthquakes, or null for a 304 response */
+        public final List<Earthquake> earthquakes;
+
+        Response(boolean notModified, String eTag, long lastModified, List<Earthquake> earthquakes) {
+            this.notModified = notModified;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.earthquakes = earthquakes;
+        }
+    }
+
+    /**
+     * The bytes of a response read into memory, of which only the first length are used.
+     */
+    private static final class ResponseBytes {
+        final byte[] data;
+        final int length;
+
+        ResponseBytes(byte[] data, int length) {
+            this.data = data;
+            this.length = length;
+        }
+    }
+
     /**
      * Create a private constructor because no one should ever create a {@link QueryUtils} object.
      * This class is only meant to hold static variables and methods, which can be accessed
@@ -33,10 +109,56 @@ public final class QueryUtils {
     private QueryUtils() {
     }
 
+    /**
+     * Replaces the transport requests are sent through, i.e. with one that has other timeouts
+     * or, in tests, with one answering from memory.
+     */
+    public static void setTransport(HttpTransport transport) {
+        if (transport == null) {
+            throw new IllegalArgumentException("Transport must not be null");
+        }
+        sTransport = transport;
+        // Responses of the old transport must not answer requests meant for the new one
+        sRequests.clear();
+    }
+
+    /**
+     * Returns the transport requests are sent through.
+     */
+    public static HttpTransport getTransport() {
+        return sTransport;
+    }
+
     /**
      * Query the USGS dataset and return a list of {@link Earthquake} objects.
      */
     public static List<Earthquake> fetchEarthQuakeData(String requestUrl) {
+        Response response = fetchEarthQuakeData(requestUrl, null, 0L);
+        return response == null ? null : response.earthquakes;
+    }
+
+    /**
+     * Query the USGS dataset, sending the given validators so the server can answer
+     * 304 Not Modified when nothing changed. Returns null if the request failed.
+     *
+     * @param eTag the ETag of the copy we already have, or null
+     * @param lastModified the Last-Modified time of the copy we already have, or 0
+     */
+    public static Response fetchEarthQuakeData(String requestUrl, String eTag, long lastModified) {
+        // Rotations, screens and syncs asking for the same data at once share a single request
+        return sRequests.fetch(requestUrl, eTag, lastModified);
+    }
+
+    /**
+     * Query the USGS dataset like {@link #fetchEarthQuakeData(String, String, long)}, but never
+     * answered from the responses of the last few seconds. Meant for callers that poll or
+     * refresh and want what the server has now.
+     */
+    public static Response fetchLatestEarthQuakeData(String requestUrl, String eTag, long lastModified) {
+        return sRequests.fetch(requestUrl, eTag, lastModified, false);
+    }
+
+    private static Response sendRequest(String requestUrl, String eTag, long lastModified) {
         Log.v(LOG_TAG, "*************Called BEGIN fetchEarthQuakeData()");
         Log.v(LOG_TAG, "*************Called fetchEarthQuakeData() before createUrl");
 
@@ -56,74 +178,255 @@ public final class QueryUtils {
         URL url = createUrl(requestUrl);
 
         Log.v(LOG_TAG, "*************Called fetchEarthQuakeData() before makeHttpsRequest");
-        // Perform HTTP request to the URL and receive a JSON response back
-        String jsonResponse = null;
+        // Perform HTTP request to the URL and parse the JSON response as it arrives
+        // into a list of {@link Earthquake}s
+        Response response = null;
         try {
-            jsonResponse = makeHttpsRequest(url);
+            response = makeHttpsRequest(url, eTag, lastModified);
         } catch(IOException e) {
             Log.e(LOG_TAG, "Problem making the HTTP request. ", e);
         }
 
-        Log.v(LOG_TAG, "*************Called fetchEarthQuakeData() before extractFeatureFromJson");
-        // Extract relevant fields from the JSON response and create a list of {@link Earthquake}s
-        List<Earthquake> earthquakes = extractFeatureFromJson(jsonResponse);
-
-        // Return the list of {@link Earthquake}s
-        return earthquakes;
+        // Return the response holding the list of {@link Earthquake}s
+        return response;
     }
 
     /**
      * Return a list of {@link Earthquake} objects that has been built up from
-     * parsing a JSON response.
+     * parsing a JSON response stream. Features are read one at a time by {@link GeoJsonParser},
+     * so the response is never held in memory as a whole, unless it announces so many features
+     * that {@link BulkGeoJsonParser} reads it whole and parses it on all cores. Returns null
+     * unless the whole response was read and parsed.
      */
-    private static List<Earthquake> extractFeatureFromJson(String earthquakeJson) {
+    private static List<Earthquake> extractFeatureFromJson(InputStream earthquakeJson, long contentLength) {
         Log.v(LOG_TAG, "*************Called extractFeatureFromJson");
-        if(TextUtils.isEmpty(earthquakeJson)) {
+        if(earthquakeJson == null) {
             return null;
         }
+
         // Create an empty ArrayList that we can start adding earthquakes to
-        List<Earthquake> earthquakes = new ArrayList<>();
+        final List<Earthquake> earthquakes = new ArrayList<>();
+        long startTime = Metrics.startTime();
 
-        // Try to parse the JSON response string. If there's a problem with the way the JSON
-        // is formatted, a JSONException exception object will be thrown.
+        // Try to parse the JSON response stream. If there's a problem with the way the JSON
+        // is formatted, an exception will be thrown part way through the stream.
         // Catch the exception so the app doesn't crash, and print the error message to the logs.
+        GeoJsonParser.OnEarthquakeParsedListener listener = new GeoJsonParser.OnEarthquakeParsedListener() {
+            @Override
+            public void onEarthquakeParsed(Earthquake earthquake) {
+                earthquakes.add(earthquake);
+            }
+        };
         try {
-            // Create a JSONObject from the JSON response string
-            JSONObject baseJsonResponse = new JSONObject(earthquakeJson);
-
-            // Extract the JSONArray associated with the key called "features",
-            // which represents a list of features (or earthquakes).
-            JSONArray features = baseJsonResponse.optJSONArray("features");
-
-            // For each earthquake in the earthquakeArray, create an {@link Earthquake} object
-            for(int i = 0; i < features.length(); i++) {
-                // Get a single earthquake at position i within the list of earthquakes
-                JSONObject feature = features.optJSONObject(i);
-                // For a given earthquake, extract the JSONObject associated with the
-                // key called "properties", which represents a list of all properties
-                // for that earthquake.
-                JSONObject properties = feature.optJSONObject("properties");
-
-                double magnitude = properties.optDouble("mag");
-                String location = properties.optString("place");
-                long timeInMilliseconds = properties.optLong("time");
-                String website = properties.optString("url");
-
-                // Create a new {@link Earthquake} object with the magnitude, location, time,
-                // and url from the JSON response and add the new {@link Earthquake} to the list of earthquakes.
-                earthquakes.add(new Earthquake(magnitude, location, timeInMilliseconds, website));
+            // Peek at the count in the metadata: large responses are parsed on all cores,
+            // everything else is streamed as it arrives
+            InputStream in = new BufferedInputStream(earthquakeJson, BulkGeoJsonParser.HEAD_SIZE);
+            in.mark(BulkGeoJsonParser.HEAD_SIZE);
+            byte[] head = new byte[BulkGeoJsonParser.HEAD_SIZE];
+            int headLength = readFully(in, head);
+            in.reset();
+            int featureCount = BulkGeoJsonParser.peekFeatureCount(head, headLength);
+            if (BulkGeoJsonParser.isWorthParsingInParallel(featureCount)) {
+                Log.v(LOG_TAG, "*************Parsing earthquakes in parallel");
+                long expectedLength = contentLength >= 0
+                        ? contentLength : (long) featureCount * ESTIMATED_FEATURE_BYTES;
+                ResponseBytes bytes = readAll(in, expectedLength);
+                BulkGeoJsonParser.parse(bytes.data, bytes.length, listener);
+            } else {
+                GeoJsonParser.parse(new InputStreamReader(in, Charset.forName("UTF-8")), listener);
             }
-        } catch (JSONException e) {
-            // If an error is thrown when executing any of the above statements in the "try" block,
-            // catch the exception here, so the app doesn't crash. Print a log message
-            // with the message from the exception.
-            Log.e("QueryUtils", "Problem parsing the earthquake JSON results", e);
+        } catch (SocketTimeoutException e) {
+            // Also an InterruptedIOException, but the server stalled rather than the load being
+            // cancelled. Either way a partial list must not be cached.
+            Log.e(LOG_TAG, "Timed out reading the earthquake JSON results", e);
+            return null;
+        } catch (InterruptedIOException e) {
+            // Cancelled, so nobody wants the earthquakes and a partial list must not be cached
+            Log.v(LOG_TAG, "*************Parsing canceled");
+            return null;
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            // A partial list cached with the response's validators would be served for as long
+            // as the server answers 304, so fail the request instead
+            Log.e(LOG_TAG, "Problem parsing the earthquake JSON results", e);
+            return null;
+        }
+
+        if (startTime != 0L) {
+            long elapsedNanos = Math.max(1L, System.nanoTime() - startTime);
+            PARSE_TIMER.stop(startTime);
+            FEATURES_PARSED_COUNTER.add(earthquakes.size());
+            FEATURES_PER_SECOND_HISTOGRAM.record(earthquakes.size() * 1000000000L / elapsedNanos);
         }
 
         // Return the list of earthquakes
         return earthquakes;
     }
 
+    /**
+     * Reads until the buffer is full or the stream ends. Returns the number of bytes read.
+     */
+    private static int readFully(InputStream in, byte[] buffer) throws IOException {
+        int length = 0;
+        int read;
+        while (length < buffer.length && (read = in.read(buffer, length, buffer.length - length)) != -1) {
+            length += read;
+        }
+        return length;
+    }
+
+    /**
+     * Reads the rest of the stream into an array of the expected length, which only has to be
+     * grown if the stream turns out longer, so the response is not held twice as it would be
+     * by a ByteArrayOutputStream and its copy.
+     */
+    private static ResponseBytes readAll(InputStream in, long expectedLength) throws IOException {
+        byte[] data = new byte[(int) Math.max(8192, Math.min(expectedLength + 1, MAX_PREALLOCATED_BYTES))];
+        int length = 0;
+        int read;
+        while ((read = in.read(data, length, data.length - length)) != -1) {
+            length += read;
+            if (length == data.length) {
+                if (data.length == Integer.MAX_VALUE) {
+                    throw new IOException("Response too large");
+                }
+                data = Arrays.copyOf(data, (int) Math.min(Integer.MAX_VALUE, data.length + (data.length >> 1) + 1L));
+            }
+        }
+        return new ResponseBytes(data, length);
+    }
+
+    /**
+     * Returns the length of the body of the response once decoded, or -1 if it is unknown.
+     */
+    private static long getDecodedLength(HttpResponse response) {
+        if ("gzip".equalsIgnoreCase(response.getHeader("Content-Encoding"))) {
+            // Content-Length counts the compressed bytes
+            return -1;
+        }
+        String contentLength = response.getHeader("Content-Length");
+        if (contentLength == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentLength.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the time in milliseconds (from the Epoch) formatted as a UTC time that
+     * USGS accepts for query parameters (i.e. "2016-01-05T16:30:00.000").
+     */
+    public static String formatQueryTime(long timeInMilliseconds) {
+        SimpleDateFormat formatter = new SimpleDateFormat(QUERY_TIME_FORMAT, Locale.US);
+        formatter.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return formatter.format(new Date(timeInMilliseconds));
+    }
+
+    /**
+     * Returns the comparator matching a USGS orderby value, or null for an unknown value.
+     */
+    public static Comparator<Earthquake> comparatorForOrderBy(String orderBy) {
+        if (orderBy == null || "time".equals(orderBy)) {
+            // USGS orders by time, newest first, when orderby is not given
+            return new Comparator<Earthquake>() {
+                @Override
+                public int compare(Earthquake a, Earthquake b) {
+                    return compareLongs(b.getTimeInMilliseconds(), a.getTimeInMilliseconds());
+                }
+            };
+        } else if ("time-asc".equals(orderBy)) {
+            return new Comparator<Earthquake>() {
+                @Override
+                public int compare(Earthquake a, Earthquake b) {
+                    return compareLongs(a.getTimeInMilliseconds(), b.getTimeInMilliseconds());
+                }
+            };
+        } else if ("magnitude".equals(orderBy)) {
+            return new Comparator<Earthquake>() {
+                @Override
+                public int compare(Earthquake a, Earthquake b) {
+                    return Double.compare(b.getMagnitude(), a.getMagnitude());
+                }
+            };
+        } else if ("magnitude-asc".equals(orderBy)) {
+            return new Comparator<Earthquake>() {
+                @Override
+                public int compare(Earthquake a, Earthquake b) {
+                    return Double.compare(a.getMagnitude(), b.getMagnitude());
+                }
+            };
+        }
+        return null;
+    }
+
+    /**
+     * Returns the URL with the query parameter appended. The value must not need encoding.
+     */
+    public static String appendQueryParameter(String url, String name, String value) {
+        return url + (url.indexOf('?') < 0 ? '?' : '&') + name + '=' + value;
+    }
+
+    /**
+     * Returns the raw value of a query parameter in the URL, or null if it is not present.
+     * The parameters built by EarthquakeActivity never need decoding.
+     */
+    public static String getQueryParameter(String url, String name) {
+        int queryStart = url.indexOf('?');
+        if (queryStart < 0) {
+            return null;
+        }
+        String[] pairs = url.substring(queryStart + 1).split("&");
+        for (String pair : pairs) {
+            int equals = pair.indexOf('=');
+            String key = equals < 0 ? pair : pair.substring(0, equals);
+            if (key.equals(name)) {
+                return equals < 0 ? "" : pair.substring(equals + 1);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the URL without any occurrence of the query parameter.
+     */
+    public static String removeQueryParameter(String url, String name) {
+        int queryStart = url.indexOf('?');
+        if (queryStart < 0) {
+            return url;
+        }
+        StringBuilder builder = new StringBuilder(url.length()).append(url, 0, queryStart);
+        char separator = '?';
+        for (String pair : url.substring(queryStart + 1).split("&")) {
+            int equals = pair.indexOf('=');
+            String key = equals < 0 ? pair : pair.substring(0, equals);
+            if (!key.equals(name) && !pair.isEmpty()) {
+                builder.append(separator).append(pair);
+                separator = '&';
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Returns the names of the query parameters in the URL, in order.
+     */
+    public static List<String> getQueryParameterNames(String url) {
+        List<String> names = new ArrayList<>();
+        int queryStart = url.indexOf('?');
+        if (queryStart < 0) {
+            return names;
+        }
+        for (String pair : url.substring(queryStart + 1).split("&")) {
+            int equals = pair.indexOf('=');
+            if (!pair.isEmpty()) {
+                names.add(equals < 0 ? pair : pair.substring(0, equals));
+            }
+        }
+        return names;
+    }
+
     private static URL createUrl(String stringUrl) {
         Log.v(LOG_TAG, "*************Called createUrl");
         URL url = null;
@@ -135,58 +438,95 @@ public final class QueryUtils {
         return url;
     }
 
-    private static String makeHttpsRequest(URL url) throws IOException {
+    private static Response makeHttpsRequest(URL url, String eTag, long lastModified) throws IOException {
         Log.v(LOG_TAG, "*************Called makeHttpsRequest");
-        String jsonResponse = "";
+        Response response = null;
 
         if (url == null) {
-            return jsonResponse;
+            return response;
         }
 
-        HttpsURLConnection urlConnection = null;
-        InputStream inputStream = null;
+        Map<String, String> headers = new HashMap<>();
+        // GeoJSON compresses very well, so ask for it gzipped
+        headers.put("Accept-Encoding", "gzip");
+        if (eTag != null) {
+            headers.put("If-None-Match", eTag);
+        }
+        if (lastModified > 0) {
+            headers.put("If-Modified-Since", formatHttpDate(lastModified));
+        }
+
+        // The response is closed rather than disconnected, so its connection can be reused
+        HttpResponse httpResponse = null;
 
         try {
-            urlConnection = (HttpsURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.setReadTimeout(15000);
-            urlConnection.setConnectTimeout(10000);
-            urlConnection.connect();
-
-            if(urlConnection.getResponseCode() == HttpsURLConnection.HTTP_OK) {
-                inputStream = urlConnection.getInputStream();
-                jsonResponse = readFromStream(inputStream);
+            REQUEST_COUNTER.increment();
+            long startTime = Metrics.startTime();
+            httpResponse = sTransport.get(url, headers);
+            TIME_TO_FIRST_BYTE_TIMER.stop(startTime);
+
+            int responseCode = httpResponse.getCode();
+            if(responseCode == HttpURLConnection.HTTP_OK) {
+                List<Earthquake> earthquakes = extractFeatureFromJson(httpResponse.getBody(),
+                        getDecodedLength(httpResponse));
+                if (earthquakes != null) {
+                    response = new Response(false, httpResponse.getHeader("ETag"),
+                            parseHttpDate(httpResponse.getHeader("Last-Modified")), earthquakes);
+                }
+            } else if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                NOT_MODIFIED_COUNTER.increment();
+                // Servers may omit the validators on a 304, so keep the ones we sent
+                String newETag = httpResponse.getHeader("ETag");
+                long newLastModified = parseHttpDate(httpResponse.getHeader("Last-Modified"));
+                response = new Response(true, newETag != null ? newETag : eTag,
+                        newLastModified > 0 ? newLastModified : lastModified, null);
             } else {
-                Log.e(LOG_TAG, "Error response code: " + urlConnection.getResponseCode());
+                Log.e(LOG_TAG, "Error response code: " + responseCode);
             }
         } catch (IOException e) {
             Log.e(LOG_TAG, "Problem retrieving the earthquake JSON results.", e);
         } finally {
-            if(urlConnection != null) {
-                urlConnection.disconnect();
-            }
-            if(inputStream != null) {
-                // Closing the input stream could throw an IOException, which is why
-                // the makeHttpRequest(URL url) method signature specifies that an IOException
+            if(httpResponse != null) {
+                // Closing the response could throw an IOException, which is why
+                // the makeHttpsRequest() method signature specifies that an IOException
                 // could be thrown.
-                inputStream.close();
+                try {
+                    httpResponse.close();
+                } finally {
+                    BYTES_READ_COUNTER.add(httpResponse.getBytesReceived());
+                }
             }
         }
 
-        return jsonResponse;
+        return response;
     }
 
-    private static String readFromStream(InputStream inputStream) throws IOException {
-        StringBuilder output = new StringBuilder();
-        if(inputStream != null) {
-            InputStreamReader inputStreamReader = new InputStreamReader(inputStream, Charset.forName("UTF-8"));
-            BufferedReader reader = new BufferedReader(inputStreamReader);
-            String line = reader.readLine();
-            while(line != null) {
-                output.append(line);
-                line = reader.readLine();
-            }
+    /**
+     * Returns the time in milliseconds formatted as an HTTP date (i.e. "Tue, 05 Jan 2016 16:30:00 GMT").
+     */
+    static String formatHttpDate(long timeInMilliseconds) {
+        SimpleDateFormat formatter = new SimpleDateFormat(HTTP_DATE_FORMAT, Locale.US);
+        formatter.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return formatter.format(new Date(timeInMilliseconds));
+    }
+
+    /**
+     * Returns the time in milliseconds of an HTTP date, or 0 if it is missing or malformed.
+     */
+    static long parseHttpDate(String httpDate) {
+        if (httpDate == null) {
+            return 0;
         }
-        return output.toString();
+        SimpleDateFormat formatter = new SimpleDateFormat(HTTP_DATE_FORMAT, Locale.US);
+        formatter.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            return formatter.parse(httpDate).getTime();
+        } catch (ParseException e) {
+            return 0;
+        }
+    }
+
+    private static int compareLongs(long a, long b) {
+        return a < b ? -1 : (a == b ? 0 : 1);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,342 @@
+package com.example.android.quakereport;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Makes sure the same request is not sent twice at once or twice within a few seconds, no matter
+ * how many loaders, screens and syncs ask for it.
+ *
+ * Requests are identified by their normalized URL and the validators sent with them. A request
+ * that is already in flight is joined instead of sent again (single flight), and a response
+ * received less than the time to live ago is answered from a small LRU cache in memory. Failed
+ * requests are only shared with callers that joined them, never cached.
+ *
+ * Requests are sent on a thread of their own rather than on the thread of whoever asked first,
+ * so a caller that is cancelled stops waiting without failing the request for the others. The
+ * request itself is only cancelled once every caller waiting for it was.
+ */
+public class RequestManager {
+
+    private static final String LOG_TAG = RequestManager.class.getSimpleName();
+
+    private static final Metrics.Counter COALESCED_COUNTER = Metrics.counter(Metrics.REQUESTS_COALESCED);
+    private static final Metrics.Counter MEMORY_HIT_COUNTER = Metrics.counter(Metrics.MEMORY_CACHE_HITS);
+
+    /** Default number of responses kept in memory */
+    public static final int DEFAULT_CAPACITY = 16;
+
+    /** Default time a response is answered from memory, in milliseconds */
+    public static final long DEFAULT_TTL_MILLIS = 10 * 1000L;
+
+    /**
+     * Sends a request to the network.
+     */
+    public interface Fetcher {
+        /** Returns the response, or null if the request failed. */
+        QueryUtils.Response fetch(String requestUrl, String eTag, long lastModified);
+    }
+
+    private static ExecutorService sDefaultExecutor;
+
+    private final Fetcher mFetcher;
+    private final int mCapacity;
+    private final long mTtlNanos;
+    private final ExecutorService mExecutor;
+
+    /** Requests being sent by key, guarded by itself */
+    private final Map<String, InFlight> mInFlight = new HashMap<>();
+
+    /** Recent responses in access order, guarded by itself */
+    private final LinkedHashMap<String, CachedResponse> mRecent;
+
+    /**
+     * Constructs a new {@link RequestManager}.
+     *
+     * @param capacity is the number of responses kept in memory
+     * @param ttlMillis is how long a response is answered from memory, 0 to only join requests in flight
+     */
+    public RequestManager(Fetcher fetcher, int capacity, long ttlMillis) {
+        this(fetcher, capacity, ttlMillis, getDefaultExecutor());
+    }
+
+    /**
+     * Constructs a new {@link RequestManager}.
+     *
+     * @param capacity is the number of responses kept in memory
+     * @param ttlMillis is how long a response is answered from memory, 0 to only join requests in flight
+     * @param executor sends the requests. Callers may run on the threads of any other executor,
+     *                 so it must never make a request wait for a thread held by a caller.
+     */
+    public RequestManager(Fetcher fetcher, int capacity, long ttlMillis, ExecutorService executor) {
+        if (capacity <= 0 || ttlMillis < 0) {
+            throw new IllegalArgumentException("Capacity must be positive and ttl not negative");
+        }
+        mFetcher = fetcher;
+        mCapacity = capacity;
+        mTtlNanos = ttlMillis * 1000000L;
+        mExecutor = executor;
+        mRecent = new LinkedHashMap<String, CachedResponse>(capacity * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedResponse> eldest) {
+                return size() > mCapacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the response to the request, sending it only if the same request is neither in
+     * flight nor was answered less than the time to live ago. Returns null if it failed.
+     */
+    public QueryUtils.Response fetch(String requestUrl, String eTag, long lastModified) {
+        return fetch(requestUrl, eTag, lastModified, true);
+    }
+
+    /**
+     * Returns the response to the request like {@link #fetch(String, String, long)}, but only
+     * answers it from memory if allowed. Pollers that want what the server has now still join
+     * a request in flight, as it is no older than their own would be.
+     */
+    public QueryUtils.Response fetch(final String requestUrl, final String eTag, final long lastModified,
+                                     boolean allowRecent) {
+        final String key = keyOf(requestUrl, eTag, lastModified);
+
+        QueryUtils.Response recent = allowRecent ? getRecent(key) : null;
+        if (recent != null) {
+            MEMORY_HIT_COUNTER.increment();
+            return recent;
+        }
+
+        InFlight inFlight;
+        boolean joined;
+        synchronized (mInFlight) {
+            inFlight = mInFlight.get(key);
+            joined = inFlight != null;
+            if (!joined) {
+                inFlight = new InFlight(key, requestUrl, eTag, lastModified);
+                mInFlight.put(key, inFlight);
+            }
+            inFlight.callers++;
+        }
+        if (joined) {
+            if (Log.isLoggable(LOG_TAG, Log.VERBOSE)) {
+                Log.v(LOG_TAG, "*************Joining request in flight " + requestUrl);
+            }
+            COALESCED_COUNTER.increment();
+        } else {
+            mExecutor.execute(inFlight.task);
+        }
+        return await(inFlight);
+    }
+
+    /**
+     * Forgets the responses kept in memory, i.e. when the user asks for fresh data.
+     */
+    public void clear() {
+        synchronized (mRecent) {
+            mRecent.clear();
+        }
+    }
+
+    private QueryUtils.Response getRecent(String key) {
+        synchronized (mRecent) {
+            CachedResponse cached = mRecent.get(key);
+            if (cached == null) {
+                return null;
+            }
+            if (System.nanoTime() - cached.receivedNanos >= mTtlNanos) {
+                mRecent.remove(key);
+                return null;
+            }
+            return cached.response;
+        }
+    }
+
+    /**
+     * Returns the app-wide executor requests are sent on. It starts a thread for every request
+     * that finds none idle, as callers are already bounded by their own executors, and its
+     * threads are daemon threads, so an idle pool never keeps the process alive.
+     */
+    public static synchronized ExecutorService getDefaultExecutor() {
+        if (sDefaultExecutor == null) {
+            final AtomicInteger threadNumber = new AtomicInteger();
+            sDefaultExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 30, TimeUnit.SECONDS,
+                    new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable,
+                                    "RequestManager #" + threadNumber.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+        }
+        return sDefaultExecutor;
+    }
+
+    private QueryUtils.Response await(InFlight inFlight) {
+        try {
+            return inFlight.task.get();
+        } catch (InterruptedException e) {
+            // The caller was cancelled, the request goes on as long as others wait for it
+            leave(inFlight);
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (CancellationException e) {
+            return null;
+        } catch (ExecutionException e) {
+            Log.e(LOG_TAG, "Problem fetching the earthquake data.", e.getCause());
+            return null;
+        }
+    }
+
+    /**
+     * Stops a caller waiting for the request, cancelling the request if it was the last one.
+     */
+    private void leave(InFlight inFlight) {
+        synchronized (mInFlight) {
+            if (--inFlight.callers > 0) {
+                return;
+            }
+            // Nobody can join a cancelled request
+            if (mInFlight.get(inFlight.key) == inFlight) {
+                mInFlight.remove(inFlight.key);
+            }
+        }
+        Log.v(LOG_TAG, "*************Canceling request nobody waits for");
+        inFlight.task.cancel(true);
+    }
+
+    /**
+     * Makes the earthquakes of a response read only, as it is handed to several callers.
+     */
+    private static QueryUtils.Response share(QueryUtils.Response response) {
+        if (response == null || response.earthquakes == null) {
+            return response;
+        }
+        return new QueryUtils.Response(response.notModified, response.eTag, response.lastModified,
+                Collections.unmodifiableList(response.earthquakes));
+    }
+
+    private static String keyOf(String requestUrl, String eTag, long lastModified) {
+        return normalizeUrl(requestUrl) + ' ' + eTag + ' ' + lastModified;
+    }
+
+    /**
+     * Returns the URL with the scheme and host in lower case, the fragment dropped and the query
+     * parameters sorted by name, so URLs that only differ in spelling share their requests.
+     * Parameters with the same name keep their order.
+     */
+    static String normalizeUrl(String url) {
+        if (url == null) {
+            return null;
+        }
+        int fragment = url.indexOf('#');
+        if (fragment >= 0) {
+            url = url.substring(0, fragment);
+        }
+
+        int query = url.indexOf('?');
+        String base = query >= 0 ? url.substring(0, query) : url;
+        int schemeEnd = base.indexOf("://");
+        if (schemeEnd >= 0) {
+            int hostEnd = base.indexOf('/', schemeEnd + 3);
+            if (hostEnd < 0) {
+                hostEnd = base.length();
+            }
+            base = base.substring(0, hostEnd).toLowerCase(Locale.US) + base.substring(hostEnd);
+        }
+        if (query < 0 || query == url.length() - 1) {
+            return base;
+        }
+
+        List<String> parameters = new ArrayList<>();
+        for (String parameter : url.substring(query + 1).split("&")) {
+            if (!parameter.isEmpty()) {
+                parameters.add(parameter);
+            }
+        }
+        // Collections.sort is stable, so repeated parameters keep their order
+        Collections.sort(parameters, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                return nameOf(a).compareTo(nameOf(b));
+            }
+        });
+
+        StringBuilder normalized = new StringBuilder(url.length());
+        normalized.append(base);
+        for (int i = 0; i < parameters.size(); i++) {
+            normalized.append(i == 0 ? '?' : '&').append(parameters.get(i));
+        }
+        return normalized.toString();
+    }
+
+    private static String nameOf(String parameter) {
+        int equals = parameter.indexOf('=');
+        return equals >= 0 ? parameter.substring(0, equals) : parameter;
+    }
+
+    /**
+     * A request being sent and the number of callers waiting for it.
+     */
+    private final class InFlight {
+        final String key;
+        final FutureTask<QueryUtils.Response> task;
+
+        /** Callers waiting for the response, guarded by mInFlight */
+        int callers;
+
+        InFlight(final String key, final String requestUrl, final String eTag, final long lastModified) {
+            this.key = key;
+            this.task = new FutureTask<>(new Callable<QueryUtils.Response>() {
+                @Override
+                public QueryUtils.Response call() {
+                    try {
+                        QueryUtils.Response response = share(mFetcher.fetch(requestUrl, eTag, lastModified));
+                        if (response != null && mTtlNanos > 0) {
+                            synchronized (mRecent) {
+                                mRecent.put(key, new CachedResponse(response, System.nanoTime()));
+                            }
+                        }
+                        return response;
+                    } finally {
+                        synchronized (mInFlight) {
+                            if (mInFlight.get(key) == InFlight.this) {
+                                mInFlight.remove(key);
+                            }
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    private static final class CachedResponse {
+        final QueryUtils.Response response;
+        final long receivedNanos;
+
+        CachedResponse(QueryUtils.Response response, long receivedNanos) {
+            this.response = response;
+            this.receivedNanos = receivedNanos;
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package com.example.android.quakereport;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fetches a long time window from USGS as several smaller requests.
+ *
+ * The window is split into shards by starttime/endtime, the shards are fetched at bounded
+ * concurrency on a dedicated executor, each with its own retries, and the results are merged
+ * back into the order the query asks for with duplicate event ids removed. A fetch can be
+ * cancelled from another thread, for example when its {@link EarthquakeLoader} is reset.
+ */
+public class ShardedFetcher {
+
+    private static final String LOG_TAG = ShardedFetcher.class.getSimpleName();
+
+    /**
+     * Fetches the earthquakes for a single shard URL.
+     */
+    public interface Source {
+        /**
+         * Returns the earthquakes for the URL, or null if the request failed.
+         */
+        List<Earthquake> fetch(String requestUrl);
+    }
+
+    /** Number of shards fetched at the same time by the default executor */
+    public static final int DEFAULT_PARALLELISM = 4;
+
+    /** Number of times a shard is tried before the whole fetch gives up */
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+    /** Time window covered by one shard when the shard count is derived from the window */
+    public static final long DEFAULT_SHARD_SPAN_MILLIS = 30L * 24 * 60 * 60 * 1000;
+
+    /** Delay before the first retry of a shard, doubled on every further retry */
+    private static final long RETRY_DELAY_MILLIS = 500;
+
+    private static ExecutorService sDefaultExecutor;
+
+    private final Source mSource;
+    private final ExecutorService mExecutor;
+    private final int mMaxAttempts;
+
+    /** Shards of the fetch in progress, so they can be cancelled */
+    private final List<Future<List<Earthquake>>> mShards = new ArrayList<>();
+
+    private volatile boolean mCanceled;
+
+    /**
+     * Constructs a new {@link ShardedFetcher} on the default executor.
+     *
+     * @param source fetches a single shard
+     */
+    public ShardedFetcher(Source source) {
+        this(source, getDefaultExecutor(), DEFAULT_MAX_ATTEMPTS);
+    }
+
+    /**
+     * Constructs a new {@link ShardedFetcher}.
+     *
+     * @param source fetches a single shard
+     * @param executor runs the shards, its pool size bounds how many are fetched at once
+     * @param maxAttempts is how many times a shard is tried before the fetch gives up
+     */
+    public ShardedFetcher(Source source, ExecutorService executor, int maxAttempts) {
+        mSource = source;
+        mExecutor = executor;
+        mMaxAttempts = maxAttempts;
+    }
+
+    /**
+     * Returns the app-wide executor for shard requests. Its threads are daemon threads,
+     * so an idle pool never keeps the process alive.
+     */
+    public static synchronized ExecutorService getDefaultExecutor() {
+        if (sDefaultExecutor == null) {
+            final AtomicInteger threadNumber = new AtomicInteger();
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(DEFAULT_PARALLELISM,
+                    DEFAULT_PARALLELISM, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable,
+                                    "ShardedFetcher #" + threadNumber.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            executor.allowCoreThreadTimeOut(true);
+            sDefaultExecutor = executor;
+        }
+        return sDefaultExecutor;
+    }
+
+    /**
+     * Returns how many shards a window should be split into so that no shard covers more
+     * than {@link #DEFAULT_SHARD_SPAN_MILLIS}.
+     */
+    public static int shardCountFor(long startTime, long endTime) {
+        long span = Math.max(0L, endTime - startTime);
+        return (int) Math.max(1L, (span + DEFAULT_SHARD_SPAN_MILLIS - 1) / DEFAULT_SHARD_SPAN_MILLIS);
+    }
+
+    /**
+     * Splits the window into shards of equal length and returns the query URL of each,
+     * oldest first. The base URL must not carry its own starttime or endtime.
+     */
+    public static List<String> buildShardUrls(String baseUrl, long startTime, long endTime,
+                                              int shardCount) {
+        List<String> urls = new ArrayList<>(shardCount);
+        long span = endTime - startTime;
+        for (int i = 0; i < shardCount; i++) {
+            long shardStart = startTime + span * i / shardCount;
+            long shardEnd = startTime + span * (i + 1) / shardCount;
+            String url = QueryUtils.appendQueryParameter(baseUrl, "starttime",
+                    QueryUtils.formatQueryTime(shardStart));
+            urls.add(QueryUtils.appendQueryParameter(url, "endtime",
+                    QueryUtils.formatQueryTime(shardEnd)));
+        }
+        return urls;
+    }
+
+    /**
+     * Fetches the window in shards and returns the merged earthquakes, in the order given by
+     * the base URL's orderby, without duplicates. Any limit in the base URL is sent with each
+     * shard and applied again to the merged result, so it holds as many earthquakes as a single
+     * request for the whole window would. Returns null if the fetch was cancelled or a shard
+     * still failed after its retries.
+     */
+    public List<Earthquake> fetch(String baseUrl, long startTime, long endTime, int shardCount) {
+        List<String> urls = buildShardUrls(baseUrl, startTime, endTime, shardCount);
+        List<Future<List<Earthquake>>> shards = new ArrayList<>(urls.size());
+        synchronized (mShards) {
+            if (mCanceled) {
+                return null;
+            }
+            for (final String url : urls) {
+                shards.add(mExecutor.submit(new Callable<List<Earthquake>>() {
+                    @Override
+                    public List<Earthquake> call() throws Exception {
+                        return fetchShard(url);
+                    }
+                }));
+            }
+            mShards.addAll(shards);
+        }
+
+        List<List<Earthquake>> results = new ArrayList<>(urls.size());
+        try {
+            for (Future<List<Earthquake>> shard : shards) {
+                List<Earthquake> result = shard.get();
+                if (result == null) {
+                    cancelAll(shards);
+                    return null;
+                }
+                results.add(result);
+            }
+        } catch (InterruptedException e) {
+            cancelAll(shards);
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (CancellationException e) {
+            return null;
+        } catch (ExecutionException e) {
+            Log.e(LOG_TAG, "Problem fetching a shard", e.getCause());
+            cancelAll(shards);
+            return null;
+        } finally {
+            synchronized (mShards) {
+                mShards.removeAll(shards);
+            }
+        }
+
+        List<Earthquake> merged = merge(results, QueryUtils.comparatorForOrderBy(
+                QueryUtils.getQueryParameter(baseUrl, "orderby")));
+        int limit = parseLimit(QueryUtils.getQueryParameter(baseUrl, "limit"));
+        // Every shard returned its own first rows, so the first rows of the whole window are
+        // among them
+        return limit >= 0 && merged.size() > limit ? new ArrayList<>(merged.subList(0, limit)) : merged;
+    }
+
+    /**
+     * Returns the value of a limit parameter, or -1 if there is none.
+     */
+    private static int parseLimit(String limit) {
+        if (limit == null) {
+            return -1;
+        }
+        try {
+            return Math.max(0, Integer.parseInt(limit));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Cancels the fetch in progress, and any later one, interrupting shards that are running.
+     */
+    public void cancel() {
+        synchronized (mShards) {
+            mCanceled = true;
+            cancelAll(mShards);
+        }
+    }
+
+    private static void cancelAll(List<Future<List<Earthquake>>> shards) {
+        for (Future<List<Earthquake>> shard : shards) {
+            shard.cancel(true);
+        }
+    }
+
+    /**
+     * Returns true if {@link #cancel()} has been called.
+     */
+    public boolean isCanceled() {
+        return mCanceled;
+    }
+
+    /**
+     * Fetches one shard, retrying with exponential backoff. Returns null if every attempt
+     * failed or the fetch was cancelled.
+     */
+    private List<Earthquake> fetchShard(String url) throws InterruptedException {
+        long delay = RETRY_DELAY_MILLIS;
+        for (int attempt = 1; attempt <= mMaxAttempts && !mCanceled; attempt++) {
+            List<Earthquake> earthquakes = mSource.fetch(url);
+            if (earthquakes != null) {
+                return earthquakes;
+            }
+            Log.w(LOG_TAG, "Shard attempt " + attempt + " failed: " + url);
+            if (attempt < mMaxAttempts) {
+                Thread.sleep(delay);
+                delay *= 2;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Merges shards that are each sorted by the comparator into one sorted list, dropping
+     * events whose id was already seen. Without a comparator the shards are concatenated.
+     */
+    static List<Earthquake> merge(List<List<Earthquake>> shards, final Comparator<Earthquake> order) {
+        int total = 0;
+        for (List<Earthquake> shard : shards) {
+            total += shard.size();
+        }
+        List<Earthquake> merged = new ArrayList<>(total);
+        Set<String> seenIds = new HashSet<>(total);
+
+        if (order == null) {
+            for (List<Earthquake> shard : shards) {
+                for (Earthquake earthquake : shard) {
+                    if (seenIds.add(earthquake.getId())) {
+                        merged.add(earthquake);
+                    }
+                }
+            }
+            return merged;
+        }
+
+        // k-way merge over the heads of the shards. Ties go to the earlier shard, so the
+        // result does not depend on the order the shards finished in.
+        final List<List<Earthquake>> lists = shards;
+        PriorityQueue<int[]> heads = new PriorityQueue<>(Math.max(1, shards.size()), new Comparator<int[]>() {
+            @Override
+            public int compare(int[] a, int[] b) {
+                int result = order.compare(lists.get(a[0]).get(a[1]), lists.get(b[0]).get(b[1]));
+                return result != 0 ? result : a[0] - b[0];
+            }
+        });
+        for (int i = 0; i < shards.size(); i++) {
+            if (!shards.get(i).isEmpty()) {
+                heads.add(new int[] {i, 0});
+            }
+        }
+        while (!heads.isEmpty()) {
+            int[] head = heads.poll();
+            List<Earthquake> shard = shards.get(head[0]);
+            Earthquake earthquake = shard.get(head[1]);
+            if (seenIds.add(earthquake.getId())) {
+                merged.add(earthquake);
+            }
+            if (++head[1] < shard.size()) {
+                heads.add(head);
+            }
+        }
+        return merged;
+    }
+}
@@ -0,0 +1,306 @@
+package com.example.android.quakereport;
+
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+/**
+ * Decides when a background sync runs: every interval while things go well, backing off
+ * exponentially with jitter after failures, never while offline, and never twice at once.
+ *
+ * Requests that arrive while a sync is running are coalesced into a single follow-up sync.
+ * Time, connectivity and the thread syncs run on are all supplied from outside, so the schedule
+ * can be driven step by step with a fake clock on the JVM.
+ */
+public class SyncScheduler {
+
+    /**
+     * Tells the time and runs callbacks after a delay, like a {@link android.os.Handler}.
+     */
+    public interface Clock {
+        /** Returns the current time in milliseconds. Only differences between values matter. */
+        long now();
+
+        void postDelayed(Runnable callback, long delayMillis);
+
+        void removeCallbacks(Runnable callback);
+    }
+
+    /**
+     * Tells whether the network can be used.
+     */
+    public interface Connectivity {
+        boolean isConnected();
+    }
+
+    /**
+     * The work to do. Runs on the scheduler's executor.
+     */
+    public interface SyncTask {
+        /** Returns true if the sync succeeded, false to have it retried after a backoff. */
+        boolean sync();
+    }
+
+    /** Default time between two successful syncs, in milliseconds */
+    public static final long DEFAULT_INTERVAL_MILLIS = 15 * 60 * 1000L;
+
+    /** Default backoff after the first failure, doubled with every further failure */
+    public static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 30 * 1000L;
+
+    /** Default longest backoff */
+    public static final long DEFAULT_MAX_BACKOFF_MILLIS = 30 * 60 * 1000L;
+
+    private final SyncTask mTask;
+    private final Clock mClock;
+    private final Executor mExecutor;
+    private final Connectivity mConnectivity;
+    private final Random mRandom;
+
+    private long mIntervalMillis = DEFAULT_INTERVAL_MILLIS;
+    private long mInitialBackoffMillis = DEFAULT_INITIAL_BACKOFF_MILLIS;
+    private long mMaxBackoffMillis = DEFAULT_MAX_BACKOFF_MILLIS;
+
+    private boolean mStarted;
+    private boolean mRunning;
+
+    /** True if a sync was asked for while one was running */
+    private boolean mRequested;
+
+    /** True if a sync is due but was held back because the device is offline */
+    private boolean mWaitingForConnectivity;
+
+    private int mConsecutiveFailures;
+    private long mLastSuccessTime = Long.MIN_VALUE;
+    private long mNextSyncTime = Long.MIN_VALUE;
+
+    private final Runnable mTick = new Runnable() {
+        @Override
+        public void run() {
+            onTick();
+        }
+    };
+
+    private final Runnable mSync = new Runnable() {
+        @Override
+        public void run() {
+            boolean succeeded = false;
+            try {
+                succeeded = mTask.sync();
+            } finally {
+                onSyncFinished(succeeded);
+            }
+        }
+    };
+
+    /**
+     * Constructs a new {@link SyncScheduler}.
+     *
+     * @param executor runs the syncs, usually a background thread
+     * @param random picks the jitter added to backoffs
+     */
+    public SyncScheduler(SyncTask task, Clock clock, Executor executor, Connectivity connectivity,
+                         Random random) {
+        mTask = task;
+        mClock = clock;
+        mExecutor = executor;
+        mConnectivity = connectivity;
+        mRandom = random;
+    }
+
+    /**
+     * Sets the time between two successful syncs. Takes effect when the next sync is scheduled.
+     */
+    public synchronized void setIntervalMillis(long intervalMillis) {
+        if (intervalMillis <= 0) {
+            throw new IllegalArgumentException("Interval must be positive");
+        }
+        mIntervalMillis = intervalMillis;
+    }
+
+    /**
+     * Sets the backoff after the first failure and the longest backoff.
+     */
+    public synchronized void setBackoffMillis(long initialBackoffMillis, long maxBackoffMillis) {
+        if (initialBackoffMillis <= 0 || maxBackoffMillis < initialBackoffMillis) {
+            throw new IllegalArgumentException("Backoff must be positive and at most the maximum");
+        }
+        mInitialBackoffMillis = initialBackoffMillis;
+        mMaxBackoffMillis = maxBackoffMillis;
+    }
+
+    /**
+     * Starts syncing. The first sync runs at once unless the last successful one is less than
+     * an interval ago.
+     */
+    public void start() {
+        boolean syncNow;
+        synchronized (this) {
+            if (mStarted) {
+                return;
+            }
+            mStarted = true;
+            long sinceLastSuccess = mLastSuccessTime == Long.MIN_VALUE
+                    ? Long.MAX_VALUE : mClock.now() - mLastSuccessTime;
+            if (mRunning || sinceLastSuccess < mIntervalMillis) {
+                if (!mRunning) {
+                    schedule(mIntervalMillis - sinceLastSuccess);
+                }
+                return;
+            }
+            syncNow = prepareSync();
+        }
+        if (syncNow) {
+            mExecutor.execute(mSync);
+        }
+    }
+
+    /**
+     * Stops syncing. A sync already running finishes, but nothing is scheduled after it.
+     */
+    public synchronized void stop() {
+        mStarted = false;
+        mRequested = false;
+        mWaitingForConnectivity = false;
+        mClock.removeCallbacks(mTick);
+        mNextSyncTime = Long.MIN_VALUE;
+    }
+
+    /**
+     * Asks for a sync as soon as possible. While a sync is running, any number of requests
+     * result in exactly one more sync once it finishes.
+     */
+    public void requestSync() {
+        boolean syncNow;
+        synchronized (this) {
+            if (!mStarted) {
+                return;
+            }
+            if (mRunning) {
+                mRequested = true;
+                return;
+            }
+            syncNow = prepareSync();
+        }
+        if (syncNow) {
+            mExecutor.execute(mSync);
+        }
+    }
+
+    /**
+     * Tells the scheduler that connectivity may have changed, so a sync held back while
+     * offline can run.
+     */
+    public void onConnectivityChanged() {
+        boolean syncNow;
+        synchronized (this) {
+            if (!mStarted || mRunning || !mWaitingForConnectivity) {
+                return;
+            }
+            syncNow = prepareSync();
+        }
+        if (syncNow) {
+            mExecutor.execute(mSync);
+        }
+    }
+
+    public synchronized boolean isRunning() {
+        return mRunning;
+    }
+
+    public synchronized int getConsecutiveFailures() {
+        return mConsecutiveFailures;
+    }
+
+    /**
+     * Returns the clock time of the next scheduled sync, or {@link Long#MIN_VALUE} if none is
+     * scheduled, i.e. while a sync runs or while waiting for connectivity.
+     */
+    public synchronized long getNextSyncTime() {
+        return mNextSyncTime;
+    }
+
+    /**
+     * Returns true if a sync is due but held back until the device is online.
+     */
+    public synchronized boolean isWaitingForConnectivity() {
+        return mWaitingForConnectivity;
+    }
+
+    private void onTick() {
+        boolean syncNow;
+        synchronized (this) {
+            if (!mStarted || mRunning) {
+                return;
+            }
+            syncNow = prepareSync();
+        }
+        if (syncNow) {
+            mExecutor.execute(mSync);
+        }
+    }
+
+    /**
+     * Marks a sync as running and returns true, or returns false and waits for connectivity
+     * if the device is offline. Must be called with the lock held.
+     */
+    private boolean prepareSync() {
+        mClock.removeCallbacks(mTick);
+        mNextSyncTime = Long.MIN_VALUE;
+        if (!mConnectivity.isConnected()) {
+            mWaitingForConnectivity = true;
+            return false;
+        }
+        mWaitingForConnectivity = false;
+        mRunning = true;
+        mRequested = false;
+        return true;
+    }
+
+    private void onSyncFinished(boolean succeeded) {
+        boolean syncNow = false;
+        synchronized (this) {
+            mRunning = false;
+            if (succeeded) {
+                mConsecutiveFailures = 0;
+                mLastSuccessTime = mClock.now();
+            } else {
+                mConsecutiveFailures++;
+            }
+            if (!mStarted) {
+                return;
+            }
+            if (succeeded && mRequested) {
+                // Requests that came in during the sync may want newer data than it fetched
+                syncNow = prepareSync();
+            } else {
+                // A failed sync is not retried early, however often it was requested
+                mRequested = false;
+                schedule(succeeded ? mIntervalMillis : nextBackoffMillis());
+            }
+        }
+        if (syncNow) {
+            mExecutor.execute(mSync);
+        }
+    }
+
+    /**
+     * Returns the backoff after the current number of consecutive failures: the initial backoff
+     * doubled for every failure after the first, capped, with its upper half chosen at random
+     * so that many clients failing together do not retry together.
+     */
+    private long nextBackoffMillis() {
+        int doublings = Math.min(mConsecutiveFailures - 1, 62);
+        long backoff = mInitialBackoffMillis;
+        for (int i = 0; i < doublings && backoff < mMaxBackoffMillis; i++) {
+            backoff *= 2;
+        }
+        backoff = Math.min(backoff, mMaxBackoffMillis);
+        long half = backoff / 2;
+        return backoff - half + (long) (mRandom.nextDouble() * (half + 1));
+    }
+
+    private void schedule(long delayMillis) {
+        mClock.removeCallbacks(mTick);
+        mNextSyncTime = mClock.now() + delayMillis;
+        mClock.postDelayed(mTick, delayMillis);
+    }
+}
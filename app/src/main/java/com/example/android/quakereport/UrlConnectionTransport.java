@@ -0,0 +1,106 @@
+package com.example.android.quakereport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An {@link HttpTransport} built on {@link HttpURLConnection}.
+ *
+ * Connections are never disconnected. Once a response has been read and closed, its connection
+ * goes back to the platform's keep-alive pool and the next request to USGS skips the TCP and
+ * TLS handshakes. Call {@link #setMaxIdleConnections(int)} to change the size of that pool.
+ * A gzip-encoded body is handed over as it arrived and decompressed by {@link HttpResponse}.
+ */
+public class UrlConnectionTransport implements HttpTransport {
+
+    /** Default time to wait for a connection to be established, in milliseconds */
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 10000;
+
+    /** Default time to wait for data to arrive, in milliseconds */
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 15000;
+
+    private static final Metrics.Timer CONNECT_TIMER = Metrics.timer(Metrics.CONNECT_TIME);
+
+    private final int mConnectTimeoutMillis;
+    private final int mReadTimeoutMillis;
+
+    /**
+     * Constructs a new {@link UrlConnectionTransport} with the default timeouts.
+     */
+    public UrlConnectionTransport() {
+        this(DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Constructs a new {@link UrlConnectionTransport}.
+     *
+     * @param connectTimeoutMillis time to wait for a connection, 0 to wait forever
+     * @param readTimeoutMillis time to wait for data, 0 to wait forever
+     */
+    public UrlConnectionTransport(int connectTimeoutMillis, int readTimeoutMillis) {
+        if (connectTimeoutMillis < 0 || readTimeoutMillis < 0) {
+            throw new IllegalArgumentException("Timeouts must not be negative");
+        }
+        mConnectTimeoutMillis = connectTimeoutMillis;
+        mReadTimeoutMillis = readTimeoutMillis;
+    }
+
+    /**
+     * Sets how many idle connections per host the platform keeps alive for reuse. This is a
+     * process-wide setting and should be made before the first request.
+     */
+    public static void setMaxIdleConnections(int maxIdleConnections) {
+        System.setProperty("http.keepAlive", maxIdleConnections > 0 ? "true" : "false");
+        System.setProperty("http.maxConnections", String.valueOf(Math.max(1, maxIdleConnections)));
+    }
+
+    @Override
+    public HttpResponse get(URL url, Map<String, String> headers) throws IOException {
+        long startTime = Metrics.startTime();
+        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        try {
+            urlConnection.setRequestMethod("GET");
+            urlConnection.setConnectTimeout(mConnectTimeoutMillis);
+            urlConnection.setReadTimeout(mReadTimeoutMillis);
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                urlConnection.setRequestProperty(header.getKey(), header.getValue());
+            }
+
+            urlConnection.connect();
+            CONNECT_TIMER.stop(startTime);
+
+            int responseCode = urlConnection.getResponseCode();
+            InputStream body;
+            if (responseCode >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                body = urlConnection.getErrorStream();
+            } else if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED
+                    || responseCode == HttpURLConnection.HTTP_NO_CONTENT) {
+                body = null;
+            } else {
+                body = urlConnection.getInputStream();
+            }
+            return new HttpResponse(responseCode, readHeaders(urlConnection), body);
+        } catch (IOException | RuntimeException e) {
+            // The connection is in an unknown state, so it must not go back to the pool
+            urlConnection.disconnect();
+            throw e;
+        }
+    }
+
+    private static Map<String, String> readHeaders(HttpURLConnection urlConnection) {
+        Map<String, String> headers = new HashMap<>();
+        for (Map.Entry<String, List<String>> header : urlConnection.getHeaderFields().entrySet()) {
+            // The status line is reported under a null key
+            List<String> values = header.getValue();
+            if (header.getKey() != null && values != null && !values.isEmpty()) {
+                headers.put(header.getKey(), values.get(values.size() - 1));
+            }
+        }
+        return headers;
+    }
+}
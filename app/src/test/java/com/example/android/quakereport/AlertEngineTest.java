@@ -0,0 +1,165 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.example.android.quakereport.GeoJsonFixtures.earthquake;
+import static com.example.android.quakereport.GeoJsonFixtures.revised;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AlertEngineTest {
+
+    private static final long MINUTE = 60 * 1000L;
+    private static final long HOUR = 60 * MINUTE;
+    private static final long T0 = 1500000000000L;
+
+    @Test
+    public void plainRule_alertsOncePerEarthquake() {
+        AlertEngine engine = new AlertEngine(100);
+        engine.addRule(new AlertRule("big", AlertRule.minMagnitude(6.0)));
+
+        List<AlertEngine.Alert> alerts = engine.ingest(Arrays.asList(
+                earthquake("us1", 6.5, T0, "Japan"),
+                earthquake("us2", 4.0, T0, "Japan")));
+        assertEquals(1, alerts.size());
+        assertEquals("big", alerts.get(0).getRuleName());
+        assertNull(alerts.get(0).getRegion());
+        assertEquals(Collections.singletonList("us1"), alerts.get(0).getEarthquakeIds());
+
+        // Fetched again unchanged, and updated without changing whether it matches
+        assertTrue(engine.ingest(Collections.singletonList(earthquake("us1", 6.5, T0, "Japan"))).isEmpty());
+        assertTrue(engine.ingest(Collections.singletonList(
+                revised(earthquake("us1", 6.6, T0, "Japan"), T0 + MINUTE))).isEmpty());
+    }
+
+    @Test
+    public void updatedEarthquake_canMeetAPlainRuleLater() {
+        AlertEngine engine = new AlertEngine(100);
+        engine.addRule(new AlertRule("big", AlertRule.minMagnitude(6.0)));
+        engine.ingest(Collections.singletonList(earthquake("us1", 5.8, T0, "Japan")));
+
+        List<AlertEngine.Alert> alerts = engine.ingest(Collections.singletonList(
+                revised(earthquake("us1", 6.1, T0, "Japan"), T0 + MINUTE)));
+
+        assertEquals(1, alerts.size());
+    }
+
+    @Test
+    public void windowedRule_alertsWhenEnoughEarthquakesOfARegionFitTheWindow() {
+        AlertEngine engine = new AlertEngine(100);
+        engine.addRule(new AlertRule("swarm", AlertRule.minMagnitude(3.0), 3, HOUR));
+
+        // Newest first, as USGS sends them. Chile never gets three.
+        List<AlertEngine.Alert> alerts = engine.ingest(Arrays.asList(
+                earthquake("us4", 3.5, T0 + 50 * MINUTE, "Japan"),
+                earthquake("us3", 3.1, T0 + 40 * MINUTE, "Chile"),
+                earthquake("us2", 2.0, T0 + 30 * MINUTE, "Japan"),
+                earthquake("us1", 4.0, T0 + 10 * MINUTE, "Japan"),
+                earthquake("us0", 3.2, T0, "Japan"),
+                earthquake("us9", 3.3, T0 + 5 * MINUTE, "Chile")));
+
+        assertEquals(1, alerts.size());
+        assertEquals("Japan", alerts.get(0).getRegion());
+        assertEquals(Arrays.asList("us0", "us1", "us4"), alerts.get(0).getEarthquakeIds());
+        assertEquals(T0 + 50 * MINUTE, alerts.get(0).getTimeInMilliseconds());
+    }
+
+    @Test
+    public void windowedRule_slidesPastEarthquakesTooLongAgo() {
+        AlertEngine engine = new AlertEngine(100);
+        engine.addRule(new AlertRule("swarm", AlertRule.minMagnitude(3.0), 3, HOUR));
+
+        assertTrue(engine.ingest(Arrays.asList(
+                earthquake("us1", 3.0, T0, "Japan"),
+                earthquake("us2", 3.0, T0 + 2 * HOUR, "Japan"),
+                earthquake("us3", 3.0, T0 + 2 * HOUR + 30 * MINUTE, "Japan"))).isEmpty());
+
+        List<AlertEngine.Alert> alerts = engine.ingest(Collections.singletonList(
+                earthquake("us4", 3.0, T0 + 3 * HOUR, "Japan")));
+
+        assertEquals(1, alerts.size());
+        assertEquals(Arrays.asList("us2", "us3", "us4"), alerts.get(0).getEarthquakeIds());
+    }
+
+    @Test
+    public void windowAfterAnAlert_needsAsManyNewEarthquakes() {
+        AlertEngine engine = new AlertEngine(100);
+        engine.addRule(new AlertRule("pair", AlertRule.minMagnitude(3.0), 2, HOUR));
+
+        assertEquals(1, engine.ingest(Arrays.asList(
+                earthquake("us1", 3.0, T0, "Japan"),
+                earthquake("us2", 3.0, T0 + MINUTE, "Japan"))).size());
+        assertTrue(engine.ingest(Collections.singletonList(
+                earthquake("us3", 3.0, T0 + 2 * MINUTE, "Japan"))).isEmpty());
+        assertEquals(1, engine.ingest(Collections.singletonList(
+                earthquake("us4", 3.0, T0 + 3 * MINUTE, "Japan"))).size());
+    }
+
+    @Test
+    public void lateEarthquake_takesItsPlaceInTheWindow() {
+        AlertEngine engine = new AlertEngine(100);
+        engine.addRule(new AlertRule("swarm", AlertRule.minMagnitude(3.0), 3, HOUR));
+        engine.ingest(Arrays.asList(
+                earthquake("us1", 3.0, T0, "Japan"),
+                earthquake("us3", 3.0, T0 + 40 * MINUTE, "Japan")));
+
+        List<AlertEngine.Alert> alerts = engine.ingest(Collections.singletonList(
+                earthquake("us2", 3.0, T0 + 20 * MINUTE, "Japan")));
+
+        assertEquals(1, alerts.size());
+        assertEquals(Arrays.asList("us1", "us2", "us3"), alerts.get(0).getEarthquakeIds());
+        assertEquals(T0 + 20 * MINUTE, alerts.get(0).getTimeInMilliseconds());
+    }
+
+    @Test
+    public void updatedEarthquakes_areNotCountedInWindowsAgain() {
+        AlertEngine engine = new AlertEngine(100);
+        engine.addRule(new AlertRule("pair", AlertRule.minMagnitude(3.0), 2, HOUR));
+        engine.ingest(Collections.singletonList(earthquake("us1", 3.0, T0, "Japan")));
+
+        assertTrue(engine.ingest(Collections.singletonList(
+                revised(earthquake("us1", 3.2, T0, "Japan"), T0 + MINUTE))).isEmpty());
+    }
+
+    @Test
+    public void listeners_hearEveryAlertUntilTheRuleIsRemoved() {
+        AlertEngine engine = new AlertEngine(100);
+        final List<String> heard = new ArrayList<>();
+        AlertEngine.OnAlertListener listener = new AlertEngine.OnAlertListener() {
+            @Override
+            public void onAlert(AlertEngine.Alert alert) {
+                heard.add(alert.getEarthquakeIds().get(0));
+            }
+        };
+        engine.addListener(listener);
+        engine.addListener(listener);
+        engine.addRule(new AlertRule("near", AlertRule.allOf(AlertRule.inRegion("japan"),
+                AlertRule.withinKm(38.3, 142.4, 100))));
+
+        engine.ingest(Arrays.asList(
+                new Earthquake("us1", 5.0, "10km E of Ishinomaki, Japan", T0, T0, "", false, 141.4, 38.4, 10.0),
+                new Earthquake("us2", 5.0, "Hokkaido, Japan", T0, T0, "", false, 143.0, 42.0, 10.0)));
+        engine.removeRule("near");
+        engine.ingest(Collections.singletonList(
+                new Earthquake("us3", 5.0, "Japan", T0, T0, "", false, 142.4, 38.3, 10.0)));
+
+        assertEquals(Collections.singletonList("us1"), heard);
+    }
+
+    @Test
+    public void deletedEarthquakes_neverAlert() {
+        AlertEngine engine = new AlertEngine(100);
+        engine.addRule(new AlertRule("any", AlertRule.minMagnitude(0.0)));
+
+        assertTrue(engine.ingest(Collections.singletonList(
+                new Earthquake("us1", 5.0, "Japan", T0, T0, "", true, 0.0, 0.0, 10.0))).isEmpty());
+        assertFalse(engine.ingest(Collections.singletonList(earthquake("us2", 5.0, T0, "Japan"))).isEmpty());
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.android.quakereport;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Times code for the benchmark tests. Results are printed rather than asserted, as they depend
+ * on the machine.
+ */
+final class Benchmark {
+
+    /**
+     * The code being timed.
+     */
+    interface Body {
+        void run() throws Exception;
+    }
+
+    /**
+     * Builds the object whose size is measured.
+     */
+    interface Factory {
+        Object create() throws Exception;
+    }
+
+    /** Keeps the object being measured reachable until the heap was measured */
+    private static volatile Object sRetained;
+
+    private Benchmark() {
+    }
+
+    /**
+     * Runs the body a few times to warm up, then returns the median of the timed runs in
+     * nanoseconds.
+     */
+    static long median(int warmups, int runs, Body body) throws Exception {
+        for (int i = 0; i < warmups; i++) {
+            body.run();
+        }
+        long[] nanos = new long[runs];
+        for (int i = 0; i < runs; i++) {
+            long start = System.nanoTime();
+            body.run();
+            nanos[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(nanos);
+        return nanos[runs / 2];
+    }
+
+    /**
+     * Returns the number of bytes the body allocates on the calling thread in one run, or -1 if
+     * the JVM does not count them.
+     */
+    static long allocatedBytes(Body body) throws Exception {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean counting = (com.sun.management.ThreadMXBean) threads;
+        long id = Thread.currentThread().getId();
+        long before = counting.getThreadAllocatedBytes(id);
+        body.run();
+        return counting.getThreadAllocatedBytes(id) - before;
+    }
+
+    /**
+     * Returns roughly how many bytes of heap the object the factory creates keeps reachable,
+     * from the heap in use after collecting garbage before and after creating it. Garbage made
+     * while creating it is not counted.
+     */
+    static long retainedBytes(Factory factory) throws Exception {
+        long before = usedHeapAfterGc();
+        sRetained = factory.create();
+        try {
+            return usedHeapAfterGc() - before;
+        } finally {
+            sRetained = null;
+        }
+    }
+
+    private static long usedHeapAfterGc() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        // A single request may leave garbage behind, so the lowest of a few is taken
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(20);
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+
+    static void report(String name, int size, long nanos) {
+        System.out.println(String.format(Locale.US, "%-40s %8d %10.3f ms", name, size, nanos / 1e6));
+    }
+
+    /**
+     * Reports the time of a run over the given number of items with its throughput and the bytes
+     * it allocated per item.
+     */
+    static void report(String name, int size, long nanos, long bytes) {
+        System.out.println(String.format(Locale.US, "%-40s %8d %10.3f ms %12.0f /s %10.0f B/item",
+                name, size, nanos / 1e6, size * 1e9 / nanos, bytes / (double) size));
+    }
+
+    /**
+     * Reports the bytes held by a structure of the given number of items.
+     */
+    static void reportBytes(String name, int size, long bytes) {
+        System.out.println(String.format(Locale.US, "%-40s %8d %10.1f KB %10.0f B/item",
+                name, size, bytes / 1024.0, bytes / (double) size));
+    }
+}
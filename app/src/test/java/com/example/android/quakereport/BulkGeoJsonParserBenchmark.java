@@ -0,0 +1,66 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Times streaming a response against parsing it whole on 1 to N threads, N being the number of
+ * cores, to find the feature count {@link BulkGeoJsonParser#MIN_FEATURES} from which the
+ * parallel path wins and how it scales with cores.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class BulkGeoJsonParserBenchmark {
+
+    private static final int[] SIZES = {1000, 10000, 20000, 50000, 100000};
+
+    private static final GeoJsonParser.OnEarthquakeParsedListener IGNORE =
+            new GeoJsonParser.OnEarthquakeParsedListener() {
+                @Override
+                public void onEarthquakeParsed(Earthquake earthquake) {
+                }
+            };
+
+    @Test
+    public void streaming_againstParallelOnEveryThreadCount() throws Exception {
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int size : SIZES) {
+            final byte[] json = GeoJsonFixtures.collection(GeoJsonFixtures.table(size, 0).toList())
+                    .getBytes(Charset.forName("UTF-8"));
+            int runs = size >= 50000 ? 5 : 11;
+
+            long streaming = Benchmark.median(3, runs, new Benchmark.Body() {
+                @Override
+                public void run() throws Exception {
+                    GeoJsonParser.parse(new ByteArrayInputStream(json));
+                }
+            });
+            Benchmark.report("Streaming parse", size, streaming);
+
+            for (int threads = 1; threads <= cores; threads++) {
+                // The calling thread parses the first chunk, the pool the others
+                final ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads - 1));
+                final int chunkCount = threads == 1 ? 1 : threads * BulkGeoJsonParser.CHUNKS_PER_THREAD;
+                try {
+                    long parallel = Benchmark.median(3, runs, new Benchmark.Body() {
+                        @Override
+                        public void run() throws Exception {
+                            BulkGeoJsonParser.parse(json, json.length, pool, chunkCount, IGNORE);
+                        }
+                    });
+                    Benchmark.report("Parallel parse on " + threads + " of " + cores + " cores", size,
+                            parallel);
+                } finally {
+                    pool.shutdownNow();
+                }
+            }
+        }
+    }
+}
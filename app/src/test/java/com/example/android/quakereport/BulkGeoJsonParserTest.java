@@ -0,0 +1,158 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class BulkGeoJsonParserTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private ExecutorService mExecutor;
+
+    @Before
+    public void setUp() {
+        mExecutor = Executors.newFixedThreadPool(3);
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void parallelParse_agreesWithStreaming() throws IOException {
+        byte[] json = GeoJsonFixtures.collection(GeoJsonFixtures.table(1000, 0).toList()).getBytes(UTF_8);
+
+        List<Earthquake> streamed = GeoJsonParser.parse(new ByteArrayInputStream(json));
+        List<Earthquake> parallel = parseInParallel(json, json.length, 7);
+
+        assertEquals(1000, streamed.size());
+        assertSameEarthquakes(streamed, parallel);
+    }
+
+    @Test
+    public void parallelParse_onlyReadsTheGivenLength() throws IOException {
+        byte[] json = GeoJsonFixtures.collection(GeoJsonFixtures.table(50, 0).toList()).getBytes(UTF_8);
+        byte[] buffer = Arrays.copyOf(json, json.length + 100);
+        Arrays.fill(buffer, json.length, buffer.length, (byte) '{');
+
+        assertSameEarthquakes(GeoJsonParser.parse(new ByteArrayInputStream(json)),
+                parseInParallel(buffer, json.length, 4));
+    }
+
+    @Test
+    public void parallelParse_fallsBackToStreamingForUnexpectedLayouts() throws IOException {
+        // Only the top-level features array counts, and the response misses its closing brace
+        String json = "{\"metadata\":{\"features\":[1]},\"features\":[" + GeoJsonFixtures.feature(
+                GeoJsonFixtures.earthquake("us1", 5.0, 1000L, 1.0, 2.0)) + "]";
+        byte[] truncated = json.getBytes(UTF_8);
+
+        try {
+            parseInParallel(truncated, truncated.length, 4);
+            fail("Truncated response parsed");
+        } catch (IOException expected) {
+            // Thrown by the streaming parser it fell back to
+        }
+        byte[] whole = (json + "}").getBytes(UTF_8);
+        assertEquals(1, parseInParallel(whole, whole.length, 4).size());
+    }
+
+    @Test
+    public void failedChunk_failsLikeStreamingAfterHandingOnTheChunksBefore() throws IOException {
+        List<Earthquake> earthquakes = GeoJsonFixtures.table(400, 0).toList();
+        String json = GeoJsonFixtures.collection(earthquakes);
+        // The time of feature 300 is not a number
+        String bad = "\"time\":" + earthquakes.get(300).getTimeInMilliseconds() + ",";
+        int at = json.indexOf(bad);
+        assertTrue(at > 0);
+        byte[] broken = (json.substring(0, at) + "\"time\":\"soon\"," + json.substring(at + bad.length()))
+                .getBytes(UTF_8);
+
+        List<Earthquake> streamed = new ArrayList<>();
+        RuntimeException streamingFailure = null;
+        try {
+            GeoJsonParser.parse(new InputStreamReader(new ByteArrayInputStream(broken), UTF_8),
+                    collector(streamed));
+        } catch (RuntimeException e) {
+            streamingFailure = e;
+        }
+
+        List<Earthquake> parallel = new ArrayList<>();
+        RuntimeException parallelFailure = null;
+        try {
+            BulkGeoJsonParser.parse(broken, broken.length, mExecutor, 4, collector(parallel));
+        } catch (RuntimeException e) {
+            parallelFailure = e;
+        }
+
+        assertTrue(streamingFailure instanceof NumberFormatException || streamingFailure instanceof IllegalStateException);
+        assertEquals(streamingFailure.getClass(), parallelFailure.getClass());
+        // Both stop at the bad feature; the parallel parser only hands on whole chunks before it
+        assertEquals(300, streamed.size());
+        assertEquals(300, parallel.size());
+        assertSameEarthquakes(streamed, parallel);
+    }
+
+    @Test
+    public void peekFeatureCount_findsTheCountInTheMetadata() {
+        byte[] head = "{\"type\":\"FeatureCollection\",\"metadata\":{\"count\": 12345,\"status\":200}".getBytes(UTF_8);
+
+        assertEquals(12345, BulkGeoJsonParser.peekFeatureCount(head, head.length));
+        // Cut off part way through the number
+        assertEquals(-1, BulkGeoJsonParser.peekFeatureCount(head, head.length - 20));
+        assertEquals(-1, BulkGeoJsonParser.peekFeatureCount(head, 10));
+    }
+
+    private List<Earthquake> parseInParallel(byte[] json, int length, int chunks) throws IOException {
+        List<Earthquake> earthquakes = new ArrayList<>();
+        BulkGeoJsonParser.parse(json, length, mExecutor, chunks, collector(earthquakes));
+        return earthquakes;
+    }
+
+    private static GeoJsonParser.OnEarthquakeParsedListener collector(final List<Earthquake> earthquakes) {
+        return new GeoJsonParser.OnEarthquakeParsedListener() {
+            @Override
+            public void onEarthquakeParsed(Earthquake earthquake) {
+                earthquakes.add(earthquake);
+            }
+        };
+    }
+
+    static void assertSameEarthquakes(List<Earthquake> expected, List<Earthquake> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Earthquake a = expected.get(i);
+            Earthquake b = actual.get(i);
+            assertEquals(a.getId(), b.getId());
+            assertEquals(a.getMagnitude(), b.getMagnitude(), 0.0);
+            assertEquals(a.getLocation(), b.getLocation());
+            assertEquals(a.getTimeInMilliseconds(), b.getTimeInMilliseconds());
+            assertEquals(a.getUpdatedInMilliseconds(), b.getUpdatedInMilliseconds());
+            assertEquals(a.getWebsite(), b.getWebsite());
+            assertEquals(a.isDeleted(), b.isDeleted());
+            assertEquals(a.getLongitude(), b.getLongitude(), 0.0);
+            assertEquals(a.getLatitude(), b.getLatitude(), 0.0);
+            assertEquals(a.getDepth(), b.getDepth(), 0.0);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static com.example.android.quakereport.GeoJsonFixtures.earthquake;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ClusterPyramidTest {
+
+    @Test
+    public void removingTheBiggest_recomputesTheMaximumOnEveryLevel() {
+        ClusterPyramid pyramid = new ClusterPyramid(6);
+        Earthquake biggest = earthquake("us1", 7.1, 0L, 142.37, 38.30);
+        Earthquake twin = earthquake("us2", 7.1, 0L, 142.38, 38.31);
+        Earthquake nearby = earthquake("us3", 5.4, 0L, 142.80, 38.60);
+        Earthquake farther = earthquake("us4", 6.2, 0L, 145.00, 41.00);
+        for (Earthquake earthquake : new Earthquake[]{biggest, twin, nearby, farther}) {
+            pyramid.add(earthquake);
+        }
+
+        pyramid.remove(biggest);
+        assertEquals(7.1, biggestAt(pyramid, 0), 0.0);
+        assertEquals(7.1, biggestAt(pyramid, 6), 0.0);
+
+        pyramid.remove(twin);
+        for (int zoom = 0; zoom <= 6; zoom++) {
+            // The cell of the two removed keeps the next biggest of its own earthquakes
+            boolean together = ClusterPyramid.cellX(nearby.getLongitude(), zoom)
+                    == ClusterPyramid.cellX(farther.getLongitude(), zoom)
+                    && ClusterPyramid.cellY(nearby.getLatitude(), zoom)
+                    == ClusterPyramid.cellY(farther.getLatitude(), zoom);
+            assertEquals("zoom " + zoom, together ? 6.2 : 5.4, maxMagnitudeAt(pyramid, zoom, nearby), 0.0);
+        }
+        assertEquals(5.4, maxMagnitudeAt(pyramid, 6, nearby), 0.0);
+        assertEquals(6.2, maxMagnitudeAt(pyramid, 0, nearby), 0.0);
+    }
+
+    @Test
+    public void clustersAfterRandomChanges_matchAPyramidBuiltFromScratch() {
+        Random random = new Random(17);
+        ClusterPyramid pyramid = new ClusterPyramid(5);
+        List<Earthquake> current = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            if (!current.isEmpty() && random.nextInt(3) == 0) {
+                pyramid.remove(current.remove(random.nextInt(current.size())));
+            } else {
+                // Few distinct magnitudes in a small area, so maxima are shared and removed often
+                Earthquake earthquake = earthquake("us" + i, 2 + random.nextInt(6) * 0.5, 0L,
+                        140 + random.nextDouble() * 10, 35 + random.nextDouble() * 10);
+                pyramid.add(earthquake);
+                current.add(earthquake);
+            }
+        }
+
+        ClusterPyramid rebuilt = new ClusterPyramid(5);
+        for (Earthquake earthquake : current) {
+            rebuilt.add(earthquake);
+        }
+        for (int zoom = 0; zoom <= 5; zoom++) {
+            assertEquals("zoom " + zoom, describe(rebuilt.getClusters(zoom, -180, -85, 180, 85)),
+                    describe(pyramid.getClusters(zoom, -180, -85, 180, 85)));
+        }
+    }
+
+    @Test
+    public void viewports_coverTheAntimeridianFromEitherSide() {
+        ClusterPyramid pyramid = new ClusterPyramid(4);
+        pyramid.add(earthquake("us1", 5.0, 0L, 175.0, -17.0));
+        pyramid.add(earthquake("us2", 5.0, 0L, -175.0, -17.0));
+        pyramid.add(earthquake("us3", 5.0, 0L, 0.0, 0.0));
+
+        assertEquals(3, countIn(pyramid.getClusters(4, -180, -85, 180, 85)));
+        assertEquals(3, countIn(pyramid.getClusters(4, -200, -85, 200, 85)));
+        assertEquals(1, countIn(pyramid.getClusters(4, 170, -85, 180, 85)));
+        assertEquals(1, countIn(pyramid.getClusters(4, -180, -85, -170, 85)));
+        assertEquals(2, countIn(pyramid.getClusters(4, 170, -85, -170, 85)));
+        assertEquals(0, ClusterPyramid.cellX(-180, 4));
+        assertEquals(0, ClusterPyramid.cellX(180, 4));
+        assertEquals(63, ClusterPyramid.eastCellX(180, 4));
+    }
+
+    @Test
+    public void deletedEarthquakesAndOnesWithoutCoordinates_areLeftOut() {
+        ClusterPyramid pyramid = new ClusterPyramid(3);
+        pyramid.add(new Earthquake("us1", 5.0, "", 0L, 0L, "", true, 10.0, 10.0, 10.0));
+        pyramid.add(new Earthquake("us2", 5.0, "", 0L, ""));
+
+        assertEquals(0, pyramid.getClusterCount(0));
+    }
+
+    @Test
+    public void cluster_averagesPositionsAndPicksTheDominantBand() {
+        ClusterPyramid pyramid = new ClusterPyramid(2);
+        pyramid.add(earthquake("us1", 4.2, 0L, 10.0, 10.0));
+        pyramid.add(earthquake("us2", 4.8, 0L, 12.0, 12.0));
+        pyramid.add(earthquake("us3", 6.0, 0L, 11.0, 14.0));
+
+        List<ClusterPyramid.Cluster> clusters = pyramid.getClusters(0, -180, -85, 180, 85);
+        assertEquals(1, clusters.size());
+        ClusterPyramid.Cluster cluster = clusters.get(0);
+        assertEquals(3, cluster.getCount());
+        assertEquals(11.0, cluster.getLongitude(), 1e-9);
+        assertEquals(12.0, cluster.getLatitude(), 1e-9);
+        assertEquals(6.0, cluster.getMaxMagnitude(), 0.0);
+        assertEquals(EarthquakeFormatter.getMagnitudeBand(4.5), cluster.getDominantBand());
+    }
+
+    private static double biggestAt(ClusterPyramid pyramid, int zoom) {
+        double biggest = Double.NaN;
+        for (ClusterPyramid.Cluster cluster : pyramid.getClusters(zoom, -180, -85, 180, 85)) {
+            if (Double.isNaN(biggest) || cluster.getMaxMagnitude() > biggest) {
+                biggest = cluster.getMaxMagnitude();
+            }
+        }
+        return biggest;
+    }
+
+    /**
+     * Returns the biggest magnitude of the cluster the earthquake falls in at the zoom level.
+     */
+    private static double maxMagnitudeAt(ClusterPyramid pyramid, int zoom, Earthquake earthquake) {
+        List<ClusterPyramid.Cluster> clusters = pyramid.getClusters(zoom, earthquake.getLongitude(),
+                earthquake.getLatitude(), earthquake.getLongitude(), earthquake.getLatitude());
+        assertEquals(1, clusters.size());
+        return clusters.get(0).getMaxMagnitude();
+    }
+
+    private static int countIn(List<ClusterPyramid.Cluster> clusters) {
+        int count = 0;
+        for (ClusterPyramid.Cluster cluster : clusters) {
+            count += cluster.getCount();
+        }
+        return count;
+    }
+
+    private static List<String> describe(List<ClusterPyramid.Cluster> clusters) {
+        List<String> descriptions = new ArrayList<>();
+        for (ClusterPyramid.Cluster cluster : clusters) {
+            descriptions.add(String.format(Locale.US, "%.6f %.6f %d %.1f %d",
+                    cluster.getLongitude(), cluster.getLatitude(), cluster.getCount(),
+                    cluster.getMaxMagnitude(), cluster.getDominantBand()));
+        }
+        Collections.sort(descriptions);
+        assertTrue(descriptions.size() > 0);
+        return descriptions;
+    }
+}
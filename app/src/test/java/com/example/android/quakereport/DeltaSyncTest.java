@@ -0,0 +1,158 @@
+package com.example.android.quakereport;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.example.android.quakereport.GeoJsonFixtures.deleted;
+import static com.example.android.quakereport.GeoJsonFixtures.revised;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DeltaSyncTest {
+
+    private static final String BASE = "https://earthquake.usgs.gov/fdsnws/event/1/query";
+    private static final String QUERY = BASE + "?format=geojson&limit=3&minmag=5&orderby=time";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private EarthquakeStore mStore;
+    private String[] mIds;
+
+    @Before
+    public void setUp() {
+        mStore = new EarthquakeStore(new File(mFolder.getRoot(), "earthquakes.dat"));
+        mStore.putAll(Arrays.asList(
+                revised("us3", 5.5, 3000L, 3000L),
+                revised("us2", 6.1, 2000L, 2000L),
+                revised("us1", 5.0, 1000L, 1000L)));
+        mIds = new String[]{"us3", "us2", "us1"};
+    }
+
+    @Test
+    public void buildDeltaUrl_asksForEveryMagnitudeWithoutTheQueryLimit() {
+        String url = DeltaSync.buildDeltaUrl(QUERY, 0L);
+
+        assertNull(QueryUtils.getQueryParameter(url, "minmag"));
+        assertEquals(String.valueOf(DeltaSync.MAX_DELTA_EVENTS), QueryUtils.getQueryParameter(url, "limit"));
+        assertEquals("time", QueryUtils.getQueryParameter(url, "orderby"));
+        assertEquals("1970-01-01T00:00:00.000", QueryUtils.getQueryParameter(url, "updatedafter"));
+        assertEquals("true", QueryUtils.getQueryParameter(url, "includedeleted"));
+        assertEquals(1, Collections.frequency(QueryUtils.getQueryParameterNames(url), "limit"));
+    }
+
+    @Test
+    public void canSync_onlyQueriesFilteredByMagnitude() {
+        assertTrue(DeltaSync.canSync(QUERY));
+        assertTrue(DeltaSync.canSync(BASE + "?format=geojson&minmagnitude=2&maxmagnitude=4"));
+        assertFalse(DeltaSync.canSync(QUERY + "&minlatitude=30"));
+        assertFalse(DeltaSync.canSync(QUERY + "&starttime=2016-01-01"));
+        assertFalse(DeltaSync.canSync(QUERY + "&offset=21"));
+        assertFalse(DeltaSync.canSync(
+                "https://earthquake.usgs.gov/earthquakes/feed/v1.0/summary/significant_week.geojson"));
+    }
+
+    @Test
+    public void merge_insertsReplacesAndDeletesInQueryOrder() {
+        List<Earthquake> changes = Arrays.asList(
+                revised("us4", 5.2, 4000L, 4100L),
+                revised("us2", 6.3, 2000L, 4200L),
+                deleted("us3", 4300L));
+
+        DeltaSync.Result result = DeltaSync.merge(QUERY, mIds, 3000L, changes, mStore);
+
+        assertArrayEquals(new String[]{"us4", "us2", "us1"}, result.ids);
+        assertEquals(1, result.inserted);
+        assertEquals(1, result.updated);
+        assertEquals(1, result.deleted);
+        assertEquals(4300L, result.newestUpdated);
+        assertFalse(result.needsFullFetch);
+        assertEquals(6.3, mStore.get("us2").getMagnitude(), 0.0);
+        assertNull(mStore.get("us3"));
+    }
+
+    @Test
+    public void merge_cutsTheResultOffAtTheLimit() {
+        DeltaSync.Result result = DeltaSync.merge(QUERY, mIds, 3000L, Collections.singletonList(
+                revised("us4", 5.2, 4000L, 4100L)), mStore);
+
+        assertArrayEquals(new String[]{"us4", "us3", "us2"}, result.ids);
+        assertFalse(result.needsFullFetch);
+    }
+
+    @Test
+    public void merge_removesEventsRevisedBelowTheMinimumMagnitude() {
+        DeltaSync.Result result = DeltaSync.merge(QUERY, mIds, 3000L, Collections.singletonList(
+                revised("us2", 4.8, 2000L, 4100L)), mStore);
+
+        assertArrayEquals(new String[]{"us3", "us1"}, result.ids);
+        assertEquals(1, result.deleted);
+        // The result was cut off at the limit, so the next event down is unknown
+        assertTrue(result.needsFullFetch);
+    }
+
+    @Test
+    public void merge_ignoresNewEventsBelowTheMinimumMagnitude() {
+        String query = BASE + "?format=geojson&minmag=5&orderby=time";
+        DeltaSync.Result result = DeltaSync.merge(query, mIds, 3000L, Arrays.asList(
+                revised("us4", 3.1, 4000L, 4100L),
+                revised("us5", Double.NaN, 4500L, 4500L)), mStore);
+
+        assertArrayEquals(mIds, result.ids);
+        assertEquals(0, result.inserted);
+        assertEquals(0, result.deleted);
+        assertFalse(result.needsFullFetch);
+    }
+
+    @Test
+    public void merge_needsFullFetchWhenAnEventMovesPastTheLastOne() {
+        // Its time was corrected to before the last event of the result
+        DeltaSync.Result result = DeltaSync.merge(QUERY, mIds, 3000L, Collections.singletonList(
+                revised("us2", 6.1, 500L, 4100L)), mStore);
+
+        assertTrue(result.needsFullFetch);
+    }
+
+    @Test
+    public void merge_needsFullFetchWhenADeletionMakesRoomForAnEventPastTheLastOne() {
+        // us0 happened before us1, the last event of the result, and us2 was deleted
+        DeltaSync.Result result = DeltaSync.merge(QUERY, mIds, 3000L, Arrays.asList(
+                revised("us0", 5.1, 500L, 4100L),
+                deleted("us2", 4200L)), mStore);
+
+        assertArrayEquals(new String[]{"us3", "us1", "us0"}, result.ids);
+        assertEquals(1, result.inserted);
+        assertEquals(1, result.deleted);
+        assertTrue(result.needsFullFetch);
+    }
+
+    @Test
+    public void merge_cutsOffAnEventPastTheLastOneWithoutDeletions() {
+        DeltaSync.Result result = DeltaSync.merge(QUERY, mIds, 3000L, Collections.singletonList(
+                revised("us0", 5.1, 500L, 4100L)), mStore);
+
+        assertArrayEquals(mIds, result.ids);
+        assertFalse(result.needsFullFetch);
+    }
+
+    @Test
+    public void merge_needsFullFetchWhenTheDeltaMayBeCutOff() {
+        List<Earthquake> changes = new ArrayList<>();
+        for (int i = 0; i < DeltaSync.MAX_DELTA_EVENTS; i++) {
+            changes.add(revised("new" + i, 2.0, 4000L + i, 4000L + i));
+        }
+
+        assertTrue(DeltaSync.merge(QUERY, mIds, 3000L, changes, mStore).needsFullFetch);
+    }
+}
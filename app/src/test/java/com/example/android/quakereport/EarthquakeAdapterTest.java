@@ -0,0 +1,125 @@
+package com.example.android.quakereport;
+
+import android.support.v7.util.DiffUtil;
+import android.support.v7.util.ListUpdateCallback;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static com.example.android.quakereport.GeoJsonFixtures.earthquake;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EarthquakeAdapterTest {
+
+    private static final int[] COLORS = {100, 101, 102, 103, 104, 105, 106, 107, 108, 109};
+
+    private static final long TIME = 1452011400000L;
+
+    @Test
+    public void diffCallback_matchesEarthquakesByIdWhereverTheyMoved() {
+        EarthquakeDisplayModel old = model(
+                earthquake("us1", 4.0, TIME, "10km N of Anchorage, Alaska"),
+                earthquake("us2", 5.0, TIME, "Yelizovo, Russia"));
+        EarthquakeDisplayModel reloaded = model(
+                earthquake("us3", 6.0, TIME, "Santiago, Chile"),
+                earthquake("us2", 5.0, TIME, "Yelizovo, Russia"),
+                earthquake("us1", 4.0, TIME, "10km N of Anchorage, Alaska"));
+
+        EarthquakeAdapter.EarthquakeDiffCallback callback =
+                new EarthquakeAdapter.EarthquakeDiffCallback(old, reloaded);
+
+        assertEquals(2, callback.getOldListSize());
+        assertEquals(3, callback.getNewListSize());
+        assertTrue(callback.areItemsTheSame(0, 2));
+        assertTrue(callback.areItemsTheSame(1, 1));
+        assertFalse(callback.areItemsTheSame(0, 0));
+        assertTrue(callback.areContentsTheSame(0, 2));
+    }
+
+    @Test
+    public void diffCallback_seesAnUpdatedEarthquakeAsTheSameItemWithNewContents() {
+        EarthquakeDisplayModel old = model(earthquake("us1", 4.0, TIME, "10km N of Anchorage, Alaska"));
+        EarthquakeDisplayModel reloaded = model(earthquake("us1", 4.3, TIME, "10km N of Anchorage, Alaska"));
+
+        EarthquakeAdapter.EarthquakeDiffCallback callback =
+                new EarthquakeAdapter.EarthquakeDiffCallback(old, reloaded);
+
+        assertTrue(callback.areItemsTheSame(0, 0));
+        assertFalse(callback.areContentsTheSame(0, 0));
+    }
+
+    @Test
+    public void diffCallback_handlesAnEmptyList() {
+        EarthquakeAdapter.EarthquakeDiffCallback callback = new EarthquakeAdapter.EarthquakeDiffCallback(
+                EarthquakeDisplayModel.empty(), model(earthquake("us1", 4.0, TIME, "Alaska")));
+
+        assertEquals(0, callback.getOldListSize());
+        assertEquals(1, callback.getNewListSize());
+    }
+
+    @Test
+    public void calculateDiff_rebindsOnlyWhatChanged() {
+        EarthquakeDisplayModel old = model(
+                earthquake("us1", 4.0, TIME, "10km N of Anchorage, Alaska"),
+                earthquake("us2", 5.0, TIME, "Yelizovo, Russia"),
+                earthquake("us3", 4.5, TIME, "Santiago, Chile"),
+                earthquake("us4", 4.6, TIME, "Lima, Peru"),
+                earthquake("us5", 4.7, TIME, "Suva, Fiji"));
+        // Three new earthquakes at the top, us2 revised and us4 deleted
+        EarthquakeDisplayModel reloaded = model(
+                earthquake("us8", 6.0, TIME, "Tokyo, Japan"),
+                earthquake("us7", 5.5, TIME, "Honshu, Japan"),
+                earthquake("us6", 4.9, TIME, "Hokkaido, Japan"),
+                earthquake("us1", 4.0, TIME, "10km N of Anchorage, Alaska"),
+                earthquake("us2", 5.4, TIME, "Yelizovo, Russia"),
+                earthquake("us3", 4.5, TIME, "Santiago, Chile"),
+                earthquake("us5", 4.7, TIME, "Suva, Fiji"));
+
+        CountingCallback updates = new CountingCallback();
+        DiffUtil.calculateDiff(new EarthquakeAdapter.EarthquakeDiffCallback(old, reloaded), false)
+                .dispatchUpdatesTo(updates);
+
+        assertEquals(3, updates.inserted);
+        assertEquals(1, updates.removed);
+        assertEquals(1, updates.changed);
+        assertEquals(0, updates.moved);
+    }
+
+    private static EarthquakeDisplayModel model(Earthquake... earthquakes) {
+        return EarthquakeDisplayModel.build(new EarthquakeFormatter(COLORS, "Near the"),
+                EarthquakeTable.fromList(Arrays.asList(earthquakes)));
+    }
+
+    /**
+     * Adds up the rows of every update the adapter would be notified of.
+     */
+    private static final class CountingCallback implements ListUpdateCallback {
+        int inserted;
+        int removed;
+        int moved;
+        int changed;
+
+        @Override
+        public void onInserted(int position, int count) {
+            inserted += count;
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            removed += count;
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            moved++;
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+            changed += count;
+        }
+    }
+}
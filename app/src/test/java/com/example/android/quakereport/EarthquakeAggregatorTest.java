@@ -0,0 +1,133 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static com.example.android.quakereport.GeoJsonFixtures.deleted;
+import static com.example.android.quakereport.GeoJsonFixtures.earthquake;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EarthquakeAggregatorTest {
+
+    private static final long HOUR = EarthquakeAggregator.HOUR_MILLIS;
+    private static final long DAY = EarthquakeAggregator.DAY_MILLIS;
+    private static final long DAY_0 = 20000L * DAY;
+
+    @Test
+    public void magnitudeHistogram_countsEveryBand() {
+        EarthquakeAggregator aggregator = new EarthquakeAggregator();
+        for (double magnitude : new double[]{0.5, 1.9, 2.0, 4.4, 4.9, 9.9, 10.2, -0.3}) {
+            aggregator.add(earthquake("us" + magnitude, magnitude, DAY_0, "Somewhere"));
+        }
+
+        assertArrayEquals(new int[]{2, 1, 0, 2, 0, 0, 0, 0, 1, 2}, aggregator.getMagnitudeHistogram());
+        assertEquals(8, aggregator.getCount());
+    }
+
+    @Test
+    public void timeBuckets_leaveOutEmptyOnesAndStartAtTheBucketOfTheStart() {
+        EarthquakeAggregator aggregator = new EarthquakeAggregator();
+        aggregator.add(earthquake("us1", 4.0, DAY_0 + 10 * 60 * 1000L, "Somewhere"));
+        aggregator.add(earthquake("us2", 4.0, DAY_0 + 50 * 60 * 1000L, "Somewhere"));
+        aggregator.add(earthquake("us3", 4.0, DAY_0 + 3 * HOUR, "Somewhere"));
+        aggregator.add(earthquake("us4", 4.0, DAY_0 + DAY + HOUR, "Somewhere"));
+
+        Map<Long, Integer> hours = new LinkedHashMap<>();
+        hours.put(DAY_0, 2);
+        hours.put(DAY_0 + 3 * HOUR, 1);
+        assertEquals(hours, aggregator.getCountsPerHour(DAY_0 + 30 * 60 * 1000L, DAY_0 + DAY));
+        assertEquals(new ArrayList<>(hours.keySet()),
+                new ArrayList<>(aggregator.getCountsPerHour(DAY_0, DAY_0 + DAY).keySet()));
+
+        Map<Long, Integer> days = new LinkedHashMap<>();
+        days.put(DAY_0, 3);
+        days.put(DAY_0 + DAY, 1);
+        assertEquals(days, aggregator.getCountsPerDay(DAY_0 + HOUR, DAY_0 + 2 * DAY));
+        assertTrue(aggregator.getCountsPerDay(DAY_0 + 2 * DAY, DAY_0 + DAY).isEmpty());
+    }
+
+    @Test
+    public void bucketStart_putsTimesBeforeTheEpochInTheBucketBelow() {
+        assertEquals(0L, EarthquakeAggregator.bucketStart(HOUR - 1, HOUR));
+        assertEquals(-HOUR, EarthquakeAggregator.bucketStart(-1, HOUR));
+        assertEquals(-HOUR, EarthquakeAggregator.bucketStart(-HOUR, HOUR));
+    }
+
+    @Test
+    public void regionMaximum_fallsBackToTheNextBiggestWhenRemoved() {
+        EarthquakeAggregator aggregator = new EarthquakeAggregator();
+        Earthquake big = earthquake("us1", 6.1, DAY_0, "10km SW of Anchorage, Alaska");
+        Earthquake twin = earthquake("us2", 6.1, DAY_0, "20km N of Nome, Alaska");
+        Earthquake small = earthquake("us3", 3.2, DAY_0, "Alaska");
+        aggregator.add(big);
+        aggregator.add(twin);
+        aggregator.add(small);
+        aggregator.add(earthquake("us4", 5.0, DAY_0, "Near the coast of Chile"));
+
+        aggregator.remove(big);
+        assertEquals(6.1, aggregator.getMaxMagnitude("Alaska"), 0.0);
+        aggregator.remove(twin);
+        assertEquals(3.2, aggregator.getMaxMagnitude("Alaska"), 0.0);
+        aggregator.remove(small);
+        assertTrue(Double.isNaN(aggregator.getMaxMagnitude("Alaska")));
+        assertEquals(1, aggregator.getMaxMagnitudePerRegion().size());
+        // Everything up to " of " is the offset, not the region
+        assertEquals(5.0, aggregator.getMaxMagnitude("Chile"), 0.0);
+    }
+
+    @Test
+    public void replace_movesTheEarthquakeAndIgnoresDeletedVersions() {
+        EarthquakeAggregator aggregator = new EarthquakeAggregator();
+        Earthquake original = earthquake("us1", 4.5, DAY_0 + HOUR, "Alaska");
+        aggregator.add(original);
+        Earthquake corrected = earthquake("us1", 5.5, DAY_0 + DAY, "Alaska");
+        aggregator.replace(original, corrected);
+
+        assertEquals(1, aggregator.getCount());
+        assertEquals(5.5, aggregator.getMaxMagnitude("Alaska"), 0.0);
+        assertEquals(Arrays.asList(DAY_0 + DAY),
+                new ArrayList<>(aggregator.getCountsPerDay(DAY_0, DAY_0 + 2 * DAY).keySet()));
+
+        aggregator.replace(corrected, deleted(corrected));
+        assertEquals(0, aggregator.getCount());
+        assertTrue(aggregator.getCountsPerDay(DAY_0, DAY_0 + 2 * DAY).isEmpty());
+        assertTrue(aggregator.getMaxMagnitudePerRegion().isEmpty());
+    }
+
+    @Test
+    public void summaries_matchARecountAfterRandomChanges() {
+        Random random = new Random(3);
+        EarthquakeAggregator aggregator = new EarthquakeAggregator();
+        List<Earthquake> current = new ArrayList<>();
+        String[] regions = {"Alaska", "California", "Japan", "Chile"};
+        for (int i = 0; i < 2000; i++) {
+            if (!current.isEmpty() && random.nextInt(3) == 0) {
+                aggregator.remove(current.remove(random.nextInt(current.size())));
+            } else {
+                Earthquake earthquake = earthquake("us" + i, Math.round(random.nextDouble() * 80) / 10.0,
+                        DAY_0 + (long) (random.nextDouble() * 5 * DAY), "5km E of Town, "
+                                + regions[random.nextInt(regions.length)]);
+                aggregator.add(earthquake);
+                current.add(earthquake);
+            }
+        }
+
+        EarthquakeAggregator recount = new EarthquakeAggregator();
+        for (Earthquake earthquake : current) {
+            recount.add(earthquake);
+        }
+        assertEquals(recount.getCount(), aggregator.getCount());
+        assertArrayEquals(recount.getMagnitudeHistogram(), aggregator.getMagnitudeHistogram());
+        assertEquals(recount.getCountsPerHour(DAY_0, DAY_0 + 5 * DAY),
+                aggregator.getCountsPerHour(DAY_0, DAY_0 + 5 * DAY));
+        assertEquals(recount.getMaxMagnitudePerRegion(), aggregator.getMaxMagnitudePerRegion());
+    }
+}
@@ -0,0 +1,167 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Runs the cache against a {@link FakeHttpTransport}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class EarthquakeCacheTest {
+
+    private static final String URL = "https://earthquake.usgs.gov/fdsnws/event/1/query?format=geojson&limit=20";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private FakeHttpTransport mTransport;
+    private HttpTransport mOldTransport;
+    private EarthquakeCache mCache;
+
+    @Before
+    public void setUp() throws IOException {
+        mOldTransport = QueryUtils.getTransport();
+        mTransport = new FakeHttpTransport();
+        QueryUtils.setTransport(mTransport);
+        mCache = new EarthquakeCache(mFolder.newFolder("cache"), EarthquakeCache.DEFAULT_TTL_MILLIS);
+        mCache.setDeltaSyncEnabled(false);
+    }
+
+    @After
+    public void tearDown() {
+        QueryUtils.setTransport(mOldTransport);
+    }
+
+    @Test
+    public void refresh_leavesGenerationAloneWhenNotModified() {
+        List<Earthquake> earthquakes = Arrays.asList(
+                GeoJsonFixtures.earthquake("us1", 5.1, 1000L, 10.0, 20.0),
+                GeoJsonFixtures.earthquake("us2", 4.2, 2000L, 11.0, 21.0));
+        mTransport.serve(URL, 200, "\"v1\"", GeoJsonFixtures.collection(earthquakes));
+
+        long before = mCache.getGeneration();
+        assertEquals(2, mCache.fetch(URL).size());
+        long fetched = mCache.getGeneration();
+        assertNotEquals(before, fetched);
+
+        assertEquals(2, mCache.refresh(URL).size());
+        assertEquals("\"v1\"", mTransport.getLastRequestHeaders().get("If-None-Match"));
+        assertEquals(fetched, mCache.getGeneration());
+
+        mTransport.serve(URL, 200, "\"v2\"", GeoJsonFixtures.collection(earthquakes.subList(0, 1)));
+        assertEquals(1, mCache.refresh(URL).size());
+        assertNotEquals(fetched, mCache.getGeneration());
+    }
+
+    @Test
+    public void fetch_neverCachesATruncatedResponse() {
+        List<Earthquake> earthquakes = Arrays.asList(
+                GeoJsonFixtures.earthquake("us1", 5.1, 1000L, 10.0, 20.0),
+                GeoJsonFixtures.earthquake("us2", 4.2, 2000L, 11.0, 21.0));
+        String json = GeoJsonFixtures.collection(earthquakes);
+        mTransport.serve(URL, 200, "\"v1\"", json.substring(0, json.length() - 40));
+
+        assertNull(mCache.fetch(URL));
+        assertNull(mCache.getCached(URL));
+
+        // The next request is not conditional, so the whole result is sent
+        mTransport.serve(URL, 200, "\"v1\"", json);
+        assertEquals(2, mCache.fetch(URL).size());
+        assertFalse(mTransport.getLastRequestHeaders().containsKey("If-None-Match"));
+    }
+
+    @Test
+    public void refresh_keepsTheOldResultWhenTheNewOneIsTruncated() {
+        List<Earthquake> earthquakes = Arrays.asList(
+                GeoJsonFixtures.earthquake("us1", 5.1, 1000L, 10.0, 20.0),
+                GeoJsonFixtures.earthquake("us2", 4.2, 2000L, 11.0, 21.0));
+        mTransport.serve(URL, 200, "\"v1\"", GeoJsonFixtures.collection(earthquakes.subList(0, 1)));
+        assertEquals(1, mCache.fetch(URL).size());
+
+        String json = GeoJsonFixtures.collection(earthquakes);
+        mTransport.serve(URL, 200, "\"v2\"", json.substring(0, json.length() - 10));
+        assertNull(mCache.refresh(URL));
+        assertEquals(1, mCache.getCached(URL).size());
+
+        // Still revalidated with the validator of the result that was cached
+        mTransport.serve(URL, 200, "\"v2\"", json);
+        assertEquals(2, mCache.refresh(URL).size());
+        assertEquals("\"v1\"", mTransport.getLastRequestHeaders().get("If-None-Match"));
+    }
+
+    @Test
+    public void fetch_failsWhenTheBodyTimesOut() {
+        String json = GeoJsonFixtures.collection(Collections.singletonList(
+                GeoJsonFixtures.earthquake("us1", 5.1, 1000L, 10.0, 20.0)));
+        final byte[] head = json.substring(0, json.length() / 2).getBytes();
+        QueryUtils.setTransport(new HttpTransport() {
+            @Override
+            public HttpResponse get(URL url, Map<String, String> headers) {
+                InputStream stalled = new InputStream() {
+                    @Override
+                    public int read() throws IOException {
+                        throw new SocketTimeoutException("Read timed out");
+                    }
+                };
+                return new HttpResponse(200, Collections.singletonMap("ETag", "\"v1\""),
+                        new SequenceInputStream(new ByteArrayInputStream(head), stalled));
+            }
+        });
+
+        assertNull(mCache.fetch(URL));
+        assertNull(mCache.getCached(URL));
+    }
+
+    @Test
+    public void evictedResults_takeTheirEventsOutOfTheStore() {
+        for (int i = 0; i < 40; i++) {
+            String url = URL + "&page=" + i;
+            mTransport.serve(url, GeoJsonFixtures.collection(Arrays.asList(
+                    GeoJsonFixtures.earthquake("shared", 5.0, 1000L, 10.0, 20.0),
+                    GeoJsonFixtures.earthquake("us" + i, 4.0, 2000L + i, 11.0, 21.0))));
+            mCache.fetch(url);
+        }
+
+        // 32 results are remembered, each with its own event, and the one they all share
+        assertEquals(33, mCache.getStore().size());
+        assertNull(mCache.getStore().get("us0"));
+        assertEquals(2, mCache.getCached(URL + "&page=39").size());
+    }
+
+    @Test
+    public void replacedResults_takeTheirEventsOutOfTheStore() {
+        mTransport.serve(URL, 200, "\"v1\"", GeoJsonFixtures.collection(Arrays.asList(
+                GeoJsonFixtures.earthquake("us1", 5.1, 1000L, 10.0, 20.0),
+                GeoJsonFixtures.earthquake("us2", 4.2, 2000L, 11.0, 21.0))));
+        mCache.fetch(URL);
+        mTransport.serve(URL, 200, "\"v2\"", GeoJsonFixtures.collection(Arrays.asList(
+                GeoJsonFixtures.earthquake("us3", 5.1, 3000L, 10.0, 20.0))));
+        mCache.refresh(URL);
+
+        assertEquals(1, mCache.getStore().size());
+        assertEquals("us3", mCache.getStore().getAll().get(0).getId());
+    }
+}
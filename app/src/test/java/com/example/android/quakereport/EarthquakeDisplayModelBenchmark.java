@@ -0,0 +1,85 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+/**
+ * Times building the {@link EarthquakeDisplayModel} on the loader thread, and binding every row
+ * from it against formatting each row as it is bound, the way the adapter did before. Sizes
+ * are a first page, a full fetch and a long scroll through the pages.
+ */
+public class EarthquakeDisplayModelBenchmark {
+
+    private static final int[] SIZES = {20, 100, 1000};
+
+    /** One made-up color per magnitude band */
+    private static final int[] COLORS = {100, 101, 102, 103, 104, 105, 106, 107, 108, 109};
+
+    /** Sink for the bound values, so the work is not optimized away */
+    private static int sBound;
+
+    @Test
+    public void build_thenBind_againstFormatOnBind() throws Exception {
+        for (int size : SIZES) {
+            final EarthquakeTable table = GeoJsonFixtures.table(size, 0);
+            final EarthquakeFormatter formatter = new EarthquakeFormatter(COLORS, "Near the");
+            final EarthquakeDisplayModel[] model = new EarthquakeDisplayModel[1];
+            int runs = size >= 1000 ? 51 : 201;
+
+            long build = Benchmark.median(runs, runs, new Benchmark.Body() {
+                @Override
+                public void run() {
+                    model[0] = EarthquakeDisplayModel.build(formatter, table);
+                }
+            });
+            long bind = Benchmark.median(runs, runs, new Benchmark.Body() {
+                @Override
+                public void run() {
+                    bindFromModel(model[0]);
+                }
+            });
+            long formatOnBind = Benchmark.median(runs, runs, new Benchmark.Body() {
+                @Override
+                public void run() {
+                    bindWithFormatting(formatter, table);
+                }
+            });
+            Benchmark.report("Build the display model", size, build);
+            Benchmark.report("Bind every row from the model", size, bind);
+            Benchmark.report("Bind every row formatting it", size, formatOnBind);
+        }
+    }
+
+    /**
+     * Reads what ViewHolder.bind sets on the views of every row.
+     */
+    private static void bindFromModel(EarthquakeDisplayModel model) {
+        int bound = 0;
+        for (int row = 0; row < model.size(); row++) {
+            bound += model.getMagnitude(row).length();
+            bound += model.getMagnitudeColor(row);
+            bound += model.getOffsetLocation(row).length();
+            bound += model.getPrimaryLocation(row).length();
+            bound += model.getDate(row).length();
+            bound += model.getTime(row).length();
+        }
+        sBound = bound;
+    }
+
+    /**
+     * Formats every row from the table, as binding did before the display model.
+     */
+    private static void bindWithFormatting(EarthquakeFormatter formatter, EarthquakeTable table) {
+        int bound = 0;
+        for (int row = 0; row < table.size(); row++) {
+            double magnitude = table.getMagnitude(row);
+            long time = table.getTimeInMilliseconds(row);
+            bound += formatter.formatMagnitude(magnitude).length();
+            bound += formatter.getMagnitudeColor(magnitude);
+            bound += formatter.formatOffsetLocation(table.getOffsetLocation(row)).length();
+            bound += table.getPrimaryLocation(row).length();
+            bound += formatter.formatDate(time).length();
+            bound += formatter.formatTime(time).length();
+        }
+        sBound = bound;
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.text.DecimalFormat;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+
+import static com.example.android.quakereport.GeoJsonFixtures.earthquake;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class EarthquakeDisplayModelTest {
+
+    /** One made-up color per band, so a row's color tells its band */
+    private static final int[] COLORS = {100, 101, 102, 103, 104, 105, 106, 107, 108, 109};
+
+    private static final long TIME = 1452011400000L;
+
+    @Test
+    public void build_formatsEveryRowAheadOfBinding() {
+        EarthquakeDisplayModel model = build(
+                earthquake("us1", 7.26, TIME, "88km N of Yelizovo, Russia"),
+                earthquake("us2", 1.5, TIME + 3600000L, "Pacific-Antarctic Ridge"));
+
+        assertEquals(2, model.size());
+        assertEquals(new DecimalFormat("0.0").format(7.26), model.getMagnitude(0));
+        assertEquals(COLORS[EarthquakeFormatter.getMagnitudeBand(7.26)], model.getMagnitudeColor(0));
+        assertEquals(COLORS[0], model.getMagnitudeColor(1));
+        assertEquals("88km N of ", model.getOffsetLocation(0));
+        assertEquals("Yelizovo, Russia", model.getPrimaryLocation(0));
+        assertEquals("Near the", model.getOffsetLocation(1));
+        assertEquals("Pacific-Antarctic Ridge", model.getPrimaryLocation(1));
+        assertEquals(new SimpleDateFormat("MMM dd, yyyy").format(new Date(TIME)), model.getDate(0));
+        assertEquals(new SimpleDateFormat("HH:mm a").format(new Date(TIME + 3600000L)), model.getTime(1));
+    }
+
+    @Test
+    public void primaryLocations_areSharedWithTheTable() {
+        EarthquakeDisplayModel model = build(
+                earthquake("us1", 4.0, TIME, "10km N of Anchorage, Alaska"),
+                earthquake("us2", 4.0, TIME, "20km S of Anchorage, Alaska"));
+
+        assertSame(model.getPrimaryLocation(0), model.getPrimaryLocation(1));
+        assertSame(model.getEarthquakes().getPrimaryLocation(0), model.getPrimaryLocation(0));
+    }
+
+    @Test
+    public void stableIds_followTheEventIdAcrossLoads() {
+        EarthquakeDisplayModel first = build(
+                earthquake("us1", 4.0, TIME, "Alaska"),
+                earthquake("us2", 4.0, TIME, "Alaska"));
+        EarthquakeDisplayModel second = build(
+                earthquake("us0", 5.0, TIME, "Chile"),
+                earthquake("us2", 4.0, TIME, "Alaska"),
+                earthquake("us1", 4.0, TIME, "Alaska"));
+
+        assertEquals(first.getStableId(0), second.getStableId(2));
+        assertEquals(first.getStableId(1), second.getStableId(1));
+        assertNotEquals(first.getStableId(0), first.getStableId(1));
+        assertEquals(EarthquakeDisplayModel.stableIdOf("us1"), first.getStableId(0));
+    }
+
+    @Test
+    public void sameContents_onlyWhenEveryShownValueIsEqual() {
+        EarthquakeDisplayModel old = build(
+                earthquake("us1", 4.0, TIME, "10km N of Anchorage, Alaska"),
+                earthquake("us2", 4.0, TIME, "10km N of Anchorage, Alaska"),
+                earthquake("us3", 4.0, TIME, "10km N of Anchorage, Alaska"));
+        EarthquakeDisplayModel updated = build(
+                // Same shown values under another id, a magnitude change too small to show, and
+                // a moved epicenter
+                earthquake("us9", 4.0, TIME, "10km N of Anchorage, Alaska"),
+                earthquake("us2", 4.01, TIME, "10km N of Anchorage, Alaska"),
+                earthquake("us3", 4.0, TIME, "12km N of Anchorage, Alaska"));
+
+        assertTrue(old.hasSameContents(0, updated, 0));
+        assertTrue(old.hasSameContents(1, updated, 1));
+        assertFalse(old.hasSameContents(2, updated, 2));
+    }
+
+    @Test
+    public void emptyModel_hasNoRows() {
+        assertEquals(0, EarthquakeDisplayModel.empty().size());
+    }
+
+    private static EarthquakeDisplayModel build(Earthquake... earthquakes) {
+        return EarthquakeDisplayModel.build(new EarthquakeFormatter(COLORS, "Near the"),
+                EarthquakeTable.fromList(Arrays.asList(earthquakes)));
+    }
+}
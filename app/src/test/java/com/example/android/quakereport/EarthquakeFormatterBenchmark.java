@@ -0,0 +1,105 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.text.DecimalFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Times the {@link EarthquakeFormatter} methods over a page of rows against creating the
+ * formatters on every call, the way the adapter did before, reporting the bytes allocated per row.
+ */
+public class EarthquakeFormatterBenchmark {
+
+    private static final int ROWS = 1000;
+
+    /** One made-up color per magnitude band */
+    private static final int[] COLORS = {100, 101, 102, 103, 104, 105, 106, 107, 108, 109};
+
+    /** Sink for the formatted values, so the work is not optimized away */
+    private static int sFormatted;
+
+    @Test
+    public void reusedFormatters_againstNewOnEveryCall() throws Exception {
+        final EarthquakeTable table = GeoJsonFixtures.table(ROWS, 0);
+        final EarthquakeFormatter formatter = new EarthquakeFormatter(COLORS, "Near the");
+
+        run("formatDate", new Benchmark.Body() {
+            @Override
+            public void run() {
+                int formatted = 0;
+                for (int row = 0; row < ROWS; row++) {
+                    formatted += formatter.formatDate(table.getTimeInMilliseconds(row)).length();
+                }
+                sFormatted = formatted;
+            }
+        });
+        run("formatDate, new formatter", new Benchmark.Body() {
+            @Override
+            public void run() {
+                int formatted = 0;
+                for (int row = 0; row < ROWS; row++) {
+                    formatted += new SimpleDateFormat("MMM dd, yyyy")
+                            .format(new Date(table.getTimeInMilliseconds(row))).length();
+                }
+                sFormatted = formatted;
+            }
+        });
+        run("formatTime", new Benchmark.Body() {
+            @Override
+            public void run() {
+                int formatted = 0;
+                for (int row = 0; row < ROWS; row++) {
+                    formatted += formatter.formatTime(table.getTimeInMilliseconds(row)).length();
+                }
+                sFormatted = formatted;
+            }
+        });
+        run("formatTime, new formatter", new Benchmark.Body() {
+            @Override
+            public void run() {
+                int formatted = 0;
+                for (int row = 0; row < ROWS; row++) {
+                    formatted += new SimpleDateFormat("HH:mm a")
+                            .format(new Date(table.getTimeInMilliseconds(row))).length();
+                }
+                sFormatted = formatted;
+            }
+        });
+        run("formatMagnitude", new Benchmark.Body() {
+            @Override
+            public void run() {
+                int formatted = 0;
+                for (int row = 0; row < ROWS; row++) {
+                    formatted += formatter.formatMagnitude(table.getMagnitude(row)).length();
+                }
+                sFormatted = formatted;
+            }
+        });
+        run("formatMagnitude, new formatter", new Benchmark.Body() {
+            @Override
+            public void run() {
+                int formatted = 0;
+                for (int row = 0; row < ROWS; row++) {
+                    formatted += new DecimalFormat("0.0").format(table.getMagnitude(row)).length();
+                }
+                sFormatted = formatted;
+            }
+        });
+        run("getMagnitudeColor", new Benchmark.Body() {
+            @Override
+            public void run() {
+                int formatted = 0;
+                for (int row = 0; row < ROWS; row++) {
+                    formatted += formatter.getMagnitudeColor(table.getMagnitude(row));
+                }
+                sFormatted = formatted;
+            }
+        });
+    }
+
+    private static void run(String name, Benchmark.Body body) throws Exception {
+        Benchmark.report(name, ROWS, Benchmark.median(20, 51, body), Benchmark.allocatedBytes(body));
+    }
+}
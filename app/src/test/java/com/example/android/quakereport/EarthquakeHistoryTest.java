@@ -0,0 +1,204 @@
+package com.example.android.quakereport;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.example.android.quakereport.GeoJsonFixtures.deleted;
+import static com.example.android.quakereport.GeoJsonFixtures.revised;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EarthquakeHistoryTest {
+
+    private static final long DAY = EarthquakeAggregator.DAY_MILLIS;
+
+    /** Midnight UTC of the first day the tests use */
+    private static final long DAY_0 = 20000L * DAY;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() {
+        mDirectory = new File(mFolder.getRoot(), "history");
+    }
+
+    @Test
+    public void append_writesOneSegmentPerDayAndQueriesByTime() {
+        EarthquakeHistory history = history();
+        history.append(Arrays.asList(
+                revised("us1", 4.0, DAY_0 + 1000L, 1L),
+                revised("us2", 5.0, DAY_0 + DAY + 1000L, 1L),
+                revised("us3", 6.0, DAY_0 + 2 * DAY + 1000L, 1L)));
+
+        assertEquals(3, history.getSegmentCount());
+        assertEquals(DAY_0 + 1000L, history.getMinTime());
+        assertEquals(DAY_0 + 2 * DAY + 1000L, history.getMaxTime());
+        assertEquals(Arrays.asList("us3", "us2"), ids(history.query(DAY_0 + DAY, DAY_0 + 3 * DAY)));
+        assertEquals(Collections.singletonList("us1"), ids(history.query(DAY_0, DAY_0 + DAY)));
+    }
+
+    @Test
+    public void append_skipsVersionsAppendedBefore() {
+        EarthquakeHistory history = history();
+        history.append(Collections.singletonList(revised("us1", 4.0, DAY_0 + 1000L, 1L)));
+        long size = history.getSizeInBytes();
+
+        history.append(Collections.singletonList(revised("us1", 4.0, DAY_0 + 1000L, 1L)));
+        assertEquals(size, history.getSizeInBytes());
+
+        // Also after a restart, for the days not compacted yet
+        EarthquakeHistory reopened = history();
+        reopened.append(Collections.singletonList(revised("us1", 4.0, DAY_0 + 1000L, 1L)));
+        assertEquals(size, reopened.getSizeInBytes());
+    }
+
+    @Test
+    public void query_returnsTheLatestVersionWithoutDeletedOnes() {
+        EarthquakeHistory history = history();
+        history.append(Arrays.asList(
+                revised("us1", 4.0, DAY_0 + 1000L, 1L),
+                revised("us2", 4.0, DAY_0 + 2000L, 1L)));
+        history.append(Arrays.asList(
+                revised("us1", 4.5, DAY_0 + 1000L, 2L),
+                deleted(revised("us2", 4.0, DAY_0 + 2000L, 2L))));
+
+        List<Earthquake> earthquakes = history.query(DAY_0, DAY_0 + DAY);
+
+        assertEquals(Collections.singletonList("us1"), ids(earthquakes));
+        assertEquals(4.5, earthquakes.get(0).getMagnitude(), 0.0);
+    }
+
+    @Test
+    public void compact_deletesSegmentsOlderThanTheRetention() {
+        EarthquakeHistory history = new EarthquakeHistory(mDirectory, 10 * DAY, 3 * DAY, 2.5);
+        for (int day = 0; day < 15; day++) {
+            history.append(Collections.singletonList(revised("us" + day, 4.0, DAY_0 + day * DAY, 1L)));
+        }
+
+        history.compact(DAY_0 + 15 * DAY);
+
+        // Days 5 to 14 are within ten days of day 15
+        assertEquals(10, history.getSegmentCount());
+        assertEquals(DAY_0 + 5 * DAY, history.getMinTime());
+        assertEquals(10, mDirectory.list().length - 1);
+        assertEquals(10, history().getSegmentCount());
+    }
+
+    @Test
+    public void compact_keepsTheLatestVersionsOfOldSegmentsAboveTheMinimumMagnitude() {
+        EarthquakeHistory history = new EarthquakeHistory(mDirectory, 90 * DAY, 3 * DAY, 2.5);
+        for (int version = 1; version <= 20; version++) {
+            history.append(Arrays.asList(
+                    revised("us1", 4.0 + version / 100.0, DAY_0 + 1000L, version),
+                    revised("us2", 1.0, DAY_0 + 2000L, version),
+                    revised("us3", Double.NaN, DAY_0 + 3000L, version)));
+        }
+        history.append(Collections.singletonList(revised("us4", 1.0, DAY_0 + 5 * DAY, 1L)));
+        long size = history.getSizeInBytes();
+
+        history.compact(DAY_0 + 6 * DAY);
+
+        assertTrue(history.getSizeInBytes() < size / 10);
+        assertEquals(2, history.getDroppedCount());
+        assertEquals(4.2, history.query(DAY_0, DAY_0 + DAY).get(0).getMagnitude(), 0.0);
+        // The newer day is not compacted yet
+        assertEquals(Arrays.asList("us4", "us1"), ids(history.query(DAY_0, DAY_0 + 6 * DAY)));
+
+        EarthquakeHistory reopened = history();
+        assertEquals(2, reopened.getDroppedCount());
+        assertEquals(Arrays.asList("us4", "us1"), ids(reopened.query(DAY_0, DAY_0 + 6 * DAY)));
+    }
+
+    @Test
+    public void timeCorrectedAcrossMidnight_leavesNoCopyOnTheOldDay() {
+        EarthquakeHistory history = new EarthquakeHistory(mDirectory, 90 * DAY, 3 * DAY, 2.5);
+        history.append(Collections.singletonList(revised("us1", 4.0, DAY_0 + DAY - 5000L, 1L)));
+
+        history.append(Collections.singletonList(revised("us1", 4.0, DAY_0 + DAY + 5000L, 2L)));
+
+        assertTrue(history.query(DAY_0, DAY_0 + DAY).isEmpty());
+        assertEquals(Collections.singletonList("us1"), ids(history.query(DAY_0 + DAY, DAY_0 + 2 * DAY)));
+        assertEquals(Collections.singletonList("us1"), ids(history.query(DAY_0, DAY_0 + 2 * DAY)));
+
+        history.compact(DAY_0 + 10 * DAY);
+
+        assertEquals(1, history.getSegmentCount());
+        assertEquals(Collections.singletonList("us1"), ids(history.query(DAY_0, DAY_0 + 2 * DAY)));
+    }
+
+    @Test
+    public void timeCorrectedAcrossMidnightAfterARestart_leavesNoCopyOnTheOldDay() {
+        history().append(Collections.singletonList(revised("us1", 4.0, DAY_0 + DAY - 5000L, 1L)));
+        // Moved forward and back again, each time by another instance
+        history().append(Collections.singletonList(revised("us1", 4.0, DAY_0 + DAY + 5000L, 2L)));
+        history().append(Collections.singletonList(revised("us1", 4.0, DAY_0 + DAY - 4000L, 3L)));
+
+        EarthquakeHistory history = history();
+        assertTrue(history.query(DAY_0 + DAY, DAY_0 + 2 * DAY).isEmpty());
+        List<Earthquake> earthquakes = history.query(DAY_0, DAY_0 + 2 * DAY);
+        assertEquals(1, earthquakes.size());
+        assertEquals(DAY_0 + DAY - 4000L, earthquakes.get(0).getTimeInMilliseconds());
+    }
+
+    @Test
+    public void recordCutOffByACrash_isDroppedOnTheNextLoad() throws IOException {
+        EarthquakeHistory history = history();
+        history.append(Collections.singletonList(revised("us1", 4.0, DAY_0 + 1000L, 1L)));
+        history.append(Collections.singletonList(revised("us2", 4.0, DAY_0 + 2000L, 1L)));
+        File segment = new File(mDirectory, (DAY_0 / DAY) + ".seg");
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        try {
+            file.setLength(file.length() - 3);
+        } finally {
+            file.close();
+        }
+
+        EarthquakeHistory reopened = history();
+        assertEquals(Collections.singletonList("us1"), ids(reopened.query(DAY_0, DAY_0 + DAY)));
+
+        // The next append starts on a record boundary
+        reopened.append(Collections.singletonList(revised("us3", 4.0, DAY_0 + 3000L, 1L)));
+        assertEquals(Arrays.asList("us3", "us1"), ids(history().query(DAY_0, DAY_0 + DAY)));
+    }
+
+    @Test
+    public void query_answersAUsgsQueryFromTheLastThirtyDays() {
+        EarthquakeHistory history = history();
+        history.append(Arrays.asList(
+                revised("old", 7.0, DAY_0 - 31 * DAY, 1L),
+                revised("small", 2.0, DAY_0 - DAY, 1L),
+                revised("us1", 4.0, DAY_0 - 3 * DAY, 1L),
+                revised("us2", 6.0, DAY_0 - 2 * DAY, 1L),
+                revised("us3", 5.0, DAY_0 - 4 * DAY, 1L)));
+
+        assertEquals(Arrays.asList("us2", "us1", "us3"),
+                ids(history.query(new EarthquakeQuery("3", "time", 10), DAY_0)));
+        assertEquals(Arrays.asList("us2", "us3"),
+                ids(history.query(new EarthquakeQuery("3", "magnitude", 2), DAY_0)));
+        assertEquals(Arrays.asList("small", "us1"),
+                ids(history.query(new EarthquakeQuery("0", "magnitude-asc", 2), DAY_0)));
+        assertNull(history.query(new EarthquakeQuery("any", "time", 10), DAY_0));
+        assertNull(history.query(new EarthquakeQuery("3", "depth", 10), DAY_0));
+    }
+
+    private EarthquakeHistory history() {
+        return new EarthquakeHistory(mDirectory);
+    }
+
+    private static List<String> ids(List<Earthquake> earthquakes) {
+        return MultiSourceIngestorTest.ids(earthquakes);
+    }
+}
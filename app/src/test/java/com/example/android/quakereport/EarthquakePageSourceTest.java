@@ -0,0 +1,179 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.example.android.quakereport.GeoJsonFixtures.earthquake;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Pages through responses of a {@link FakeHttpTransport}, which answers exactly the requests
+ * a cursor should send.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class EarthquakePageSourceTest {
+
+    private FakeHttpTransport mTransport;
+    private HttpTransport mOldTransport;
+
+    @Before
+    public void setUp() {
+        mOldTransport = QueryUtils.getTransport();
+        mTransport = new FakeHttpTransport();
+        QueryUtils.setTransport(mTransport);
+    }
+
+    @After
+    public void tearDown() {
+        QueryUtils.setTransport(mOldTransport);
+    }
+
+    @Test
+    public void pages_startAfterTheOldestRowShown() {
+        EarthquakeQuery query = new EarthquakeQuery("4.5", "time", 3);
+        List<Earthquake> server = byTime(10);
+        EarthquakePageSource source = new EarthquakePageSource(RuntimeEnvironment.application, query,
+                EarthquakeTable.fromList(server.subList(0, 3)));
+
+        // The rows at the time of the oldest one shown come back again and are skipped
+        serveEndingAt(query, 4, server.get(2), server.subList(2, 6));
+        assertEquals(Arrays.asList("us3", "us4", "us5"), ids(source.loadRows(3, 3)));
+
+        // New earthquakes at the top do not move the next page
+        serveEndingAt(query, 4, server.get(5), server.subList(5, 9));
+        assertEquals(Arrays.asList("us6", "us7", "us8"), ids(source.loadRows(6, 3)));
+
+        serveEndingAt(query, 4, server.get(8), server.subList(8, 10));
+        assertEquals(Arrays.asList("us9"), ids(source.loadRows(9, 3)));
+    }
+
+    @Test
+    public void rowsSharingTheCursorTime_areEachShownOnce() {
+        EarthquakeQuery query = new EarthquakeQuery("4.5", "time", 3);
+        List<Earthquake> server = new ArrayList<>(Arrays.asList(
+                earthquake("us0", 5.0, 9000L),
+                earthquake("us1", 5.0, 7000L),
+                earthquake("us2", 5.0, 7000L),
+                earthquake("us3", 5.0, 7000L),
+                earthquake("us4", 5.0, 7000L),
+                earthquake("us5", 5.0, 6000L)));
+        EarthquakePageSource source = new EarthquakePageSource(RuntimeEnvironment.application, query,
+                EarthquakeTable.fromList(server.subList(0, 3)));
+
+        serveEndingAt(query, 5, server.get(2), server.subList(1, 6));
+        assertEquals(Arrays.asList("us3", "us4", "us5"), ids(source.loadRows(3, 3)));
+    }
+
+    @Test
+    public void tieRunsLongerThanAPage_carryOverToTheNextPage() {
+        EarthquakeQuery query = new EarthquakeQuery("4.5", "magnitude", 2);
+        List<Earthquake> server = Arrays.asList(
+                earthquake("us0", 6.0, 1000L),
+                earthquake("us1", 5.0, 2000L),
+                earthquake("us2", 5.0, 3000L),
+                earthquake("us3", 5.0, 4000L),
+                earthquake("us4", 5.0, 5000L),
+                earthquake("us5", 4.8, 6000L));
+        EarthquakePageSource source = new EarthquakePageSource(RuntimeEnvironment.application, query,
+                EarthquakeTable.fromList(server.subList(0, 2)));
+
+        mTransport.serve(QueryUtils.appendQueryParameter(query.withLimit(3).toUrl(), "maxmagnitude", "5.0"),
+                GeoJsonFixtures.collection(server.subList(1, 4)));
+        assertEquals(Arrays.asList("us2", "us3"), ids(source.loadRows(2, 2)));
+
+        mTransport.serve(QueryUtils.appendQueryParameter(query.withLimit(5).toUrl(), "maxmagnitude", "5.0"),
+                GeoJsonFixtures.collection(server.subList(1, 6)));
+        assertEquals(Arrays.asList("us4", "us5"), ids(source.loadRows(4, 2)));
+    }
+
+    @Test
+    public void ascendingMagnitude_replacesTheMinimumWithTheCursor() {
+        EarthquakeQuery query = new EarthquakeQuery("4.5", "magnitude-asc", 1);
+        EarthquakePageSource source = new EarthquakePageSource(RuntimeEnvironment.application, query,
+                EarthquakeTable.fromList(Arrays.asList(earthquake("us0", 4.6, 1000L))));
+
+        String url = QueryUtils.appendQueryParameter(
+                QueryUtils.removeQueryParameter(query.withLimit(2).toUrl(), "minmag"), "minmagnitude", "4.6");
+        mTransport.serve(url, GeoJsonFixtures.collection(Arrays.asList(
+                earthquake("us0", 4.6, 1000L), earthquake("us1", 4.7, 2000L))));
+        assertEquals(Arrays.asList("us1"), ids(source.loadRows(1, 1)));
+    }
+
+    @Test
+    public void failedPage_canBeLoadedAgain() {
+        EarthquakeQuery query = new EarthquakeQuery("4.5", "time", 3);
+        List<Earthquake> server = byTime(6);
+        EarthquakePageSource source = new EarthquakePageSource(RuntimeEnvironment.application, query,
+                EarthquakeTable.fromList(server.subList(0, 3)));
+
+        assertNull(source.loadRows(3, 3));
+        assertNull(source.loadRows(6, 3));
+
+        serveEndingAt(query, 4, server.get(2), server.subList(2, 6));
+        assertEquals(Arrays.asList("us3", "us4", "us5"), ids(source.loadRows(3, 3)));
+    }
+
+    @Test
+    public void continues_onlyTheFirstPageItStartedAfter() {
+        EarthquakeQuery query = new EarthquakeQuery("4.5", "time", 3);
+        List<Earthquake> server = byTime(5);
+        EarthquakePageSource source = new EarthquakePageSource(RuntimeEnvironment.application, query,
+                EarthquakeTable.fromList(server.subList(0, 3)));
+
+        assertEquals("us2", source.getStart().getId());
+        assertTrue(source.continues(query, EarthquakeTable.fromList(server.subList(0, 3))));
+        // A refresh that brought a new earthquake moved the first page
+        assertFalse(source.continues(query, EarthquakeTable.fromList(server.subList(1, 4))));
+        assertFalse(source.continues(query.withLimit(4), EarthquakeTable.fromList(server.subList(0, 3))));
+    }
+
+    @Test
+    public void unknownOrder_fallsBackToOffsets() {
+        EarthquakeQuery query = new EarthquakeQuery("4.5", "unknown", 3);
+        List<Earthquake> server = byTime(6);
+        EarthquakePageSource source = new EarthquakePageSource(RuntimeEnvironment.application, query,
+                EarthquakeTable.fromList(server.subList(0, 3)));
+
+        assertNull(source.getStart());
+        mTransport.serve(QueryUtils.appendQueryParameter(query.toUrl(), "offset", "4"),
+                GeoJsonFixtures.collection(server.subList(3, 6)));
+        assertEquals(Arrays.asList("us3", "us4", "us5"), ids(source.loadRows(3, 3)));
+    }
+
+    private void serveEndingAt(EarthquakeQuery query, int limit, Earthquake last, List<Earthquake> response) {
+        mTransport.serve(QueryUtils.appendQueryParameter(query.withLimit(limit).toUrl(), "endtime",
+                QueryUtils.formatQueryTime(last.getTimeInMilliseconds())), GeoJsonFixtures.collection(response));
+    }
+
+    /**
+     * Returns earthquakes us0, us1 and so on, newest first.
+     */
+    private static List<Earthquake> byTime(int count) {
+        List<Earthquake> earthquakes = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            earthquakes.add(earthquake("us" + i, 5.0, 1000L * (count - i)));
+        }
+        return earthquakes;
+    }
+
+    static List<String> ids(EarthquakeTable table) {
+        List<String> ids = new ArrayList<>();
+        for (int row = 0; row < table.size(); row++) {
+            ids.add(table.getId(row));
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,151 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the engine only answers queries whose result is contained in what was fetched, and
+ * then answers them the way USGS would.
+ */
+public class EarthquakeQueryEngineTest {
+
+    private static final String[] ORDERS = {"time", "time-asc", "magnitude", "magnitude-asc"};
+
+    /** Every earthquake USGS knows of, newest first, with distinct times and magnitudes */
+    private final List<Earthquake> mServer = server(500, 11);
+
+    @Test
+    public void completeResult_answersEveryQueryAboveItsMinimum() {
+        EarthquakeQueryEngine engine = fetched(new EarthquakeQuery("4", "time", 1000));
+
+        for (String orderBy : ORDERS) {
+            assertAnswers(engine, new EarthquakeQuery("4", orderBy, 20));
+            assertAnswers(engine, new EarthquakeQuery("6.5", orderBy, 1000));
+        }
+        assertFalse(engine.canAnswer(new EarthquakeQuery("3.9", "time", 20)));
+    }
+
+    @Test
+    public void resultCutOffByTime_onlyAnswersTheSameOrderWithEnoughRows() {
+        EarthquakeQueryEngine engine = fetched(new EarthquakeQuery("2", "time", 100));
+
+        assertAnswers(engine, new EarthquakeQuery("2", "time", 100));
+        assertAnswers(engine, new EarthquakeQuery("2.5", "time", 50));
+        // The biggest or oldest earthquakes may be past the fetched rows
+        assertFalse(engine.canAnswer(new EarthquakeQuery("2", "magnitude", 10)));
+        assertFalse(engine.canAnswer(new EarthquakeQuery("2", "time-asc", 10)));
+        // Too few fetched rows left above the minimum
+        assertFalse(engine.canAnswer(new EarthquakeQuery("5", "time", 50)));
+        assertFalse(engine.canAnswer(new EarthquakeQuery("2", "time", 101)));
+    }
+
+    @Test
+    public void resultCutOffByMagnitude_answersEveryOrderAboveTheSmallestFetched() {
+        EarthquakeQueryEngine engine = fetched(new EarthquakeQuery("0", "magnitude", 100));
+        double smallest = smallestMagnitude(mServer, 100);
+
+        for (String orderBy : ORDERS) {
+            assertAnswers(engine, new EarthquakeQuery(String.valueOf(smallest + 0.001), orderBy, 30));
+        }
+        assertAnswers(engine, new EarthquakeQuery("0", "magnitude", 30));
+        assertFalse(engine.canAnswer(new EarthquakeQuery(String.valueOf(smallest), "time", 30)));
+        assertFalse(engine.canAnswer(new EarthquakeQuery("0", "time", 30)));
+    }
+
+    @Test
+    public void queriesOnlyTheServerUnderstands_areNotAnswered() {
+        EarthquakeQueryEngine engine = fetched(new EarthquakeQuery("0", "time", 1000));
+
+        assertFalse(engine.canAnswer(new EarthquakeQuery("big", "time", 10)));
+        assertFalse(engine.canAnswer(new EarthquakeQuery("4", "depth", 10)));
+        assertNull(engine.query(new EarthquakeQuery("4", "depth", 10)));
+        assertFalse(new EarthquakeQueryEngine().canAnswer(new EarthquakeQuery("4", "time", 10)));
+    }
+
+    @Test
+    public void everyAnsweredQuery_matchesTheServer() {
+        Random random = new Random(5);
+        int answered = 0;
+        for (int i = 0; i < 300; i++) {
+            EarthquakeQuery fetchQuery = randomQuery(random);
+            EarthquakeQueryEngine engine = fetched(fetchQuery);
+            for (int j = 0; j < 10; j++) {
+                EarthquakeQuery query = randomQuery(random);
+                if (engine.canAnswer(query)) {
+                    assertAnswers(engine, query);
+                    answered++;
+                }
+            }
+        }
+        assertTrue(answered > 100);
+    }
+
+    private EarthquakeQueryEngine fetched(EarthquakeQuery fetchQuery) {
+        EarthquakeQueryEngine engine = new EarthquakeQueryEngine();
+        engine.setFetched(fetchQuery, EarthquakeTable.fromList(answer(fetchQuery)), 0L);
+        return engine;
+    }
+
+    private void assertAnswers(EarthquakeQueryEngine engine, EarthquakeQuery query) {
+        assertTrue(query.toString(), engine.canAnswer(query));
+        assertEquals(query.toString(), ids(answer(query)), ids(engine.query(query).toList()));
+    }
+
+    /**
+     * Returns what USGS answers the query with.
+     */
+    private List<Earthquake> answer(EarthquakeQuery query) {
+        List<Earthquake> matching = new ArrayList<>();
+        for (Earthquake earthquake : mServer) {
+            if (earthquake.getMagnitude() >= query.getMinMagnitudeValue()) {
+                matching.add(earthquake);
+            }
+        }
+        Collections.sort(matching, QueryUtils.comparatorForOrderBy(query.getOrderBy()));
+        return matching.subList(0, Math.min(query.getLimit(), matching.size()));
+    }
+
+    private static EarthquakeQuery randomQuery(Random random) {
+        return new EarthquakeQuery(String.valueOf(random.nextInt(80) / 10.0),
+                ORDERS[random.nextInt(ORDERS.length)], 1 + random.nextInt(300));
+    }
+
+    private static double smallestMagnitude(List<Earthquake> earthquakes, int biggest) {
+        List<Double> magnitudes = new ArrayList<>();
+        for (Earthquake earthquake : earthquakes) {
+            magnitudes.add(earthquake.getMagnitude());
+        }
+        Collections.sort(magnitudes, Collections.reverseOrder());
+        return magnitudes.get(biggest - 1);
+    }
+
+    private static List<Earthquake> server(int size, long seed) {
+        Random random = new Random(seed);
+        List<Double> magnitudes = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            magnitudes.add(i * 8.0 / size);
+        }
+        Collections.shuffle(magnitudes, random);
+        List<Earthquake> earthquakes = new ArrayList<>();
+        long time = 1500000000000L;
+        for (int i = 0; i < size; i++) {
+            time -= 1 + random.nextInt(600000);
+            earthquakes.add(new Earthquake("us" + i, magnitudes.get(i), "Somewhere", time, time, "",
+                    false, 0.0, 0.0, 10.0));
+        }
+        return earthquakes;
+    }
+
+    private static List<String> ids(List<Earthquake> earthquakes) {
+        return MultiSourceIngestorTest.ids(earthquakes);
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.android.quakereport;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Times reading the snapshot against parsing the same earthquakes from GeoJSON, at 1k, 10k
+ * and 100k events.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class EarthquakeSnapshotBenchmark {
+
+    private static final int[] SIZES = {1000, 10000, 100000};
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void snapshotRead_againstJsonParse() throws Exception {
+        for (int size : SIZES) {
+            EarthquakeTable table = GeoJsonFixtures.table(size, 0);
+            final byte[] json = GeoJsonFixtures.collection(table.toList()).getBytes(Charset.forName("UTF-8"));
+            final File file = new File(mFolder.getRoot(), "snapshot" + size + ".bin");
+            new EarthquakeSnapshot(new EarthquakeQuery("4.5", "time", size), table, 1L).write(file);
+            int runs = size >= 100000 ? 3 : 9;
+
+            long parse = Benchmark.median(2, runs, new Benchmark.Body() {
+                @Override
+                public void run() throws Exception {
+                    GeoJsonParser.parse(new ByteArrayInputStream(json));
+                }
+            });
+            long read = Benchmark.median(2, runs, new Benchmark.Body() {
+                @Override
+                public void run() {
+                    EarthquakeSnapshot.read(file);
+                }
+            });
+            Benchmark.report("GeoJSON parse, " + json.length / 1024 + " KB", size, parse);
+            Benchmark.report("Snapshot read, " + file.length() / 1024 + " KB", size, read);
+
+            assertEquals(size, GeoJsonParser.parse(new ByteArrayInputStream(json)).size());
+            assertEquals(size, EarthquakeSnapshot.read(file).getEarthquakes().size());
+        }
+    }
+}
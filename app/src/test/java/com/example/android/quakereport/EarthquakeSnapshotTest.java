@@ -0,0 +1,96 @@
+package com.example.android.quakereport;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EarthquakeSnapshotTest {
+
+    private static final EarthquakeQuery QUERY = new EarthquakeQuery("4.5", "time", 100);
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void readBack_returnsWhatWasWritten() throws IOException {
+        File file = mFolder.newFile("snapshot.bin");
+        EarthquakeTable table = GeoJsonFixtures.table(25, 0);
+        assertTrue(new EarthquakeSnapshot(QUERY, table, 1234L).write(file));
+
+        EarthquakeSnapshot snapshot = EarthquakeSnapshot.read(file);
+        assertNotNull(snapshot);
+        assertEquals(QUERY, snapshot.getQuery());
+        assertEquals(1234L, snapshot.getFetchedAt());
+        assertEquals(table.size(), snapshot.getEarthquakes().size());
+        for (int row = 0; row < table.size(); row++) {
+            assertEquals(table.getId(row), snapshot.getEarthquakes().getId(row));
+            assertEquals(table.getLocation(row), snapshot.getEarthquakes().getLocation(row));
+            assertEquals(table.getWebsite(row), snapshot.getEarthquakes().getWebsite(row));
+            assertEquals(table.getMagnitude(row), snapshot.getEarthquakes().getMagnitude(row), 0.0);
+            assertEquals(table.getTimeInMilliseconds(row), snapshot.getEarthquakes().getTimeInMilliseconds(row));
+        }
+    }
+
+    @Test
+    public void write_keepsASnapshotFetchedLater() throws IOException {
+        File file = mFolder.newFile("snapshot.bin");
+        assertTrue(new EarthquakeSnapshot(QUERY, GeoJsonFixtures.table(3, 0), 2000L).write(file));
+
+        assertFalse(new EarthquakeSnapshot(QUERY, GeoJsonFixtures.table(5, 0), 1000L).write(file));
+        assertEquals(2000L, EarthquakeSnapshot.read(file).getFetchedAt());
+    }
+
+    @Test
+    public void read_rejectsATruncatedFile() throws IOException {
+        File file = mFolder.newFile("snapshot.bin");
+        new EarthquakeSnapshot(QUERY, GeoJsonFixtures.table(10, 0), 1000L).write(file);
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        out.setLength(out.length() - 3);
+        out.close();
+
+        assertNull(EarthquakeSnapshot.read(file));
+    }
+
+    @Test
+    public void concurrentWrites_leaveTheNewestWholeSnapshot() throws Exception {
+        final File file = new File(mFolder.getRoot(), "snapshot.bin");
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Boolean>> writes = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            final int writer = i;
+            writes.add(executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return new EarthquakeSnapshot(QUERY, GeoJsonFixtures.table(20 + writer % 50, writer), writer)
+                            .write(file);
+                }
+            }));
+        }
+        for (Future<Boolean> write : writes) {
+            write.get();
+        }
+        executor.shutdown();
+
+        EarthquakeSnapshot snapshot = EarthquakeSnapshot.read(file);
+        assertNotNull(snapshot);
+        assertEquals(199L, snapshot.getFetchedAt());
+        assertEquals(20 + 199 % 50, snapshot.getEarthquakes().size());
+        assertEquals(1, mFolder.getRoot().list().length);
+    }
+}
@@ -0,0 +1,201 @@
+package com.example.android.quakereport;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static com.example.android.quakereport.GeoJsonFixtures.earthquake;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EarthquakeStoreTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mFile;
+    private File mJournalFile;
+
+    @Before
+    public void setUp() {
+        mFile = new File(mFolder.getRoot(), "earthquakes.dat");
+        mJournalFile = new File(mFolder.getRoot(), "earthquakes.dat.journal");
+    }
+
+    @Test
+    public void save_appendsOnlyTheChangesToTheJournal() {
+        EarthquakeStore store = new EarthquakeStore(mFile);
+        store.load();
+        for (int i = 0; i < 10; i++) {
+            store.put(earthquake("us" + i, 4.5, 1000L * i));
+        }
+        store.save();
+        long journalLength = mJournalFile.length();
+
+        store.put(earthquake("us3", 4.5, 99000L));
+        store.remove("us4");
+        store.save();
+
+        // Two short records, not the eight other events again
+        assertTrue(mJournalFile.length() - journalLength < journalLength / 4);
+        EarthquakeStore loaded = load();
+        assertEquals(9, loaded.size());
+        assertEquals(99000L, loaded.get("us3").getTimeInMilliseconds());
+        assertNull(loaded.get("us4"));
+    }
+
+    @Test
+    public void save_withoutChangesWritesNothing() {
+        EarthquakeStore store = new EarthquakeStore(mFile);
+        store.load();
+        store.save();
+
+        assertFalse(mFile.exists());
+        assertFalse(mJournalFile.exists());
+    }
+
+    @Test
+    public void save_rewritesTheFileOnceTheJournalOutgrowsTheStore() {
+        EarthquakeStore store = new EarthquakeStore(mFile);
+        store.load();
+        for (int round = 0; round < 40; round++) {
+            for (int i = 0; i < 10; i++) {
+                store.put(earthquake("us" + i, 4.5, 1000L * round + i));
+            }
+            store.save();
+        }
+
+        // 400 records were saved, but the journal never holds more than the threshold
+        assertTrue(mFile.exists());
+        assertTrue(!mJournalFile.exists() || mJournalFile.length() < mFile.length() * 40);
+        EarthquakeStore loaded = load();
+        assertEquals(10, loaded.size());
+        assertEquals(39009L, loaded.get("us9").getTimeInMilliseconds());
+    }
+
+    @Test
+    public void load_dropsATornJournalRecord() throws IOException {
+        EarthquakeStore store = new EarthquakeStore(mFile);
+        store.load();
+        store.put(earthquake("us1", 4.5, 1000L));
+        store.save();
+        store.put(earthquake("us2", 4.5, 2000L));
+        store.save();
+        RandomAccessFile journal = new RandomAccessFile(mJournalFile, "rw");
+        journal.setLength(journal.length() - 5);
+        journal.close();
+
+        EarthquakeStore loaded = load();
+        assertEquals(1, loaded.size());
+        assertEquals(1000L, loaded.get("us1").getTimeInMilliseconds());
+
+        // Later saves are not appended after the torn record
+        loaded.put(earthquake("us3", 4.5, 3000L));
+        loaded.save();
+        EarthquakeStore reloaded = load();
+        assertEquals(new HashSet<>(Arrays.asList("us1", "us3")), ids(reloaded));
+    }
+
+    @Test
+    public void load_ignoresAJournalWhoseFileIsOutdated() throws IOException {
+        EarthquakeStore store = new EarthquakeStore(mFile);
+        store.load();
+        store.put(earthquake("us1", 4.5, 1000L));
+        store.save();
+        FileOutputStream out = new FileOutputStream(mFile);
+        out.write(new byte[]{0, 0, 0, 1, 0, 0, 0, 0});
+        out.close();
+
+        assertEquals(0, load().size());
+        assertFalse(mJournalFile.exists());
+    }
+
+    @Test
+    public void retainAll_removesUnreferencedEventsFromTheIndexesToo() {
+        EarthquakeStore store = new EarthquakeStore(mFile);
+        store.load();
+        store.put(earthquake("us1", 4.5, 1000L));
+        store.put(earthquake("us2", 4.5, 2000L));
+        store.put(earthquake("us3", 4.5, 3000L));
+        EarthquakeAggregator aggregator = store.getAggregator();
+
+        assertEquals(2, store.retainAll(new HashSet<>(Arrays.asList("us2", "us9"))));
+        assertEquals(1, store.size());
+        assertEquals(1, aggregator.getCount());
+        assertEquals(Arrays.asList("us2"), store.getPlaceIndex().search("somewhere", 10));
+        store.save();
+        assertEquals(new HashSet<>(Arrays.asList("us2")), ids(load()));
+    }
+
+    @Test
+    public void indexes_areBuiltOnFirstUseAndThenFollowChanges() {
+        EarthquakeStore store = new EarthquakeStore(mFile);
+        store.load();
+        store.put(earthquake("us1", 4.5, 1000L));
+        store.put(earthquake("us2", 4.5, 2000L));
+
+        PlaceIndex places = store.getPlaceIndex();
+        ClusterPyramid clusters = store.getClusters();
+        assertEquals(2, places.size());
+        assertEquals(1, clusters.getClusterCount(0));
+
+        store.put(earthquake("us3", 4.5, 3000L));
+        store.remove("us1");
+        assertEquals(Arrays.asList("us3", "us2"), places.search("somewhere", 10));
+        assertEquals(2, clusters.getClusters(0, 0.0, 0.0, 90.0, 45.0).get(0).getCount());
+        assertEquals(2, store.getAggregator().getCount());
+    }
+
+    @Test
+    public void geoQueries_seeEveryChange() {
+        EarthquakeStore store = new EarthquakeStore(mFile);
+        store.load();
+        store.put(GeoJsonFixtures.earthquake("us1", 4.5, 1000L, 139.7, 35.7));
+        store.put(GeoJsonFixtures.earthquake("us2", 4.5, 2000L, 135.5, 34.7));
+        store.put(GeoJsonFixtures.earthquake("us3", 4.5, 3000L, -122.4, 37.8));
+
+        assertEquals(Arrays.asList("us1"), ids(store.getWithinRadius(35.0, 139.0, 150.0)));
+        assertEquals(Arrays.asList("us1", "us2"), ids(store.getNearest(35.0, 139.0, 2)));
+
+        store.put(GeoJsonFixtures.earthquake("us4", 4.5, 4000L, 139.1, 35.1));
+        store.remove("us1");
+        assertEquals(Arrays.asList("us4"), ids(store.getWithinRadius(35.0, 139.0, 150.0)));
+        assertEquals(new HashSet<>(Arrays.asList("us2", "us4")),
+                new HashSet<>(ids(store.getWithinBoundingBox(30.0, 130.0, 40.0, 140.0))));
+        assertEquals(4000L, store.getNearest(35.0, 139.0, 1).get(0).getUpdatedInMilliseconds());
+    }
+
+    private EarthquakeStore load() {
+        EarthquakeStore store = new EarthquakeStore(mFile);
+        store.load();
+        return store;
+    }
+
+    private static HashSet<String> ids(EarthquakeStore store) {
+        HashSet<String> ids = new HashSet<>();
+        for (Earthquake earthquake : store.getAll()) {
+            ids.add(earthquake.getId());
+        }
+        return ids;
+    }
+
+    private static List<String> ids(List<Earthquake> earthquakes) {
+        List<String> ids = new ArrayList<>();
+        for (Earthquake earthquake : earthquakes) {
+            ids.add(earthquake.getId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures the heap held by the earthquakes of a parsed response, kept as an
+ * {@code ArrayList<Earthquake>} the way the app did before, and as an {@link EarthquakeTable}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class EarthquakeTableBenchmark {
+
+    private static final int[] SIZES = {1000, 10000, 100000};
+
+    @Test
+    public void table_againstList() throws Exception {
+        for (final int size : SIZES) {
+            final byte[] json = GeoJsonFixtures.collection(GeoJsonFixtures.table(size, 0).toList())
+                    .getBytes(Charset.forName("UTF-8"));
+
+            // Every event gets its own strings, as it does when parsed from a response
+            long list = Benchmark.retainedBytes(new Benchmark.Factory() {
+                @Override
+                public Object create() throws Exception {
+                    return GeoJsonParser.parse(new ByteArrayInputStream(json));
+                }
+            });
+            long table = Benchmark.retainedBytes(new Benchmark.Factory() {
+                @Override
+                public Object create() throws Exception {
+                    return EarthquakeTable.fromList(GeoJsonParser.parse(new ByteArrayInputStream(json)));
+                }
+            });
+            Benchmark.reportBytes("ArrayList<Earthquake>", size, list);
+            Benchmark.reportBytes("EarthquakeTable", size, table);
+
+            List<Earthquake> parsed = GeoJsonParser.parse(new ByteArrayInputStream(json));
+            assertEquals(size, EarthquakeTable.fromList(parsed).size());
+        }
+    }
+}
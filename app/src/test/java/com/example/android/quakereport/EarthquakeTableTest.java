@@ -0,0 +1,100 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.example.android.quakereport.GeoJsonFixtures.earthquake;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class EarthquakeTableTest {
+
+    @Test
+    public void rows_readBackEveryField() {
+        List<Earthquake> earthquakes = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            earthquakes.add(new Earthquake("us" + i, i % 7 == 0 ? Double.NaN : i / 20.0,
+                    i % 3 == 0 ? "Place " + (i % 11) : (i % 50) + "km N of Place " + (i % 11),
+                    1000000L * i, 1000000L * i, "https://example.com/" + (i % 5 == 0 ? "x" : "us" + i),
+                    false, -180.0 + i, -80.0 + i * 0.5, i % 9));
+        }
+        EarthquakeTable table = new EarthquakeTable(1);
+        for (Earthquake earthquake : earthquakes) {
+            table.add(earthquake);
+        }
+
+        assertEquals(earthquakes.size(), table.size());
+        for (int row = 0; row < table.size(); row++) {
+            Earthquake expected = earthquakes.get(row);
+            Earthquake actual = table.get(row);
+            String message = "row " + row;
+            assertEquals(message, expected.getId(), actual.getId());
+            assertEquals(message, Double.doubleToLongBits(expected.getMagnitude()),
+                    Double.doubleToLongBits(actual.getMagnitude()));
+            assertEquals(message, expected.getLocation(), actual.getLocation());
+            assertEquals(message, expected.getTimeInMilliseconds(), actual.getTimeInMilliseconds());
+            assertEquals(message, expected.getWebsite(), actual.getWebsite());
+            assertEquals(message, expected.getLongitude(), actual.getLongitude(), 0.0);
+            assertEquals(message, expected.getLatitude(), actual.getLatitude(), 0.0);
+            assertEquals(message, expected.getDepth(), actual.getDepth(), 0.0);
+        }
+    }
+
+    @Test
+    public void locations_areSplitAndSharedBetweenRows() {
+        EarthquakeTable table = EarthquakeTable.fromList(Arrays.asList(
+                earthquake("us1", "88km N of Yelizovo, Russia", "https://example.com/us1"),
+                earthquake("us2", "12km S of Yelizovo, Russia", "https://example.com/us2"),
+                earthquake("us3", "Pacific-Antarctic Ridge", "https://example.com/us3")));
+
+        assertEquals("88km N of ", table.getOffsetLocation(0));
+        assertEquals("Yelizovo, Russia", table.getPrimaryLocation(0));
+        assertSame(table.getPrimaryLocation(0), table.getPrimaryLocation(1));
+        assertEquals("", table.getOffsetLocation(2));
+        assertEquals("Pacific-Antarctic Ridge", table.getLocation(2));
+        assertEquals(5, table.getLocationDictionary().length);
+    }
+
+    @Test
+    public void websites_keepAPrefixPerSiteAndWholeUrlsOtherwise() {
+        EarthquakeTable table = EarthquakeTable.fromList(Arrays.asList(
+                earthquake("us1", "Somewhere", "https://example.com/us1"),
+                earthquake("us2", "Somewhere", "https://example.com/us2"),
+                earthquake("us3", "Somewhere", "https://example.com/other"),
+                earthquake("", "Somewhere", "https://example.com/")));
+
+        assertEquals(Arrays.asList("https://example.com/", "https://example.com/other"),
+                Arrays.asList(table.getWebsiteDictionary()));
+        assertEquals("https://example.com/us2", table.getWebsite(1));
+        assertEquals("https://example.com/other", table.getWebsite(2));
+        assertEquals("https://example.com/", table.getWebsite(3));
+        assertTrue(table.getWebsiteCode(2) < 0);
+    }
+
+    @Test
+    public void select_copiesTheRowsInTheGivenOrder() {
+        EarthquakeTable table = GeoJsonFixtures.table(50, 5);
+        int[] rows = {7, 3, 49, 3};
+
+        EarthquakeTable selected = table.select(rows);
+
+        assertEquals(rows.length, selected.size());
+        for (int i = 0; i < rows.length; i++) {
+            assertEquals(table.getId(rows[i]), selected.getId(i));
+            assertEquals(table.getLocation(rows[i]), selected.getLocation(i));
+            assertEquals(table.getWebsite(rows[i]), selected.getWebsite(i));
+        }
+        assertEquals(0, table.select(new int[0]).size());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void rowPastTheEnd_isRejected() {
+        EarthquakeTable table = EarthquakeTable.fromList(Arrays.asList(
+                earthquake("us1", "Somewhere", "https://example.com/us1")));
+        table.getMagnitude(1);
+    }
+}
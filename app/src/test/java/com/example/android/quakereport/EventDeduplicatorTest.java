@@ -0,0 +1,103 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.example.android.quakereport.GeoJsonFixtures.earthquake;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class EventDeduplicatorTest {
+
+    @Test
+    public void versionsWithinEveryTolerance_areOneEvent() {
+        EventDeduplicator deduplicator = new EventDeduplicator(null);
+        Earthquake usgs = earthquake("us1", 5.2, 100000L, 142.37, 38.30);
+        deduplicator.add(usgs, 0);
+
+        assertSame(usgs, deduplicator.add(earthquake("em1", 5.6, 115000L, 142.90, 38.00), 1));
+        assertEquals(1, deduplicator.size());
+    }
+
+    @Test
+    public void versionsOutsideAnyTolerance_areSeparateEvents() {
+        EventDeduplicator deduplicator = new EventDeduplicator(null);
+        deduplicator.add(earthquake("us1", 5.2, 100000L, 142.37, 38.30), 0);
+
+        // Too late, too far and too different in magnitude
+        deduplicator.add(earthquake("em1", 5.2, 117000L, 142.37, 38.30), 1);
+        deduplicator.add(earthquake("em2", 5.2, 100000L, 143.70, 38.30), 1);
+        deduplicator.add(earthquake("em3", 5.8, 100000L, 142.37, 38.30), 1);
+
+        assertEquals(4, deduplicator.size());
+    }
+
+    @Test
+    public void earthquakesOfOneSource_areOnlyMergedByTheirId() {
+        EventDeduplicator deduplicator = new EventDeduplicator(null);
+        deduplicator.add(earthquake("us1", 5.2, 100000L, 142.37, 38.30), 0);
+        deduplicator.add(earthquake("us2", 5.2, 100000L, 142.37, 38.30), 0);
+
+        assertEquals(2, deduplicator.size());
+    }
+
+    @Test
+    public void preferredSource_replacesTheCanonicalVersion() {
+        final List<String> changes = new ArrayList<>();
+        EventDeduplicator deduplicator = new EventDeduplicator(new EventDeduplicator.OnCanonicalEventListener() {
+            @Override
+            public void onCanonicalEvent(Earthquake earthquake, Earthquake replaced) {
+                changes.add(earthquake.getId() + "<" + (replaced == null ? null : replaced.getId()));
+            }
+        });
+        Earthquake emsc = earthquake("em1", 5.4, 103000L, 142.50, 38.20);
+        deduplicator.add(emsc, 1);
+        Earthquake usgs = earthquake("us1", 5.2, 100000L, 142.37, 38.30);
+        deduplicator.add(usgs, 0);
+        // A later update of the other catalog's version does not take over
+        deduplicator.add(new Earthquake("em1", 5.5, "", 103000L, 300000L, "", false, 142.50, 38.20, 10.0), 1);
+
+        assertEquals(Arrays.asList(usgs), deduplicator.getCanonical());
+        assertEquals(Arrays.asList("em1<null", "us1<em1"), changes);
+    }
+
+    @Test
+    public void laterUpdateOfTheSameSource_replacesTheCanonicalVersion() {
+        EventDeduplicator deduplicator = new EventDeduplicator(null);
+        deduplicator.add(earthquake("us1", 5.2, 100000L, 142.37, 38.30), 0);
+        Earthquake updated = new Earthquake("us1", 5.3, "", 100000L, 200000L, "", false, 142.37, 38.30, 10.0);
+
+        assertSame(updated, deduplicator.add(updated, 0));
+        assertEquals(1, deduplicator.size());
+    }
+
+    @Test
+    public void antimeridianAndPole_doNotSplitMatches() {
+        EventDeduplicator deduplicator = new EventDeduplicator(null);
+        deduplicator.add(earthquake("us1", 6.1, 100000L, 179.95, -17.80), 0);
+        deduplicator.add(earthquake("em1", 6.0, 101000L, -179.95, -17.85), 1);
+        deduplicator.add(earthquake("us2", 5.0, 500000L, 10.0, 89.90), 0);
+        deduplicator.add(earthquake("em2", 5.0, 501000L, -170.0, 89.95), 1);
+
+        assertEquals(2, deduplicator.size());
+    }
+
+    @Test
+    public void earthquakesWithoutCoordinates_areOnlyMergedByTheirId() {
+        EventDeduplicator deduplicator = new EventDeduplicator(null);
+        deduplicator.add(new Earthquake("us1", 5.2, "", 100000L, ""), 0);
+        Earthquake other = new Earthquake("em1", 5.2, "", 100000L, "");
+
+        assertSame(other, deduplicator.add(other, 1));
+        assertEquals(2, deduplicator.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rankOutOfRange_isRejected() {
+        assertNull(new EventDeduplicator(null).add(earthquake("us1", 5.2, 100000L, 142.37, 38.30), 32));
+    }
+}
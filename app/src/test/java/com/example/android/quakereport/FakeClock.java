@@ -0,0 +1,92 @@
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A {@link SyncScheduler.Clock} whose time only moves when told to, so a schedule can be stepped
+ * through deterministically on the JVM. Callbacks run on the thread calling {@link #advance(long)}.
+ */
+public class FakeClock implements SyncScheduler.Clock {
+
+    private long mNow;
+    private long mNextSequence;
+    private final List<Pending> mPending = new ArrayList<>();
+
+    /**
+     * Constructs a new {@link FakeClock} starting at the given time.
+     */
+    public FakeClock(long now) {
+        mNow = now;
+    }
+
+    @Override
+    public synchronized long now() {
+        return mNow;
+    }
+
+    @Override
+    public synchronized void postDelayed(Runnable callback, long delayMillis) {
+        mPending.add(new Pending(mNow + Math.max(0, delayMillis), mNextSequence++, callback));
+    }
+
+    @Override
+    public synchronized void removeCallbacks(Runnable callback) {
+        Iterator<Pending> iterator = mPending.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().callback == callback) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Moves time forward, running every callback that falls due on the way in time order.
+     * Callbacks posted by callbacks run too if they fall due in time.
+     */
+    public void advance(long millis) {
+        long target;
+        synchronized (this) {
+            target = mNow + millis;
+        }
+        while (true) {
+            Pending next;
+            synchronized (this) {
+                next = null;
+                for (Pending pending : mPending) {
+                    if (pending.time <= target && (next == null || pending.time < next.time
+                            || (pending.time == next.time && pending.sequence < next.sequence))) {
+                        next = pending;
+                    }
+                }
+                if (next == null) {
+                    mNow = target;
+                    return;
+                }
+                mPending.remove(next);
+                mNow = next.time;
+            }
+            next.callback.run();
+        }
+    }
+
+    /**
+     * Returns the number of callbacks waiting to run.
+     */
+    public synchronized int getPendingCount() {
+        return mPending.size();
+    }
+
+    private static final class Pending {
+        final long time;
+        final long sequence;
+        final Runnable callback;
+
+        Pending(long time, long sequence, Runnable callback) {
+            this.time = time;
+            this.sequence = sequence;
+            this.callback = callback;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.example.android.quakereport;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * An in-process {@link HttpTransport} that answers from canned responses, so fetching can be
+ * exercised without a network.
+ *
+ * Like a real server it compresses bodies for clients that accept gzip and answers
+ * 304 Not Modified when the client already has the current ETag, or has a copy no older than
+ * the Last-Modified time when there is no ETag to compare. It can add latency to every
+ * request, and it counts requests and the body bytes it sent.
+ */
+public class FakeHttpTransport implements HttpTransport {
+
+    private final Map<String, Route> mRoutes = new HashMap<>();
+    private long mLatencyMillis;
+    private int mRequestCount;
+    private long mBytesSent;
+    private Map<String, String> mLastRequestHeaders;
+
+    /**
+     * Serves the body with status 200 OK for the given url.
+     */
+    public void serve(String url, String body) {
+        serve(url, HttpURLConnection.HTTP_OK, null, body);
+    }
+
+    /**
+     * Serves the given response for the url, replacing any response served for it before.
+     *
+     * @param eTag ETag sent with the response, or null for none
+     */
+    public void serve(String url, int code, String eTag, String body) {
+        serve(url, code, eTag, 0, body);
+    }
+
+    /**
+     * Serves the given response for the url, replacing any response served for it before.
+     *
+     * @param eTag ETag sent with the response, or null for none
+     * @param lastModified Last-Modified time sent with the response in milliseconds, or 0 for none
+     */
+    public synchronized void serve(String url, int code, String eTag, long lastModified, String body) {
+        mRoutes.put(url, new Route(code, eTag, lastModified, body.getBytes(Charset.forName("UTF-8"))));
+    }
+
+    /**
+     * Delays every response by the given time, to simulate a slow network.
+     */
+    public synchronized void setLatencyMillis(long latencyMillis) {
+        mLatencyMillis = latencyMillis;
+    }
+
+    /**
+     * Returns the number of requests received.
+     */
+    public synchronized int getRequestCount() {
+        return mRequestCount;
+    }
+
+    /**
+     * Returns the number of body bytes sent, after compression.
+     */
+    public synchronized long getBytesSent() {
+        return mBytesSent;
+    }
+
+    /**
+     * Returns the headers of the last request, or null if there was none.
+     */
+    public synchronized Map<String, String> getLastRequestHeaders() {
+        return mLastRequestHeaders;
+    }
+
+    @Override
+    public HttpResponse get(URL url, Map<String, String> headers) throws IOException {
+        Route route;
+        long latencyMillis;
+        synchronized (this) {
+            mRequestCount++;
+            mLastRequestHeaders = new HashMap<>(headers);
+            route = mRoutes.get(url.toString());
+            latencyMillis = mLatencyMillis;
+        }
+
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for " + url);
+            }
+        }
+
+        if (route == null) {
+            throw new FileNotFoundException("Nothing served for " + url);
+        }
+
+        Map<String, String> responseHeaders = new HashMap<>();
+        if (route.lastModified > 0) {
+            responseHeaders.put("Last-Modified", QueryUtils.formatHttpDate(route.lastModified));
+        }
+        if (route.eTag != null) {
+            responseHeaders.put("ETag", route.eTag);
+            if (route.eTag.equals(headerOf(headers, "If-None-Match"))) {
+                return new HttpResponse(HttpURLConnection.HTTP_NOT_MODIFIED, responseHeaders, null);
+            }
+        } else if (route.lastModified > 0) {
+            // HTTP dates have a resolution of one second
+            long modifiedSince = QueryUtils.parseHttpDate(headerOf(headers, "If-Modified-Since"));
+            if (modifiedSince > 0 && route.lastModified / 1000 <= modifiedSince / 1000) {
+                return new HttpResponse(HttpURLConnection.HTTP_NOT_MODIFIED, responseHeaders, null);
+            }
+        }
+
+        byte[] body = route.body;
+        String acceptEncoding = headerOf(headers, "Accept-Encoding");
+        if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            body = gzip(body);
+            responseHeaders.put("Content-Encoding", "gzip");
+        }
+        synchronized (this) {
+            mBytesSent += body.length;
+        }
+        return new HttpResponse(route.code, responseHeaders, new ByteArrayInputStream(body));
+    }
+
+    private static String headerOf(Map<String, String> headers, String name) {
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (header.getKey().equalsIgnoreCase(name)) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(bytes);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * A canned response.
+     */
+    private static final class Route {
+        final int code;
+        final String eTag;
+        final long lastModified;
+        final byte[] body;
+
+        Route(int code, String eTag, long lastModified, byte[] body) {
+            this.code = code;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.body = body;
+        }
+    }
+}
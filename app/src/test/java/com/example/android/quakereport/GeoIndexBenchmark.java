@@ -0,0 +1,51 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+/**
+ * Times radius, bounding box and nearest queries on {@link GeoIndex} against measuring the
+ * distance to every earthquake.
+ */
+public class GeoIndexBenchmark {
+
+    private static final int[] SIZES = {1000, 10000, 100000};
+
+    @Test
+    public void index_againstLinearScan() throws Exception {
+        for (int size : SIZES) {
+            final EarthquakeTable table = GeoIndexTest.randomTable(size, 0);
+            final GeoIndex[] index = new GeoIndex[1];
+            Benchmark.report("Build the index", size, Benchmark.median(2, 5, new Benchmark.Body() {
+                @Override
+                public void run() {
+                    index[0] = new GeoIndex(table);
+                }
+            }));
+
+            Benchmark.report("Within 200 km in the index", size, Benchmark.median(50, 101, new Benchmark.Body() {
+                @Override
+                public void run() {
+                    index[0].withinRadius(35.0, 139.0, 200.0);
+                }
+            }));
+            Benchmark.report("Within 200 km by scan", size, Benchmark.median(5, 21, new Benchmark.Body() {
+                @Override
+                public void run() {
+                    GeoIndexTest.scanRadius(table, 35.0, 139.0, 200.0);
+                }
+            }));
+            Benchmark.report("Bounding box in the index", size, Benchmark.median(50, 101, new Benchmark.Body() {
+                @Override
+                public void run() {
+                    index[0].withinBoundingBox(30.0, 130.0, 45.0, 145.0);
+                }
+            }));
+            Benchmark.report("Nearest 10 in the index", size, Benchmark.median(50, 101, new Benchmark.Body() {
+                @Override
+                public void run() {
+                    index[0].nearest(35.0, 139.0, 10);
+                }
+            }));
+        }
+    }
+}
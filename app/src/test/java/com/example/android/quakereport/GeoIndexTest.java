@@ -0,0 +1,146 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class GeoIndexTest {
+
+    @Test
+    public void boundingBox_findsExactlyThePointsInside() {
+        EarthquakeTable table = table(new double[][]{{10.0, 20.0}, {10.5, 20.5}, {11.0, 21.0}, {-10.0, -20.0}});
+        GeoIndex index = new GeoIndex(table);
+
+        assertArrayEquals(new int[]{0, 1}, sorted(index.withinBoundingBox(9.0, 19.0, 10.6, 20.6)));
+        assertArrayEquals(new int[]{3}, sorted(index.withinBoundingBox(-90.0, -180.0, 0.0, 0.0)));
+        // South of north is empty
+        assertEquals(0, index.withinBoundingBox(20.0, 0.0, 10.0, 30.0).length);
+    }
+
+    @Test
+    public void boundingBox_acrossTheAntimeridian() {
+        EarthquakeTable table = table(new double[][]{{0.0, 179.5}, {0.0, -179.5}, {0.0, 0.0}});
+        GeoIndex index = new GeoIndex(table);
+
+        assertArrayEquals(new int[]{0, 1}, sorted(index.withinBoundingBox(-1.0, 179.0, 1.0, -179.0)));
+    }
+
+    @Test
+    public void radius_findsWhatALinearScanFinds() {
+        EarthquakeTable table = randomTable(5000, 1);
+        GeoIndex index = new GeoIndex(table);
+        Random random = new Random(2);
+        for (int i = 0; i < 50; i++) {
+            double latitude = random.nextDouble() * 180.0 - 90.0;
+            double longitude = random.nextDouble() * 360.0 - 180.0;
+            double radiusKm = random.nextDouble() * 2000.0;
+
+            assertArrayEquals(scanRadius(table, latitude, longitude, radiusKm),
+                    sorted(index.withinRadius(latitude, longitude, radiusKm)));
+        }
+    }
+
+    @Test
+    public void radius_reachesAcrossTheAntimeridianAndOverThePole() {
+        EarthquakeTable table = table(new double[][]{{0.0, 179.9}, {89.9, 0.0}, {89.9, 180.0}});
+        GeoIndex index = new GeoIndex(table);
+
+        assertArrayEquals(new int[]{0}, index.withinRadius(0.0, -179.9, 50.0));
+        assertArrayEquals(new int[]{1, 2}, sorted(index.withinRadius(90.0, 0.0, 20.0)));
+    }
+
+    @Test
+    public void nearest_findsWhatALinearScanFindsInOrder() {
+        final EarthquakeTable table = randomTable(5000, 3);
+        GeoIndex index = new GeoIndex(table);
+        Random random = new Random(4);
+        for (int i = 0; i < 50; i++) {
+            final double latitude = random.nextDouble() * 180.0 - 90.0;
+            final double longitude = random.nextDouble() * 360.0 - 180.0;
+            List<Integer> rows = new ArrayList<>();
+            for (int row = 0; row < table.size(); row++) {
+                rows.add(row);
+            }
+            Collections.sort(rows, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return Double.compare(distance(table, a, latitude, longitude),
+                            distance(table, b, latitude, longitude));
+                }
+            });
+
+            int[] nearest = index.nearest(latitude, longitude, 10);
+            assertEquals(10, nearest.length);
+            for (int k = 0; k < 10; k++) {
+                assertEquals(distance(table, rows.get(k), latitude, longitude),
+                        distance(table, nearest[k], latitude, longitude), 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void rowsWithoutCoordinates_areLeftOut() {
+        EarthquakeTable table = table(new double[][]{{Double.NaN, Double.NaN}, {1.0, 1.0}});
+        GeoIndex index = new GeoIndex(table);
+
+        assertEquals(1, index.size());
+        assertArrayEquals(new int[]{1}, index.nearest(0.0, 0.0, 5));
+    }
+
+    @Test
+    public void distance_ofOneDegreeAlongTheEquator() {
+        assertEquals(111.195, GeoIndex.distanceKm(0.0, 0.0, 0.0, 1.0), 0.001);
+        assertEquals(GeoIndex.distanceKm(0.0, 179.5, 0.0, -179.5), GeoIndex.distanceKm(0.0, 0.0, 0.0, 1.0), 1e-9);
+    }
+
+    static EarthquakeTable randomTable(int size, long seed) {
+        Random random = new Random(seed);
+        EarthquakeTable table = new EarthquakeTable(size);
+        for (int i = 0; i < size; i++) {
+            table.add(new Earthquake("us" + i, 4.0, "Place " + i, i, i, "", false,
+                    random.nextDouble() * 360.0 - 180.0, Math.toDegrees(Math.asin(random.nextDouble() * 2.0 - 1.0)),
+                    10.0));
+        }
+        return table;
+    }
+
+    /**
+     * Returns the rows within the radius, found by measuring the distance to every row.
+     */
+    static int[] scanRadius(EarthquakeTable table, double latitude, double longitude, double radiusKm) {
+        int[] rows = new int[table.size()];
+        int count = 0;
+        for (int row = 0; row < table.size(); row++) {
+            if (distance(table, row, latitude, longitude) <= radiusKm) {
+                rows[count++] = row;
+            }
+        }
+        return Arrays.copyOf(rows, count);
+    }
+
+    private static double distance(EarthquakeTable table, int row, double latitude, double longitude) {
+        return GeoIndex.distanceKm(latitude, longitude, table.getLatitude(row), table.getLongitude(row));
+    }
+
+    private static EarthquakeTable table(double[][] points) {
+        EarthquakeTable table = new EarthquakeTable(points.length);
+        for (int i = 0; i < points.length; i++) {
+            table.add(new Earthquake("us" + i, 4.0, "Place " + i, i, i, "", false,
+                    points[i][1], points[i][0], 10.0));
+        }
+        return table;
+    }
+
+    private static int[] sorted(int[] rows) {
+        Arrays.sort(rows);
+        return rows;
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.android.quakereport;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Builds earthquakes and USGS-style GeoJSON responses for tests.
+ */
+final class GeoJsonFixtures {
+
+    private GeoJsonFixtures() {
+    }
+
+    /**
+     * Returns a feature collection of the given earthquakes, with the count in its metadata.
+     */
+    static String collection(List<Earthquake> earthquakes) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"type\":\"FeatureCollection\",\"metadata\":{\"generated\":1,\"count\":")
+                .append(earthquakes.size()).append("},\"features\":[");
+        for (int i = 0; i < earthquakes.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(feature(earthquakes.get(i)));
+        }
+        return json.append("]}").toString();
+    }
+
+    /**
+     * Returns a feature the way USGS sends it, with fields the parser skips.
+     */
+    static String feature(Earthquake earthquake) {
+        return String.format(Locale.US, "{\"type\":\"Feature\",\"properties\":{\"mag\":%s,"
+                        + "\"place\":\"%s\",\"time\":%d,\"updated\":%d,\"tz\":null,\"url\":\"%s\","
+                        + "\"felt\":null,\"status\":\"%s\",\"types\":\",origin,phase-data,\"},"
+                        + "\"geometry\":{\"type\":\"Point\",\"coordinates\":[%s,%s,%s]},\"id\":\"%s\"}",
+                number(earthquake.getMagnitude()), earthquake.getLocation(),
+                earthquake.getTimeInMilliseconds(), earthquake.getUpdatedInMilliseconds(),
+                earthquake.getWebsite(), earthquake.isDeleted() ? "deleted" : "reviewed",
+                number(earthquake.getLongitude()), number(earthquake.getLatitude()),
+                number(earthquake.getDepth()), earthquake.getId());
+    }
+
+    /**
+     * Returns an earthquake at 20°N 10°E, updated when it happened.
+     */
+    static Earthquake earthquake(String id, double magnitude, long time) {
+        return earthquake(id, magnitude, time, 10.0, 20.0);
+    }
+
+    /**
+     * Returns an earthquake with coordinates, updated when it happened.
+     */
+    static Earthquake earthquake(String id, double magnitude, long time, double longitude,
+                                 double latitude) {
+        return new Earthquake(id, magnitude, "Somewhere " + id, time, time, website(id), false,
+                longitude, latitude, 10.0);
+    }
+
+    /**
+     * Returns an earthquake at the given place, updated when it happened. Its coordinates are
+     * 0°N 0°E whatever the place says.
+     */
+    static Earthquake earthquake(String id, double magnitude, long time, String location) {
+        return new Earthquake(id, magnitude, location, time, time, website(id), false, 0.0, 0.0, 10.0);
+    }
+
+    /**
+     * Returns an M4.5 earthquake at the given place with the given web page.
+     */
+    static Earthquake earthquake(String id, String location, String website) {
+        return new Earthquake(id, 4.5, location, 1500000000000L, 1500000000000L, website, false,
+                0.0, 0.0, 10.0);
+    }
+
+    /**
+     * Returns an earthquake at 20°N 10°E that was last updated at the given time.
+     */
+    static Earthquake revised(String id, double magnitude, long time, long updated) {
+        return new Earthquake(id, magnitude, "Somewhere " + id, time, updated, website(id), false,
+                10.0, 20.0, 10.0);
+    }
+
+    /**
+     * Returns the earthquake as revised at the given time, with nothing else changed.
+     */
+    static Earthquake revised(Earthquake earthquake, long updated) {
+        return copy(earthquake, updated, false);
+    }
+
+    /**
+     * Returns the earthquake as USGS sends it once deleted, a millisecond after its last update.
+     */
+    static Earthquake deleted(Earthquake earthquake) {
+        return copy(earthquake, earthquake.getUpdatedInMilliseconds() + 1, true);
+    }
+
+    /**
+     * Returns a deleted event that carries nothing but its id and update time.
+     */
+    static Earthquake deleted(String id, long updated) {
+        return new Earthquake(id, Double.NaN, "", 0L, updated, "", true);
+    }
+
+    private static Earthquake copy(Earthquake earthquake, long updated, boolean deleted) {
+        return new Earthquake(earthquake.getId(), earthquake.getMagnitude(), earthquake.getLocation(),
+                earthquake.getTimeInMilliseconds(), updated, earthquake.getWebsite(), deleted,
+                earthquake.getLongitude(), earthquake.getLatitude(), earthquake.getDepth());
+    }
+
+    private static String website(String id) {
+        return "https://earthquake.usgs.gov/earthquakes/eventpage/" + id;
+    }
+
+    /**
+     * Returns a table of made-up earthquakes, newest first, spread over 300 places, all
+     * magnitudes from 2 to 7.9 and the whole globe. Tables with different seeds have
+     * different ids.
+     */
+    static EarthquakeTable table(int size, int seed) {
+        EarthquakeTable table = new EarthquakeTable(size);
+        for (int i = 0; i < size; i++) {
+            table.add(new Earthquake("us" + seed + "_" + i, 2.0 + (i % 60) / 10.0,
+                    (i % 40) + "km N of Place " + (i % 300), 1000000L * (size - i), 1000000L * (size - i),
+                    "https://earthquake.usgs.gov/earthquakes/eventpage/us" + seed + "_" + i, false,
+                    -180.0 + (i * 7) % 360, -80.0 + (i * 3) % 160, i % 700));
+        }
+        return table;
+    }
+
+    private static String number(double value) {
+        return Double.isNaN(value) ? "null" : Double.toString(value);
+    }
+}
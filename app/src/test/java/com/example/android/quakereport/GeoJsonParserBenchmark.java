@@ -0,0 +1,77 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+
+/**
+ * Times the stages of turning a response into earthquakes, the way the app did before the
+ * streaming parser and the way it does now, reporting throughput and bytes allocated per feature.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class GeoJsonParserBenchmark {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int[] SIZES = {10, 1000, 20000, 100000};
+
+    @Test
+    public void jsonObject_againstStreaming() throws Exception {
+        for (final int size : SIZES) {
+            final byte[] json = GeoJsonFixtures.collection(GeoJsonFixtures.table(size, 0).toList())
+                    .getBytes(UTF_8);
+            final String[] text = new String[1];
+            int warmups = size >= 20000 ? 2 : 10;
+            int runs = size >= 20000 ? 5 : 21;
+
+            Benchmark.Body read = new Benchmark.Body() {
+                @Override
+                public void run() throws Exception {
+                    text[0] = readFromStream(new ByteArrayInputStream(json));
+                }
+            };
+            Benchmark.Body tree = new Benchmark.Body() {
+                @Override
+                public void run() throws Exception {
+                    GeoJsonParserTest.parseWithJsonObject(text[0]);
+                }
+            };
+            Benchmark.Body streaming = new Benchmark.Body() {
+                @Override
+                public void run() throws Exception {
+                    GeoJsonParser.parse(new ByteArrayInputStream(json));
+                }
+            };
+
+            Benchmark.report("Read into a String", size, Benchmark.median(warmups, runs, read),
+                    Benchmark.allocatedBytes(read));
+            Benchmark.report("Parse a JSONObject tree", size, Benchmark.median(warmups, runs, tree),
+                    Benchmark.allocatedBytes(tree));
+            Benchmark.report("Stream with GeoJsonParser", size, Benchmark.median(warmups, runs, streaming),
+                    Benchmark.allocatedBytes(streaming));
+        }
+    }
+
+    /**
+     * Reads the response line by line into a String, as QueryUtils did before it streamed.
+     */
+    private static String readFromStream(InputStream inputStream) throws IOException {
+        StringBuilder output = new StringBuilder();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, UTF_8));
+        String line = reader.readLine();
+        while (line != null) {
+            output.append(line);
+            line = reader.readLine();
+        }
+        return output.toString();
+    }
+}
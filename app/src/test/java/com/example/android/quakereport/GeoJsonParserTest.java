@@ -0,0 +1,92 @@
+package com.example.android.quakereport;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the streaming parser reads what the JSONObject parser it replaced read.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class GeoJsonParserTest {
+
+    @Test
+    public void usgsResponse_parsesLikeJsonObject() throws Exception {
+        assertParity(GeoJsonFixtures.collection(GeoJsonFixtures.table(500, 7).toList()));
+    }
+
+    @Test
+    public void missingAndNullValues_getTheJsonObjectDefaults() throws Exception {
+        assertParity("{\"features\":["
+                + "{\"properties\":{\"mag\":null,\"place\":\"Nowhere\",\"time\":1,\"url\":\"u\"}},"
+                + "{\"properties\":{\"place\":\"No time\"}},"
+                + "{\"properties\":{}}"
+                + "]}");
+    }
+
+    @Test
+    public void membersInAnyOrderAndUnknownValues_areSkipped() throws Exception {
+        assertParity("{\"bbox\":[1,2,3],\"features\":["
+                + "{\"id\":\"a\",\"geometry\":{\"type\":\"Point\",\"coordinates\":[1,2,3,4]},"
+                + "\"properties\":{\"url\":\"u\",\"extra\":{\"deep\":[{\"mag\":9}]},\"time\":5,"
+                + "\"place\":\"Caf\\u00e9 \\\"quoted\\\"\",\"mag\":3}}"
+                + "],\"metadata\":{\"count\":1},\"type\":\"FeatureCollection\"}");
+    }
+
+    @Test
+    public void numbersInOtherForms_areConverted() throws Exception {
+        assertParity("{\"features\":["
+                + "{\"properties\":{\"mag\":5,\"place\":\"Integer magnitude\",\"time\":1.5E12,\"url\":\"u\"}},"
+                + "{\"properties\":{\"mag\":\"4.25\",\"place\":\"Quoted numbers\",\"time\":\"1400000000000\",\"url\":\"u\"}},"
+                + "{\"properties\":{\"mag\":-0.5,\"place\":\"Negative magnitude\",\"time\":0,\"url\":\"u\"}}"
+                + "]}");
+    }
+
+    @Test
+    public void noFeatures_parsesToNothing() throws Exception {
+        assertParity("{\"type\":\"FeatureCollection\",\"features\":[]}");
+    }
+
+    private static void assertParity(String json) throws IOException, JSONException {
+        List<Earthquake> expected = parseWithJsonObject(json);
+        List<Earthquake> actual = GeoJsonParser.parse(new StringReader(json));
+
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Earthquake a = expected.get(i);
+            Earthquake b = actual.get(i);
+            String feature = "feature " + i;
+            assertTrue(feature, Double.compare(a.getMagnitude(), b.getMagnitude()) == 0);
+            assertEquals(feature, a.getLocation(), b.getLocation());
+            assertEquals(feature, a.getTimeInMilliseconds(), b.getTimeInMilliseconds());
+            assertEquals(feature, a.getWebsite(), b.getWebsite());
+        }
+    }
+
+    /**
+     * The parser the app used before {@link GeoJsonParser}, reading the same four fields.
+     */
+    static List<Earthquake> parseWithJsonObject(String json) throws JSONException {
+        List<Earthquake> earthquakes = new ArrayList<>();
+        JSONArray features = new JSONObject(json).optJSONArray("features");
+        for (int i = 0; i < features.length(); i++) {
+            JSONObject properties = features.optJSONObject(i).optJSONObject("properties");
+            earthquakes.add(new Earthquake("", properties.optDouble("mag"), properties.optString("place"),
+                    properties.optLong("time"), properties.optString("url")));
+        }
+        return earthquakes;
+    }
+}
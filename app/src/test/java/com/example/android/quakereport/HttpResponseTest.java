@@ -0,0 +1,177 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.SequenceInputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HttpResponseTest {
+
+    @Test
+    public void gzipBody_isDecodedAndWireBytesCounted() throws IOException {
+        byte[] body = repeat("{\"features\":[]}", 200);
+        byte[] gzipped = gzip(body);
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Content-Encoding", "gzip");
+        HttpResponse response = new HttpResponse(200, headers, new ByteArrayInputStream(gzipped));
+
+        assertArrayEquals(body, readAll(response.getBody()));
+        assertEquals(gzipped.length, response.getBytesReceived());
+        assertTrue(response.getBytesReceived() < body.length);
+        response.close();
+    }
+
+    @Test
+    public void plainBody_isPassedThrough() throws IOException {
+        byte[] body = repeat("abc", 10);
+        HttpResponse response = new HttpResponse(200, Collections.<String, String>emptyMap(),
+                new ByteArrayInputStream(body));
+
+        assertArrayEquals(body, readAll(response.getBody()));
+        assertEquals(body.length, response.getBytesReceived());
+    }
+
+    @Test
+    public void headers_areLookedUpIgnoringCase() {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("ETag", "\"abc\"");
+        HttpResponse response = new HttpResponse(304, headers, null);
+
+        assertEquals("\"abc\"", response.getHeader("etag"));
+        assertNull(response.getHeader("Last-Modified"));
+    }
+
+    @Test
+    public void close_drainsShortRemainderSoConnectionCanBeReused() throws IOException {
+        TrackingInputStream wire = new TrackingInputStream(10 * 1024);
+        HttpResponse response = new HttpResponse(200, Collections.<String, String>emptyMap(), wire);
+        response.getBody().read(new byte[100]);
+
+        response.close();
+
+        assertEquals(10 * 1024, wire.position);
+        assertTrue(wire.closed);
+    }
+
+    @Test
+    public void close_dropsLongRemainderWithItsConnection() throws IOException {
+        TrackingInputStream wire = new TrackingInputStream(1024 * 1024);
+        HttpResponse response = new HttpResponse(200, Collections.<String, String>emptyMap(), wire);
+
+        response.close();
+
+        assertTrue(wire.position < 1024 * 1024);
+        assertTrue(wire.closed);
+    }
+
+    @Test
+    public void close_releasesTheGzipDecoder() throws IOException {
+        byte[] gzipped = gzip(repeat("{\"features\":[]}", 200));
+        TrackingInputStream wire = new TrackingInputStream(0);
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Content-Encoding", "gzip");
+        HttpResponse response = new HttpResponse(200, headers, new SequenceInputStream(
+                new ByteArrayInputStream(gzipped), wire));
+        InputStream body = response.getBody();
+        body.read(new byte[16]);
+
+        response.close();
+
+        assertTrue(wire.closed);
+        try {
+            // Only a closed decoder, whose inflater was ended, refuses to read
+            body.read(new byte[16]);
+            fail("Decoder still open after close");
+        } catch (IOException expected) {
+            assertEquals("Stream closed", expected.getMessage());
+        }
+    }
+
+    @Test
+    public void read_stopsOnceThreadIsInterrupted() throws IOException {
+        HttpResponse response = new HttpResponse(200, Collections.<String, String>emptyMap(),
+                new TrackingInputStream(1024));
+        Thread.currentThread().interrupt();
+        try {
+            response.getBody().read(new byte[16]);
+            fail("Read went on after cancellation");
+        } catch (InterruptedIOException expected) {
+            // Cancelled
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(bytes);
+        out.write(data);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            bytes.write(buffer, 0, read);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] repeat(String text, int times) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            builder.append(text);
+        }
+        return builder.toString().getBytes();
+    }
+
+    /**
+     * A body of the given length that remembers how far it was read and whether it was closed.
+     */
+    private static final class TrackingInputStream extends InputStream {
+        private final int mLength;
+        int position;
+        boolean closed;
+
+        TrackingInputStream(int length) {
+            mLength = length;
+        }
+
+        @Override
+        public int read() {
+            return position < mLength ? (position++ & 0x7f) : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (position >= mLength) {
+                return -1;
+            }
+            int read = Math.min(length, mLength - position);
+            position += read;
+            return read;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
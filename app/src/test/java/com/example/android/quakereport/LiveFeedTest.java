@@ -0,0 +1,194 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+import static com.example.android.quakereport.GeoJsonFixtures.earthquake;
+import static com.example.android.quakereport.GeoJsonFixtures.revised;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class LiveFeedTest {
+
+    private static final String FEED_URL = LiveFeed.ALL_HOUR_URL;
+
+    private static final long NOW = 1452011400000L;
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private static final SyncScheduler.Connectivity CONNECTED = new SyncScheduler.Connectivity() {
+        @Override
+        public boolean isConnected() {
+            return true;
+        }
+    };
+
+    private static final EarthquakeQuery QUERY = new EarthquakeQuery("4.5", "time", 3);
+
+    private static final EarthquakeTable SHOWN = EarthquakeTable.fromList(Arrays.asList(
+            earthquake("us1", 5.0, 9000L),
+            earthquake("us2", 5.0, 8000L),
+            earthquake("us3", 5.0, 7000L)));
+
+    private FakeHttpTransport mTransport;
+    private HttpTransport mOldTransport;
+    private FakeClock mClock;
+    private LiveFeed mFeed;
+    private final List<List<String>> mPublished = new ArrayList<>();
+    private LiveFeed.Subscription mSubscription;
+
+    @Before
+    public void setUp() {
+        mOldTransport = QueryUtils.getTransport();
+        mTransport = new FakeHttpTransport();
+        QueryUtils.setTransport(mTransport);
+        mClock = new FakeClock(NOW);
+        mFeed = new LiveFeed(FEED_URL, mClock, DIRECT, CONNECTED, DIRECT, new Random(0));
+    }
+
+    @After
+    public void tearDown() {
+        if (mSubscription != null) {
+            mSubscription.unsubscribe();
+        }
+        QueryUtils.setTransport(mOldTransport);
+    }
+
+    @Test
+    public void poll_publishesOnlyWhatIsNewOrUpdated() {
+        mTransport.serve(FEED_URL, 200, "\"v1\"", GeoJsonFixtures.collection(Arrays.asList(
+                revised("us1", 5.0, 1000L, 1000L), revised("us2", 5.0, 2000L, 2000L))));
+        subscribe();
+        assertEquals(Collections.singletonList(Arrays.asList("us1", "us2")), mPublished);
+
+        // us1 is unchanged, us2 was revised and us3 is new
+        mTransport.serve(FEED_URL, 200, "\"v2\"", GeoJsonFixtures.collection(Arrays.asList(
+                revised("us3", 5.0, 4000L, 4000L), revised("us1", 5.0, 1000L, 1000L), revised("us2", 5.0, 2000L, 3000L))));
+        mClock.advance(LiveFeed.DEFAULT_POLL_INTERVAL_MILLIS);
+        assertEquals(Arrays.asList("us3", "us2"), mPublished.get(1));
+
+        // A feed that changed without changing any event publishes nothing
+        mTransport.serve(FEED_URL, 200, "\"v3\"", GeoJsonFixtures.collection(Arrays.asList(
+                revised("us3", 5.0, 4000L, 4000L), revised("us2", 5.0, 2000L, 3000L))));
+        mClock.advance(LiveFeed.DEFAULT_POLL_INTERVAL_MILLIS);
+        assertEquals(2, mPublished.size());
+        assertEquals(3, mTransport.getRequestCount());
+    }
+
+    @Test
+    public void poll_revalidatesWithTheETag() {
+        mTransport.serve(FEED_URL, 200, "\"v1\"", GeoJsonFixtures.collection(Arrays.asList(
+                revised("us1", 5.0, 1000L, 1000L))));
+        subscribe();
+        assertNull(mTransport.getLastRequestHeaders().get("If-None-Match"));
+
+        mClock.advance(LiveFeed.DEFAULT_POLL_INTERVAL_MILLIS);
+        assertEquals("\"v1\"", mTransport.getLastRequestHeaders().get("If-None-Match"));
+        assertEquals(2, mTransport.getRequestCount());
+        assertEquals(1, mPublished.size());
+
+        mTransport.serve(FEED_URL, 200, "\"v2\"", GeoJsonFixtures.collection(Arrays.asList(
+                revised("us1", 5.0, 1000L, 5000L))));
+        mClock.advance(LiveFeed.DEFAULT_POLL_INTERVAL_MILLIS);
+        assertEquals(Collections.singletonList("us1"), mPublished.get(1));
+        assertEquals("\"v1\"", mTransport.getLastRequestHeaders().get("If-None-Match"));
+    }
+
+    @Test
+    public void poll_revalidatesWithLastModifiedWithoutAnETag() {
+        long generated = NOW - 30000L;
+        mTransport.serve(FEED_URL, 200, null, generated, GeoJsonFixtures.collection(Arrays.asList(
+                revised("us1", 5.0, 1000L, 1000L))));
+        subscribe();
+
+        mClock.advance(LiveFeed.DEFAULT_POLL_INTERVAL_MILLIS);
+        assertEquals(QueryUtils.formatHttpDate(generated),
+                mTransport.getLastRequestHeaders().get("If-Modified-Since"));
+        assertEquals(1, mPublished.size());
+
+        mTransport.serve(FEED_URL, 200, null, generated + 60000L, GeoJsonFixtures.collection(Arrays.asList(
+                revised("us2", 5.0, 2000L, 2000L), revised("us1", 5.0, 1000L, 1000L))));
+        mClock.advance(LiveFeed.DEFAULT_POLL_INTERVAL_MILLIS);
+        assertEquals(Collections.singletonList("us2"), mPublished.get(1));
+
+        mClock.advance(LiveFeed.DEFAULT_POLL_INTERVAL_MILLIS);
+        assertEquals(QueryUtils.formatHttpDate(generated + 60000L),
+                mTransport.getLastRequestHeaders().get("If-Modified-Since"));
+        assertEquals(2, mPublished.size());
+    }
+
+    @Test
+    public void apply_withoutPagesLimitsLikeTheQuery() {
+        EarthquakeTable applied = LiveFeed.apply(SHOWN, Arrays.asList(
+                earthquake("us4", 5.0, 10000L),
+                earthquake("us5", 4.0, 11000L),
+                new Earthquake("us2", 5.0, "", 8000L, 8500L, "", true)), QUERY, null);
+
+        // Below the minimum magnitude, deleted, and cut off by the limit
+        assertEquals(Arrays.asList("us4", "us1", "us3"), EarthquakePageSourceTest.ids(applied));
+    }
+
+    @Test
+    public void apply_withPagesKeepsEveryRowAboveThem() {
+        EarthquakeTable applied = LiveFeed.apply(SHOWN, Arrays.asList(
+                earthquake("us4", 5.0, 10000L),
+                earthquake("us5", 5.0, 11000L)), QUERY, SHOWN.get(2));
+
+        // Nothing is pushed down into the gap above the pages
+        assertEquals(Arrays.asList("us5", "us4", "us1", "us2", "us3"), EarthquakePageSourceTest.ids(applied));
+    }
+
+    @Test
+    public void apply_withPagesLeavesLaterEarthquakesToThem() {
+        EarthquakeTable applied = LiveFeed.apply(SHOWN, Arrays.asList(
+                earthquake("us6", 5.0, 6000L),
+                // Same time as the row the pages start after, so the pages show it
+                earthquake("us7", 5.0, 7000L),
+                // Shown at that time already, so the pages skip it
+                earthquake("us3", 5.5, 7000L)), QUERY, SHOWN.get(2));
+
+        assertEquals(Arrays.asList("us1", "us2", "us3"), EarthquakePageSourceTest.ids(applied));
+        assertEquals(5.5, applied.getMagnitude(2), 0.0);
+    }
+
+    @Test
+    public void apply_withPagesDropsRowsRevisedPastThem() {
+        EarthquakeQuery byMagnitude = new EarthquakeQuery("4.5", "magnitude", 3);
+        EarthquakeTable shown = EarthquakeTable.fromList(Arrays.asList(
+                earthquake("us1", 6.0, 1000L),
+                earthquake("us2", 5.5, 2000L),
+                earthquake("us3", 5.0, 3000L)));
+
+        EarthquakeTable applied = LiveFeed.apply(shown, Collections.singletonList(
+                earthquake("us1", 4.8, 1000L)), byMagnitude, shown.get(2));
+
+        assertEquals(Arrays.asList("us2", "us3"), EarthquakePageSourceTest.ids(applied));
+    }
+
+    private void subscribe() {
+        mSubscription = mFeed.subscribe(new LiveFeed.Observer() {
+            @Override
+            public void onEarthquakesChanged(List<Earthquake> changed) {
+                mPublished.add(MultiSourceIngestorTest.ids(changed));
+            }
+        });
+    }
+}
@@ -0,0 +1,155 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LoadExecutorTest {
+
+    /** Latches released on tearDown, so no test leaves a thread blocked */
+    private final List<CountDownLatch> mLatches = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        for (CountDownLatch latch : mLatches) {
+            latch.countDown();
+        }
+    }
+
+    @Test
+    public void foregroundWork_runsWhileBackgroundWorkHoldsTheOtherThreads() throws Exception {
+        LoadExecutor executor = new LoadExecutor(2);
+        CountDownLatch release = latch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        executor.submit(block(started, release), LoadExecutor.PRIORITY_BACKGROUND);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        CountDownLatch secondStarted = new CountDownLatch(1);
+        executor.submit(block(secondStarted, release), LoadExecutor.PRIORITY_BACKGROUND);
+
+        Future<String> foreground = executor.submit(value("loaded"), LoadExecutor.PRIORITY_FOREGROUND);
+
+        assertEquals("loaded", foreground.get(5, TimeUnit.SECONDS));
+        assertEquals(1, secondStarted.getCount());
+        release.countDown();
+        assertTrue(secondStarted.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void queuedForegroundWork_runsFirstAndInOrder() throws Exception {
+        LoadExecutor executor = new LoadExecutor(2);
+        CountDownLatch releaseForeground = latch(1);
+        CountDownLatch releaseBackground = latch(1);
+        CountDownLatch started = new CountDownLatch(2);
+        executor.submit(block(started, releaseForeground), LoadExecutor.PRIORITY_FOREGROUND);
+        executor.submit(block(started, releaseBackground), LoadExecutor.PRIORITY_BACKGROUND);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        Future<?> sync = executor.submit(record(order, "sync"), LoadExecutor.PRIORITY_BACKGROUND);
+        executor.submit(record(order, "load"), LoadExecutor.PRIORITY_FOREGROUND);
+        Future<?> page = executor.submit(record(order, "page"), LoadExecutor.PRIORITY_FOREGROUND);
+
+        releaseForeground.countDown();
+        page.get(5, TimeUnit.SECONDS);
+        releaseBackground.countDown();
+        sync.get(5, TimeUnit.SECONDS);
+
+        assertEquals(Arrays.asList("load", "page", "sync"), order);
+    }
+
+    @Test
+    public void backgroundWorkCancelledWhileWaiting_neverRuns() throws Exception {
+        LoadExecutor executor = new LoadExecutor(2);
+        CountDownLatch release = latch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        executor.submit(block(started, release), LoadExecutor.PRIORITY_BACKGROUND);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        Future<?> cancelled = executor.submit(record(order, "cancelled"), LoadExecutor.PRIORITY_BACKGROUND);
+        Future<?> next = executor.submit(record(order, "next"), LoadExecutor.PRIORITY_BACKGROUND);
+        cancelled.cancel(true);
+        release.countDown();
+
+        next.get(5, TimeUnit.SECONDS);
+        assertEquals(Collections.singletonList("next"), order);
+    }
+
+    @Test
+    public void cancelledWork_stopsAtItsNextCheck() throws Exception {
+        LoadExecutor executor = new LoadExecutor(2);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch stopped = new CountDownLatch(1);
+        Future<Void> load = executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws InterruptedIOException {
+                started.countDown();
+                try {
+                    while (true) {
+                        LoadExecutor.throwIfCanceled();
+                    }
+                } finally {
+                    stopped.countDown();
+                }
+            }
+        }, LoadExecutor.PRIORITY_FOREGROUND);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        load.cancel(true);
+
+        assertTrue(stopped.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void singleThread_isRejected() {
+        new LoadExecutor(1);
+    }
+
+    private CountDownLatch latch(int count) {
+        CountDownLatch latch = new CountDownLatch(count);
+        mLatches.add(latch);
+        return latch;
+    }
+
+    private static Callable<Void> block(final CountDownLatch started, final CountDownLatch release) {
+        return new Callable<Void>() {
+            @Override
+            public Void call() throws InterruptedException {
+                started.countDown();
+                release.await();
+                return null;
+            }
+        };
+    }
+
+    private static Callable<String> value(final String value) {
+        return new Callable<String>() {
+            @Override
+            public String call() {
+                return value;
+            }
+        };
+    }
+
+    private static Callable<Void> record(final List<String> order, final String name) {
+        return new Callable<Void>() {
+            @Override
+            public Void call() {
+                order.add(name);
+                return null;
+            }
+        };
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MetricsTest {
+
+    private boolean mWasEnabled;
+
+    @Before
+    public void setUp() {
+        mWasEnabled = Metrics.isEnabled();
+        Metrics.reset();
+        Metrics.setEnabled(true);
+    }
+
+    @After
+    public void tearDown() {
+        Metrics.setEnabled(mWasEnabled);
+        Metrics.reset();
+    }
+
+    @Test
+    public void buckets_splitAtPowersOfTwo() {
+        assertEquals(0, Metrics.Histogram.bucketOf(0));
+        assertEquals(1, Metrics.Histogram.bucketOf(1));
+        assertEquals(2, Metrics.Histogram.bucketOf(2));
+        assertEquals(2, Metrics.Histogram.bucketOf(3));
+        assertEquals(3, Metrics.Histogram.bucketOf(4));
+        assertEquals(10, Metrics.Histogram.bucketOf(1023));
+        assertEquals(11, Metrics.Histogram.bucketOf(1024));
+        assertEquals(Metrics.Histogram.BUCKET_COUNT - 1, Metrics.Histogram.bucketOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void percentiles_areTheUpperBoundOfTheirBucketWithinMinAndMax() {
+        Metrics.Histogram histogram = Metrics.histogram("test.percentiles");
+        for (int value = 1; value <= 100; value++) {
+            histogram.record(value);
+        }
+
+        MetricsSnapshot.HistogramSnapshot snapshot = Metrics.snapshot().getHistogram("test.percentiles");
+        assertEquals(100, snapshot.getCount());
+        assertEquals(5050, snapshot.getSum());
+        assertEquals(50.5, snapshot.getMean(), 0.0);
+        assertEquals(1, snapshot.getMin());
+        assertEquals(100, snapshot.getMax());
+        // 50 falls in the bucket from 32 to 63, 99 in the one from 64 to 127, cut at the maximum
+        assertEquals(63, snapshot.getPercentile(50));
+        assertEquals(100, snapshot.getPercentile(99));
+        assertEquals(1, snapshot.getPercentile(0));
+        assertEquals(100, snapshot.getPercentile(150));
+    }
+
+    @Test
+    public void negativeValues_countAsZero() {
+        Metrics.Histogram histogram = Metrics.histogram("test.negative");
+        histogram.record(-5);
+
+        MetricsSnapshot.HistogramSnapshot snapshot = Metrics.snapshot().getHistogram("test.negative");
+        assertEquals(1, snapshot.getCount());
+        assertEquals(0, snapshot.getMax());
+        assertEquals(0, snapshot.getPercentile(99));
+    }
+
+    @Test
+    public void snapshot_holdsTheValuesAtTheTimeItWasTaken() {
+        Metrics.Counter counter = Metrics.counter("test.counter");
+        assertSame(counter, Metrics.counter("test.counter"));
+        counter.increment();
+        counter.add(4);
+        Metrics.timer("test.timer").stop(Metrics.startTime());
+
+        MetricsSnapshot snapshot = Metrics.snapshot();
+        counter.increment();
+
+        assertEquals(5, snapshot.getCount("test.counter"));
+        assertEquals(6, Metrics.snapshot().getCount("test.counter"));
+        assertEquals(1, snapshot.getHistogram("test.timer").getCount());
+        assertEquals(0, snapshot.getCount("test.unknown"));
+        assertEquals(0, snapshot.getHistogram("test.unknown").getCount());
+        assertTrue(snapshot.toString().contains("test.counter: 5\n"));
+        assertTrue(snapshot.toString().contains("test.timer: count=1 "));
+    }
+
+    @Test
+    public void disabledMetrics_recordNothing() {
+        Metrics.Counter counter = Metrics.counter("test.disabled_counter");
+        Metrics.Histogram histogram = Metrics.histogram("test.disabled_histogram");
+        Metrics.Timer timer = Metrics.timer("test.disabled_timer");
+        Metrics.setEnabled(false);
+
+        counter.increment();
+        histogram.record(42);
+        long start = Metrics.startTime();
+        timer.stop(start);
+
+        assertEquals(0L, start);
+        MetricsSnapshot snapshot = Metrics.snapshot();
+        assertEquals(0, snapshot.getCount("test.disabled_counter"));
+        assertEquals(0, snapshot.getHistogram("test.disabled_histogram").getCount());
+        assertEquals(0, snapshot.getHistogram("test.disabled_timer").getCount());
+    }
+
+    @Test
+    public void reset_setsEveryMetricBackToZero() {
+        Metrics.counter("test.reset_counter").add(3);
+        Metrics.histogram("test.reset_histogram").record(7);
+
+        Metrics.reset();
+
+        MetricsSnapshot snapshot = Metrics.snapshot();
+        assertEquals(0, snapshot.getCount("test.reset_counter"));
+        MetricsSnapshot.HistogramSnapshot histogram = snapshot.getHistogram("test.reset_histogram");
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMin());
+        assertEquals(0, histogram.getPercentile(50));
+    }
+}
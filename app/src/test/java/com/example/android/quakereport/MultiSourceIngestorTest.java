@@ -0,0 +1,198 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static com.example.android.quakereport.GeoJsonFixtures.earthquake;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Ingests stub sources that answer from memory, and sources served by a
+ * {@link FakeHttpTransport} through the real fetch and parse path.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class MultiSourceIngestorTest {
+
+    private static final String USGS = "usgs";
+    private static final String EMSC = "emsc";
+
+    private final Map<String, List<Earthquake>> mResponses = new HashMap<>();
+    private ExecutorService mExecutor;
+    private FakeHttpTransport mTransport;
+    private HttpTransport mOldTransport;
+
+    @Before
+    public void setUp() {
+        mExecutor = Executors.newFixedThreadPool(2);
+        mOldTransport = QueryUtils.getTransport();
+        mTransport = new FakeHttpTransport();
+        QueryUtils.setTransport(mTransport);
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+        QueryUtils.setTransport(mOldTransport);
+    }
+
+    @Test
+    public void feedsServedOverHttp_areFetchedParsedAndMerged() {
+        String query = "https://earthquake.usgs.gov/fdsnws/event/1/query?format=geojson&limit=2&minmag=5";
+        String feed = "https://earthquake.usgs.gov/earthquakes/feed/v1.0/summary/significant_week.geojson";
+        String missing = "https://example.com/fdsnws/event/1/query?format=geojson";
+        mTransport.serve(query, GeoJsonFixtures.collection(Arrays.asList(
+                earthquake("us1", 5.2, 100000L, 142.37, 38.30),
+                earthquake("us2", 5.1, 90000L, -70.10, -33.50))));
+        // The feed repeats the first earthquake and has one the query left out
+        mTransport.serve(feed, GeoJsonFixtures.collection(Arrays.asList(
+                earthquake("us3", 4.6, 120000L, 25.00, 35.00),
+                earthquake("us1", 5.2, 100000L, 142.37, 38.30))));
+        mTransport.setLatencyMillis(50);
+
+        List<Earthquake> events = new MultiSourceIngestor(Arrays.asList(query, feed, missing)).ingest(null);
+
+        assertEquals(Arrays.asList("us3", "us1", "us2"), ids(events));
+        assertEquals("Somewhere us3", events.get(0).getLocation());
+        assertEquals(3, mTransport.getRequestCount());
+    }
+
+    @Test
+    public void sourceThatThrows_isLeftOut() {
+        mResponses.put(USGS, Collections.singletonList(earthquake("us1", 5.2, 100000L, 142.37, 38.30)));
+        MultiSourceIngestor ingestor = new MultiSourceIngestor(Arrays.asList(EMSC, USGS),
+                new ShardedFetcher.Source() {
+                    @Override
+                    public List<Earthquake> fetch(String requestUrl) {
+                        if (EMSC.equals(requestUrl)) {
+                            throw new IllegalStateException("Malformed response");
+                        }
+                        return mResponses.get(requestUrl);
+                    }
+                }, mExecutor);
+
+        assertEquals(Collections.singletonList("us1"), ids(ingestor.ingest(null)));
+    }
+
+    @Test
+    public void matchingEventsUnderDifferentIds_becomeOneEvent() {
+        mResponses.put(USGS, Arrays.asList(
+                earthquake("us1", 5.2, 100000L, 142.37, 38.30),
+                earthquake("us2", 4.6, 900000L, -70.10, -33.50)));
+        mResponses.put(EMSC, Arrays.asList(
+                earthquake("em1", 5.4, 103000L, 142.50, 38.20),
+                earthquake("em3", 4.1, 500000L, 25.00, 35.00)));
+
+        List<Earthquake> events = ingestor(USGS, EMSC).ingest(null);
+
+        assertEquals(Arrays.asList("us2", "em3", "us1"), ids(events));
+    }
+
+    @Test
+    public void preferredSource_winsEvenIfItAnswersLast() throws InterruptedException {
+        mResponses.put(USGS, Collections.singletonList(earthquake("us1", 5.2, 100000L, 142.37, 38.30)));
+        mResponses.put(EMSC, Collections.singletonList(earthquake("em1", 5.4, 103000L, 142.50, 38.20)));
+        final CountDownLatch emscAnswered = new CountDownLatch(1);
+        ShardedFetcher.Source source = new ShardedFetcher.Source() {
+            @Override
+            public List<Earthquake> fetch(String requestUrl) {
+                if (USGS.equals(requestUrl)) {
+                    try {
+                        emscAnswered.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        return null;
+                    }
+                } else {
+                    emscAnswered.countDown();
+                }
+                return mResponses.get(requestUrl);
+            }
+        };
+        final StringBuilder seen = new StringBuilder();
+
+        List<Earthquake> events = new MultiSourceIngestor(Arrays.asList(USGS, EMSC), source, mExecutor)
+                .ingest(new EventDeduplicator.OnCanonicalEventListener() {
+                    @Override
+                    public void onCanonicalEvent(Earthquake earthquake, Earthquake replaced) {
+                        seen.append(earthquake.getId()).append(' ');
+                    }
+                });
+
+        assertEquals(Collections.singletonList("us1"), ids(events));
+        // The other catalog's version was matched against the preferred one, never shown
+        assertEquals("us1 ", seen.toString());
+    }
+
+    @Test
+    public void failedSource_isLeftOut() {
+        mResponses.put(EMSC, Collections.singletonList(earthquake("em1", 5.4, 103000L, 142.50, 38.20)));
+
+        assertEquals(Collections.singletonList("em1"), ids(ingestor(USGS, EMSC).ingest(null)));
+    }
+
+    @Test
+    public void everySourceFailing_failsTheIngest() {
+        assertNull(ingestor(USGS, EMSC).ingest(null));
+    }
+
+    @Test
+    public void eventsEitherSideOfTheAntimeridian_areMatched() {
+        mResponses.put(USGS, Collections.singletonList(earthquake("us1", 6.1, 100000L, 179.95, -17.80)));
+        mResponses.put(EMSC, Collections.singletonList(earthquake("em1", 6.0, 101000L, -179.95, -17.85)));
+
+        assertEquals(Collections.singletonList("us1"), ids(ingestor(USGS, EMSC).ingest(null)));
+    }
+
+    @Test
+    public void deletedCanonicalEvents_areLeftOut() {
+        mResponses.put(USGS, Collections.singletonList(new Earthquake("us1", 5.2, "", 100000L, 200000L, "",
+                true, 142.37, 38.30, 10.0)));
+        mResponses.put(EMSC, Collections.singletonList(earthquake("em1", 5.4, 103000L, 142.50, 38.20)));
+
+        List<Earthquake> events = ingestor(USGS, EMSC).ingest(null);
+
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    public void cancel_stopsLaterIngests() {
+        mResponses.put(USGS, Collections.singletonList(earthquake("us1", 5.2, 100000L, 142.37, 38.30)));
+        MultiSourceIngestor ingestor = ingestor(USGS);
+        ingestor.cancel();
+
+        assertNull(ingestor.ingest(null));
+    }
+
+    private MultiSourceIngestor ingestor(String... urls) {
+        return new MultiSourceIngestor(Arrays.asList(urls), new ShardedFetcher.Source() {
+            @Override
+            public List<Earthquake> fetch(String requestUrl) {
+                return mResponses.get(requestUrl);
+            }
+        }, mExecutor);
+    }
+
+    static List<String> ids(List<Earthquake> earthquakes) {
+        String[] ids = new String[earthquakes.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = earthquakes.get(i).getId();
+        }
+        return Arrays.asList(ids);
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Times searching places with {@link PlaceIndex} against going over every place with the same
+ * prefix match, the way a list filter without an index would.
+ */
+public class PlaceIndexBenchmark {
+
+    private static final int[] SIZES = {1000, 10000, 100000};
+
+    private static final String[] QUERIES = {"p", "place 1", "place 29", "place 299"};
+
+    @Test
+    public void index_againstContains() throws Exception {
+        for (int size : SIZES) {
+            final List<Earthquake> earthquakes = GeoJsonFixtures.table(size, 0).toList();
+            final PlaceIndex index = new PlaceIndex();
+            long build = Benchmark.median(0, 1, new Benchmark.Body() {
+                @Override
+                public void run() {
+                    for (Earthquake earthquake : earthquakes) {
+                        index.add(earthquake);
+                    }
+                }
+            });
+            Benchmark.report("Build the place index", size, build);
+
+            for (final String query : QUERIES) {
+                long indexed = Benchmark.median(20, 51, new Benchmark.Body() {
+                    @Override
+                    public void run() {
+                        index.search(query, 100);
+                    }
+                });
+                long scanned = Benchmark.median(20, 51, new Benchmark.Body() {
+                    @Override
+                    public void run() {
+                        scan(earthquakes, query, 100);
+                    }
+                });
+                Benchmark.report("Search \"" + query + "\" in the index", size, indexed);
+                Benchmark.report("Search \"" + query + "\" by scanning", size, scanned);
+            }
+        }
+    }
+
+    /**
+     * Returns the ids of the earthquakes whose primary location matches every word of the query
+     * as a prefix, most recent first, at most limit of them. Like the index it finds every match
+     * before taking the newest ones, so both do the same work.
+     */
+    private static List<String> scan(List<Earthquake> earthquakes, String query, int limit) {
+        List<String> words = PlaceIndex.tokenize(query);
+        List<String> matches = new ArrayList<>();
+        for (Earthquake earthquake : earthquakes) {
+            if (matchesEveryWord(PlaceIndex.tokenize(
+                    PlaceIndex.getPrimaryLocation(earthquake.getLocation())), words)) {
+                matches.add(earthquake.getId());
+            }
+        }
+        List<String> ids = new ArrayList<>(Math.min(limit, matches.size()));
+        for (int i = matches.size() - 1; i >= 0 && ids.size() < limit; i--) {
+            ids.add(matches.get(i));
+        }
+        return ids;
+    }
+
+    private static boolean matchesEveryWord(List<String> placeWords, List<String> queryWords) {
+        if (queryWords.isEmpty()) {
+            return false;
+        }
+        for (String queryWord : queryWords) {
+            boolean found = false;
+            for (String placeWord : placeWords) {
+                if (placeWord.startsWith(queryWord)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
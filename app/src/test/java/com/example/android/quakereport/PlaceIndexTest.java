@@ -0,0 +1,103 @@
+package com.example.android.quakereport;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+public class PlaceIndexTest {
+
+    private PlaceIndex mIndex;
+
+    @Before
+    public void setUp() {
+        mIndex = new PlaceIndex();
+        mIndex.add(earthquake("us1", "88km N of Yelizovo, Russia"));
+        mIndex.add(earthquake("us2", "10km SE of Anchorage, Alaska"));
+        mIndex.add(earthquake("us3", "Côte d'Ivoire"));
+        mIndex.add(earthquake("us4", "5km W of Yerington, Nevada"));
+    }
+
+    @Test
+    public void search_matchesEveryQueryWordAsAPrefix() {
+        assertEquals(Collections.singletonList("us1"), mIndex.search("yel rus", 10));
+        assertEquals(Collections.singletonList("us1"), mIndex.search("Russia Yel", 10));
+        assertEquals(Collections.<String>emptyList(), mIndex.search("yel nev", 10));
+    }
+
+    @Test
+    public void search_ignoresCaseAccentsAndPunctuation() {
+        assertEquals(Collections.singletonList("us3"), mIndex.search("COTE D'IV", 10));
+        assertEquals(Collections.singletonList("us3"), mIndex.search("côte", 10));
+    }
+
+    @Test
+    public void search_onlyLooksAtThePrimaryLocation() {
+        assertEquals(0, mIndex.count("88km"));
+        assertEquals(0, mIndex.count("of"));
+    }
+
+    @Test
+    public void search_returnsTheMostRecentlyAddedFirstUpToTheLimit() {
+        assertEquals(Arrays.asList("us4", "us1"), mIndex.search("ye", 10));
+        assertEquals(Collections.singletonList("us4"), mIndex.search("ye", 1));
+        assertEquals(2, mIndex.count("ye"));
+    }
+
+    @Test
+    public void search_withLimitZeroFindsNothing() {
+        assertEquals(Collections.<String>emptyList(), mIndex.search("ye", 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void search_rejectsANegativeLimit() {
+        mIndex.search("ye", -1);
+    }
+
+    @Test
+    public void queryWithoutWords_matchesNothing() {
+        assertEquals(0, mIndex.count(""));
+        assertEquals(0, mIndex.count(" , "));
+    }
+
+    @Test
+    public void replacedAndRemovedEarthquakes_areNotFoundUnderTheirOldPlace() {
+        mIndex.add(earthquake("us1", "Near the coast of Peru"));
+        mIndex.remove("us2");
+
+        assertEquals(0, mIndex.count("yelizovo"));
+        assertEquals(0, mIndex.count("anchorage"));
+        assertEquals(Collections.singletonList("us1"), mIndex.search("peru", 10));
+        assertEquals(3, mIndex.size());
+    }
+
+    @Test
+    public void deletedEarthquakes_areRemoved() {
+        mIndex.add(new Earthquake("us4", 4.0, "5km W of Yerington, Nevada", 1L, 2L, "", true));
+
+        assertEquals(0, mIndex.count("nevada"));
+        assertEquals(3, mIndex.size());
+    }
+
+    @Test
+    public void compaction_keepsTheEarthquakesLeftAndTheirOrder() {
+        for (int i = 0; i < 3000; i++) {
+            mIndex.add(earthquake("tmp" + i, "Place " + i + ", Chile"));
+        }
+        for (int i = 0; i < 3000; i++) {
+            mIndex.remove("tmp" + i);
+        }
+        mIndex.add(earthquake("us5", "12km S of Yellowknife, Canada"));
+
+        assertEquals(5, mIndex.size());
+        assertEquals(0, mIndex.count("chile"));
+        assertEquals(Arrays.asList("us5", "us4", "us1"), mIndex.search("ye", 10));
+    }
+
+    private static Earthquake earthquake(String id, String location) {
+        return new Earthquake(id, 4.0, location, 1L, "");
+    }
+}
@@ -0,0 +1,238 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RequestManagerTest {
+
+    private static final String URL = "https://earthquake.usgs.gov/fdsnws/event/1/query?format=geojson&limit=20";
+
+    private ExecutorService mCallers;
+    private BlockingFetcher mFetcher;
+
+    @Before
+    public void setUp() {
+        mCallers = Executors.newCachedThreadPool();
+        mFetcher = new BlockingFetcher();
+    }
+
+    @After
+    public void tearDown() {
+        mFetcher.release.countDown();
+        mCallers.shutdownNow();
+    }
+
+    @Test
+    public void concurrentRequests_shareOneFetch() throws Exception {
+        final RequestManager manager = new RequestManager(mFetcher, 4, 0L);
+        Future<QueryUtils.Response> first = mCallers.submit(fetch(manager, URL));
+        assertTrue(mFetcher.started.await(5, TimeUnit.SECONDS));
+        // Same request, spelled differently
+        Future<QueryUtils.Response> second = mCallers.submit(fetch(manager,
+                "HTTPS://earthquake.usgs.gov/fdsnws/event/1/query?limit=20&format=geojson"));
+        awaitJoined(2);
+
+        mFetcher.release.countDown();
+
+        assertSame(first.get(5, TimeUnit.SECONDS), second.get(5, TimeUnit.SECONDS));
+        assertEquals(1, mFetcher.calls.get());
+    }
+
+    @Test
+    public void cancelledFirstCaller_leavesTheRequestToTheOthers() throws Exception {
+        final RequestManager manager = new RequestManager(mFetcher, 4, 0L);
+        Future<QueryUtils.Response> first = mCallers.submit(fetch(manager, URL));
+        assertTrue(mFetcher.started.await(5, TimeUnit.SECONDS));
+        Future<QueryUtils.Response> second = mCallers.submit(fetch(manager, URL));
+        awaitJoined(2);
+
+        first.cancel(true);
+        awaitJoined(1);
+        mFetcher.release.countDown();
+
+        QueryUtils.Response response = second.get(5, TimeUnit.SECONDS);
+        assertEquals(1, response.earthquakes.size());
+        assertEquals(0, mFetcher.interrupts.get());
+        assertEquals(1, mFetcher.calls.get());
+    }
+
+    @Test
+    public void requestNobodyWaitsFor_isCancelledAndNotRemembered() throws Exception {
+        final RequestManager manager = new RequestManager(mFetcher, 4, 60 * 1000L);
+        Future<QueryUtils.Response> first = mCallers.submit(fetch(manager, URL));
+        assertTrue(mFetcher.started.await(5, TimeUnit.SECONDS));
+
+        first.cancel(true);
+        assertTrue(mFetcher.interrupted.await(5, TimeUnit.SECONDS));
+
+        // Sent again, not answered from memory
+        mFetcher.release.countDown();
+        assertEquals(1, manager.fetch(URL, null, 0L).earthquakes.size());
+        assertEquals(2, mFetcher.calls.get());
+    }
+
+    @Test
+    public void recentResponses_areAnsweredFromMemoryUnlessFreshOnesAreWanted() {
+        mFetcher.release.countDown();
+        RequestManager manager = new RequestManager(mFetcher, 4, 60 * 1000L);
+
+        QueryUtils.Response response = manager.fetch(URL, null, 0L);
+        assertSame(response, manager.fetch(URL, null, 0L));
+        assertEquals(1, mFetcher.calls.get());
+
+        manager.fetch(URL, null, 0L, false);
+        assertEquals(2, mFetcher.calls.get());
+
+        // Other validators make another request
+        manager.fetch(URL, "\"v1\"", 0L);
+        assertEquals(3, mFetcher.calls.get());
+    }
+
+    @Test
+    public void failedResponses_areNotRemembered() {
+        final AtomicInteger calls = new AtomicInteger();
+        RequestManager manager = new RequestManager(new RequestManager.Fetcher() {
+            @Override
+            public QueryUtils.Response fetch(String requestUrl, String eTag, long lastModified) {
+                calls.incrementAndGet();
+                return null;
+            }
+        }, 4, 60 * 1000L);
+
+        assertNull(manager.fetch(URL, null, 0L));
+        assertNull(manager.fetch(URL, null, 0L));
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void responsesPastTheirTimeToLive_areSentAgain() throws Exception {
+        mFetcher.release.countDown();
+        RequestManager manager = new RequestManager(mFetcher, 4, 20L);
+
+        manager.fetch(URL, null, 0L);
+        Thread.sleep(40);
+        manager.fetch(URL, null, 0L);
+
+        assertEquals(2, mFetcher.calls.get());
+    }
+
+    @Test
+    public void leastRecentlyUsedResponse_isForgottenFirst() {
+        mFetcher.release.countDown();
+        RequestManager manager = new RequestManager(mFetcher, 2, 60 * 1000L);
+
+        manager.fetch(URL + "&page=1", null, 0L);
+        manager.fetch(URL + "&page=2", null, 0L);
+        manager.fetch(URL + "&page=1", null, 0L);
+        manager.fetch(URL + "&page=3", null, 0L);
+        assertEquals(3, mFetcher.calls.get());
+
+        manager.fetch(URL + "&page=1", null, 0L);
+        assertEquals(3, mFetcher.calls.get());
+        manager.fetch(URL + "&page=2", null, 0L);
+        assertEquals(4, mFetcher.calls.get());
+    }
+
+    @Test
+    public void clear_forgetsEveryResponse() {
+        mFetcher.release.countDown();
+        RequestManager manager = new RequestManager(mFetcher, 4, 60 * 1000L);
+
+        manager.fetch(URL, null, 0L);
+        manager.clear();
+        manager.fetch(URL, null, 0L);
+
+        assertEquals(2, mFetcher.calls.get());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void sharedEarthquakes_areReadOnly() {
+        mFetcher.release.countDown();
+        RequestManager manager = new RequestManager(mFetcher, 4, 60 * 1000L);
+
+        manager.fetch(URL, null, 0L).earthquakes.clear();
+    }
+
+    @Test
+    public void normalizeUrl_sortsParametersAndKeepsRepeatedOnesInOrder() {
+        assertEquals("https://example.com/Path?a=1&b=2&b=1&c",
+                RequestManager.normalizeUrl("HTTPS://Example.COM/Path?c&b=2&a=1&b=1#top"));
+    }
+
+    private static Callable<QueryUtils.Response> fetch(final RequestManager manager, final String url) {
+        return new Callable<QueryUtils.Response>() {
+            @Override
+            public QueryUtils.Response call() {
+                return manager.fetch(url, null, 0L);
+            }
+        };
+    }
+
+    /**
+     * Waits until the given number of caller threads are parked waiting for a response.
+     */
+    private void awaitJoined(int callers) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (countWaitingCallers() != callers) {
+            assertTrue("Callers never joined", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private static int countWaitingCallers() {
+        int waiting = 0;
+        for (StackTraceElement[] stack : Thread.getAllStackTraces().values()) {
+            for (StackTraceElement frame : stack) {
+                if (frame.getClassName().equals(RequestManager.class.getName())
+                        && frame.getMethodName().equals("await")) {
+                    waiting++;
+                    break;
+                }
+            }
+        }
+        return waiting;
+    }
+
+    /**
+     * Answers with a single earthquake once released, counting calls and interruptions.
+     */
+    private static final class BlockingFetcher implements RequestManager.Fetcher {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        final AtomicInteger interrupts = new AtomicInteger();
+
+        @Override
+        public QueryUtils.Response fetch(String requestUrl, String eTag, long lastModified) {
+            calls.incrementAndGet();
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                interrupts.incrementAndGet();
+                interrupted.countDown();
+                return null;
+            }
+            // A list of its own, so sharing it has to make it read only
+            return new QueryUtils.Response(false, null, 0L, new ArrayList<>(Collections.singletonList(
+                    new Earthquake("us1", 5.0, "Somewhere", 1000L, ""))));
+        }
+    }
+}
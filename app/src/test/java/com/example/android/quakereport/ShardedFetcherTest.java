@@ -0,0 +1,163 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.example.android.quakereport.GeoJsonFixtures.earthquake;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ShardedFetcherTest {
+
+    private static final String BASE_URL = EarthquakeQuery.USGS_URL + "?format=geojson&orderby=time";
+    private static final long DAY = EarthquakeAggregator.DAY_MILLIS;
+    private static final long START = 20000L * DAY;
+
+    private ExecutorService mExecutor;
+
+    @Before
+    public void setUp() {
+        mExecutor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void shardUrls_coverTheWindowWithoutGaps() {
+        List<String> urls = ShardedFetcher.buildShardUrls(BASE_URL, START, START + 3 * DAY, 3);
+
+        assertEquals(3, urls.size());
+        for (int i = 0; i < urls.size(); i++) {
+            assertEquals(QueryUtils.formatQueryTime(START + i * DAY),
+                    QueryUtils.getQueryParameter(urls.get(i), "starttime"));
+            assertEquals(QueryUtils.formatQueryTime(START + (i + 1) * DAY),
+                    QueryUtils.getQueryParameter(urls.get(i), "endtime"));
+        }
+        assertEquals(1, ShardedFetcher.shardCountFor(START, START));
+        assertEquals(1, ShardedFetcher.shardCountFor(START, START + ShardedFetcher.DEFAULT_SHARD_SPAN_MILLIS));
+        assertEquals(2, ShardedFetcher.shardCountFor(START, START + ShardedFetcher.DEFAULT_SHARD_SPAN_MILLIS + 1));
+    }
+
+    @Test
+    public void merge_ordersTheShardsAndDropsEventsOnTheirBoundary() {
+        Earthquake boundary = earthquake("us3", 5.0, START + DAY);
+        List<Earthquake> older = Arrays.asList(boundary, earthquake("us1", 4.0, START + 1000L));
+        List<Earthquake> newer = Arrays.asList(earthquake("us5", 3.0, START + 2 * DAY - 1),
+                earthquake("us4", 6.0, START + DAY + 1), boundary);
+
+        List<Earthquake> merged = ShardedFetcher.merge(Arrays.asList(older, newer),
+                QueryUtils.comparatorForOrderBy("time"));
+
+        assertEquals(Arrays.asList("us5", "us4", "us3", "us1"), ids(merged));
+    }
+
+    @Test
+    public void merge_followsTheOrderOfTheQuery() {
+        List<Earthquake> older = Arrays.asList(earthquake("us1", 6.0, START), earthquake("us2", 2.0, START + 1));
+        List<Earthquake> newer = Arrays.asList(earthquake("us3", 5.0, START + DAY), earthquake("us4", 3.0, START + DAY + 1));
+
+        assertEquals(Arrays.asList("us1", "us3", "us4", "us2"), ids(ShardedFetcher.merge(
+                Arrays.asList(older, newer), QueryUtils.comparatorForOrderBy("magnitude"))));
+        // Without a known order the shards are kept as they are, oldest first
+        assertEquals(Arrays.asList("us1", "us2", "us3", "us4"), ids(ShardedFetcher.merge(
+                Arrays.asList(older, newer), null)));
+    }
+
+    @Test
+    public void fetch_retriesAFailedShard() {
+        final List<String> urls = ShardedFetcher.buildShardUrls(BASE_URL, START, START + 2 * DAY, 2);
+        final Map<String, List<Earthquake>> responses = new HashMap<>();
+        responses.put(urls.get(0), Collections.singletonList(earthquake("us1", 4.0, START + 1000L)));
+        responses.put(urls.get(1), Collections.singletonList(earthquake("us2", 4.0, START + DAY + 1000L)));
+        final AtomicInteger failures = new AtomicInteger(1);
+        final AtomicInteger requests = new AtomicInteger();
+        ShardedFetcher fetcher = new ShardedFetcher(new ShardedFetcher.Source() {
+            @Override
+            public List<Earthquake> fetch(String requestUrl) {
+                requests.incrementAndGet();
+                if (requestUrl.equals(urls.get(1)) && failures.getAndDecrement() > 0) {
+                    return null;
+                }
+                return responses.get(requestUrl);
+            }
+        }, mExecutor, 3);
+
+        List<Earthquake> earthquakes = fetcher.fetch(BASE_URL, START, START + 2 * DAY, 2);
+
+        assertEquals(Arrays.asList("us2", "us1"), ids(earthquakes));
+        assertEquals(3, requests.get());
+    }
+
+    @Test
+    public void fetch_appliesTheLimitToTheWholeWindow() {
+        final List<String> urls = ShardedFetcher.buildShardUrls(BASE_URL, START, START + 2 * DAY, 2);
+        final Map<String, List<Earthquake>> responses = new HashMap<>();
+        // Each shard answers its own first two rows, newest first
+        responses.put(urls.get(0), Arrays.asList(earthquake("us2", 4.0, START + 2000L),
+                earthquake("us1", 4.0, START + 1000L)));
+        responses.put(urls.get(1), Arrays.asList(earthquake("us4", 4.0, START + DAY + 2000L),
+                earthquake("us3", 4.0, START + DAY + 1000L)));
+        ShardedFetcher fetcher = new ShardedFetcher(new ShardedFetcher.Source() {
+            @Override
+            public List<Earthquake> fetch(String requestUrl) {
+                return responses.get(QueryUtils.removeQueryParameter(requestUrl, "limit"));
+            }
+        }, mExecutor, 1);
+
+        assertEquals(Arrays.asList("us4", "us3"),
+                ids(fetcher.fetch(BASE_URL + "&limit=2", START, START + 2 * DAY, 2)));
+        assertEquals(Arrays.asList("us4", "us3", "us2", "us1"),
+                ids(fetcher.fetch(BASE_URL + "&limit=10", START, START + 2 * DAY, 2)));
+    }
+
+    @Test
+    public void fetch_failsOnceAShardRunsOutOfAttempts() {
+        final AtomicInteger requests = new AtomicInteger();
+        ShardedFetcher fetcher = new ShardedFetcher(new ShardedFetcher.Source() {
+            @Override
+            public List<Earthquake> fetch(String requestUrl) {
+                requests.incrementAndGet();
+                return null;
+            }
+        }, mExecutor, 2);
+
+        assertNull(fetcher.fetch(BASE_URL, START, START + DAY, 1));
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void cancel_stopsTheFetch() {
+        final List<String> requested = Collections.synchronizedList(new ArrayList<String>());
+        ShardedFetcher fetcher = new ShardedFetcher(new ShardedFetcher.Source() {
+            @Override
+            public List<Earthquake> fetch(String requestUrl) {
+                requested.add(requestUrl);
+                return Collections.emptyList();
+            }
+        }, mExecutor, 3);
+        fetcher.cancel();
+
+        assertNull(fetcher.fetch(BASE_URL, START, START + 2 * DAY, 2));
+        assertTrue(fetcher.isCanceled());
+        assertTrue(requested.isEmpty());
+    }
+
+    private static List<String> ids(List<Earthquake> earthquakes) {
+        return MultiSourceIngestorTest.ids(earthquakes);
+    }
+}
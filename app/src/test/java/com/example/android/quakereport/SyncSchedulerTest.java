@@ -0,0 +1,203 @@
+package com.example.android.quakereport;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Steps a {@link SyncScheduler} through its schedule with a {@link FakeClock}. Syncs run on the
+ * thread that starts them.
+ */
+public class SyncSchedulerTest {
+
+    private static final long INTERVAL = 60 * 1000L;
+    private static final long INITIAL_BACKOFF = 1000L;
+    private static final long MAX_BACKOFF = 16 * 1000L;
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private FakeClock mClock;
+    private StubTask mTask;
+    private StubConnectivity mConnectivity;
+    private FixedRandom mRandom;
+    private SyncScheduler mScheduler;
+
+    @Before
+    public void setUp() {
+        mClock = new FakeClock(1000000L);
+        mTask = new StubTask();
+        mConnectivity = new StubConnectivity();
+        mRandom = new FixedRandom();
+        mScheduler = new SyncScheduler(mTask, mClock, DIRECT, mConnectivity, mRandom);
+        mScheduler.setIntervalMillis(INTERVAL);
+        mScheduler.setBackoffMillis(INITIAL_BACKOFF, MAX_BACKOFF);
+    }
+
+    @Test
+    public void start_syncsAtOnceThenEveryInterval() {
+        mScheduler.start();
+        assertEquals(1, mTask.runs);
+        assertEquals(mClock.now() + INTERVAL, mScheduler.getNextSyncTime());
+
+        mClock.advance(INTERVAL - 1);
+        assertEquals(1, mTask.runs);
+        mClock.advance(1);
+        assertEquals(2, mTask.runs);
+        mClock.advance(3 * INTERVAL);
+        assertEquals(5, mTask.runs);
+    }
+
+    @Test
+    public void restart_waitsOutTheIntervalSinceTheLastSuccess() {
+        mScheduler.start();
+        mClock.advance(INTERVAL / 4);
+        mScheduler.stop();
+        assertEquals(0, mClock.getPendingCount());
+
+        mScheduler.start();
+        assertEquals(1, mTask.runs);
+        mClock.advance(INTERVAL - INTERVAL / 4);
+        assertEquals(2, mTask.runs);
+    }
+
+    @Test
+    public void failures_backOffExponentiallyUpToTheMaximum() {
+        // Jitter picks the low end of the upper half
+        mRandom.value = 0.0;
+        mTask.succeed = false;
+        mScheduler.start();
+
+        long[] expected = {500, 1000, 2000, 4000, 8000, 8000, 8000};
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(i + 1, mScheduler.getConsecutiveFailures());
+            assertEquals(expected[i], mScheduler.getNextSyncTime() - mClock.now());
+            mClock.advance(expected[i]);
+        }
+    }
+
+    @Test
+    public void backoff_jitterStaysInTheUpperHalf() {
+        mRandom.value = 0.999999;
+        mTask.succeed = false;
+        mScheduler.start();
+
+        assertEquals(INITIAL_BACKOFF, mScheduler.getNextSyncTime() - mClock.now());
+    }
+
+    @Test
+    public void success_resetsTheBackoff() {
+        mTask.succeed = false;
+        mScheduler.start();
+        mClock.advance(mScheduler.getNextSyncTime() - mClock.now());
+        assertEquals(2, mScheduler.getConsecutiveFailures());
+
+        mTask.succeed = true;
+        mClock.advance(mScheduler.getNextSyncTime() - mClock.now());
+        assertEquals(0, mScheduler.getConsecutiveFailures());
+        assertEquals(mClock.now() + INTERVAL, mScheduler.getNextSyncTime());
+    }
+
+    @Test
+    public void requestsDuringASync_areCoalescedIntoOneMore() {
+        mScheduler.start();
+        mTask.requestsDuringNextRun = 5;
+        mScheduler.requestSync();
+
+        // The requested sync, then one more for the five requests made while it ran
+        assertEquals(3, mTask.runs);
+        assertFalse(mScheduler.isRunning());
+        assertEquals(mClock.now() + INTERVAL, mScheduler.getNextSyncTime());
+    }
+
+    @Test
+    public void requestsDuringAFailedSync_doNotSkipTheBackoff() {
+        mScheduler.start();
+        mTask.succeed = false;
+        mTask.requestsDuringNextRun = 3;
+        mScheduler.requestSync();
+
+        assertEquals(2, mTask.runs);
+        assertEquals(1, mScheduler.getConsecutiveFailures());
+        assertTrue(mScheduler.getNextSyncTime() > mClock.now());
+    }
+
+    @Test
+    public void offline_holdsTheSyncUntilConnected() {
+        mConnectivity.connected = false;
+        mScheduler.start();
+        assertEquals(0, mTask.runs);
+        assertTrue(mScheduler.isWaitingForConnectivity());
+        assertEquals(Long.MIN_VALUE, mScheduler.getNextSyncTime());
+
+        mClock.advance(10 * INTERVAL);
+        assertEquals(0, mTask.runs);
+
+        mConnectivity.connected = true;
+        mScheduler.onConnectivityChanged();
+        assertEquals(1, mTask.runs);
+        assertFalse(mScheduler.isWaitingForConnectivity());
+    }
+
+    @Test
+    public void stop_cancelsTheNextSync() {
+        mScheduler.start();
+        mScheduler.stop();
+        mClock.advance(10 * INTERVAL);
+        mScheduler.requestSync();
+
+        assertEquals(1, mTask.runs);
+        assertEquals(Long.MIN_VALUE, mScheduler.getNextSyncTime());
+    }
+
+    private final class StubTask implements SyncScheduler.SyncTask {
+        boolean succeed = true;
+        int requestsDuringNextRun;
+        int runs;
+
+        @Override
+        public boolean sync() {
+            runs++;
+            int requests = requestsDuringNextRun;
+            requestsDuringNextRun = 0;
+            for (int i = 0; i < requests; i++) {
+                mScheduler.requestSync();
+            }
+            return succeed;
+        }
+    }
+
+    private static final class StubConnectivity implements SyncScheduler.Connectivity {
+        boolean connected = true;
+
+        @Override
+        public boolean isConnected() {
+            return connected;
+        }
+    }
+
+    /**
+     * A Random whose jitter is chosen by the test. SyncScheduler takes a Random, so this has to
+     * extend it, and Random is Serializable.
+     */
+    private static final class FixedRandom extends Random {
+        private static final long serialVersionUID = 1L;
+
+        double value = 0.5;
+
+        @Override
+        public double nextDouble() {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.android.quakereport;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Runs the transport against a stub server on the loopback interface.
+ */
+public class UrlConnectionTransportTest {
+
+    private static final byte[] BODY = "{\"type\":\"FeatureCollection\",\"features\":[]}".getBytes();
+
+    private HttpServer mServer;
+    private final List<Integer> mClientPorts = Collections.synchronizedList(new ArrayList<Integer>());
+    private final List<String> mAcceptEncodings = Collections.synchronizedList(new ArrayList<String>());
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        mServer.createContext("/query", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                mClientPorts.add(exchange.getRemoteAddress().getPort());
+                mAcceptEncodings.add(exchange.getRequestHeaders().getFirst("Accept-Encoding"));
+                if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    exchange.sendResponseHeaders(304, -1);
+                    exchange.close();
+                    return;
+                }
+                byte[] body = HttpResponseTest.gzip(BODY);
+                exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+                exchange.getResponseHeaders().add("ETag", "\"v1\"");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        mServer.createContext("/missing", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] body = "not found".getBytes();
+                exchange.sendResponseHeaders(404, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        mServer.start();
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop(0);
+    }
+
+    @Test
+    public void get_sendsHeadersAndDecodesGzipBody() throws IOException {
+        HttpResponse response = new UrlConnectionTransport().get(url("/query"),
+                Collections.singletonMap("Accept-Encoding", "gzip"));
+        try {
+            assertEquals(200, response.getCode());
+            assertEquals("\"v1\"", response.getHeader("etag"));
+            assertArrayEquals(BODY, HttpResponseTest.readAll(response.getBody()));
+        } finally {
+            response.close();
+        }
+        assertEquals("gzip", mAcceptEncodings.get(0));
+    }
+
+    @Test
+    public void get_notModifiedHasNoBody() throws IOException {
+        HttpResponse response = new UrlConnectionTransport().get(url("/query"),
+                Collections.singletonMap("If-None-Match", "\"v1\""));
+        response.close();
+
+        assertEquals(304, response.getCode());
+        assertNull(response.getBody());
+    }
+
+    @Test
+    public void get_errorResponseCarriesErrorBody() throws IOException {
+        HttpResponse response = new UrlConnectionTransport().get(url("/missing"),
+                Collections.<String, String>emptyMap());
+        try {
+            assertEquals(404, response.getCode());
+            assertArrayEquals("not found".getBytes(), HttpResponseTest.readAll(response.getBody()));
+        } finally {
+            response.close();
+        }
+    }
+
+    @Test
+    public void closedResponses_leaveTheirConnectionForTheNextRequest() throws IOException {
+        UrlConnectionTransport transport = new UrlConnectionTransport();
+        for (int i = 0; i < 3; i++) {
+            HttpResponse response = transport.get(url("/query"),
+                    Collections.singletonMap("Accept-Encoding", "gzip"));
+            // Read only part of the body, close() drains the rest
+            response.getBody().read(new byte[4]);
+            response.close();
+        }
+
+        assertEquals(3, mClientPorts.size());
+        assertEquals(mClientPorts.get(0), mClientPorts.get(1));
+        assertEquals(mClientPorts.get(0), mClientPorts.get(2));
+    }
+
+    private URL url(String path) throws IOException {
+        return new URL("http://127.0.0.1:" + mServer.getAddress().getPort() + path);
+    }
+}